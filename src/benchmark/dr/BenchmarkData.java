@@ -0,0 +1,94 @@
+/*
+ * BenchmarkData.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package benchmark.dr;
+
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.coalescent.CoalescentSimulator;
+import dr.evolution.coalescent.ConstantPopulation;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.Units;
+import dr.math.MathUtils;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generates the datasets used by the benchmarks. Everything is drawn from a fixed seed so that
+ * each run of a benchmark sees the same data for a given size.
+ */
+public class BenchmarkData {
+
+    public static final long SEED = 666;
+
+    static {
+        // the models log their construction which would swamp the JMH output
+        Logger.getLogger("dr").setLevel(Level.WARNING);
+    }
+
+    public static Taxa createTaxa(int taxonCount) {
+        Taxa taxa = new Taxa();
+        for (int i = 0; i < taxonCount; i++) {
+            taxa.addTaxon(new Taxon("taxon" + (i + 1)));
+        }
+        return taxa;
+    }
+
+    /**
+     * @return a tree simulated under a constant size coalescent (N0 = 1)
+     */
+    public static Tree createTree(int taxonCount) {
+        MathUtils.setSeed(SEED);
+        ConstantPopulation demographic = new ConstantPopulation(Units.Type.YEARS);
+        demographic.setN0(1.0);
+        return new CoalescentSimulator().simulateTree(createTaxa(taxonCount), demographic);
+    }
+
+    /**
+     * @return an alignment of uniformly random nucleotides (the likelihood cost does not depend on the signal)
+     */
+    public static SimpleAlignment createAlignment(Tree tree, int siteCount) {
+        MathUtils.setSeed(SEED);
+        SimpleAlignment alignment = new SimpleAlignment();
+        alignment.setDataType(Nucleotides.INSTANCE);
+
+        char[] states = {'A', 'C', 'G', 'T'};
+        for (int i = 0; i < tree.getExternalNodeCount(); i++) {
+            StringBuilder builder = new StringBuilder(siteCount);
+            for (int j = 0; j < siteCount; j++) {
+                builder.append(states[MathUtils.nextInt(states.length)]);
+            }
+            Sequence sequence = new Sequence(builder.toString());
+            sequence.setTaxon(tree.getTaxon(i));
+            sequence.setDataType(Nucleotides.INSTANCE);
+            alignment.addSequence(sequence);
+        }
+        return alignment;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * SitePatternsBenchmark.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package benchmark.dr.evolution.alignment;
+
+import benchmark.dr.BenchmarkData;
+import dr.evolution.alignment.Alignment;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.tree.Tree;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compressing an alignment into its unique site patterns, as done when each partition is loaded.
+ * The columns are random so nearly every site is a new pattern which is the worst case for finding
+ * repeats.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class SitePatternsBenchmark {
+
+    @Param({"100", "1000"})
+    public int taxonCount;
+
+    @Param({"1000", "10000", "30000"})
+    public int siteCount;
+
+    @Setup
+    public void setup() {
+        Tree tree = BenchmarkData.createTree(taxonCount);
+        alignment = BenchmarkData.createAlignment(tree, siteCount);
+    }
+
+    @Benchmark
+    public SitePatterns compressPatterns() {
+        return new SitePatterns(alignment);
+    }
+
+    private Alignment alignment;
+}
@@ -0,0 +1,81 @@
+/*
+ * NexusImporterBenchmark.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package benchmark.dr.evolution.io;
+
+import benchmark.dr.BenchmarkData;
+import dr.evolution.io.NexusImporter;
+import dr.evolution.tree.Tree;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a NEXUS trees block of the form written by the tree logger.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class NexusImporterBenchmark {
+
+    @Param({"32", "128", "512"})
+    public int taxonCount;
+
+    @Param({"100"})
+    public int treeCount;
+
+    @Setup
+    public void setup() {
+        Tree tree = BenchmarkData.createTree(taxonCount);
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("#NEXUS\n\n");
+        builder.append("Begin taxa;\n");
+        builder.append("\tDimensions ntax=").append(taxonCount).append(";\n");
+        builder.append("\tTaxlabels\n");
+        for (int i = 0; i < tree.getTaxonCount(); i++) {
+            builder.append("\t\t").append(tree.getTaxonId(i)).append("\n");
+        }
+        builder.append("\t\t;\nEnd;\n\n");
+        builder.append("Begin trees;\n");
+        String newick = Tree.Utils.newick(tree);
+        for (int i = 0; i < treeCount; i++) {
+            builder.append("tree STATE_").append(i * 1000).append(" = [&R] ").append(newick).append("\n");
+        }
+        builder.append("End;\n");
+        nexus = builder.toString();
+    }
+
+    @Benchmark
+    public Tree[] importTrees() throws Exception {
+        return new NexusImporter(new StringReader(nexus)).importTrees(null);
+    }
+
+    private String nexus;
+}
@@ -0,0 +1,127 @@
+/*
+ * CoalescentLikelihoodBenchmark.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package benchmark.dr.evomodel.coalescent;
+
+import benchmark.dr.BenchmarkData;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.util.TaxonList;
+import dr.evolution.util.Units;
+import dr.evomodel.coalescent.CoalescentLikelihood;
+import dr.evomodel.coalescent.ConstantPopulationModel;
+import dr.evomodel.coalescent.GMRFSkyrideLikelihood;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The constant size coalescent and the GMRF skyride: a node height change followed by a restore
+ * (the pattern of the tree operators) and a change to a population size parameter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class CoalescentLikelihoodBenchmark {
+
+    @Param({"32", "128", "512"})
+    public int taxonCount;
+
+    @Setup
+    public void setup() throws Exception {
+        treeModel = new TreeModel("treeModel", BenchmarkData.createTree(taxonCount));
+
+        populationSize = new Parameter.Default("popSize", 1.0, 0, Double.POSITIVE_INFINITY);
+        coalescent = new CoalescentLikelihood(treeModel, null, new ArrayList<TaxonList>(),
+                new ConstantPopulationModel(populationSize, Units.Type.YEARS));
+
+        int intervalCount = taxonCount - 1;
+        skyridePopulationSizes = new Parameter.Default("skyride.logPopSize", intervalCount, 0.0);
+        skyride = new GMRFSkyrideLikelihood(treeModel,
+                skyridePopulationSizes,
+                new Parameter.Default("skyride.groupSize", intervalCount, 1.0),
+                new Parameter.Default("skyride.precision", 1, 1.0),
+                new Parameter.Default("skyride.lambda", 1, 1.0),
+                null, null, false, true);
+
+        coalescent.getLogLikelihood();
+        skyride.getLogLikelihood();
+
+        node = treeModel.getInternalNode(treeModel.getInternalNodeCount() / 2);
+        if (node == treeModel.getRoot()) {
+            node = treeModel.getInternalNode(0);
+        }
+    }
+
+    @Benchmark
+    public double constantNodeHeightChangeAndRestore() {
+        coalescent.storeModelState();
+        changeNodeHeight();
+        double logL = coalescent.getLogLikelihood();
+        coalescent.restoreModelState();
+        return logL;
+    }
+
+    @Benchmark
+    public double constantFullEvaluation() {
+        coalescent.makeDirty();
+        return coalescent.getLogLikelihood();
+    }
+
+    @Benchmark
+    public double skyrideNodeHeightChangeAndRestore() {
+        skyride.storeModelState();
+        changeNodeHeight();
+        double logL = skyride.getLogLikelihood();
+        skyride.restoreModelState();
+        return logL;
+    }
+
+    @Benchmark
+    public double skyridePopulationSizeChange() {
+        int index = taxonCount / 2;
+        skyridePopulationSizes.setParameterValue(index, skyridePopulationSizes.getParameterValue(index) == 0.0 ? 0.1 : 0.0);
+        return skyride.getLogLikelihood();
+    }
+
+    private void changeNodeHeight() {
+        double height = treeModel.getNodeHeight(node);
+        double lower = Math.max(treeModel.getNodeHeight(treeModel.getChild(node, 0)),
+                treeModel.getNodeHeight(treeModel.getChild(node, 1)));
+        treeModel.setNodeHeight(node, lower + 0.5 * (height - lower));
+    }
+
+    private TreeModel treeModel;
+    private Parameter populationSize;
+    private Parameter skyridePopulationSizes;
+    private CoalescentLikelihood coalescent;
+    private GMRFSkyrideLikelihood skyride;
+    private NodeRef node;
+}
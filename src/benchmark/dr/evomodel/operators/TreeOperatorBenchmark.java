@@ -0,0 +1,106 @@
+/*
+ * TreeOperatorBenchmark.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package benchmark.dr.evomodel.operators;
+
+import benchmark.dr.BenchmarkData;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.operators.SubtreeSlideOperator;
+import dr.evomodel.operators.WilsonBalding;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.operators.CoercionMode;
+import dr.inference.operators.OperatorFailedException;
+import dr.inference.operators.SimpleMCMCOperator;
+import dr.math.MathUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The tree moves as the chain uses them: store the tree, make the move and restore it. No likelihood
+ * is attached so this measures the operator and the TreeModel bookkeeping alone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class TreeOperatorBenchmark {
+
+    @Param({"32", "128", "512"})
+    public int taxonCount;
+
+    @Setup
+    public void setup() {
+        treeModel = new TreeModel("treeModel", BenchmarkData.createTree(taxonCount));
+
+        subtreeSlide = new SubtreeSlideOperator(treeModel, 1.0, treeModel.getNodeHeight(treeModel.getRoot()) / 10.0,
+                true, false, false, false, CoercionMode.COERCION_OFF);
+        narrowExchange = new ExchangeOperator(ExchangeOperator.NARROW, treeModel, 1.0);
+        wideExchange = new ExchangeOperator(ExchangeOperator.WIDE, treeModel, 1.0);
+        wilsonBalding = new WilsonBalding(treeModel, 1.0);
+
+        MathUtils.setSeed(BenchmarkData.SEED);
+    }
+
+    @Benchmark
+    public double subtreeSlide() {
+        return operateAndRestore(subtreeSlide);
+    }
+
+    @Benchmark
+    public double narrowExchange() {
+        return operateAndRestore(narrowExchange);
+    }
+
+    @Benchmark
+    public double wideExchange() {
+        return operateAndRestore(wideExchange);
+    }
+
+    @Benchmark
+    public double wilsonBalding() {
+        return operateAndRestore(wilsonBalding);
+    }
+
+    private double operateAndRestore(SimpleMCMCOperator operator) {
+        treeModel.storeModelState();
+        double hastingsRatio;
+        try {
+            hastingsRatio = operator.doOperation();
+        } catch (OperatorFailedException e) {
+            hastingsRatio = Double.NEGATIVE_INFINITY;
+        }
+        treeModel.restoreModelState();
+        return hastingsRatio;
+    }
+
+    private TreeModel treeModel;
+    private SimpleMCMCOperator subtreeSlide;
+    private SimpleMCMCOperator narrowExchange;
+    private SimpleMCMCOperator wideExchange;
+    private SimpleMCMCOperator wilsonBalding;
+}
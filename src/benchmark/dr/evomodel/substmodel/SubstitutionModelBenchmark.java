@@ -0,0 +1,148 @@
+/*
+ * SubstitutionModelBenchmark.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package benchmark.dr.evomodel.substmodel;
+
+import benchmark.dr.BenchmarkData;
+import dr.evolution.datatype.Codons;
+import dr.evolution.datatype.Nucleotides;
+import dr.evomodel.substmodel.DefaultEigenSystem;
+import dr.evomodel.substmodel.EigenDecomposition;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.codon.GY94CodonModel;
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The eigen decomposition of rate matrices: through HKY and GY94 after a parameter change (including
+ * the setup of the rate matrix) and directly for random reversible matrices of nucleotide, amino acid
+ * and codon size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class SubstitutionModelBenchmark {
+
+    @Param({"4", "20", "61"})
+    public int stateCount;
+
+    @Setup
+    public void setup() {
+        MathUtils.setSeed(BenchmarkData.SEED);
+
+        kappa = new Parameter.Default("kappa", 2.0, 0, 100);
+        hky = new HKY(kappa, new FrequencyModel(Nucleotides.INSTANCE,
+                new Parameter.Default(new double[]{0.25, 0.25, 0.25, 0.25})));
+
+        double[] codonFrequencies = new double[Codons.UNIVERSAL.getStateCount()];
+        for (int i = 0; i < codonFrequencies.length; i++) {
+            codonFrequencies[i] = 1.0 / codonFrequencies.length;
+        }
+        omega = new Parameter.Default("omega", 0.5, 0, 100);
+        codonModel = new GY94CodonModel(Codons.UNIVERSAL, omega, new Parameter.Default("kappa", 2.0, 0, 100),
+                new FrequencyModel(Codons.UNIVERSAL, new Parameter.Default(codonFrequencies)));
+
+        eigenSystem = new DefaultEigenSystem(stateCount);
+        rateMatrix = createRateMatrix(stateCount);
+        matrix = new double[stateCount][stateCount];
+    }
+
+    @Benchmark
+    public EigenDecomposition hkyParameterChange() {
+        kappa.setParameterValue(0, kappa.getParameterValue(0) == 2.0 ? 2.5 : 2.0);
+        return hky.getEigenDecomposition();
+    }
+
+    @Benchmark
+    public EigenDecomposition codonParameterChange() {
+        omega.setParameterValue(0, omega.getParameterValue(0) == 0.5 ? 0.6 : 0.5);
+        return codonModel.getEigenDecomposition();
+    }
+
+    @Benchmark
+    public EigenDecomposition decomposeMatrix() {
+        // decomposeMatrix works in place
+        for (int i = 0; i < stateCount; i++) {
+            System.arraycopy(rateMatrix[i], 0, matrix[i], 0, stateCount);
+        }
+        return eigenSystem.decomposeMatrix(matrix);
+    }
+
+    /**
+     * @return a normalized reversible rate matrix with random exchangeabilities and frequencies
+     */
+    private static double[][] createRateMatrix(int stateCount) {
+        double[] frequencies = new double[stateCount];
+        double sum = 0.0;
+        for (int i = 0; i < stateCount; i++) {
+            frequencies[i] = 0.5 + MathUtils.nextDouble();
+            sum += frequencies[i];
+        }
+        for (int i = 0; i < stateCount; i++) {
+            frequencies[i] /= sum;
+        }
+
+        double[][] q = new double[stateCount][stateCount];
+        for (int i = 0; i < stateCount; i++) {
+            for (int j = i + 1; j < stateCount; j++) {
+                double rate = 0.1 + MathUtils.nextDouble();
+                q[i][j] = rate * frequencies[j];
+                q[j][i] = rate * frequencies[i];
+            }
+        }
+
+        double total = 0.0;
+        for (int i = 0; i < stateCount; i++) {
+            double rowSum = 0.0;
+            for (int j = 0; j < stateCount; j++) {
+                rowSum += q[i][j];
+            }
+            q[i][i] = -rowSum;
+            total += frequencies[i] * rowSum;
+        }
+        for (int i = 0; i < stateCount; i++) {
+            for (int j = 0; j < stateCount; j++) {
+                q[i][j] /= total;
+            }
+        }
+        return q;
+    }
+
+    private Parameter kappa;
+    private Parameter omega;
+    private HKY hky;
+    private GY94CodonModel codonModel;
+
+    private DefaultEigenSystem eigenSystem;
+    private double[][] rateMatrix;
+    private double[][] matrix;
+}
@@ -0,0 +1,132 @@
+/*
+ * TreeDataLikelihoodBenchmark.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package benchmark.dr.evomodel.treedatalikelihood;
+
+import benchmark.dr.BenchmarkData;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evomodel.branchmodel.HomogeneousBranchModel;
+import dr.evomodel.branchratemodel.DefaultBranchRateModel;
+import dr.evomodel.siteratemodel.GammaSiteRateModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.nucleotide.HKY;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treedatalikelihood.BeagleDataLikelihoodDelegate;
+import dr.evomodel.treedatalikelihood.TreeDataLikelihood;
+import dr.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.inference.model.Parameter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TreeDataLikelihood (HKY+G4) using BEAGLE's Java implementation: a full evaluation, a single
+ * node height change (partial update of the path to the root) with restore and a substitution
+ * model parameter change.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.only=true"})
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class TreeDataLikelihoodBenchmark {
+
+    @Param({"16", "64", "256"})
+    public int taxonCount;
+
+    @Param({"1000"})
+    public int siteCount;
+
+    @Setup
+    public void setup() {
+        // also set by the fork arguments but needed when run in-process
+        System.setProperty("java.only", "true");
+
+        Tree tree = BenchmarkData.createTree(taxonCount);
+        treeModel = new TreeModel("treeModel", tree);
+        SitePatterns patterns = new SitePatterns(BenchmarkData.createAlignment(tree, siteCount));
+
+        FrequencyModel frequencies = new FrequencyModel(Nucleotides.INSTANCE,
+                new Parameter.Default(new double[]{0.25, 0.25, 0.25, 0.25}));
+        kappa = new Parameter.Default("kappa", 2.0, 0, 100);
+        HKY hky = new HKY(kappa, frequencies);
+
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("siteRateModel", 0.5, 4);
+        siteRateModel.setSubstitutionModel(hky);
+
+        BeagleDataLikelihoodDelegate delegate = new BeagleDataLikelihoodDelegate(
+                treeModel,
+                patterns,
+                new HomogeneousBranchModel(hky, frequencies),
+                siteRateModel,
+                false,
+                PartialsRescalingScheme.DEFAULT,
+                false);
+
+        likelihood = new TreeDataLikelihood(delegate, treeModel, new DefaultBranchRateModel());
+        likelihood.getLogLikelihood();
+
+        // an internal node half way down the tree
+        node = treeModel.getInternalNode(treeModel.getInternalNodeCount() / 2);
+        if (node == treeModel.getRoot()) {
+            node = treeModel.getInternalNode(0);
+        }
+    }
+
+    @Benchmark
+    public double fullEvaluation() {
+        likelihood.makeDirty();
+        return likelihood.getLogLikelihood();
+    }
+
+    @Benchmark
+    public double nodeHeightChangeAndRestore() {
+        likelihood.getModel().storeModelState();
+
+        double height = treeModel.getNodeHeight(node);
+        double lower = Math.max(treeModel.getNodeHeight(treeModel.getChild(node, 0)),
+                treeModel.getNodeHeight(treeModel.getChild(node, 1)));
+        treeModel.setNodeHeight(node, lower + 0.5 * (height - lower));
+        double logL = likelihood.getLogLikelihood();
+
+        likelihood.getModel().restoreModelState();
+        return logL;
+    }
+
+    @Benchmark
+    public double substitutionParameterChange() {
+        kappa.setParameterValue(0, kappa.getParameterValue(0) == 2.0 ? 2.5 : 2.0);
+        return likelihood.getLogLikelihood();
+    }
+
+    private TreeModel treeModel;
+    private Parameter kappa;
+    private TreeDataLikelihood likelihood;
+    private NodeRef node;
+}
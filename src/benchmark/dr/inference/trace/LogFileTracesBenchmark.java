@@ -0,0 +1,94 @@
+/*
+ * LogFileTracesBenchmark.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package benchmark.dr.inference.trace;
+
+import benchmark.dr.BenchmarkData;
+import dr.inference.trace.LogFileTraces;
+import dr.math.MathUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a tab-delimited log file of the form written by the MCMC loggers, as Tracer and
+ * LogCombiner do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class LogFileTracesBenchmark {
+
+    @Param({"1000", "10000"})
+    public int stateCount;
+
+    @Param({"20", "200"})
+    public int columnCount;
+
+    @Setup
+    public void setup() throws IOException {
+        MathUtils.setSeed(BenchmarkData.SEED);
+
+        logFile = File.createTempFile("benchmark", ".log");
+        logFile.deleteOnExit();
+
+        PrintWriter writer = new PrintWriter(new FileWriter(logFile));
+        writer.println("# BEAST benchmark log");
+        writer.print("state");
+        for (int j = 0; j < columnCount; j++) {
+            writer.print("\tparameter" + (j + 1));
+        }
+        writer.println();
+        for (int i = 0; i < stateCount; i++) {
+            writer.print(i * 1000);
+            for (int j = 0; j < columnCount; j++) {
+                writer.print("\t" + MathUtils.nextGaussian());
+            }
+            writer.println();
+        }
+        writer.close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        logFile.delete();
+    }
+
+    @Benchmark
+    public LogFileTraces loadTraces() throws Exception {
+        LogFileTraces traces = new LogFileTraces(logFile.getName(), logFile);
+        traces.loadTraces();
+        return traces;
+    }
+
+    private File logFile;
+}
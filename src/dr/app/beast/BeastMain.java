@@ -32,6 +32,7 @@ import dr.app.plugin.PluginLoader;
 import dr.app.util.Arguments;
 import dr.app.util.Utils;
 import dr.inference.mcmc.MCMC;
+import dr.inference.mcmc.MarginalLikelihoodEstimator;
 import dr.inference.mcmcmc.MCMCMC;
 import dr.inference.mcmcmc.MCMCMCOptions;
 import dr.math.MathUtils;
@@ -155,6 +156,10 @@ public class BeastMain {
             }
 
             if (!useMC3) {
+                // allow concurrent path sampling to make copies of the model by parsing the file again
+                MarginalLikelihoodEstimator.setWorkerFactory(
+                        new ReparsingWorkerFactory(inputFile, additionalParsers, parserWarning, strictXML));
+
                 // just parse the file running all threads...
 
                 parser.parse(fileReader, true);
@@ -0,0 +1,220 @@
+/*
+ * ReparsingWorkerFactory.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.app.beast;
+
+import dr.app.plugin.Plugin;
+import dr.app.plugin.PluginLoader;
+import dr.evomodelxml.tree.HiddenLinkageLoggerParser;
+import dr.evomodelxml.tree.TreeLoggerParser;
+import dr.inference.loggers.Logger;
+import dr.inference.mcmc.MarginalLikelihoodEstimator;
+import dr.inference.model.PathLikelihood;
+import dr.inferencexml.loggers.LoggerParser;
+import dr.inferencexml.loggers.MLLoggerParser;
+import dr.inferencexml.loggers.MetricsLoggerParser;
+import dr.util.FileHelpers;
+import dr.xml.XMLObjectParser;
+import dr.xml.XMLParseException;
+import dr.xml.XMLParser;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.util.*;
+
+/**
+ * Creates independent copies of a marginal likelihood estimator by parsing the BEAST XML file
+ * again (in the same way as the hot chains of MC3 are created). Only the estimator and the elements
+ * it refers to are parsed, the loggers of the copies do not open the files of the original and the
+ * copies do not repeat the pre-run.
+ */
+public class ReparsingWorkerFactory implements MarginalLikelihoodEstimator.WorkerFactory {
+
+    public ReparsingWorkerFactory(File inputFile, List<String> additionalParsers, boolean parserWarning, boolean strictXML) {
+        this.inputFile = inputFile;
+        this.additionalParsers = additionalParsers;
+        this.parserWarning = parserWarning;
+        this.strictXML = strictXML;
+    }
+
+    public MarginalLikelihoodEstimator createWorker(MarginalLikelihoodEstimator estimator) throws Exception {
+        XMLParser parser = new BeastParser(new String[]{inputFile.getName()}, additionalParsers, false, parserWarning, strictXML);
+
+        for (String pluginName : PluginLoader.getAvailablePlugins()) {
+            Plugin plugin = PluginLoader.loadPlugin(pluginName);
+            if (plugin != null) {
+                Set<XMLObjectParser> parserSet = plugin.getParsers();
+                for (XMLObjectParser pluginParser : parserSet) {
+                    parser.addXMLObjectParser(pluginParser);
+                }
+            }
+        }
+
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(inputFile);
+
+        // only keep the estimator being copied (identified by its path likelihood) and what it refers to
+        Element estimatorElement = findEstimator(document, estimator.getPathLikelihood().getId());
+        pruneToEstimator(document, estimatorElement);
+
+        // the copies must not open (and so truncate) the output files of the original
+        detachFileLoggers(document, parser);
+
+        // the copies are started from the state of the original
+        removeAttribute(document, MarginalLikelihoodEstimator.MARGINAL_LIKELIHOOD_ESTIMATOR, MarginalLikelihoodEstimator.PRERUN);
+
+        MarginalLikelihoodEstimator worker;
+        XMLParser.setDiscardingOutput(true);
+        try {
+            worker = (MarginalLikelihoodEstimator) parser.parse(document, MarginalLikelihoodEstimator.class);
+        } finally {
+            XMLParser.setDiscardingOutput(false);
+        }
+        if (worker == null) {
+            throw new XMLParseException("BEAST XML file is missing a " + MarginalLikelihoodEstimator.MARGINAL_LIKELIHOOD_ESTIMATOR + " element");
+        }
+        return worker;
+    }
+
+    private static Element findEstimator(Document document, String pathLikelihoodId) throws XMLParseException {
+        NodeList estimators = document.getElementsByTagName(MarginalLikelihoodEstimator.MARGINAL_LIKELIHOOD_ESTIMATOR);
+        if (estimators.getLength() == 1) {
+            return (Element) estimators.item(0);
+        }
+        if (pathLikelihoodId != null) {
+            for (int i = 0; i < estimators.getLength(); ++i) {
+                Element element = (Element) estimators.item(i);
+                NodeList pathLikelihoods = element.getElementsByTagName(PathLikelihood.PATH_LIKELIHOOD);
+                for (int j = 0; j < pathLikelihoods.getLength(); ++j) {
+                    Element pathLikelihood = (Element) pathLikelihoods.item(j);
+                    if (pathLikelihoodId.equals(pathLikelihood.getAttribute(XMLParser.ID)) ||
+                            pathLikelihoodId.equals(pathLikelihood.getAttribute(XMLParser.IDREF))) {
+                        return element;
+                    }
+                }
+            }
+        }
+        throw new XMLParseException("Unable to identify the " + MarginalLikelihoodEstimator.MARGINAL_LIKELIHOOD_ESTIMATOR +
+                " to copy (give its " + PathLikelihood.PATH_LIKELIHOOD + " an id)");
+    }
+
+    /**
+     * Removes all top-level elements that the estimator does not depend on (other chains, analyses, reports)
+     * so that nothing other than the model is repeated by the copy.
+     */
+    private static void pruneToEstimator(Document document, Element estimator) {
+        Element root = document.getDocumentElement();
+
+        Element estimatorTopLevel = estimator;
+        while (estimatorTopLevel.getParentNode() != root) {
+            estimatorTopLevel = (Element) estimatorTopLevel.getParentNode();
+        }
+
+        List<Element> topLevel = new ArrayList<Element>();
+        Map<String, Element> definedBy = new HashMap<String, Element>();
+        NodeList children = root.getChildNodes();
+        for (int i = 0; i < children.getLength(); ++i) {
+            if (children.item(i) instanceof Element) {
+                Element element = (Element) children.item(i);
+                topLevel.add(element);
+                for (Element e : descendantsAndSelf(element)) {
+                    if (e.hasAttribute(XMLParser.ID)) {
+                        definedBy.put(e.getAttribute(XMLParser.ID), element);
+                    }
+                }
+            }
+        }
+
+        Set<Element> required = new HashSet<Element>();
+        LinkedList<Element> pending = new LinkedList<Element>();
+        required.add(estimatorTopLevel);
+        pending.add(estimator);
+        while (!pending.isEmpty()) {
+            for (Element e : descendantsAndSelf(pending.removeFirst())) {
+                if (e.hasAttribute(XMLParser.IDREF)) {
+                    Element definition = definedBy.get(e.getAttribute(XMLParser.IDREF));
+                    if (definition != null && required.add(definition)) {
+                        pending.add(definition);
+                    }
+                }
+            }
+        }
+
+        for (Element element : topLevel) {
+            if (!required.contains(element)) {
+                root.removeChild(element);
+            }
+        }
+    }
+
+    private static List<Element> descendantsAndSelf(Element element) {
+        List<Element> elements = new ArrayList<Element>();
+        elements.add(element);
+        NodeList descendants = element.getElementsByTagName("*");
+        for (int i = 0; i < descendants.getLength(); ++i) {
+            elements.add((Element) descendants.item(i));
+        }
+        return elements;
+    }
+
+    /**
+     * The loggers that open their files through XMLParser keep their file names, so they are set up with
+     * the same columns as the original's, but are given writers that discard the output while the copy is
+     * parsed. Any other logger that names a file opens it itself, so it loses the file name. Elements that
+     * are not loggers only read the files they name and keep them.
+     */
+    private static void detachFileLoggers(Document document, XMLParser parser) {
+        NodeList elements = document.getElementsByTagName("*");
+        for (int i = 0; i < elements.getLength(); ++i) {
+            Element element = (Element) elements.item(i);
+            if (element.hasAttribute(FileHelpers.FILE_NAME) && !DISCARDED_LOGGERS.contains(element.getTagName())) {
+                XMLObjectParser elementParser = parser.getParser(element.getTagName());
+                if (elementParser != null && elementParser.getReturnType() != null
+                        && Logger.class.isAssignableFrom(elementParser.getReturnType())) {
+                    element.removeAttribute(FileHelpers.FILE_NAME);
+                }
+            }
+        }
+    }
+
+    private static void removeAttribute(Document document, String tagName, String attributeName) {
+        NodeList nodes = document.getElementsByTagName(tagName);
+        for (int i = 0; i < nodes.getLength(); ++i) {
+            ((Element) nodes.item(i)).removeAttribute(attributeName);
+        }
+    }
+
+    // the loggers whose files are opened through XMLParser.getFilePrintWriter
+    private static final Set<String> DISCARDED_LOGGERS = new HashSet<String>(Arrays.asList(
+            LoggerParser.LOG, TreeLoggerParser.LOG_TREE, MetricsLoggerParser.METRICS_LOG,
+            MLLoggerParser.LOG_ML, HiddenLinkageLoggerParser.LOG_HIDDEN_LINKAGE));
+
+    private final File inputFile;
+    private final List<String> additionalParsers;
+    private final boolean parserWarning;
+    private final boolean strictXML;
+}
@@ -263,37 +263,227 @@ public class TemporalRooting {
         return labels;
     }
 
+    /**
+     * Finds the best root over all branches. Two traversals give, for every branch, the sums of the
+     * root-to-tip regression as a function of where the root is placed along that branch, so each
+     * branch is then solved analytically without copying or re-rooting the tree.
+     */
     private Tree findGlobalRoot(final Tree source, final double[] dates, RootingFunction rootingFunction, boolean forcePositiveRate) {
 
-        FlexibleTree bestTree = new FlexibleTree(source);
-        double minF = findLocalRoot(bestTree, dates, rootingFunction, forcePositiveRate);
+        FlexibleTree tree = new FlexibleTree(source);
+        NodeRef root = tree.getRoot();
+        if (tree.getChildCount(root) != 2) {
+            throw new IllegalArgumentException("Trees must be binary");
+        }
+
+        int nodeCount = tree.getNodeCount();
+
+        // the nodes in pre-order (without recursion as the trees may be very unbalanced)
+        NodeRef[] order = new NodeRef[nodeCount];
+        Deque<NodeRef> stack = new ArrayDeque<NodeRef>();
+        stack.push(root);
+        int k = 0;
+        while (!stack.isEmpty()) {
+            NodeRef node = stack.pop();
+            order[k] = node;
+            k++;
+            for (int i = 0; i < tree.getChildCount(node); i++) {
+                stack.push(tree.getChild(node, i));
+            }
+        }
+
+        // sums over the tips below each node of 1, t, d, d^2 and t.d where t is the tip date and
+        // d is the distance from the node to the tip
+        double[] tipCount = new double[nodeCount];
+        double[] sumT = new double[nodeCount];
+        double[] sumD = new double[nodeCount];
+        double[] sumDD = new double[nodeCount];
+        double[] sumTD = new double[nodeCount];
+
+        for (int i = 0; i < tree.getExternalNodeCount(); i++) {
+            NodeRef tip = tree.getExternalNode(i);
+            tipCount[tip.getNumber()] = 1;
+            sumT[tip.getNumber()] = dates[i];
+        }
+
+        for (k = nodeCount - 1; k >= 0; k--) {
+            NodeRef node = order[k];
+            int n = node.getNumber();
+            for (int i = 0; i < tree.getChildCount(node); i++) {
+                NodeRef child = tree.getChild(node, i);
+                int c = child.getNumber();
+                double b = tree.getBranchLength(child);
+
+                tipCount[n] += tipCount[c];
+                sumT[n] += sumT[c];
+                sumD[n] += sumD[c] + tipCount[c] * b;
+                sumDD[n] += sumDD[c] + 2 * b * sumD[c] + tipCount[c] * b * b;
+                sumTD[n] += sumTD[c] + b * sumT[c];
+            }
+        }
+
+        // the same sums over all the tips, with distances from each node
+        final double N = tipCount[root.getNumber()];
+        final double T = sumT[root.getNumber()];
+        double[] allD = new double[nodeCount];
+        double[] allDD = new double[nodeCount];
+        double[] allTD = new double[nodeCount];
+
+        allD[root.getNumber()] = sumD[root.getNumber()];
+        allDD[root.getNumber()] = sumDD[root.getNumber()];
+        allTD[root.getNumber()] = sumTD[root.getNumber()];
+
+        for (k = 0; k < nodeCount; k++) {
+            NodeRef node = order[k];
+            int n = node.getNumber();
+            for (int i = 0; i < tree.getChildCount(node); i++) {
+                NodeRef child = tree.getChild(node, i);
+                int c = child.getNumber();
+                double b = tree.getBranchLength(child);
+
+                // the tips outside the child's clade, with distances from the node...
+                double outCount = N - tipCount[c];
+                double outT = T - sumT[c];
+                double outD = allD[n] - (sumD[c] + tipCount[c] * b);
+                double outDD = allDD[n] - (sumDD[c] + 2 * b * sumD[c] + tipCount[c] * b * b);
+                double outTD = allTD[n] - (sumTD[c] + b * sumT[c]);
+
+                // ...and then from the child
+                allD[c] = sumD[c] + outD + outCount * b;
+                allDD[c] = sumDD[c] + outDD + 2 * b * outD + outCount * b * b;
+                allTD[c] = sumTD[c] + outTD + b * outT;
+            }
+        }
+
+        double sumTT = 0.0;
+        for (double date : dates) {
+            sumTT += date * date;
+        }
+        final double Stt = sumTT - (T * T / N);
+
+        // Placing the root a distance x above node u (on a branch of length L) makes the root-to-tip
+        // distances y = d + x for the tips below u and y = d - x for the rest. The centred sums of the
+        // regression are then Sty = p + q.x and Syy = alpha + beta.x + gamma.x^2.
+        NodeRef bestNode = null;
+        double bestX = 0.0;
+
+        // as in findLocalRoot, the analytical residual mean squared solution takes no account of the
+        // sign of the rate
+        final boolean forcePositive = forcePositiveRate && rootingFunction != RootingFunction.RESIDUAL_MEAN_SQUARED;
+        double minF = Double.MAX_VALUE;
         double minDiff = Double.MAX_VALUE;
 
-        totalRootBranches = source.getNodeCount();
-        for (currentRootBranch = 0; currentRootBranch < source.getNodeCount(); currentRootBranch++) {
-            FlexibleTree tmpTree = new FlexibleTree(source);
-            NodeRef node = tmpTree.getNode(currentRootBranch);
-            if (!tmpTree.isRoot(node)) {
-                double length = tmpTree.getBranchLength(node);
-                tmpTree.changeRoot(node, length * 0.5, length * 0.5);
-
-                double f = findLocalRoot(tmpTree, dates, rootingFunction, forcePositiveRate);
-                if (useTargetRate) {
-                    Regression r = getRootToTipRegression(tmpTree);
-                    if (Math.abs(r.getGradient() - targetRate) < minDiff) {
-                        minDiff = Math.abs(r.getGradient() - targetRate);
-                        bestTree = tmpTree;
-                    }
-                } else {
-                    if (f < minF) {
-                        minF = f;
-                        bestTree = tmpTree;
+        totalRootBranches = nodeCount;
+        for (currentRootBranch = 0; currentRootBranch < nodeCount; currentRootBranch++) {
+            NodeRef node = tree.getNode(currentRootBranch);
+            if (tree.isRoot(node)) {
+                continue;
+            }
+
+            double L = tree.getBranchLength(node);
+            NodeRef parent = tree.getParent(node);
+            if (tree.isRoot(parent)) {
+                // the two branches from the root are a single branch once the tree is unrooted
+                if (tree.getChild(parent, 0) != node) {
+                    continue;
+                }
+                L += tree.getBranchLength(tree.getChild(parent, 1));
+            }
+
+            int u = node.getNumber();
+            double inOut = 2 * tipCount[u] - N;
+
+            double p = allTD[u] - T * allD[u] / N;
+            double q = (2 * sumT[u] - T) - T * inOut / N;
+            double alpha = allDD[u] - allD[u] * allD[u] / N;
+            double beta = 2 * (2 * sumD[u] - allD[u]) - 2 * allD[u] * inOut / N;
+            double gamma = N - inOut * inOut / N;
+
+            // the score is smooth along the branch (apart from where the rate changes sign) so the
+            // minimum is at an end, a turning point or that change of sign
+            double[] candidates;
+            if (contemporaneous) {
+                candidates = new double[]{0.0, L, -beta / (2 * gamma)};
+            } else if (rootingFunction == RootingFunction.CORRELATION || rootingFunction == RootingFunction.R_SQUARED) {
+                candidates = new double[]{0.0, L, (0.5 * p * beta - q * alpha) / (0.5 * q * beta - p * gamma), -p / q};
+            } else {
+                candidates = new double[]{0.0, L,
+                        -(beta - 2 * p * q / Stt) / (2 * (gamma - q * q / Stt)), -p / q};
+            }
+
+            double nodeMinF = Double.MAX_VALUE;
+            double nodeX = 0.0;
+            for (double x : candidates) {
+                if (x >= 0.0 && x <= L) {
+                    double f = getRootingScore(p + q * x, alpha + (beta + gamma * x) * x, Stt, N,
+                            rootingFunction, forcePositive);
+                    if (f < nodeMinF) {
+                        nodeMinF = f;
+                        nodeX = x;
                     }
                 }
             }
+
+            if (useTargetRate) {
+                double rate = (p + q * nodeX) / Stt;
+                if (Math.abs(rate - targetRate) < minDiff) {
+                    minDiff = Math.abs(rate - targetRate);
+                    bestNode = node;
+                    bestX = nodeX;
+                }
+            } else if (nodeMinF < minF) {
+                minF = nodeMinF;
+                bestNode = node;
+                bestX = nodeX;
+            }
         }
 
-        return bestTree;
+        if (bestNode != null) {
+            NodeRef parent = tree.getParent(bestNode);
+            if (tree.isRoot(parent)) {
+                NodeRef sibling = tree.getChild(parent, 1);
+                double length = tree.getBranchLength(bestNode) + tree.getBranchLength(sibling);
+                tree.setBranchLength(bestNode, bestX);
+                tree.setBranchLength(sibling, length - bestX);
+            } else {
+                double length = tree.getBranchLength(bestNode);
+                tree.changeRoot(bestNode, bestX, length - bestX);
+            }
+        }
+
+        return tree;
+    }
+
+    /**
+     * @return the score to minimize given the centred sums of products of the tip dates and the
+     * root-to-tip distances
+     */
+    private double getRootingScore(double Sty, double Syy, double Stt, double N,
+                                   RootingFunction rootingFunction, boolean forcePositiveRate) {
+        if (contemporaneous) {
+            return Syy / (N - 1);
+        }
+
+        double score;
+        switch (rootingFunction) {
+            case CORRELATION:
+                score = -Sty / Math.sqrt(Stt * Syy);
+                break;
+            case R_SQUARED:
+                score = -(Sty * Sty) / (Stt * Syy);
+                break;
+            case HEURISTIC_RESIDUAL_MEAN_SQUARED:
+            case RESIDUAL_MEAN_SQUARED:
+                score = (Syy - (Sty * Sty / Stt)) / (N - 2);
+                break;
+            default:
+                throw new RuntimeException("Unknown enum value");
+        }
+
+        if (forcePositiveRate) {
+            score = (Sty < 0.0 ? -score : score);
+        }
+        return score;
     }
 
     private double findLocalRoot(final FlexibleTree tree,
@@ -39,40 +39,86 @@ public class JTraceChart extends DiscreteJChart {
 
     private static final int SAMPLE_POINTS = 1000;
 
+    // the decimated levels stop once they have fewer blocks than this
+    private static final int MIN_DETAIL_BLOCKS = 512;
+
     private boolean useSample = false;
     private boolean isLinePlot = true;
     private static final int BURNIN_TRANSLUCENCY = 72;
 
+    /**
+     * The values of a trace along with a pyramid of decimated levels. Level l holds the minimum
+     * and maximum of each block of 2^(l+1) values so that long traces can be drawn with a couple
+     * of points per pixel rather than a segment per state.
+     */
     private class Trace {
-        int stateStart;
-        int stateStep;
+        final int stateStart;
+        final int stateStep;
+
+        final int sampleCount;
 
-        int sampleCount;
-        int sampleStep;
+        final double[] values;
+        final double minValue;
+        final double maxValue;
 
-        List<Double> states = new ArrayList<Double>();
-        List<Double> values;
+        final double[][] minima;
+        final double[][] maxima;
 
-        Trace(int stateStart, int stateStep, List<Double> values) {
+        Trace(int stateStart, int stateStep, double[] values) {
 
             this.stateStart = stateStart;
             this.stateStep = stateStep;
 
             this.values = values;
 
-            sampleCount = values.size();
-            sampleStep = 1;
-            while (sampleCount > SAMPLE_POINTS) {
+            int count = values.length;
+            int sampleStep = 1;
+            while (count > SAMPLE_POINTS) {
                 sampleStep *= 2;
-                sampleCount = values.size() / sampleStep;
+                count = values.length / sampleStep;
+            }
+            sampleCount = count;
+
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (double value : values) {
+                if (value < min) {
+                    min = value;
+                }
+                if (value > max) {
+                    max = value;
+                }
             }
+            minValue = min;
+            maxValue = max;
+
+            List<double[]> minList = new ArrayList<double[]>();
+            List<double[]> maxList = new ArrayList<double[]>();
+            double[] previousMin = values;
+            double[] previousMax = values;
+            while (previousMin.length / 2 >= MIN_DETAIL_BLOCKS) {
+                int blockCount = previousMin.length / 2;
+                double[] levelMin = new double[blockCount];
+                double[] levelMax = new double[blockCount];
+                for (int b = 0; b < blockCount; b++) {
+                    levelMin[b] = Math.min(previousMin[2 * b], previousMin[2 * b + 1]);
+                    levelMax[b] = Math.max(previousMax[2 * b], previousMax[2 * b + 1]);
+                }
+                minList.add(levelMin);
+                maxList.add(levelMax);
+                previousMin = levelMin;
+                previousMax = levelMax;
+            }
+            minima = minList.toArray(new double[minList.size()][]);
+            maxima = maxList.toArray(new double[maxList.size()][]);
+        }
 
-            double ix = stateStart;
-            for (int j = 0; j < values.size(); j++) {
-                this.states.add(j, ix);
-                ix += stateStep;
+        int getStateCount() {
+            return values.length;
+        }
 
-            }
+        double getState(int index) {
+            return stateStart + ((double) index * stateStep);
         }
     }
 
@@ -92,13 +138,17 @@ public class JTraceChart extends DiscreteJChart {
     }
 
     public void addTrace(String name, int stateStart, int stateStep, List<Double> values, List<Double> burninValues, Paint paint) {
+        addTrace(name, stateStart, stateStep, toArray(values), (burninValues != null ? toArray(burninValues) : null), paint);
+    }
+
+    public void addTrace(String name, int stateStart, int stateStep, double[] values, double[] burninValues, Paint paint) {
 
-        Variate.D yd = new Variate.D(values);
+        Trace trace = new Trace(stateStart, stateStep, values);
 
-        xAxis.addRange(0, stateStart + (values.size() * stateStep) - stateStep);
-        yAxis.addRange(yd.getMin(), yd.getMax());
+        xAxis.addRange(0, stateStart + (values.length * stateStep) - stateStep);
+        yAxis.addRange(trace.minValue, trace.maxValue);
 
-        traces.add(new Trace(stateStart, stateStep, values));
+        traces.add(trace);
         if (burninValues != null) {
             burninTraces.add(new Trace(0, stateStep, burninValues));
         }
@@ -116,14 +166,30 @@ public class JTraceChart extends DiscreteJChart {
         repaint();
     }
 
+    private static double[] toArray(List<Double> values) {
+        double[] array = new double[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
     public List<Double> getTraceStates(int index) {
         Trace trace = traces.get(index);
-        return trace.states;
+        List<Double> states = new ArrayList<Double>(trace.getStateCount());
+        for (int j = 0; j < trace.getStateCount(); j++) {
+            states.add(trace.getState(j));
+        }
+        return states;
     }
 
     public List<Double> getTraceValues(int index) {
         Trace trace = traces.get(index);
-        return trace.values;
+        List<Double> values = new ArrayList<Double>(trace.values.length);
+        for (double value : trace.values) {
+            values.add(value);
+        }
+        return values;
     }
 
     public void removeAllTraces() {
@@ -158,7 +224,7 @@ public class JTraceChart extends DiscreteJChart {
             int sampleFrequency = 1;
 
             if (useSample) {
-                sampleFrequency = trace.states.size() / trace.sampleCount;
+                sampleFrequency = trace.getStateCount() / trace.sampleCount;
             }
 
             paintTrace(g2, trace, getPlot(i).getLineColor(), sampleFrequency);
@@ -174,8 +240,16 @@ public class JTraceChart extends DiscreteJChart {
     }
 
     private void paintTrace(Graphics2D g2, Trace trace, Paint paint, int sampleFrequency) {
-        float x = (float) transformX(trace.states.get(0));
-        float y = (float) transformY(trace.values.get(0));
+        if (sampleFrequency == 1) {
+            int level = getDetailLevel(trace);
+            if (level >= 0) {
+                paintDecimatedTrace(g2, trace, paint, level);
+                return;
+            }
+        }
+
+        float x = (float) transformX(trace.getState(0));
+        float y = (float) transformY(trace.values[0]);
 
         GeneralPath path = new GeneralPath();
         path.moveTo(x, y);
@@ -185,10 +259,10 @@ public class JTraceChart extends DiscreteJChart {
 
         int k = sampleFrequency;
 
-        for (int j = 1; j < trace.states.size(); j++) {
+        for (int j = 1; j < trace.getStateCount(); j++) {
 
-            x = (float) transformX(trace.states.get(k));
-            y = (float) transformY(trace.values.get(k));
+            x = (float) transformX(trace.getState(k));
+            y = (float) transformY(trace.values[k]);
 
             if (!isLinePlot) {
                 path.moveTo(x, y);
@@ -196,7 +270,7 @@ public class JTraceChart extends DiscreteJChart {
             path.lineTo(x, y);
 
             k += sampleFrequency;
-            if (k >= trace.states.size()) {
+            if (k >= trace.getStateCount()) {
                 break;
             }
         }
@@ -205,4 +279,57 @@ public class JTraceChart extends DiscreteJChart {
         g2.draw(path);
     }
 
-}
\ No newline at end of file
+    /**
+     * @return the coarsest decimated level that still has at least two blocks per pixel at the
+     * current scale of the x axis or -1 if the full trace should be drawn
+     */
+    private int getDetailLevel(Trace trace) {
+        int stateCount = trace.getStateCount();
+        double width = Math.abs(transformX(trace.getState(stateCount - 1)) - transformX(trace.getState(0)));
+        double valuesPerPixel = stateCount / Math.max(1.0, width);
+
+        int level = -1;
+        while (level + 1 < trace.minima.length && (2 << (level + 1)) * 2 <= valuesPerPixel) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Draws each block of the given level as a vertical stroke between its minimum and maximum
+     * (connected to the next block for line plots) followed by any values beyond the last full block.
+     */
+    private void paintDecimatedTrace(Graphics2D g2, Trace trace, Paint paint, int level) {
+        double[] minima = trace.minima[level];
+        double[] maxima = trace.maxima[level];
+        int blockSize = 2 << level;
+
+        GeneralPath path = new GeneralPath();
+        boolean rising = true;
+        for (int b = 0; b < minima.length; b++) {
+            float x = (float) transformX(trace.getState(b * blockSize));
+            float y1 = (float) transformY(rising ? minima[b] : maxima[b]);
+            float y2 = (float) transformY(rising ? maxima[b] : minima[b]);
+            if (b == 0 || !isLinePlot) {
+                path.moveTo(x, y1);
+            } else {
+                path.lineTo(x, y1);
+            }
+            path.lineTo(x, y2);
+            rising = !rising;
+        }
+
+        for (int j = minima.length * blockSize; j < trace.getStateCount(); j++) {
+            float x = (float) transformX(trace.getState(j));
+            float y = (float) transformY(trace.values[j]);
+            if (!isLinePlot) {
+                path.moveTo(x, y);
+            }
+            path.lineTo(x, y);
+        }
+
+        g2.setPaint(paint);
+        g2.draw(path);
+    }
+
+}
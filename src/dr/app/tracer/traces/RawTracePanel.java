@@ -352,20 +352,20 @@ public class RawTracePanel extends JPanel implements Exportable {
 
                     } else if (trace.getTraceType() == TraceType.CATEGORICAL) {
 
-                        List<Double> doubleData = new ArrayList<Double>();
+                        double[] doubleData = new double[values.size()];
                         for (int v = 0; v < values.size(); v++) {
                             Integer index = td.getIndex(values.get(v).toString());
-                            doubleData.add(v, index.doubleValue());
+                            doubleData[v] = index.doubleValue();
                             categoryDataMap.put(index, values.get(v).toString());
                         }
 
-                        List<Double> doubleBurninData = null;
+                        double[] doubleBurninData = null;
                         if (burninCheckBox.isSelected() && tl.getBurninStateCount() > 0) {
-                            doubleBurninData = new ArrayList<Double>();
+                            doubleBurninData = new double[burninValues.size()];
                             categoryDataMap.clear();
                             for (int v = 0; v < burninValues.size(); v++) {
                                 Integer index = td.getIndex(burninValues.get(v).toString());
-                                doubleBurninData.add(v, index.doubleValue());
+                                doubleBurninData[v] = index.doubleValue();
                                 categoryDataMap.put(index, burninValues.get(v).toString());
                             }
                         }
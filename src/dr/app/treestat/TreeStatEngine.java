@@ -0,0 +1,184 @@
+/*
+ * TreeStatEngine.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+package dr.app.treestat;
+
+import dr.app.treestat.statistics.TreeSummaryStatistic;
+import dr.evolution.io.Importer;
+import dr.evolution.io.TreeImporter;
+import dr.evolution.tree.Tree;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Computes a set of tree summary statistics for every tree read from an importer and writes
+ * them as tab-delimited rows. This has no user interface so it can be run on a background
+ * thread or from the command line.
+ *
+ * Trees are parsed on the calling thread while the statistics for the trees already read are
+ * evaluated on a thread pool, one task per tree and statistic. Each statistic instance is only
+ * used by one thread at a time (some keep working state in fields) and the rows are written in
+ * the order the trees were read.
+ */
+public class TreeStatEngine {
+
+    // how many trees per thread can be read ahead of the rows being written
+    private static final int TREES_PER_THREAD = 4;
+
+    public interface ProgressListener {
+        /**
+         * Called on the processing thread after each row is written
+         *
+         * @param treeCount the number of trees processed so far
+         */
+        void treesProcessed(int treeCount);
+    }
+
+    public TreeStatEngine(List<TreeSummaryStatistic> statistics, int threadCount) {
+        this.statistics = statistics;
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * Writes a header line (using the first tree for the labels) and then a row for each tree
+     *
+     * @param importer  the source of the trees after the first
+     * @param firstTree the first tree
+     * @param writer    the output
+     * @param listener  an optional progress listener
+     * @return the number of trees processed
+     */
+    public int process(TreeImporter importer, Tree firstTree, PrintWriter writer, ProgressListener listener)
+            throws IOException, Importer.ImportException {
+
+        writer.print("state");
+        for (TreeSummaryStatistic tss : statistics) {
+            int dim = tss.getStatisticDimensions(firstTree);
+            for (int j = 0; j < dim; j++) {
+                writer.print("\t" + tss.getStatisticLabel(firstTree, j));
+            }
+        }
+        writer.println();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "tree-stat");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        int state = 0;
+        final int maxPending = threadCount * TREES_PER_THREAD;
+        LinkedList<List<Future<double[]>>> pending = new LinkedList<List<Future<double[]>>>();
+
+        try {
+            Tree tree = firstTree;
+            while (tree != null) {
+                pending.add(submitTree(pool, tree));
+
+                // write any rows that are complete and wait for the oldest if too many trees are queued
+                while (!pending.isEmpty() && (pending.size() > maxPending || isDone(pending.getFirst()))) {
+                    writeRow(writer, state, pending.removeFirst());
+                    state += 1;
+                    if (listener != null) {
+                        listener.treesProcessed(state);
+                    }
+                }
+
+                tree = importer.importNextTree();
+            }
+
+            while (!pending.isEmpty()) {
+                writeRow(writer, state, pending.removeFirst());
+                state += 1;
+                if (listener != null) {
+                    listener.treesProcessed(state);
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while processing trees");
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            }
+            throw new RuntimeException(ee.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        writer.flush();
+
+        return state;
+    }
+
+    private List<Future<double[]>> submitTree(ExecutorService pool, final Tree tree) {
+        // trees can calculate their node heights lazily so do this before they are shared between threads
+        if (!tree.hasNodeHeights() && tree.hasBranchLengths()) {
+            tree.getNodeHeight(tree.getRoot());
+        }
+
+        List<Future<double[]>> futures = new ArrayList<Future<double[]>>(statistics.size());
+        for (final TreeSummaryStatistic tss : statistics) {
+            futures.add(pool.submit(new Callable<double[]>() {
+                public double[] call() {
+                    synchronized (tss) {
+                        return tss.getSummaryStatistic(tree);
+                    }
+                }
+            }));
+        }
+        return futures;
+    }
+
+    private static boolean isDone(List<Future<double[]>> futures) {
+        for (Future<double[]> future : futures) {
+            if (!future.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeRow(PrintWriter writer, int state, List<Future<double[]>> futures)
+            throws InterruptedException, ExecutionException {
+        writer.print(state);
+        for (Future<double[]> future : futures) {
+            double[] stats = future.get();
+            for (int j = 0; j < stats.length; j++) {
+                writer.print("\t" + stats[j]);
+            }
+        }
+        writer.println();
+    }
+
+    private final List<TreeSummaryStatistic> statistics;
+    private final int threadCount;
+}
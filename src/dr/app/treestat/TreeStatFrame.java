@@ -33,6 +33,8 @@ import javax.swing.*;
 import javax.swing.plaf.BorderUIResource;
 import java.awt.*;
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 
 import dr.evolution.io.Importer;
 import dr.evolution.io.NexusImporter;
@@ -306,87 +308,87 @@ public class TreeStatFrame extends DocumentFrame {
             return;
         }
 
-        final PrintWriter writer = new PrintWriter(new FileWriter(outFile));
+        final PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(outFile)));
 
-//        Thread readThread = new Thread() {
-//            public void run() {
-                Tree tree = firstTree;
-
-                writer.print("state");
-                for (int i = 0; i < treeStatData.statistics.size(); i++) {
-                    TreeSummaryStatistic tss = (TreeSummaryStatistic)treeStatData.statistics.get(i);
-
-                    int dim = tss.getStatisticDimensions(tree);
-                    for (int j = 0; j < dim; j++) {
-                        writer.print("\t" + tss.getStatisticLabel(tree, j));
-                    }
-
-                }
-                writer.println();
-
-                state = 0;
-                do {
-                    writer.print(state);
+        final List<TreeSummaryStatistic> statistics = new ArrayList<TreeSummaryStatistic>();
+        for (int i = 0; i < treeStatData.statistics.size(); i++) {
+            statistics.add((TreeSummaryStatistic)treeStatData.statistics.get(i));
+        }
+        final TreeStatEngine engine = new TreeStatEngine(statistics, Runtime.getRuntime().availableProcessors());
 
-                    for (int i = 0; i < treeStatData.statistics.size(); i++) {
-                        TreeSummaryStatistic tss = (TreeSummaryStatistic)treeStatData.statistics.get(i);
-                        double[] stats = tss.getSummaryStatistic(tree);
-                        for (int j = 0; j < stats.length; j++) {
-                            writer.print("\t" + stats[j]);
+        // process the trees in the background so the user interface remains responsive
+        Thread processThread = new Thread("TreeStat") {
+            public void run() {
+                try {
+                    final int count = engine.process(importer, firstTree, writer, new TreeStatEngine.ProgressListener() {
+                        public void treesProcessed(final int treeCount) {
+                            if (treeCount % PROGRESS_INTERVAL == 0) {
+                                EventQueue.invokeLater(
+                                        new Runnable() {
+                                            public void run() {
+                                                in.getProgressMonitor().setNote("Processing Tree " + treeCount + "...");
+                                                progressLabel.setText("Processing Tree " + treeCount + "...");
+                                            }
+                                        });
+                            }
                         }
+                    });
+
+                    EventQueue.invokeLater(
+                            new Runnable() {
+                                public void run() {
+                                    progressLabel.setText("" + count + " trees processed.");
+                                }
+                            });
+                } catch (final IOException e) {
+                    EventQueue.invokeLater(
+                            new Runnable() {
+                                public void run() {
+                                    JOptionPane.showMessageDialog(TreeStatFrame.this, "File I/O Error: " + e.getMessage(),
+                                            "File I/O Error",
+                                            JOptionPane.ERROR_MESSAGE);
+                                }
+                            });
+                } catch (final Importer.ImportException e) {
+                    EventQueue.invokeLater(
+                            new Runnable() {
+                                public void run() {
+                                    JOptionPane.showMessageDialog(TreeStatFrame.this, "Error importing tree: " + e.getMessage(),
+                                            "Tree Import Error",
+                                            JOptionPane.ERROR_MESSAGE);
+                                }
+                            });
+                } catch (final RuntimeException e) {
+                    EventQueue.invokeLater(
+                            new Runnable() {
+                                public void run() {
+                                    JOptionPane.showMessageDialog(TreeStatFrame.this, "Error: " + e,
+                                            "Error",
+                                            JOptionPane.ERROR_MESSAGE);
+                                }
+                            });
+                } finally {
+                    try {
+                        reader.close();
+                    } catch (IOException ioe) {
+                        // nothing to do
                     }
-                    writer.println();
-                    state += 1;
-
-                    final int currentState = state;
-
-                    in.getProgressMonitor().setNote("Processing Tree " + currentState + "...");
-//                    EventQueue.invokeLater(
-//                            new Runnable() {
-//                                public void run() {
-//                                    progressLabel.setText("Processing Tree " + currentState + "...");
-//                                }
-//                            });
-
-
-//                    try {
-                        tree = importer.importNextTree();
-//                    } catch (final IOException e) {
-//                        EventQueue.invokeLater(
-//                                new Runnable() {
-//                                    public void run() {
-//                                        JOptionPane.showMessageDialog(TreeStatFrame.this, "File I/O Error: " + e.getMessage(),
-//                                                "File I/O Error",
-//                                                JOptionPane.ERROR_MESSAGE);
-//                                    }
-//                                });
-//                    } catch (final Importer.ImportException e) {
-//                        EventQueue.invokeLater(
-//                                new Runnable() {
-//                                    public void run() {
-//                                        JOptionPane.showMessageDialog(TreeStatFrame.this, "Error importing tree: " + e.getMessage(),
-//                                                "Tree Import Error",
-//                                                JOptionPane.ERROR_MESSAGE);
-//                                    }
-//                                });
-//                    }
-                } while (tree != null);
-//            }
-//        };
-//
-//        readThread.start();
-//        while (readThread.isAlive()) {
-//            Thread.yield();
-//        }
-
-        reader.close();
-        writer.close();
-
-        progressLabel.setText("" + state + " trees processed.");
-        processTreeFileAction.setEnabled(true);
+                    writer.close();
+
+                    EventQueue.invokeLater(
+                            new Runnable() {
+                                public void run() {
+                                    processTreeFileAction.setEnabled(true);
+                                }
+                            });
+                }
+            }
+        };
+        processThread.start();
     }
 
-    private int state = 0;
+    private static final int PROGRESS_INTERVAL = 10;
+
 
     public void doCopy() {
 //		statisticsPanel.doCopy();
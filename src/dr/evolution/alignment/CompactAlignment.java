@@ -0,0 +1,226 @@
+/*
+ * CompactAlignment.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evolution.alignment;
+
+import dr.evolution.datatype.DataType;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.util.Attributable;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An alignment held as one byte per character in site-major order, so that reading a site pattern
+ * is a walk along a single array. The characters are kept (rather than the states) so the data
+ * type can be changed in the same way as for SimpleAlignment; they are translated to states
+ * through a lookup table. Sequences are built on request and are copies of the data.
+ */
+public class CompactAlignment extends Alignment.Abstract {
+
+    /**
+     * @param taxa       the taxa in the order of the rows of the alignment
+     * @param characters the upper case (7 bit) characters of each site [site][taxon]
+     * @param dataType   the data type of the characters
+     * @throws IllegalArgumentException if a site is the wrong length or a character is not 7 bit
+     */
+    public CompactAlignment(Taxa taxa, byte[][] characters, DataType dataType) {
+        for (byte[] site : characters) {
+            if (site.length != taxa.getTaxonCount()) {
+                throw new IllegalArgumentException("Each site must have a character for every taxon");
+            }
+            // the bytes index the state table directly so they must not be negative
+            for (byte character : site) {
+                if (character < 0) {
+                    throw new IllegalArgumentException("Characters must be 7 bit (below 128)");
+                }
+            }
+        }
+        this.taxa = taxa;
+        this.characters = characters;
+        this.sequenceAttributes = new Attributable.AttributeHelper[taxa.getTaxonCount()];
+        setDataType(dataType);
+    }
+
+    // **************************************************************
+    // Alignment IMPLEMENTATION
+    // **************************************************************
+
+    public void setDataType(DataType dataType) {
+        this.dataType = dataType;
+
+        // characters that the data type does not recognise are read as unknown
+        int unknownState = dataType.getUnknownState();
+        for (int c = 0; c < states.length; c++) {
+            try {
+                states[c] = dataType.getState((char) c);
+            } catch (RuntimeException e) {
+                states[c] = unknownState;
+            }
+        }
+    }
+
+    public String getAlignedSequenceString(int sequenceIndex) {
+        StringBuilder builder = new StringBuilder(characters.length);
+        for (byte[] site : characters) {
+            builder.append((char) site[sequenceIndex]);
+        }
+        return builder.toString();
+    }
+
+    public String getUnalignedSequenceString(int sequenceIndex) {
+        StringBuilder builder = new StringBuilder(characters.length);
+        for (byte[] site : characters) {
+            int state = states[site[sequenceIndex]];
+            if (!dataType.isGapState(state)) {
+                builder.append(dataType.getChar(state));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return the character at (sequence, site)
+     */
+    public char getChar(int sequenceIndex, int siteIndex) {
+        return (char) characters[siteIndex][sequenceIndex];
+    }
+
+    // **************************************************************
+    // SiteList IMPLEMENTATION
+    // **************************************************************
+
+    public int getSiteCount() {
+        return characters.length;
+    }
+
+    public int[] getSitePattern(int siteIndex) {
+        byte[] site = characters[siteIndex];
+        int[] pattern = new int[site.length];
+        for (int i = 0; i < site.length; i++) {
+            pattern[i] = states[site[i]];
+        }
+        return pattern;
+    }
+
+    public int getPatternIndex(int siteIndex) {
+        return siteIndex;
+    }
+
+    public int getState(int taxonIndex, int siteIndex) {
+        return states[characters[siteIndex][taxonIndex]];
+    }
+
+    public DataType getDataType() {
+        return dataType;
+    }
+
+    // **************************************************************
+    // SequenceList IMPLEMENTATION
+    // **************************************************************
+
+    public int getSequenceCount() {
+        return taxa.getTaxonCount();
+    }
+
+    /**
+     * @return a copy of the ith sequence
+     */
+    public Sequence getSequence(int index) {
+        Sequence sequence = new Sequence(taxa.getTaxon(index), getAlignedSequenceString(index));
+        sequence.setDataType(dataType);
+        return sequence;
+    }
+
+    public void setSequenceAttribute(int index, String name, Object value) {
+        if (sequenceAttributes[index] == null) {
+            sequenceAttributes[index] = new Attributable.AttributeHelper();
+        }
+        sequenceAttributes[index].setAttribute(name, value);
+    }
+
+    public Object getSequenceAttribute(int index, String name) {
+        if (sequenceAttributes[index] == null) {
+            return null;
+        }
+        return sequenceAttributes[index].getAttribute(name);
+    }
+
+    // **************************************************************
+    // TaxonList IMPLEMENTATION
+    // **************************************************************
+
+    public int getTaxonCount() {
+        return taxa.getTaxonCount();
+    }
+
+    public Taxon getTaxon(int taxonIndex) {
+        return taxa.getTaxon(taxonIndex);
+    }
+
+    public String getTaxonId(int taxonIndex) {
+        return taxa.getTaxonId(taxonIndex);
+    }
+
+    public int getTaxonIndex(String id) {
+        return taxa.getTaxonIndex(id);
+    }
+
+    public int getTaxonIndex(Taxon taxon) {
+        return taxa.getTaxonIndex(taxon);
+    }
+
+    public List<Taxon> asList() {
+        return taxa.asList();
+    }
+
+    public Iterator<Taxon> iterator() {
+        return taxa.iterator();
+    }
+
+    public Object getTaxonAttribute(int taxonIndex, String name) {
+        return taxa.getTaxonAttribute(taxonIndex, name);
+    }
+
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < getSequenceCount(); i++) {
+            builder.append(">").append(getTaxonId(i)).append("\n");
+            builder.append(getAlignedSequenceString(i)).append("\n");
+        }
+        return builder.toString();
+    }
+
+    private final Taxa taxa;
+    private final byte[][] characters;
+    private final Attributable.AttributeHelper[] sequenceAttributes;
+
+    private DataType dataType;
+
+    // the state of each (7 bit) character for the current data type
+    private final int[] states = new int[128];
+}
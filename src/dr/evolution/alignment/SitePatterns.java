@@ -35,6 +35,7 @@ import dr.inference.model.Parameter;
 import dr.inference.model.Variable;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Stores a set of site patterns. This differs from the simple Patterns
@@ -47,6 +48,17 @@ import java.util.*;
  */
 public class SitePatterns implements SiteList, dr.util.XHTMLable {
 
+    /**
+     * sites are read from the source in blocks of this many so that only one block of (possibly
+     * repeated) columns is held at a time
+     */
+    private static final int SITE_BLOCK_SIZE = 4096;
+
+    /**
+     * a block is only read on several threads if it holds at least this many states
+     */
+    private static final int MIN_PARALLEL_STATE_COUNT = 1 << 20;
+
     /**
      * the source alignment
      */
@@ -93,6 +105,22 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
 
     protected boolean unique = true; // Compress into weighted list of unique patterns
 
+    /**
+     * open addressing hash table of (pattern index + 1), zero marking an empty slot, so a pattern's
+     * existing copy is found without comparing it against every pattern in the list
+     */
+    private int[] patternTable;
+
+    /**
+     * hash of each indexed pattern [pattern]
+     */
+    private int[] patternHashes;
+
+    /**
+     * number of patterns in the hash table
+     */
+    private int indexedPatternCount;
+
     /**
      * Constructor
      */
@@ -258,6 +286,8 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
 
         invariantCount = 0;
 
+        createPatternIndex(siteCount);
+
         if (constantSiteCounts != null) {
             if (constantSiteCounts.length != siteList.getStateCount()) {
                 throw new IllegalArgumentException("Constant site count array length doesn't equal the number of states");
@@ -271,23 +301,12 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
             }
         }
 
-        int site = 0;
-
-        for (int i = from; i <= to; i += every) {
-            int[] pattern = siteList.getSitePattern(i);
-
-            if (!strip || !isInvariant(pattern) ||
-                    (!isGapped(pattern) &&
-                            !isAmbiguous(pattern) &&
-                            !isUnknown(pattern))) {
-
-                sitePatternIndices[site] = addPattern(pattern);
-
-            }  else {
-                sitePatternIndices[site] = -1;
-            }
-            site++;
+        int[] sites = new int[siteCount];
+        for (int site = 0; site < siteCount; site++) {
+            sites[site] = from + (site * every);
         }
+
+        addSitePatterns(siteList, sites);
     }
 
     /**
@@ -314,51 +333,146 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
         weights = new double[siteCount];
 
         invariantCount = 0;
-        int[] pattern;
 
-        int site = 0;
+        createPatternIndex(siteCount);
 
+        int maskedCount = 0;
         for (int i = from; i <= to; i += every) {
-            pattern = siteList.getSitePattern(i);
+            if (mask[i]) {
+                maskedCount++;
+            }
+        }
 
+        int[] sites = new int[maskedCount];
+        int site = 0;
+        for (int i = from; i <= to; i += every) {
             if (mask[i]) {
-                if (!strip || !isInvariant(pattern) ||
-                        (!isGapped(pattern) &&
-                                !isAmbiguous(pattern) &&
-                                !isUnknown(pattern))
-                        ) {
+                sites[site] = i;
+                site++;
+            }
+        }
+
+        addSitePatterns(siteList, sites);
+    }
+
+    /**
+     * adds the patterns of the given sites of the site list, in order, so that the pattern at
+     * sites[i] is recorded as the pattern of site i
+     */
+    private void addSitePatterns(SiteList siteList, int[] sites) {
+
+        int blockSize = Math.min(SITE_BLOCK_SIZE, sites.length);
+        int[][] block = new int[blockSize][];
+        int[] hashes = new int[blockSize];
 
-                    sitePatternIndices[site] = addPattern(pattern);
+        // reading the columns is independent across sites so large alignments are read on several
+        // threads. Only Alignments are read this way as they are not modified by reading.
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        boolean parallel = threadCount > 1 && siteList instanceof Alignment &&
+                (long) siteList.getTaxonCount() * blockSize >= MIN_PARALLEL_STATE_COUNT;
 
-                }  else {
-                    sitePatternIndices[site] = -1;
+        ExecutorService pool = null;
+        if (parallel) {
+            pool = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "site-patterns");
+                    thread.setDaemon(true);
+                    return thread;
                 }
-                site++;
+            });
+        }
+
+        try {
+            for (int start = 0; start < sites.length; start += blockSize) {
+                int count = Math.min(blockSize, sites.length - start);
+
+                if (pool != null) {
+                    readSitePatternsInParallel(siteList, sites, start, count, block, hashes, pool, threadCount);
+                } else {
+                    readSitePatterns(siteList, sites, start, start, start + count, block, hashes);
+                }
+
+                for (int i = 0; i < count; i++) {
+                    int[] pattern = block[i];
+
+                    if (!strip || !isInvariant(pattern) ||
+                            (!isGapped(pattern) &&
+                                    !isAmbiguous(pattern) &&
+                                    !isUnknown(pattern))) {
+
+                        sitePatternIndices[start + i] = addPattern(pattern, hashes[i], 1);
+
+                    }  else {
+                        sitePatternIndices[start + i] = -1;
+                    }
+                    block[i] = null;
+                }
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
             }
         }
     }
 
-
     /**
-     * adds a pattern to the pattern list
-     *
-     * @return the index of the pattern in the pattern list
+     * reads the patterns of sites[from] to sites[to - 1], along with their hashes, into the block
+     * that starts at sites[blockStart]
      */
-    private int addPattern(int[] pattern) {
-        return addPattern(pattern, 1);
+    private static void readSitePatterns(SiteList siteList, int[] sites, int blockStart, int from, int to,
+                                         int[][] block, int[] hashes) {
+        for (int i = from; i < to; i++) {
+            int[] pattern = siteList.getSitePattern(sites[i]);
+            block[i - blockStart] = pattern;
+            hashes[i - blockStart] = hashPattern(pattern);
+        }
     }
 
+    private static void readSitePatternsInParallel(final SiteList siteList, final int[] sites, final int start,
+                                                   final int count, final int[][] block, final int[] hashes,
+                                                   ExecutorService pool, int threadCount) {
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(threadCount);
+        for (int k = 0; k < threadCount; k++) {
+            final int from = start + (int) ((long) count * k / threadCount);
+            final int to = start + (int) ((long) count * (k + 1) / threadCount);
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    readSitePatterns(siteList, sites, start, from, to, block, hashes);
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for (Future<Object> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while reading site patterns");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+
     /**
      * adds a pattern to the pattern list with the given weight
      *
      * @return the index of the pattern in the pattern list
      */
     private int addPattern(int[] pattern, int weight) {
+        return addPattern(pattern, hashPattern(pattern), weight);
+    }
 
-        for (int i = 0; i < patternCount; i++) {
-
-            if (unique && comparePatterns(patterns[i], pattern)) {
+    private int addPattern(int[] pattern, int hash, int weight) {
 
+        if (unique) {
+            int i = findPattern(pattern, hash);
+            if (i >= 0) {
                 weights[i] += weight;
                 return i;
             }
@@ -373,9 +487,108 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
         weights[index] = weight;
         patternCount++;
 
+        indexPattern(index, hash);
+
         return index;
     }
 
+    /**
+     * @return the index of a pattern identical to the given one or -1 if there is none
+     */
+    protected int findPattern(int[] pattern) {
+        return findPattern(pattern, hashPattern(pattern));
+    }
+
+    private int findPattern(int[] pattern, int hash) {
+        if (patternTable == null) {
+            return -1;
+        }
+
+        int mask = patternTable.length - 1;
+        for (int slot = hash & mask; patternTable[slot] != 0; slot = (slot + 1) & mask) {
+            int i = patternTable[slot] - 1;
+            if (patternHashes[i] == hash && comparePatterns(patterns[i], pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * adds the pattern at the given index to the hash table so findPattern will find it. Patterns
+     * must be indexed in the order they were added to the list.
+     */
+    protected void indexPattern(int index) {
+        indexPattern(index, hashPattern(patterns[index]));
+    }
+
+    private void indexPattern(int index, int hash) {
+        if (patternHashes == null || index >= patternHashes.length) {
+            int[] hashes = new int[Math.max(index + 1, patternHashes == null ? 16 : patternHashes.length * 2)];
+            if (patternHashes != null) {
+                System.arraycopy(patternHashes, 0, hashes, 0, patternHashes.length);
+            }
+            patternHashes = hashes;
+        }
+        patternHashes[index] = hash;
+        indexedPatternCount++;
+
+        // keep the table at most half full so probe sequences stay short
+        if (patternTable == null || indexedPatternCount * 2 > patternTable.length) {
+            patternTable = new int[tableSize(indexedPatternCount * 2)];
+            for (int i = 0; i < indexedPatternCount - 1; i++) {
+                insertIntoTable(i, patternHashes[i]);
+            }
+        }
+        insertIntoTable(index, hash);
+    }
+
+    private void insertIntoTable(int index, int hash) {
+        int mask = patternTable.length - 1;
+        int slot = hash & mask;
+        while (patternTable[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        patternTable[slot] = index + 1;
+    }
+
+    /**
+     * clears the hash table, sizing it for the given number of patterns
+     */
+    private void createPatternIndex(int capacity) {
+        patternTable = new int[tableSize(capacity * 2)];
+        patternHashes = new int[Math.max(capacity, 1)];
+        indexedPatternCount = 0;
+    }
+
+    private static int tableSize(int minimum) {
+        int size = 16;
+        while (size < minimum) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * a polynomial hash over the states of a pattern, with the bits mixed as the hash table uses
+     * the low bits. Patterns that comparePatterns finds identical must have the same hash.
+     */
+    protected static int hashPattern(int[] pattern) {
+        if (pattern == null) {
+            return 0;
+        }
+        int hash = 1;
+        for (int state : pattern) {
+            hash = 31 * hash + state;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
     /**
      * @return true if the pattern is invariant
      */
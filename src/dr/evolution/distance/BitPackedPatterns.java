@@ -0,0 +1,232 @@
+/*
+ * BitPackedPatterns.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+package dr.evolution.distance;
+
+import dr.evolution.alignment.PatternList;
+import dr.evolution.datatype.DataType;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Site patterns held as per-taxon bit vectors so that the weighted number of differences between
+ * two taxa can be counted 64 sites at a time. Each state is stored as a set of bit planes along
+ * with a plane marking the unambiguous states. Patterns are grouped by weight (each group starting
+ * on a word boundary) so a pairwise count is a sum of popcounts scaled by the group weight.
+ *
+ * Only integer pattern weights are supported so the sums are exact and identical to adding up
+ * the weights one pattern at a time.
+ */
+public class BitPackedPatterns {
+
+    private static final double MAX_EXACT_WEIGHT = (double) (1L << 53);
+
+    /**
+     * @param patterns the pattern source
+     * @return the packed patterns or null if the states or weights cannot be packed
+     */
+    public static BitPackedPatterns create(PatternList patterns) {
+        DataType dataType = patterns.getDataType();
+        if (dataType == null) {
+            return null;
+        }
+
+        int stateCount = dataType.getStateCount();
+        int planeCount = 1;
+        while ((1 << planeCount) < stateCount) {
+            planeCount++;
+        }
+
+        // group the patterns by weight, keeping the order in which the weights are first seen
+        Map<Double, List<Integer>> groups = new LinkedHashMap<Double, List<Integer>>();
+        double totalWeight = 0.0;
+        for (int i = 0; i < patterns.getPatternCount(); i++) {
+            double weight = patterns.getPatternWeight(i);
+            if (weight < 0.0 || weight != Math.floor(weight) || weight >= MAX_EXACT_WEIGHT) {
+                return null;
+            }
+            if (weight == 0.0) {
+                continue;
+            }
+            totalWeight += weight;
+            List<Integer> group = groups.get(weight);
+            if (group == null) {
+                group = new ArrayList<Integer>();
+                groups.put(weight, group);
+            }
+            group.add(i);
+        }
+        if (totalWeight >= MAX_EXACT_WEIGHT) {
+            return null;
+        }
+
+        int wordCount = 0;
+        long[] groupWeights = new long[groups.size()];
+        int[] groupEnds = new int[groups.size()];
+        int g = 0;
+        for (Map.Entry<Double, List<Integer>> entry : groups.entrySet()) {
+            wordCount += (entry.getValue().size() + 63) >>> 6;
+            groupWeights[g] = entry.getKey().longValue();
+            groupEnds[g] = wordCount;
+            g++;
+        }
+
+        int taxonCount = patterns.getTaxonCount();
+        int stride = planeCount + 1;
+        long[][] bits = new long[taxonCount][wordCount * stride];
+
+        int word = 0;
+        for (List<Integer> group : groups.values()) {
+            int bit = 0;
+            for (int index : group) {
+                int[] pattern = patterns.getPattern(index);
+                int offset = (word + (bit >>> 6)) * stride;
+                long mask = 1L << (bit & 63);
+                for (int taxon = 0; taxon < taxonCount; taxon++) {
+                    int state = pattern[taxon];
+                    if (dataType.isAmbiguousState(state)) {
+                        continue;
+                    }
+                    if (state < 0 || state >= (1 << planeCount)) {
+                        return null;
+                    }
+                    long[] taxonBits = bits[taxon];
+                    taxonBits[offset] |= mask;
+                    for (int k = 0; k < planeCount; k++) {
+                        if ((state & (1 << k)) != 0) {
+                            taxonBits[offset + 1 + k] |= mask;
+                        }
+                    }
+                }
+                bit++;
+            }
+            word += (bit + 63) >>> 6;
+        }
+
+        return new BitPackedPatterns(bits, planeCount, groupWeights, groupEnds);
+    }
+
+    private BitPackedPatterns(long[][] bits, int planeCount, long[] groupWeights, int[] groupEnds) {
+        this.bits = bits;
+        this.planeCount = planeCount;
+        this.stride = planeCount + 1;
+        this.groupWeights = groupWeights;
+        this.groupEnds = groupEnds;
+    }
+
+    /**
+     * @return the summed weight of the patterns in which both taxa have unambiguous but different states
+     */
+    public double getMismatchWeight(int taxon1, int taxon2) {
+        final long[] bits1 = bits[taxon1];
+        final long[] bits2 = bits[taxon2];
+
+        long sum = 0;
+        int word = 0;
+        for (int g = 0; g < groupEnds.length; g++) {
+            final int end = groupEnds[g];
+            long count = 0;
+            if (planeCount == 2) {
+                // nucleotides
+                for (int offset = word * 3; word < end; word++, offset += 3) {
+                    final long diff = (bits1[offset + 1] ^ bits2[offset + 1]) | (bits1[offset + 2] ^ bits2[offset + 2]);
+                    count += Long.bitCount(bits1[offset] & bits2[offset] & diff);
+                }
+            } else {
+                for (; word < end; word++) {
+                    final int offset = word * stride;
+                    long diff = 0;
+                    for (int k = 1; k <= planeCount; k++) {
+                        diff |= bits1[offset + k] ^ bits2[offset + k];
+                    }
+                    count += Long.bitCount(bits1[offset] & bits2[offset] & diff);
+                }
+            }
+            sum += count * groupWeights[g];
+        }
+        return (double) sum;
+    }
+
+    /**
+     * @return the summed weight of the patterns in which one taxon has state1 and the other state2
+     */
+    public double getMismatchWeight(int taxon1, int taxon2, int state1, int state2) {
+        final long[] bits1 = bits[taxon1];
+        final long[] bits2 = bits[taxon2];
+
+        // a plane matches a state where (plane ^ flip) is zero for every plane
+        final long[] flip1 = getPlaneFlips(state1);
+        final long[] flip2 = getPlaneFlips(state2);
+
+        long sum = 0;
+        int word = 0;
+        for (int g = 0; g < groupEnds.length; g++) {
+            final int end = groupEnds[g];
+            long count = 0;
+            if (planeCount == 2) {
+                // nucleotides
+                final long f10 = flip1[0], f11 = flip1[1], f20 = flip2[0], f21 = flip2[1];
+                for (int offset = word * 3; word < end; word++, offset += 3) {
+                    final long a0 = bits1[offset + 1], a1 = bits1[offset + 2];
+                    final long b0 = bits2[offset + 1], b1 = bits2[offset + 2];
+                    final long miss = (((a0 ^ f10) | (a1 ^ f11)) | ((b0 ^ f20) | (b1 ^ f21))) &
+                            (((a0 ^ f20) | (a1 ^ f21)) | ((b0 ^ f10) | (b1 ^ f11)));
+                    count += Long.bitCount(bits1[offset] & bits2[offset] & ~miss);
+                }
+            } else {
+                for (; word < end; word++) {
+                    final int offset = word * stride;
+                    long miss12 = 0;
+                    long miss21 = 0;
+                    for (int k = 0; k < planeCount; k++) {
+                        final long a = bits1[offset + 1 + k];
+                        final long b = bits2[offset + 1 + k];
+                        miss12 |= (a ^ flip1[k]) | (b ^ flip2[k]);
+                        miss21 |= (a ^ flip2[k]) | (b ^ flip1[k]);
+                    }
+                    count += Long.bitCount(bits1[offset] & bits2[offset] & ~(miss12 & miss21));
+                }
+            }
+            sum += count * groupWeights[g];
+        }
+        return (double) sum;
+    }
+
+    private long[] getPlaneFlips(int state) {
+        long[] flips = new long[planeCount];
+        for (int k = 0; k < planeCount; k++) {
+            flips[k] = (state & (1 << k)) != 0 ? ~0L : 0L;
+        }
+        return flips;
+    }
+
+    private final long[][] bits;
+    private final int planeCount;
+    private final int stride;
+    private final long[] groupWeights;
+    private final int[] groupEnds;
+}
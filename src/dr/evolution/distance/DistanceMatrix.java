@@ -32,6 +32,7 @@ import dr.evolution.util.TaxonList;
 import dr.matrix.Matrix;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * storage for pairwise distance matrices.<p>
@@ -58,7 +59,7 @@ public class DistanceMatrix extends Matrix.AbstractMatrix implements TaxonList {
         super();
         this.taxa = taxa;
         dimension = taxa.getTaxonCount();
-        distances = new double[dimension][dimension];
+        distances = createDistances(dimension);
         distancesKnown = true;
     }
 
@@ -78,6 +79,7 @@ public class DistanceMatrix extends Matrix.AbstractMatrix implements TaxonList {
         this.patterns = patterns;
         dimension = patterns.getTaxonCount();
         dataType = patterns.getDataType();
+        packedPatterns = null;
         distancesKnown = false;
     }
 
@@ -104,11 +106,12 @@ public class DistanceMatrix extends Matrix.AbstractMatrix implements TaxonList {
             calculateDistances();
         }
 
-        return distances[row][column];
+        return distances[getIndex(row, column)];
     }
 
     /**
-     * set an element - this overwrites any existing elements
+     * set an element - this overwrites any existing elements. The matrix is symmetric so
+     * this also sets the element at (column, row).
      */
     public void setElement(int row, int column, double value) {
 
@@ -116,30 +119,128 @@ public class DistanceMatrix extends Matrix.AbstractMatrix implements TaxonList {
             calculateDistances();
         }
 
-        distances[row][column] = value;
+        distances[getIndex(row, column)] = value;
     }
 
     /**
      * Calculate the distances
      */
     public void calculateDistances() {
-        distances = new double[dimension][dimension];
+        distances = createDistances(dimension);
 
-        for (int i = 0; i < dimension; i++) {
-            for (int j = i + 1; j < dimension; j++) {
-                distances[i][j] = calculatePairwiseDistance(i, j);
-                distances[j][i] = distances[i][j];
+        if (patterns != null) {
+            sumWeight = 0.0;
+            for (int i = 0; i < patterns.getPatternCount(); i++) {
+                sumWeight += patterns.getPatternWeight(i);
+            }
+            packedPatterns = (isUsingPackedPatterns() ? BitPackedPatterns.create(patterns) : null);
+        }
+
+        // pairs of tiles are independent so large matrices are filled in parallel
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        if (threadCount > 1 && isWorthCalculatingInParallel()) {
+            calculateTilesInParallel(threadCount);
+        } else {
+            int tileCount = (dimension + TILE_SIZE - 1) / TILE_SIZE;
+            for (int tile1 = 0; tile1 < tileCount; tile1++) {
+                for (int tile2 = tile1; tile2 < tileCount; tile2++) {
+                    calculateTile(tile1, tile2);
+                }
             }
-            distances[i][i] = 0.0;
         }
 
         distancesKnown = true;
     }
 
+    /**
+     * @return true if the matrix should be filled by several threads. Subclasses only opt in by overriding
+     * this when their calculatePairwiseDistance is thread safe; a plain DistanceMatrix (observed distances)
+     * is filled in parallel when there is enough work.
+     */
+    protected boolean isWorthCalculatingInParallel() {
+        return getClass() == DistanceMatrix.class && hasParallelPatternWork();
+    }
+
+    /**
+     * @return true if comparing the patterns of every pair of taxa is enough work to be spread across threads
+     */
+    protected final boolean hasParallelPatternWork() {
+        return patterns != null && (double) dimension * dimension * patterns.getPatternCount() >= MIN_PARALLEL_WORK;
+    }
+
+    /**
+     * @return true if calculatePairwiseDistance counts differences with the packed patterns (subclasses
+     * that calculate their distances some other way should return false so the patterns are not packed)
+     */
+    protected boolean isUsingPackedPatterns() {
+        return true;
+    }
+
+    private void calculateTilesInParallel(int threadCount) {
+        final int tileCount = (dimension + TILE_SIZE - 1) / TILE_SIZE;
+        final int taskCount = Math.min(threadCount, (tileCount * (tileCount + 1)) / 2);
+
+        ExecutorService pool = Executors.newFixedThreadPool(taskCount, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "distance-matrix");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            for (int t = 0; t < taskCount; t++) {
+                final int first = t;
+                tasks.add(new Callable<Object>() {
+                    public Object call() {
+                        int k = 0;
+                        for (int tile1 = 0; tile1 < tileCount; tile1++) {
+                            for (int tile2 = tile1; tile2 < tileCount; tile2++) {
+                                if (k % taskCount == first) {
+                                    calculateTile(tile1, tile2);
+                                }
+                                k++;
+                            }
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<Object> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while calculating distances");
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            }
+            throw new RuntimeException(ee.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void calculateTile(int tile1, int tile2) {
+        int end1 = Math.min(dimension, (tile1 + 1) * TILE_SIZE);
+        int end2 = Math.min(dimension, (tile2 + 1) * TILE_SIZE);
+        for (int i = tile1 * TILE_SIZE; i < end1; i++) {
+            for (int j = Math.max(i + 1, tile2 * TILE_SIZE); j < end2; j++) {
+                distances[getIndex(i, j)] = calculatePairwiseDistance(i, j);
+            }
+        }
+    }
+
     /**
      * Calculate a pairwise distance
      */
     protected double calculatePairwiseDistance(int taxon1, int taxon2) {
+        if (packedPatterns != null) {
+            return packedPatterns.getMismatchWeight(taxon1, taxon2) / sumWeight;
+        }
+
         int state1, state2;
 
         int n = patterns.getPatternCount();
@@ -183,7 +284,7 @@ public class DistanceMatrix extends Matrix.AbstractMatrix implements TaxonList {
         for (int i = 0; i < dimension; i++) {
             for (int j = 0; j < dimension; j++) {
                 if (i != j) {
-                    dist += distances[i][j];
+                    dist += distances[getIndex(i, j)];
                     count += 1;
                 }
             }
@@ -298,14 +399,46 @@ public class DistanceMatrix extends Matrix.AbstractMatrix implements TaxonList {
         this.id = id;
     }
 
+    /**
+     * The distances are held as a packed upper triangle (including the diagonal) in row order
+     */
+    private static double[] createDistances(int dimension) {
+        if (((long) dimension * (dimension + 1)) / 2 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("too many taxa in distance matrix");
+        }
+        return new double[(dimension * (dimension + 1)) / 2];
+    }
+
+    private int getIndex(int row, int column) {
+        if (row > column) {
+            int tmp = row;
+            row = column;
+            column = tmp;
+        }
+        if (column >= dimension || row < 0) {
+            throw new ArrayIndexOutOfBoundsException(column >= dimension ? column : row);
+        }
+        return (int) (((long) row * (2 * dimension - row - 1)) / 2) + column;
+    }
+
     //
     // Private stuff
     //
 
+    private static final int TILE_SIZE = 64;
+    private static final double MIN_PARALLEL_WORK = 1 << 24;
+
     protected DataType dataType = null;
     int dimension = 0;
     boolean distancesKnown;
-    private double[][] distances = null;
+    private double[] distances = null;
+
+    /**
+     * The patterns packed as bit vectors and their total weight (set by calculateDistances)
+     */
+    protected BitPackedPatterns packedPatterns = null;
+    protected double sumWeight = 0.0;
+
     protected PatternList patterns = null;
     private TaxonList taxa = null;
 }
@@ -77,6 +77,10 @@ public class F84DistanceMatrix extends DistanceMatrix
 		constC =  (freqR * freqY);
 	}
 		
+	protected boolean isWorthCalculatingInParallel() {
+		return hasParallelPatternWork();
+	}
+
 	/**
 	 * Calculate a pairwise distance
 	 */
@@ -90,25 +94,32 @@ public class F84DistanceMatrix extends DistanceMatrix
 		double sumWeight = 0.0;
 		
 		int[] pattern;
-		
-		for (int i = 0; i < n; i++) {
-			pattern = patterns.getPattern(i);
-			
-			state1 = pattern[taxon1];
-			state2 = pattern[taxon2];
-			
-			weight = patterns.getPatternWeight(i);
-			if (!dataType.isAmbiguousState(state1) && !dataType.isAmbiguousState(state2) && state1 != state2) {
 
-				if ((state1 == 0 && state2 == 2) || (state1 == 2 && state2 == 0)) { 
-					// it's a transition
-					sumTs += weight;
-				} else {
-					// it's a transversion
-					sumTv += weight;
+		if (packedPatterns != null) {
+			// only A <-> G is counted as a transition
+			sumTs = packedPatterns.getMismatchWeight(taxon1, taxon2, 0, 2);
+			sumTv = packedPatterns.getMismatchWeight(taxon1, taxon2) - sumTs;
+			sumWeight = this.sumWeight;
+		} else {
+			for (int i = 0; i < n; i++) {
+				pattern = patterns.getPattern(i);
+
+				state1 = pattern[taxon1];
+				state2 = pattern[taxon2];
+
+				weight = patterns.getPatternWeight(i);
+				if (!dataType.isAmbiguousState(state1) && !dataType.isAmbiguousState(state2) && state1 != state2) {
+
+					if ((state1 == 0 && state2 == 2) || (state1 == 2 && state2 == 0)) {
+						// it's a transition
+						sumTs += weight;
+					} else {
+						// it's a transversion
+						sumTv += weight;
+					}
 				}
+				sumWeight += weight;
 			}
-			sumWeight += weight;
 		}
 		
 		double P = sumTs / sumWeight;
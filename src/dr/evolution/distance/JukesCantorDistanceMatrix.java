@@ -65,6 +65,10 @@ public class JukesCantorDistanceMatrix extends DistanceMatrix
 		const2 = ((double) stateCount) / (stateCount - 1) ;
 	}
 		
+	protected boolean isWorthCalculatingInParallel() {
+		return hasParallelPatternWork();
+	}
+
 	/**
 	 * Calculate a pairwise distance
 	 */
@@ -31,18 +31,38 @@ import dr.evolution.io.NexusImporter;
 import dr.evolution.io.Importer;
 import dr.matrix.Matrix;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
 import java.io.*;
 
 
 /**
+ * Patristic (path length) distances between the tips of a tree. Each distance is found from the
+ * distances of the tips and their most recent common ancestor to the root, with the common ancestor
+ * given in constant time by a range minimum query over an Euler tour of the tree. Because the path
+ * length is the difference of two sums from the root, it agrees with adding up the branch lengths
+ * along the path only to within rounding error. Single elements are calculated on demand and the
+ * full matrix is only filled (in parallel for large trees) if calculateDistances is called or an
+ * element is set.
+ *
  * @author Alexei Drummond
  */
 public class PatristicDistanceMatrix extends DistanceMatrix {
 
+    private static final double MIN_PARALLEL_PAIRS = 1 << 22;
+
     Tree tree;
 
+    // the distance of each node (by number) from the root
+    private final double[] rootDistances;
+
+    // the tips' distances from the root and first positions in the Euler tour
+    private final double[] tipRootDistances;
+    private final int[] tipTourPositions;
+
+    // sparseTable[k][i] is the shallowest node in tour positions [i, i + 2^k)
+    private final int[][] sparseTable;
+    private final int[] nodeDepths;
+
     public PatristicDistanceMatrix(Tree tree) {
 
         this.tree = tree;
@@ -50,27 +70,102 @@ public class PatristicDistanceMatrix extends DistanceMatrix {
         dimension = tree.getExternalNodeCount();
         distancesKnown = false;
 
-        calculateDistances();
-    }
+        int nodeCount = tree.getNodeCount();
+        rootDistances = new double[nodeCount];
+        nodeDepths = new int[nodeCount];
+        int[] firstPositions = new int[nodeCount];
+        int[] tour = new int[2 * nodeCount - 1];
+
+        // an iterative Euler tour recording each node as it is entered and as each child returns
+        NodeRef[] stack = new NodeRef[nodeCount];
+        int[] nextChild = new int[nodeCount];
+        int top = 0;
+        int position = 0;
+        NodeRef root = tree.getRoot();
+        stack[top++] = root;
+        firstPositions[root.getNumber()] = position;
+        tour[position++] = root.getNumber();
+        while (top > 0) {
+            NodeRef node = stack[top - 1];
+            if (nextChild[top - 1] < tree.getChildCount(node)) {
+                NodeRef child = tree.getChild(node, nextChild[top - 1]);
+                nextChild[top - 1]++;
+                int number = child.getNumber();
+                rootDistances[number] = rootDistances[node.getNumber()] + tree.getBranchLength(child);
+                nodeDepths[number] = top;
+                firstPositions[number] = position;
+                tour[position++] = number;
+                nextChild[top] = 0;
+                stack[top++] = child;
+            } else {
+                top--;
+                if (top > 0) {
+                    tour[position++] = stack[top - 1].getNumber();
+                }
+            }
+        }
 
-    protected double calculatePairwiseDistance(final int taxon1, int taxon2) {
+        int levels = 1;
+        while ((1 << levels) <= position) {
+            levels++;
+        }
+        sparseTable = new int[levels][];
+        sparseTable[0] = Arrays.copyOf(tour, position);
+        for (int k = 1; k < levels; k++) {
+            int half = 1 << (k - 1);
+            int[] previous = sparseTable[k - 1];
+            int[] level = new int[position - (1 << k) + 1];
+            for (int i = 0; i < level.length; i++) {
+                int left = previous[i];
+                int right = previous[i + half];
+                level[i] = (nodeDepths[left] <= nodeDepths[right] ? left : right);
+            }
+            sparseTable[k] = level;
+        }
 
-        NodeRef node1 = tree.getExternalNode(taxon1);
-        NodeRef node2 = tree.getExternalNode(taxon2);
+        tipRootDistances = new double[dimension];
+        tipTourPositions = new int[dimension];
+        for (int i = 0; i < dimension; i++) {
+            int number = tree.getExternalNode(i).getNumber();
+            tipRootDistances[i] = rootDistances[number];
+            tipTourPositions[i] = firstPositions[number];
+        }
+    }
 
-        Set<String> nodes = new HashSet<String>();
-        nodes.add(tree.getNodeTaxon(node1).getId());
-        nodes.add(tree.getNodeTaxon(node2).getId());
+    /**
+     * @return an element, calculated directly from the tree unless the full matrix has been filled
+     */
+    public double getElement(int row, int column) {
+        if (distancesKnown) {
+            return super.getElement(row, column);
+        }
+        if (row == column) {
+            return 0.0;
+        }
+        return calculatePairwiseDistance(row, column);
+    }
 
-        NodeRef ancestor = Tree.Utils.getCommonAncestorNode(tree, nodes);
+    protected boolean isWorthCalculatingInParallel() {
+        return (double) dimension * dimension >= MIN_PARALLEL_PAIRS;
+    }
 
-        if (ancestor == null) System.out.println("common ancestor is null!");
+    protected double calculatePairwiseDistance(final int taxon1, int taxon2) {
 
-        double height1 = height(tree, node1, ancestor);
-        double height2 = height(tree, node2, ancestor);
+        int ancestor = getCommonAncestor(tipTourPositions[taxon1], tipTourPositions[taxon2]);
 
-        return height1 + height2;
+        return tipRootDistances[taxon1] + tipRootDistances[taxon2] - 2.0 * rootDistances[ancestor];
+    }
 
+    private int getCommonAncestor(int position1, int position2) {
+        if (position1 > position2) {
+            int tmp = position1;
+            position1 = position2;
+            position2 = tmp;
+        }
+        int k = 31 - Integer.numberOfLeadingZeros(position2 - position1 + 1);
+        int left = sparseTable[k][position1];
+        int right = sparseTable[k][position2 - (1 << k) + 1];
+        return (nodeDepths[left] <= nodeDepths[right] ? left : right);
     }
 
     public double height(Tree tree, NodeRef node, NodeRef ancestor) {
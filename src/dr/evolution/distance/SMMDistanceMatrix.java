@@ -44,6 +44,14 @@ public class SMMDistanceMatrix extends DistanceMatrix{
         super(patterns);
     }
 
+    protected boolean isUsingPackedPatterns() {
+        return false;
+    }
+
+    protected boolean isWorthCalculatingInParallel() {
+        return hasParallelPatternWork();
+    }
+
     protected double calculatePairwiseDistance(int taxon1, int taxon2) {
 
         int[] pattern = patterns.getPattern(0);
@@ -26,16 +26,20 @@
 package dr.evolution.io;
 
 import dr.evolution.alignment.Alignment;
+import dr.evolution.alignment.CompactAlignment;
 import dr.evolution.alignment.SimpleAlignment;
 import dr.evolution.datatype.DataType;
 import dr.evolution.sequence.Sequence;
 import dr.evolution.sequence.SequenceList;
+import dr.evolution.util.Taxa;
 import dr.evolution.util.Taxon;
 
-import java.io.EOFException;
-import java.io.IOException;
-import java.io.Reader;
-import java.io.Writer;
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.StringTokenizer;
 
 /**
@@ -49,6 +53,9 @@ import java.util.StringTokenizer;
 public class FastaImporter extends Importer implements SequenceImporter {
 
     public static final char FASTA_FIRST_CHAR = '>';
+
+    // the largest region of a file that can be mapped at once
+    private static final long MAP_REGION_SIZE = Integer.MAX_VALUE;
     
     /**
      * Constructor
@@ -103,6 +110,139 @@ public class FastaImporter extends Importer implements SequenceImporter {
         return importAlignment();
     }
 
+    /**
+     * Imports an alignment by reading the file through a memory map straight into a CompactAlignment,
+     * one byte per character, without building a string for each sequence. As with importAlignment,
+     * sequences shorter than the longest are padded with gaps.
+     */
+    public static CompactAlignment importCompactAlignment(File file, DataType dataType) throws IOException, ImportException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+
+            // the first pass finds the names and lengths of the sequences so the alignment can be
+            // allocated at its final size
+            Taxa taxa = new Taxa();
+            List<Integer> lengths = new ArrayList<Integer>();
+            int siteCount = 0;
+
+            MappedFileReader reader = new MappedFileReader(channel);
+            int ch = skipToFirstSequence(reader);
+            while (ch == FASTA_FIRST_CHAR) {
+                ByteArrayOutputStream name = new ByteArrayOutputStream();
+                ch = reader.read();
+                while (ch != -1 && ch != '\n' && ch != '\r') {
+                    name.write(ch);
+                    ch = reader.read();
+                }
+                taxa.addTaxon(new Taxon(name.toString("UTF-8").trim()));
+
+                int length = 0;
+                while (ch != -1 && ch != FASTA_FIRST_CHAR) {
+                    if (!isWhitespace(ch)) {
+                        length++;
+                    }
+                    ch = reader.read();
+                }
+                lengths.add(length);
+                siteCount = Math.max(siteCount, length);
+            }
+
+            if (taxa.getTaxonCount() == 0) {
+                throw new ImportException("No sequences found in FASTA file, " + file.getName());
+            }
+
+            boolean[] valid = new boolean[128];
+            char[] validChars = dataType.getValidChars();
+            if (validChars != null) {
+                for (char c : validChars) {
+                    if (c < valid.length) {
+                        valid[c] = true;
+                    }
+                }
+            } else {
+                Arrays.fill(valid, true);
+            }
+
+            byte[][] characters = new byte[siteCount][taxa.getTaxonCount()];
+
+            reader = new MappedFileReader(channel);
+            ch = skipToFirstSequence(reader);
+            for (int taxon = 0; taxon < taxa.getTaxonCount(); taxon++) {
+                while (ch != -1 && ch != '\n' && ch != '\r') {
+                    ch = reader.read();
+                }
+
+                int site = 0;
+                while (ch != -1 && ch != FASTA_FIRST_CHAR) {
+                    if (!isWhitespace(ch)) {
+                        if (ch >= 'a' && ch <= 'z') {
+                            ch = Character.toUpperCase(ch);
+                        }
+                        if (ch >= valid.length || !valid[ch]) {
+                            throw new ImportException("Sequence of " + taxa.getTaxonId(taxon)
+                                    + " contains invalid char \'" + (char) ch + "\' at index " + site);
+                        }
+                        characters[site][taxon] = (byte) ch;
+                        site++;
+                    }
+                    ch = reader.read();
+                }
+
+                for (; site < siteCount; site++) {
+                    characters[site][taxon] = (byte) DataType.GAP_CHARACTER;
+                }
+            }
+
+            return new CompactAlignment(taxa, characters, dataType);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static int skipToFirstSequence(MappedFileReader reader) throws IOException {
+        int ch = reader.read();
+        while (ch != -1 && ch != FASTA_FIRST_CHAR) {
+            ch = reader.read();
+        }
+        return ch;
+    }
+
+    private static boolean isWhitespace(int ch) {
+        return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\r' || ch == '\f' || ch == 0x0B;
+    }
+
+    /**
+     * Reads the bytes of a file through memory maps of up to MAP_REGION_SIZE bytes.
+     */
+    private static class MappedFileReader {
+
+        MappedFileReader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        /**
+         * @return the next byte of the file or -1 at the end
+         */
+        int read() throws IOException {
+            if (buffer == null || !buffer.hasRemaining()) {
+                if (position >= size) {
+                    return -1;
+                }
+                long length = Math.min(MAP_REGION_SIZE, size - position);
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                position += length;
+            }
+            return buffer.get() & 0xFF;
+        }
+
+        private final FileChannel channel;
+        private final long size;
+        private long position = 0;
+        private MappedByteBuffer buffer = null;
+    }
+
     private DataType dataType;
     private int maxNameLength = 10;
 }
\ No newline at end of file
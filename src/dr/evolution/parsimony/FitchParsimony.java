@@ -27,6 +27,7 @@ package dr.evolution.parsimony;
 
 import dr.evolution.alignment.PatternList;
 import dr.evolution.alignment.Patterns;
+import dr.evolution.datatype.DataType;
 import dr.evolution.datatype.Nucleotides;
 import dr.evolution.tree.FlexibleNode;
 import dr.evolution.tree.FlexibleTree;
@@ -34,10 +35,20 @@ import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
 import dr.evolution.util.Taxon;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
 /**
  * Class for reconstructing characters using Fitch parsimony. This is intended to be much faster
  * than the static methods in the utility "Parsimony" class.
  *
+ * The state sets are held as bit planes, one per state, packed across the patterns into 64 bit
+ * words so the union and intersection for 64 patterns are done at once. Only the nodes that have
+ * been flagged with updateNode (and their ancestors) are recalculated when the same tree is
+ * scored again.
+ *
  * @author Andrew Rambaut
  * @author Alexei Drummond
  * @version $Id: FitchParsimony.java,v 1.4 2005/06/22 16:44:18 rambaut Exp $
@@ -47,13 +58,26 @@ public class FitchParsimony implements ParsimonyCriterion {
     private final int stateCount;
     private final boolean gapsAreStates;
 
-    private boolean[][][] stateSets;
+    private final int patternCount;
+    private final int wordCount;
+    private final long lastWordMask;
+
+    // the packed state sets for each taxon in the patterns, word by word with a bit per state
+    private final long[][] taxonStateSets;
+
+    private long[][] stateSets;
+    private long[][] stepSets;
+    private long[][] reconstructedSets;
     private int[][] states;
 
+    private boolean[] nodeChanged;
+    private boolean anyNodeChanged = false;
+
+    private final long[] unionBuffer;
+
     private Tree tree = null;
     private final PatternList patterns;
 
-    private boolean hasCalculatedSteps = false;
     private boolean hasRecontructedStates = false;
 
     private final double[] siteScores;
@@ -77,7 +101,47 @@ public class FitchParsimony implements ParsimonyCriterion {
         }
 
         this.patterns = patterns;
-        this.siteScores = new double[patterns.getPatternCount()];
+        this.patternCount = patterns.getPatternCount();
+        this.wordCount = (patternCount + 63) / 64;
+        this.lastWordMask = (patternCount % 64 == 0 ? ~0L : (1L << (patternCount % 64)) - 1);
+        this.siteScores = new double[patternCount];
+        this.unionBuffer = new long[stateCount];
+
+        DataType dataType = patterns.getDataType();
+        taxonStateSets = new long[patterns.getTaxonCount()][wordCount * stateCount];
+        for (int i = 0; i < patternCount; i++) {
+            int[] pattern = patterns.getPattern(i);
+            int offset = (i / 64) * stateCount;
+            long bit = 1L << (i % 64);
+            for (int j = 0; j < pattern.length; j++) {
+                long[] stateSet = taxonStateSets[j];
+                if (gapsAreStates && dataType.isGapState(pattern[j])) {
+                    stateSet[offset + stateCount - 1] |= bit;
+                } else {
+                    boolean[] set = dataType.getStateSet(pattern[j]);
+                    for (int k = 0; k < set.length; k++) {
+                        if (set[k]) {
+                            stateSet[offset + k] |= bit;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A copy which shares the packed taxon state sets (but nothing else) with the source
+     */
+    private FitchParsimony(FitchParsimony source) {
+        this.stateCount = source.stateCount;
+        this.gapsAreStates = source.gapsAreStates;
+        this.patterns = source.patterns;
+        this.patternCount = source.patternCount;
+        this.wordCount = source.wordCount;
+        this.lastWordMask = source.lastWordMask;
+        this.taxonStateSets = source.taxonStateSets;
+        this.siteScores = new double[patternCount];
+        this.unionBuffer = new long[stateCount];
     }
 
     /**
@@ -99,12 +163,10 @@ public class FitchParsimony implements ParsimonyCriterion {
             initialize(tree);
         }
 
-        if (!hasCalculatedSteps) {
-            for (int i = 0; i < siteScores.length; i++) {
-                siteScores[i] = 0;
-            }
-            calculateSteps(tree, tree.getRoot(), patterns);
-            hasCalculatedSteps = true;
+        if (anyNodeChanged) {
+            calculateSteps(tree);
+            anyNodeChanged = false;
+            hasRecontructedStates = false;
         }
 
 
@@ -141,7 +203,7 @@ public class FitchParsimony implements ParsimonyCriterion {
         getSiteScores(tree);
 
         if (!hasRecontructedStates) {
-            reconstructStates(tree, tree.getRoot(), null);
+            reconstructStates(tree);
             hasRecontructedStates = true;
         }
 
@@ -152,129 +214,262 @@ public class FitchParsimony implements ParsimonyCriterion {
 
         this.tree = tree;
 
-        hasCalculatedSteps = false;
         hasRecontructedStates = false;
 
-        stateSets = new boolean[tree.getNodeCount()][patterns.getPatternCount()][];
-        states = new int[tree.getNodeCount()][patterns.getPatternCount()];
+        int nodeCount = tree.getNodeCount();
+        stateSets = new long[nodeCount][];
+        stepSets = new long[nodeCount][];
+        reconstructedSets = null;
+        states = null;
+        nodeChanged = new boolean[nodeCount];
 
-        for (int i = 0; i < patterns.getPatternCount(); i++) {
-            int[] pattern = patterns.getPattern(i);
-            for (int j = 0; j < tree.getExternalNodeCount(); j++) {
-                NodeRef node = tree.getExternalNode(j);
-                int state = pattern[patterns.getTaxonIndex(tree.getNodeTaxon(node).getId())];
-                if (gapsAreStates) {
-                    stateSets[j][i] = new boolean[stateCount];
-                    if (patterns.getDataType().isGapState(state)) {
-                        stateSets[j][i][stateCount - 1] = true;
-                    } else {
-                        boolean[] stateSet = patterns.getDataType().getStateSet(state);
-                        for (int k = 0; k < stateSet.length; k++) {
-                            stateSets[j][i][k] = stateSet[k];
-                        }
-                    }
-                } else {
-                    stateSets[j][i] = patterns.getDataType().getStateSet(state);
-                }
-            }
+        for (int j = 0; j < tree.getExternalNodeCount(); j++) {
+            NodeRef node = tree.getExternalNode(j);
+            stateSets[node.getNumber()] = taxonStateSets[patterns.getTaxonIndex(tree.getNodeTaxon(node).getId())];
+        }
+        for (int j = 0; j < tree.getInternalNodeCount(); j++) {
+            NodeRef node = tree.getInternalNode(j);
+            stateSets[node.getNumber()] = new long[wordCount * stateCount];
+            stepSets[node.getNumber()] = new long[wordCount];
+        }
+
+        Arrays.fill(siteScores, 0.0);
+        updateAllNodes();
+    }
+
+    /**
+     * Flags a node whose children have changed (i.e., a topology change) so it and its
+     * ancestors are recalculated on the next call.
+     *
+     * @param node the node
+     */
+    public void updateNode(NodeRef node) {
+        if (nodeChanged != null) {
+            nodeChanged[node.getNumber()] = true;
+            anyNodeChanged = true;
+        }
+    }
+
+    /**
+     * Flags all the nodes to be recalculated on the next call.
+     */
+    public void updateAllNodes() {
+        if (nodeChanged != null) {
+            Arrays.fill(nodeChanged, true);
+            anyNodeChanged = true;
         }
     }
 
     /**
      * This is the first pass of the Fitch algorithm. This calculates the set of states
-     * at each node and counts the total number of siteScores (the score). If that is all that
-     * is required then the second pass is not necessary.
+     * at each flagged node and its ancestors (children before parents) and updates the
+     * number of siteScores (the score). If that is all that is required then the second
+     * pass is not necessary.
      *
      * @param tree
-     * @param node
-     * @param patterns
      */
-    private void calculateSteps(Tree tree, NodeRef node, PatternList patterns) {
-
-        if (!tree.isExternal(node)) {
+    private void calculateSteps(Tree tree) {
+
+        // flag the ancestors of the changed nodes
+        boolean[] update = new boolean[nodeChanged.length];
+        for (int i = 0; i < nodeChanged.length; i++) {
+            if (nodeChanged[i]) {
+                NodeRef node = tree.getNode(i);
+                while (node != null && !update[node.getNumber()]) {
+                    update[node.getNumber()] = true;
+                    node = tree.getParent(node);
+                }
+                nodeChanged[i] = false;
+            }
+        }
 
-            for (int i = 0; i < tree.getChildCount(node); i++) {
-                calculateSteps(tree, tree.getChild(node, i), patterns);
+        // a reverse preorder of the flagged internal nodes visits children before their parents
+        int[] order = new int[tree.getInternalNodeCount()];
+        int count = 0;
+        NodeRef[] stack = new NodeRef[tree.getNodeCount()];
+        int top = 0;
+        stack[top++] = tree.getRoot();
+        while (top > 0) {
+            NodeRef node = stack[--top];
+            if (!tree.isExternal(node) && update[node.getNumber()]) {
+                order[count++] = node.getNumber();
+                for (int i = 0; i < tree.getChildCount(node); i++) {
+                    stack[top++] = tree.getChild(node, i);
+                }
             }
+        }
+
+        for (int i = count - 1; i >= 0; i--) {
+            calculateNode(tree, tree.getNode(order[i]));
+        }
+    }
 
-            for (int i = 0; i < patterns.getPatternCount(); i++) {
-                boolean[] uState = stateSets[tree.getChild(node, 0).getNumber()][i];
-                boolean[] iState = stateSets[tree.getChild(node, 0).getNumber()][i];
+    private void calculateNode(Tree tree, NodeRef node) {
 
-                for (int j = 1; j < tree.getChildCount(node); j++) {
-                    uState = union(uState, stateSets[tree.getChild(node, j).getNumber()][i]);
-                    iState = intersection(iState, stateSets[tree.getChild(node, j).getNumber()][i]);
+        int childCount = tree.getChildCount(node);
+        long[][] childSets = new long[childCount][];
+        for (int j = 0; j < childCount; j++) {
+            childSets[j] = stateSets[tree.getChild(node, j).getNumber()];
+        }
+
+        long[] stateSet = stateSets[node.getNumber()];
+        long[] stepSet = stepSets[node.getNumber()];
+
+        for (int w = 0; w < wordCount; w++) {
+            int offset = w * stateCount;
+            long any = 0;
+            for (int k = 0; k < stateCount; k++) {
+                long uState = childSets[0][offset + k];
+                long iState = uState;
+                for (int j = 1; j < childCount; j++) {
+                    uState |= childSets[j][offset + k];
+                    iState &= childSets[j][offset + k];
                 }
+                unionBuffer[k] = uState;
+                stateSet[offset + k] = iState;
+                any |= iState;
+            }
 
-                if (size(iState) > 0) {
-                    stateSets[node.getNumber()][i] = iState;
-                } else {
-                    stateSets[node.getNumber()][i] = uState;
-                    siteScores[i]++;
+            // the patterns with an empty intersection take the union and a step
+            long empty = ~any & (w == wordCount - 1 ? lastWordMask : ~0L);
+            if (empty != 0) {
+                for (int k = 0; k < stateCount; k++) {
+                    stateSet[offset + k] |= empty & unionBuffer[k];
                 }
             }
+
+            long changed = empty ^ stepSet[w];
+            if (changed != 0) {
+                addSteps(w, changed & empty, 1.0);
+                addSteps(w, changed & stepSet[w], -1.0);
+                stepSet[w] = empty;
+            }
+        }
+    }
+
+    private void addSteps(int word, long bits, double steps) {
+        while (bits != 0) {
+            siteScores[word * 64 + Long.numberOfTrailingZeros(bits)] += steps;
+            bits &= bits - 1;
         }
     }
 
     /**
      * The second pass of the Fitch algorithm. This reconstructs the ancestral states at
-     * each node.
+     * each node, taking the parent's state where it is in the node's set and otherwise
+     * the first state in the set.
      *
      * @param tree
-     * @param node
-     * @param parentStates
      */
-    private void reconstructStates(Tree tree, NodeRef node, int[] parentStates) {
+    private void reconstructStates(Tree tree) {
 
-        for (int i = 0; i < patterns.getPatternCount(); i++) {
+        int nodeCount = tree.getNodeCount();
+        if (states == null) {
+            states = new int[nodeCount][patternCount];
+            reconstructedSets = new long[nodeCount][wordCount * stateCount];
+        }
 
-            if (parentStates != null && stateSets[node.getNumber()][i][parentStates[i]]) {
-                states[node.getNumber()][i] = parentStates[i];
-            } else {
-                states[node.getNumber()][i] = firstIndex(stateSets[node.getNumber()][i]);
+        NodeRef[] stack = new NodeRef[nodeCount];
+        int top = 0;
+        stack[top++] = tree.getRoot();
+        while (top > 0) {
+            NodeRef node = stack[--top];
+            NodeRef parent = tree.getParent(node);
+
+            long[] stateSet = stateSets[node.getNumber()];
+            long[] parentStates = (parent != null ? reconstructedSets[parent.getNumber()] : null);
+            long[] nodeStates = reconstructedSets[node.getNumber()];
+            int[] nodeStateIndices = states[node.getNumber()];
+            Arrays.fill(nodeStateIndices, -1);
+
+            for (int w = 0; w < wordCount; w++) {
+                int offset = w * stateCount;
+                long inParent = 0;
+                if (parentStates != null) {
+                    for (int k = 0; k < stateCount; k++) {
+                        inParent |= stateSet[offset + k] & parentStates[offset + k];
+                    }
+                }
+                long seen = 0;
+                for (int k = 0; k < stateCount; k++) {
+                    long first = stateSet[offset + k] & ~seen;
+                    seen |= stateSet[offset + k];
+                    long chosen = (parentStates != null ? inParent & parentStates[offset + k] : 0) | (~inParent & first);
+                    nodeStates[offset + k] = chosen;
+                    while (chosen != 0) {
+                        nodeStateIndices[w * 64 + Long.numberOfTrailingZeros(chosen)] = k;
+                        chosen &= chosen - 1;
+                    }
+                }
             }
-        }
 
-        for (int i = 0; i < tree.getChildCount(node); i++) {
-            reconstructStates(tree, tree.getChild(node, i), states[node.getNumber()]);
+            for (int i = 0; i < tree.getChildCount(node); i++) {
+                stack[top++] = tree.getChild(node, i);
+            }
         }
     }
 
-    private static boolean[] union(boolean[] s1, boolean[] s2) {
-
-        boolean[] union = new boolean[s1.length];
-        for (int i = 0; i < union.length; i++) {
-            union[i] = s1[i] || s2[i];
-        }
-        return union;
-    }
+    /**
+     * Scores a set of trees (e.g., from a posterior sample) spreading them across threads. Each
+     * thread has its own state sets but they share the packed tip states.
+     *
+     * @param patterns      the patterns
+     * @param gapsAreStates whether gaps are treated as an extra state
+     * @param trees         the trees to score
+     * @param threadCount   the number of threads to use
+     * @return the parsimony score of each tree
+     */
+    public static double[] getScores(PatternList patterns, boolean gapsAreStates, final List<? extends Tree> trees, int threadCount) {
 
-    private static boolean[] intersection(boolean[] s1, boolean[] s2) {
+        final double[] scores = new double[trees.size()];
+        final FitchParsimony source = new FitchParsimony(patterns, gapsAreStates);
 
-        boolean[] intersection = new boolean[s1.length];
-        for (int i = 0; i < intersection.length; i++) {
-            intersection[i] = s1[i] && s2[i];
+        final int taskCount = Math.max(1, Math.min(threadCount, trees.size()));
+        if (taskCount == 1) {
+            for (int i = 0; i < scores.length; i++) {
+                scores[i] = source.getScore(trees.get(i));
+            }
+            return scores;
         }
-        return intersection;
-    }
 
-    private static int firstIndex(boolean[] s1) {
-
-        for (int i = 0; i < s1.length; i++) {
-            if (s1[i]) {
-                return i;
+        ExecutorService pool = Executors.newFixedThreadPool(taskCount, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "fitch-parsimony");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+            for (int t = 0; t < taskCount; t++) {
+                final int first = t;
+                tasks.add(new Callable<Object>() {
+                    public Object call() {
+                        FitchParsimony fitch = new FitchParsimony(source);
+                        for (int i = first; i < scores.length; i += taskCount) {
+                            scores[i] = fitch.getScore(trees.get(i));
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<Object> future : pool.invokeAll(tasks)) {
+                future.get();
             }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while scoring trees");
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            }
+            throw new RuntimeException(ee.getCause());
+        } finally {
+            pool.shutdown();
         }
-        return -1;
-    }
-
-    private static int size(boolean[] s1) {
 
-        int count = 0;
-        for (int i = 0; i < s1.length; i++) {
-            if (s1[i]) count += 1;
-        }
-        return count;
+        return scores;
     }
 
     public static void main(String[] argv) {
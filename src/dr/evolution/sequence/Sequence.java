@@ -45,7 +45,7 @@ public class Sequence implements Identifiable, Attributable {
      * Empty constructor.
      */
     public Sequence() {
-        sequenceString = new StringBuffer();
+        sequenceString = new StringBuilder();
     }
 
     /**
@@ -54,7 +54,7 @@ public class Sequence implements Identifiable, Attributable {
      * @param sequence a string representing the sequence
      */
     public Sequence(String sequence) {
-        sequenceString = new StringBuffer();
+        sequenceString = new StringBuilder();
         setSequenceString(sequence);
     }
 
@@ -75,7 +75,7 @@ public class Sequence implements Identifiable, Attributable {
      * @param sequence the sequence's symbol string
      */
     public Sequence(Taxon taxon, String sequence) {
-        sequenceString = new StringBuffer();
+        sequenceString = new StringBuilder();
         setTaxon(taxon);
         setSequenceString(sequence);
     }
@@ -245,7 +245,7 @@ public class Sequence implements Identifiable, Attributable {
     // **************************************************************
 
     protected Taxon taxon = null;
-    protected StringBuffer sequenceString = null;
+    protected StringBuilder sequenceString = null;
     protected DataType dataType = null;
 }
 
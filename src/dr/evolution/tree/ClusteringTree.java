@@ -27,6 +27,8 @@ package dr.evolution.tree;
 
 import dr.evolution.distance.DistanceMatrix;
 
+import java.util.Arrays;
+
 /**
  * An abstract base class for clustering algorithms from pairwise distances
  *
@@ -71,18 +73,61 @@ public abstract class ClusteringTree extends SimpleTree {
 	
 	protected double getDist(int a, int b) {
 	
-		return distance[alias[a]][alias[b]];
+		return getSlotDist(alias[a], alias[b]);
 	}
-	
+
+	/**
+	 * @return the distance between the clusters held in slots a and b (the indices into alias
+	 * that were used for the old distance[][] field). The slots of the remaining clusters stay
+	 * in the same order as their positions in alias.
+	 */
+	protected final double getSlotDist(int a, int b) {
+
+		if (a > b) {
+			return distance[rowOffset[a] + b];
+		} else if (a < b) {
+			return distance[rowOffset[b] + a];
+		}
+		return 0.0;
+	}
+
+	/**
+	 * sets the distance between the clusters held in slots a and b
+	 */
+	protected final void setSlotDist(int a, int b, double value) {
+
+		if (a > b) {
+			distance[rowOffset[a] + b] = value;
+		} else {
+			distance[rowOffset[b] + a] = value;
+		}
+	}
+
+	/**
+	 * @return the position in alias of the cluster in the given slot
+	 */
+	protected final int getPosition(int slot) {
+
+		return Arrays.binarySearch(alias, 0, numClusters, slot);
+	}
+
 	protected void init(DistanceMatrix distanceMatrix) {
 	
 		numClusters = distanceMatrix.getTaxonCount();
 		clusters = new SimpleNode[numClusters];
-		
-		distance = new double[numClusters][numClusters];
+
+		// the distances are held as a packed lower triangle
+		if (((long) numClusters * (numClusters - 1)) / 2 > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("too many taxa in distance matrix");
+		}
+		rowOffset = new int[numClusters];
+		for (int i = 0; i < numClusters; i++) {
+			rowOffset[i] = (int) (((long) i * (i - 1)) / 2);
+		}
+		distance = new double[(int) (((long) numClusters * (numClusters - 1)) / 2)];
 		for (int i = 0; i < numClusters; i++) {
-			for (int j = 0; j < numClusters; j++) {
-				distance[i][j] = distanceMatrix.getElement(i, j);
+			for (int j = 0; j < i; j++) {
+				distance[rowOffset[i] + j] = distanceMatrix.getElement(j, i);
 			}
 		}
 
@@ -116,19 +161,12 @@ public abstract class ClusteringTree extends SimpleTree {
 		for (int k = 0; k < numClusters; k++) {
 		
 			if (k != besti && k != bestj) {
-			
-				int ak = alias[k];	
-				distance[ak][abi] = distance[abi][ak] = updatedDistance(besti, bestj, k);
-				distance[ak][abj] = distance[abj][ak] = -1.0;
+				setSlotDist(alias[k], abi, updatedDistance(besti, bestj, k));
 			}
 		}
-		distance[abi][abi] = 0.0;
-		distance[abj][abj] = -1.0;
 
 		// Update alias
-		for (int i = bestj; i < numClusters-1; i++) {
-			alias[i] = alias[i+1];
-		}
+		System.arraycopy(alias, bestj + 1, alias, bestj, numClusters - bestj - 1);
 		
 		tipCount[abi] += tipCount[abj];
 		tipCount[abj] = 0;
@@ -155,7 +193,9 @@ public abstract class ClusteringTree extends SimpleTree {
 	protected int bestj, abj;
 	protected int[] tipCount;
 	protected int[] alias;
-	protected double[][] distance;
+
+	private double[] distance;
+	private int[] rowOffset;
 
 	protected int minimumTaxa;
 }
@@ -0,0 +1,349 @@
+/*
+ * CompactTreeSet.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+package dr.evolution.tree;
+
+import dr.evolution.util.Taxon;
+import dr.evolution.util.TaxonList;
+import dr.evolution.util.Units;
+import dr.util.Attributable;
+
+import java.util.*;
+
+/**
+ * A memory efficient set of trees on the same taxa. Each tree is held as two primitive arrays, the parent
+ * of each node and the node heights, and the taxa are shared between all trees. External nodes are numbered
+ * in the order of the taxon list so a given taxon has the same node number in every tree. Node and tree
+ * attributes are not kept.
+ *
+ * getTree returns a lightweight, read-only view of one tree that is created on demand.
+ */
+public class CompactTreeSet {
+
+    public CompactTreeSet(TaxonList taxa) {
+        this.taxa = new Taxon[taxa.getTaxonCount()];
+        for (int i = 0; i < this.taxa.length; i++) {
+            this.taxa[i] = taxa.getTaxon(i);
+            taxonIndices.put(this.taxa[i].getId(), i);
+        }
+        nodeCount = 2 * this.taxa.length - 1;
+    }
+
+    /**
+     * Adds a copy of the topology and node heights of a bifurcating tree.
+     *
+     * @param tree the tree, which must contain exactly the taxa of this set
+     * @return the index of the tree in the set
+     */
+    public int addTree(Tree tree) {
+        if (tree.getExternalNodeCount() != taxa.length || tree.getNodeCount() != nodeCount) {
+            throw new IllegalArgumentException("Tree has " + tree.getExternalNodeCount() +
+                    " tips and " + tree.getNodeCount() + " nodes but a bifurcating tree on " + taxa.length +
+                    " taxa was expected");
+        }
+        if (parents.size() == 0) {
+            units = tree.getUnits();
+        }
+
+        // external nodes take their taxon's index, internal nodes keep their order
+        int[] number = new int[nodeCount];
+        for (int i = 0; i < taxa.length; i++) {
+            NodeRef node = tree.getExternalNode(i);
+            Taxon taxon = tree.getNodeTaxon(node);
+            Integer index = (taxon == null ? null : taxonIndices.get(taxon.getId()));
+            if (index == null) {
+                throw new IllegalArgumentException("Tree contains a taxon, " +
+                        (taxon == null ? "null" : taxon.getId()) + ", that is not in the taxon list");
+            }
+            number[node.getNumber()] = index;
+        }
+        for (int i = 0; i < tree.getInternalNodeCount(); i++) {
+            number[tree.getInternalNode(i).getNumber()] = taxa.length + i;
+        }
+
+        int[] parents = new int[nodeCount];
+        double[] heights = new double[nodeCount];
+        boolean[] seen = new boolean[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            NodeRef node = tree.getNode(i);
+            int n = number[node.getNumber()];
+            if (seen[n]) {
+                throw new IllegalArgumentException("Tree contains the same taxon more than once");
+            }
+            seen[n] = true;
+            NodeRef parent = tree.getParent(node);
+            parents[n] = (parent == null ? -1 : number[parent.getNumber()]);
+            heights[n] = tree.getNodeHeight(node);
+        }
+
+        this.parents.add(parents);
+        this.heights.add(heights);
+        return this.parents.size() - 1;
+    }
+
+    public int getTreeCount() {
+        return parents.size();
+    }
+
+    public int getTaxonCount() {
+        return taxa.length;
+    }
+
+    /**
+     * @param index the index of the tree
+     * @return a read-only view of the tree
+     */
+    public Tree getTree(int index) {
+        return new CompactTree(parents.get(index), heights.get(index));
+    }
+
+    private class CompactTree implements Tree {
+
+        CompactTree(int[] parents, double[] heights) {
+            this.parents = parents;
+            this.heights = heights;
+
+            nodes = new Node[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                nodes[i] = new Node(i);
+            }
+            children = new int[nodeCount][];
+            int[] childCounts = new int[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                if (parents[i] < 0) {
+                    root = i;
+                } else {
+                    childCounts[parents[i]]++;
+                }
+            }
+            for (int i = 0; i < nodeCount; i++) {
+                children[i] = (childCounts[i] == 0 ? NO_CHILDREN : new int[childCounts[i]]);
+                childCounts[i] = 0;
+            }
+            for (int i = 0; i < nodeCount; i++) {
+                if (parents[i] >= 0) {
+                    children[parents[i]][childCounts[parents[i]]++] = i;
+                }
+            }
+        }
+
+        public NodeRef getRoot() {
+            return nodes[root];
+        }
+
+        public int getNodeCount() {
+            return nodeCount;
+        }
+
+        public NodeRef getNode(int i) {
+            return nodes[i];
+        }
+
+        public NodeRef getInternalNode(int i) {
+            return nodes[taxa.length + i];
+        }
+
+        public NodeRef getExternalNode(int i) {
+            return nodes[i];
+        }
+
+        public int getExternalNodeCount() {
+            return taxa.length;
+        }
+
+        public int getInternalNodeCount() {
+            return nodeCount - taxa.length;
+        }
+
+        public Taxon getNodeTaxon(NodeRef node) {
+            int n = node.getNumber();
+            return (n < taxa.length ? taxa[n] : null);
+        }
+
+        public boolean hasNodeHeights() {
+            return true;
+        }
+
+        public double getNodeHeight(NodeRef node) {
+            return heights[node.getNumber()];
+        }
+
+        public boolean hasBranchLengths() {
+            return true;
+        }
+
+        public double getBranchLength(NodeRef node) {
+            int parent = parents[node.getNumber()];
+            if (parent < 0) {
+                return 0.0;
+            }
+            return heights[parent] - heights[node.getNumber()];
+        }
+
+        public double getNodeRate(NodeRef node) {
+            return 1.0;
+        }
+
+        public Object getNodeAttribute(NodeRef node, String name) {
+            return null;
+        }
+
+        public Iterator getNodeAttributeNames(NodeRef node) {
+            return Collections.emptyList().iterator();
+        }
+
+        public boolean isExternal(NodeRef node) {
+            return children[node.getNumber()].length == 0;
+        }
+
+        public boolean isRoot(NodeRef node) {
+            return node.getNumber() == root;
+        }
+
+        public int getChildCount(NodeRef node) {
+            return children[node.getNumber()].length;
+        }
+
+        public NodeRef getChild(NodeRef node, int j) {
+            return nodes[children[node.getNumber()][j]];
+        }
+
+        public NodeRef getParent(NodeRef node) {
+            int parent = parents[node.getNumber()];
+            return (parent < 0 ? null : nodes[parent]);
+        }
+
+        public Tree getCopy() {
+            return new SimpleTree(this);
+        }
+
+        public int getTaxonCount() {
+            return taxa.length;
+        }
+
+        public Taxon getTaxon(int taxonIndex) {
+            return taxa[taxonIndex];
+        }
+
+        public String getTaxonId(int taxonIndex) {
+            return taxa[taxonIndex].getId();
+        }
+
+        public int getTaxonIndex(String id) {
+            Integer index = taxonIndices.get(id);
+            return (index == null ? -1 : index);
+        }
+
+        public int getTaxonIndex(Taxon taxon) {
+            for (int i = 0; i < taxa.length; i++) {
+                if (taxa[i] == taxon) return i;
+            }
+            return -1;
+        }
+
+        public List<Taxon> asList() {
+            return new ArrayList<Taxon>(Arrays.asList(taxa));
+        }
+
+        public Object getTaxonAttribute(int taxonIndex, String name) {
+            return taxa[taxonIndex].getAttribute(name);
+        }
+
+        public Iterator<Taxon> iterator() {
+            return asList().iterator();
+        }
+
+        public Type getUnits() {
+            return units;
+        }
+
+        public void setUnits(Type units) {
+            throw new UnsupportedOperationException("A compact tree is read-only");
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+
+        public void setAttribute(String name, Object value) {
+            if (attributes == null)
+                attributes = new Attributable.AttributeHelper();
+            attributes.setAttribute(name, value);
+        }
+
+        public Object getAttribute(String name) {
+            return (attributes == null ? null : attributes.getAttribute(name));
+        }
+
+        public Iterator<String> getAttributeNames() {
+            if (attributes == null) {
+                return Collections.<String>emptyList().iterator();
+            }
+            return attributes.getAttributeNames();
+        }
+
+        private final int[] parents;
+        private final double[] heights;
+        private final int[][] children;
+        private final Node[] nodes;
+        private int root;
+
+        private String id = null;
+        private Attributable.AttributeHelper attributes = null;
+    }
+
+    private static class Node implements NodeRef {
+
+        Node(int number) {
+            this.number = number;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public void setNumber(int n) {
+            throw new UnsupportedOperationException("A compact tree is read-only");
+        }
+
+        public String toString() {
+            return "node " + number;
+        }
+
+        private final int number;
+    }
+
+    private static final int[] NO_CHILDREN = new int[0];
+
+    private final Taxon[] taxa;
+    private final Map<String, Integer> taxonIndices = new HashMap<String, Integer>();
+    private final int nodeCount;
+    private final List<int[]> parents = new ArrayList<int[]>();
+    private final List<double[]> heights = new ArrayList<double[]>();
+    private Units.Type units = Units.Type.GENERATIONS;
+}
@@ -27,8 +27,12 @@ package dr.evolution.tree;
 
 import dr.evolution.distance.DistanceMatrix;
 
+import java.util.*;
+import java.util.concurrent.*;
+
 /**
- * constructs a neighbor-joining tree from pairwise distances
+ * constructs a neighbor-joining tree from pairwise distances. The pair to join is found with a
+ * bounded search over rows sorted by distance (as in RapidNJ) rather than a scan of every pair.
  * 
  * @version $Id: NeighborJoiningTree.java,v 1.15 2005/05/24 20:25:56 rambaut Exp $
  *
@@ -51,47 +55,296 @@ public class NeighborJoiningTree extends ClusteringTree {
 	//
 	// Private stuff
 	//
-	
+
+	// the number of clusters above which the rows are searched on several threads
+	private static final int MIN_PARALLEL_CLUSTER_COUNT = 2000;
+
+	// the sum of the distances from each cluster to all the others [slot]
 	private double[] r;
-	private double scale, maxHeight;
+	private double scale;
+
+	// the clusters that remained when each cluster was made, closest first, as sort keys
+	// (see rowKey) [slot]
+	private long[][] sortedRows;
+
+	// the join at which each cluster was made (0 for the tips) [slot]
+	private int[] birth;
+	private int joinCount;
+
+	private int threadCount;
+	private ExecutorService pool;
 
 	protected void init(DistanceMatrix distanceMatrix) {
 	
 		super.init(distanceMatrix);
 
 		r = new double[numClusters];
-		maxHeight = 0.0;
-	}
-
-	protected void findNextPair() {
-	
 		for (int i = 0; i < numClusters; i++) {
-			r[i] = 0;
 			for (int j = 0; j < numClusters; j++) {
 				r[i] += getDist(i,j);
 			}
 		}
 
-		besti = 0;
-		bestj = 1;
-		double smax = -1.0;
+		birth = new int[numClusters];
+		joinCount = 0;
+
+		threadCount = Runtime.getRuntime().availableProcessors();
+		if (threadCount > 1 && numClusters >= MIN_PARALLEL_CLUSTER_COUNT) {
+			pool = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "neighbor-joining");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+
+		// each pair of tips is held in the row of the later tip
+		sortedRows = new long[numClusters][];
+		if (pool != null) {
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(threadCount);
+			for (int k = 0; k < threadCount; k++) {
+				final int first = k;
+				tasks.add(new Callable<Object>() {
+					public Object call() {
+						for (int i = first; i < numClusters; i += threadCount) {
+							sortedRows[i] = sortRow(i, i);
+						}
+						return null;
+					}
+				});
+			}
+			invokeAll(tasks);
+		} else {
+			for (int i = 0; i < numClusters; i++) {
+				sortedRows[i] = sortRow(i, i);
+			}
+		}
+	}
+
+	/**
+	 * @return the slots of the clusters at the first count positions (other than the given slot)
+	 * sorted by their distance from the cluster in the given slot
+	 */
+	private long[] sortRow(int slot, int count) {
+
+		long[] row = new long[count];
+		int k = 0;
+		for (int j = 0; j < count; j++) {
+			int other = alias[j];
+			if (other != slot) {
+				row[k] = rowKey(getSlotDist(slot, other), other);
+				k++;
+			}
+		}
+		if (k < count) {
+			row = Arrays.copyOf(row, k);
+		}
+		Arrays.sort(row);
+		return row;
+	}
+
+	/**
+	 * @return a key that sorts by distance (rounded down to a float) and holds the slot in the
+	 * lower 32 bits
+	 */
+	private static long rowKey(double distance, int slot) {
+
+		float f = (float) distance;
+		if (f > distance) {
+			f = Math.nextAfter(f, Double.NEGATIVE_INFINITY);
+		}
+		int bits = Float.floatToIntBits(f);
+		bits ^= (bits >> 31) & 0x7fffffff;
+		return ((long) bits << 32) | slot;
+	}
+
+	/**
+	 * @return the distance held in a key (no greater than the actual distance)
+	 */
+	private static double keyDistance(long key) {
+
+		int bits = (int) (key >> 32);
+		bits ^= (bits >> 31) & 0x7fffffff;
+		return Float.intBitsToFloat(bits);
+	}
+
+	protected void findNextPair() {
+
+		if (numClusters < 3) {
+			// only the final two clusters remain
+			return;
+		}
+
+		if (numClusters <= 4) {
+			// with four clusters left each pair scores the same as the other two, and with three
+			// every pair does, so the choice (and where the root goes) is down to rounding: sum the
+			// rows afresh, as a scan of every pair does
+			for (int i = 0; i < numClusters; i++) {
+				double ri = 0.0;
+				for (int j = 0; j < numClusters; j++) {
+					ri += getDist(i,j);
+				}
+				r[alias[i]] = ri;
+			}
+		}
+
 		scale = 1.0/(numClusters-2);
-		for (int i = 0; i < numClusters-1; i++) {
-			for (int j = i+1; j < numClusters; j++) {
-				double sij = (r[i] + r[j] ) * scale - getDist(i, j);
-			
-				if (sij > smax) {
-					smax = sij;
-					besti = i;
-					bestj = j;
+
+		double rMax = -Double.MAX_VALUE;
+		for (int i = 0; i < numClusters; i++) {
+			if (r[alias[i]] > rMax) {
+				rMax = r[alias[i]];
+			}
+		}
+
+		Candidate best;
+		if (pool != null && numClusters >= MIN_PARALLEL_CLUSTER_COUNT) {
+			final double maxR = rMax;
+			List<Callable<Candidate>> tasks = new ArrayList<Callable<Candidate>>(threadCount);
+			for (int k = 0; k < threadCount; k++) {
+				final int first = k;
+				tasks.add(new Callable<Candidate>() {
+					public Candidate call() {
+						return searchRows(first, threadCount, maxR);
+					}
+				});
+			}
+			best = null;
+			for (Candidate candidate : invokeAll(tasks)) {
+				if (best == null) {
+					best = candidate;
+				} else {
+					best.offer(candidate.s, candidate.lower, candidate.upper);
 				}
 			}
+		} else {
+			best = searchRows(0, 1, rMax);
 		}
+
+		besti = getPosition(best.lower);
+		bestj = getPosition(best.upper);
 		abi = alias[besti];
 		abj = alias[bestj];
 	}
 
+	/**
+	 * Finds the pair with the largest (r[i] + r[j]) * scale - d[i][j] amongst the rows at positions
+	 * first, first + step, ... Each row is sorted by distance so it can be abandoned as soon as
+	 * even the largest r could not make up the distance (as in RapidNJ).
+	 */
+	private Candidate searchRows(int first, int step, double rMax) {
+
+		Candidate best = new Candidate(-1.0, alias[0], alias[1]);
+		for (int i = first; i < numClusters; i += step) {
+			int a = alias[i];
+			double ra = r[a];
+			double bound = (ra + rMax) * scale;
+
+			for (long key : sortedRows[a]) {
+				if (bound - keyDistance(key) < best.s) {
+					break;
+				}
+
+				int b = (int) key;
+				// skip clusters that have been joined and those made since this row
+				if (tipCount[b] == 0 || birth[b] > birth[a]) {
+					continue;
+				}
+
+				best.offer((ra + r[b]) * scale - getSlotDist(a, b), a, b);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * the best pair so far. Ties go to the first pair in the order of the clusters, as in a scan
+	 * of every pair.
+	 */
+	private static class Candidate {
+
+		Candidate(double s, int lower, int upper) {
+			this.s = s;
+			this.lower = lower;
+			this.upper = upper;
+		}
+
+		void offer(double s, int a, int b) {
+			int lower = Math.min(a, b);
+			int upper = Math.max(a, b);
+			if (s > this.s || (s == this.s && (lower < this.lower || (lower == this.lower && upper < this.upper)))) {
+				this.s = s;
+				this.lower = lower;
+				this.upper = upper;
+			}
+		}
+
+		double s;
+		int lower;
+		int upper;
+	}
+
+	private <T> List<T> invokeAll(List<Callable<T>> tasks) {
+
+		List<T> results = new ArrayList<T>(tasks.size());
+		try {
+			for (Future<T> future : pool.invokeAll(tasks)) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while building neighbor-joining tree");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+		return results;
+	}
+
+	protected void newCluster() {
+
+		int ai = abi;
+		int aj = abj;
+
+		// take the two clusters out of the sums...
+		for (int k = 0; k < numClusters; k++) {
+			int ak = alias[k];
+			if (ak != ai && ak != aj) {
+				r[ak] -= getSlotDist(ak, ai) + getSlotDist(ak, aj);
+			}
+		}
+
+		super.newCluster();
+
+		// ...and put the new one in
+		double ri = 0.0;
+		for (int k = 0; k < numClusters; k++) {
+			int ak = alias[k];
+			if (ak != ai) {
+				double d = getSlotDist(ak, ai);
+				r[ak] += d;
+				ri += d;
+			}
+		}
+		r[ai] = ri;
+		r[aj] = 0.0;
+
+		joinCount++;
+		birth[ai] = joinCount;
+		sortedRows[aj] = null;
+		sortedRows[ai] = sortRow(ai, numClusters);
+	}
+
 	protected void finish() {
+
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+		sortedRows = null;
 		
 		// Connect up the final two clusters
 		abi = alias[0];
@@ -103,28 +356,49 @@ public class NeighborJoiningTree extends ClusteringTree {
 		double l = dij * 0.5;
 		if (l < 0.0)
 			l = 0.0;
-		appendHeight(clusters[abi], l);
-		appendHeight(clusters[abj], l);
+		clusters[abi].setHeight(l);
+		clusters[abj].setHeight(l);
 
 		newCluster.setHeight(0.0);
 		
 		newCluster.addChild(clusters[abi]);
 		newCluster.addChild(clusters[abj]);
 				
-		reverseHeights(newCluster, maxHeight);
+		setHeightsFromBranchLengths(newCluster);
 		
 		super.finish();
 	}
 
-	private void reverseHeights(SimpleNode node, double totalHeight) {
-	
-		double height = totalHeight - node.getHeight();
-		node.setHeight(height);
-		
-		if (!node.isExternal()) {
-			int i, n = node.getChildCount();
-			for (i = 0; i < n; i++) {
-				reverseHeights(node.getChild(i), totalHeight);
+	/**
+	 * Until the tree is finished each node's height holds the length of the branch above it. This
+	 * turns them into heights with the furthest tip at zero.
+	 */
+	private void setHeightsFromBranchLengths(SimpleNode root) {
+
+		// the distance of each node from the root
+		double maxHeight = 0.0;
+		Deque<SimpleNode> stack = new ArrayDeque<SimpleNode>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			SimpleNode node = stack.pop();
+			for (int i = 0; i < node.getChildCount(); i++) {
+				SimpleNode child = node.getChild(i);
+				child.setHeight(node.getHeight() + child.getHeight());
+				if (child.isExternal()) {
+					if (child.getHeight() > maxHeight)
+						maxHeight = child.getHeight();
+				} else {
+					stack.push(child);
+				}
+			}
+		}
+
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			SimpleNode node = stack.pop();
+			node.setHeight(maxHeight - node.getHeight());
+			for (int i = 0; i < node.getChildCount(); i++) {
+				stack.push(node.getChild(i));
 			}
 		}
 	}
@@ -132,7 +406,7 @@ public class NeighborJoiningTree extends ClusteringTree {
 	protected double newNodeHeight() {
 	
 		double dij = getDist(besti, bestj);
-		double li = (dij + (r[besti] - r[bestj]) * scale) * 0.5;
+		double li = (dij + (r[abi] - r[abj]) * scale) * 0.5;
 		double lj = dij - li; // = (dij + (r[bestj]-r[besti])*scale)*0.5
 
 		if (li < 0.0)
@@ -140,27 +414,12 @@ public class NeighborJoiningTree extends ClusteringTree {
 			
 		if (lj < 0.0)
 			lj = 0.0;
-		
-		appendHeight(clusters[abi], li);
-		appendHeight(clusters[abj], lj);
-		
-		return 0.0;
-	}
 
-	private void appendHeight(SimpleNode node, double delta) {
-	
-		double height = node.getHeight() + delta;
-		node.setHeight(height);
+		// the branch lengths are held in the heights until the tree is finished
+		clusters[abi].setHeight(li);
+		clusters[abj].setHeight(lj);
 		
-		if (!node.isExternal()) {
-			int i, n = node.getChildCount();
-			for (i = 0; i < n; i++) {
-				appendHeight(node.getChild(i), delta);
-			}
-		} else {	
-			if (height > maxHeight)
-				maxHeight = height;
-		}
+		return 0.0;
 	}
 
 	/**
@@ -51,27 +51,84 @@ public class UPGMATree extends ClusteringTree {
 	// Protected and Private stuff
 	//
 
+	protected void init(DistanceMatrix distanceMatrix) {
+
+		super.init(distanceMatrix);
+
+		rowMin = new double[numClusters];
+		rowMinSlot = new int[numClusters];
+		for (int i = 0; i < numClusters; i++) {
+			updateRowMin(i);
+		}
+	}
+
 	protected void findNextPair() {
+
+		if (numClusters < 2) {
+			// all joined
+			return;
+		}
 	
+		// the same pair as a scan of every pair (the first closest pair in the order of the
+		// clusters) found from the closest later cluster to each cluster
 		besti = 0;
-		bestj = 1;
-		double dmin = getDist(0, 1);
-		for (int i = 0; i < numClusters-1; i++) {
+		double dmin = rowMin[alias[0]];
+		for (int i = 1; i < numClusters-1; i++) {
 		
-			for (int j = i+1; j < numClusters; j++) {
+			if (rowMin[alias[i]] < dmin) {
 			
-				if (getDist(i, j) < dmin) {
-				
-					dmin = getDist(i, j);
-					besti = i;
-					bestj = j;
-				}
+				dmin = rowMin[alias[i]];
+				besti = i;
 			}
 		}
+		bestj = getPosition(rowMinSlot[alias[besti]]);
 		abi = alias[besti];
 		abj = alias[bestj];
 	}
 
+	protected void newCluster() {
+
+		int ai = abi;
+		int aj = abj;
+
+		super.newCluster();
+
+		// only the rows whose closest cluster was joined, or which are now closer to the new
+		// cluster, change
+		for (int i = 0; i < numClusters; i++) {
+			int ak = alias[i];
+
+			if (ak == ai || rowMinSlot[ak] == ai || rowMinSlot[ak] == aj) {
+				updateRowMin(i);
+			} else if (ak < ai) {
+				double d = getSlotDist(ak, ai);
+				if (d < rowMin[ak] || (d == rowMin[ak] && ai < rowMinSlot[ak])) {
+					rowMin[ak] = d;
+					rowMinSlot[ak] = ai;
+				}
+			}
+		}
+	}
+
+	/**
+	 * finds the closest of the clusters after the one at position i
+	 */
+	private void updateRowMin(int i) {
+
+		int ai = alias[i];
+		double dmin = Double.POSITIVE_INFINITY;
+		int minSlot = -1;
+		for (int j = i+1; j < numClusters; j++) {
+			double d = getSlotDist(ai, alias[j]);
+			if (minSlot < 0 || d < dmin) {
+				dmin = d;
+				minSlot = alias[j];
+			}
+		}
+		rowMin[ai] = dmin;
+		rowMinSlot[ai] = minSlot;
+	}
+
 	protected double newNodeHeight() {
 		return getDist(besti, bestj) / 2.0;
 	}
@@ -90,4 +147,8 @@ public class UPGMATree extends ClusteringTree {
 		return 	(((double)tipCount[ai]) / tipSum) * getDist(k, i) +
 				(((double)tipCount[aj]) / tipSum) * getDist(k, j);
 	}
+
+	// the distance to the closest cluster after each cluster, and its slot [slot]
+	private double[] rowMin;
+	private int[] rowMinSlot;
 }
@@ -2669,12 +2669,13 @@ private void loadClusterTreeNodes() {
 		//do I really need to do this everytime?
 		//I always thought if I use the same tree, it won't change?
 		
+        //only the labels of nodes and viruses whose cluster changed are written
         int []membership = determine_membership_v2(treeModel);
         for(int i=0; i < numNodes; i++){
-        	clusterLabelsTreeNode.setParameterValue(i, membership[i]);
+        	Tree_Clustering_Shared_Routines.setParameterValueIfChanged(clusterLabelsTreeNode, i, membership[i]);
         }
         for(int i=0; i < numdata; i++){    
-        	clusterLabels.setParameterValue(i,membership[correspondingTreeIndexForVirus[i]] );
+        	Tree_Clustering_Shared_Routines.setParameterValueIfChanged(clusterLabels, i, membership[correspondingTreeIndexForVirus[i]] );
         }
 	}
 
@@ -2698,22 +2699,6 @@ private void loadClusterTreeNodes() {
 	    while(!list.isEmpty()){
 	    	//do things with the current object
 	    	NodeRef curElement = list.pop();
-	    	//String content = "node #" + curElement.getNumber() +", taxon=" + treeModel.getNodeTaxon(curElement) + " and parent is = " ;
-	    	String content = "node #" + curElement.getNumber() +", taxon= " ;
-	    	if(treeModel.getNodeTaxon(curElement)== null){
-	    		content += "internal node\t";
-	    	}
-	    	else{
-	    		content += treeModel.getNodeTaxon(curElement).getId() + "\t";
-	    		//content += treeModel.getTaxonIndex(treeModel.getNodeTaxon(curElement)) + "\t";
-	    	}
-	    	
-	       	if(treeModel.getParent(curElement)== null){
-	    		//content += "no parent";
-	    	}
-	    	else{
-	    		//content += "parent node#=" + treeModel.getParent(curElement).getNumber();
-	    	}
 	    	
 	    	//cluster assignment:
 	    	if(!treeModel.isRoot(curElement)){
@@ -2726,10 +2711,6 @@ private void loadClusterTreeNodes() {
 	    			membership[curElement.getNumber()] = membership[treeModel.getParent(curElement).getNumber()]; 
 	    		}        	
 	    	}//is not Root
-	    	content += " cluster = " + membership[curElement.getNumber()] ; 
-	    	
-	    //	System.out.println(content);
-	
 	    	
 	        for(int childNum=0; childNum < treeModel.getChildCount(curElement); childNum++){
 	        	list.addFirst(treeModel.getChild(curElement,childNum));
@@ -71,6 +71,11 @@ public class TreeClusteringVirusesPrior extends AbstractModelLikelihood {
 
     private Parameter siteIndicators;
     private String gp_prior;
+
+    private double[] logProbNodeOn;
+    private double[] logProbNodeOff;
+    private boolean nodeProbabilitiesKnown = false;
+    private boolean siteProbabilitiesChanged = false;
     private double prob00=0.95;
     private double prob11=0.5;
 
@@ -527,17 +532,47 @@ public double getLogLikelihood() {
 }
 
 
-private double saturatedPriorComputation() {
+//sum over the nodes (omitting the root, which has no mutation) of the log probability of its indicator given the
+//mutations on its branch. The per-node terms only depend on the site probabilities so they are cached and only
+//recomputed when probSites or siteIndicators change; a change of indicators just picks the other cached term.
+private double nodeIndicatorsContribution() {
+	if(!nodeProbabilitiesKnown){
+		calculateNodeProbabilities();
+		nodeProbabilitiesKnown = true;
+	}
 	double contribution = 0;
-	double N_nodes = (double) treeModel.getNodeCount();
+	int N_nodes = treeModel.getNodeCount();
+	for(int i=0; i < (N_nodes-1) ; i ++){
+		if( (int) indicators.getParameterValue(i) == 1){
+			contribution += logProbNodeOn[i];
+		}
+		else{
+			contribution += logProbNodeOff[i];
+		}
+	}
+	return(contribution);
+}
+
+private void calculateNodeProbabilities() {
+	int N_nodes = treeModel.getNodeCount();
+	if(logProbNodeOn == null){
+		logProbNodeOn = new double[N_nodes];
+		logProbNodeOff = new double[N_nodes];
+	}
 	
 	double []probMutationSite = new double[numSites]; 
 	for(int i=0; i < numSites; i++){
-		probMutationSite[i] = probSites.getParameterValue(i);  
+		if(gp_prior.compareTo("generic") == 0 ){
+			probMutationSite[i] = probSites.getParameterValue(0); // a single value.. not a vector
+		}
+		else if(gp_prior.compareTo("saturated") == 0 ){
+			probMutationSite[i] = probSites.getParameterValue(i);
+		}
+		else{
+			probMutationSite[i] = probSites.getParameterValue(i) * siteIndicators.getParameterValue(i) ;  //with the null-ing out the probSites with siteIndicators
+		}
  	}
 	
-	//OMIT THE ROOT NODE BECAUSE THERE IS NO MUTATION ANYWAY
-	//(N_nodes - 1)
 	for(int i=0; i < (N_nodes-1) ; i ++){
 		double prob_Node_i_On = 1;
 		double prob_allMutationsOff = 1;
@@ -550,75 +585,29 @@ private double saturatedPriorComputation() {
     	}  
 		
 		prob_Node_i_On = 1 - prob_allMutationsOff;
-		if( (int) indicators.getParameterValue(i) == 1){
-			contribution += Math.log(prob_Node_i_On);
-		}
-		else{
-			contribution += Math.log(1-prob_Node_i_On);
-		}
+		logProbNodeOn[i] = Math.log(prob_Node_i_On);
+		logProbNodeOff[i] = Math.log(1-prob_Node_i_On);
 	}
+}
+
+
+private double saturatedPriorComputation() {
+	double contribution = 0;
+	
+	contribution += nodeIndicatorsContribution();
 	return(contribution);
 }
 private double genericPriorComputation() {
 	double contribution = 0;
-	double N_nodes = (double) treeModel.getNodeCount();
 	
-	double probMutationSite = probSites.getParameterValue(0); // a single value.. not a vector
-	
-	//OMIT THE ROOT NODE BECAUSE THERE IS NO MUTATION ANYWAY
-	//(N_nodes - 1)
-	for(int i=0; i < (N_nodes-1) ; i ++){
-		double prob_Node_i_On = 1;
-		double prob_allMutationsOff = 1;
-    	if(mutationList[i] != null){
-	    	Iterator itr = mutationList[i].iterator();
-	    	while(itr.hasNext()){
-	    		int curMutation = ((Integer) itr.next()).intValue();
-				prob_allMutationsOff = prob_allMutationsOff * (1 - probMutationSite );  //offset of 1 
-	    	}
-    	}  
-		
-		prob_Node_i_On = 1 - prob_allMutationsOff;
-		if( (int) indicators.getParameterValue(i) == 1){
-			contribution += Math.log(prob_Node_i_On);
-		}
-		else{
-			contribution += Math.log(1-prob_Node_i_On);
-		}
-	}
+	contribution += nodeIndicatorsContribution();
 	return(contribution);
 }
 
 private double shrinkagePriorComputation() {
 	double contribution = 0;
-	double N_nodes = (double) treeModel.getNodeCount();
 	
-	double []probMutationSite = new double[numSites]; 
-	for(int i=0; i < numSites; i++){
-		probMutationSite[i] = probSites.getParameterValue(i) * siteIndicators.getParameterValue(i) ;  //with the null-ing out the probSites with siteIndicators
- 	}
-	
-	//OMIT THE ROOT NODE BECAUSE THERE IS NO MUTATION ANYWAY
-	//(N_nodes - 1)
-	for(int i=0; i < (N_nodes-1) ; i ++){
-		double prob_Node_i_On = 1;
-		double prob_allMutationsOff = 1;
-    	if(mutationList[i] != null){
-	    	Iterator itr = mutationList[i].iterator();
-	    	while(itr.hasNext()){
-	    		int curMutation = ((Integer) itr.next()).intValue();
-				prob_allMutationsOff = prob_allMutationsOff * (1 - probMutationSite[curMutation -1] );  //offset of 1 
-	    	}
-    	}  
-		
-		prob_Node_i_On = 1 - prob_allMutationsOff;
-		if( (int) indicators.getParameterValue(i) == 1){
-			contribution += Math.log(prob_Node_i_On);
-		}
-		else{
-			contribution += Math.log(1-prob_Node_i_On);
-		}
-	}
+	contribution += nodeIndicatorsContribution();
 	
 	
 
@@ -639,45 +628,11 @@ private double shrinkagePriorComputation() {
 }
 private double correlatedPriorComputation() {
 	double contribution = 0;
-	double N_nodes = (double) treeModel.getNodeCount();
 	
 	// p^k (1-p)^(numNodes - k)
 	//logL += K_value*Math.log( p_onValue ) + (N_nodes - K_value)*Math.log( 1- p_onValue);
 	//int numSites = 330; //now have a private variable 
-	double []probMutationSite = new double[numSites]; 
-	for(int i=0; i < numSites; i++){
-		//probMutationSite[i] = probSites.getParameterValue(i);
-		probMutationSite[i] = probSites.getParameterValue(i) * siteIndicators.getParameterValue(i) ;  //with the null-ing out the probSites with siteIndicators
- 	}
-	
-	//OMIT THE ROOT NODE BECAUSE THERE IS NO MUTATION ANYWAY
-	//(N_nodes - 1)
-	for(int i=0; i < (N_nodes-1) ; i ++){
-		double prob_Node_i_On = 1;
-		double prob_allMutationsOff = 1;
-//		for( each mutation in the node i){
-//			prob_allMutationsOff = prob_allMutationsOff * (1 - probSites.getParameterValue(curMutation_node_i)); 
-//		}
-    	if(mutationList[i] != null){
-	    	Iterator itr = mutationList[i].iterator();
-	    	while(itr.hasNext()){
-	    		int curMutation = ((Integer) itr.next()).intValue();
-				prob_allMutationsOff = prob_allMutationsOff * (1 - probMutationSite[curMutation -1] );  //offset of 1 
-	    	}
-    	}
-
-	    
-		
-		prob_Node_i_On = 1 - prob_allMutationsOff;
-		if( (int) indicators.getParameterValue(i) == 1){
-			contribution += Math.log(prob_Node_i_On);
-		}
-		else{
-			contribution += Math.log(1-prob_Node_i_On);
-		}
-		//System.out.println(logL);
-		//System.out.println("node=" + i + " prob=" + prob_Node_i_On);
-	}
+	contribution += nodeIndicatorsContribution();
 	
 	
 
@@ -1217,6 +1172,7 @@ private void setMembershipToClusterLabelIndexes(){
             }
 
     public void makeDirty() {
+    	nodeProbabilitiesKnown = false;
             }
 
     public void acceptState() {
@@ -1224,11 +1180,15 @@ private void setMembershipToClusterLabelIndexes(){
     }
 
     public void restoreState() {
-        // DO NOTHING
+    	//the cached node probabilities were computed from the proposed site probabilities
+    	if(siteProbabilitiesChanged){
+    		nodeProbabilitiesKnown = false;
+    	}
+    	siteProbabilitiesChanged = false;
     }
 
     public void storeState() {
-        // DO NOTHING
+    	siteProbabilitiesChanged = false;
     }
 
     
@@ -1243,6 +1203,10 @@ private void setMembershipToClusterLabelIndexes(){
     }
     
     protected final void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+    	if(variable == probSites || variable == siteIndicators){
+    		nodeProbabilitiesKnown = false;
+    		siteProbabilitiesChanged = true;
+    	}
     }
 
 
@@ -62,8 +62,8 @@ public class Tree_Clustering_Shared_Routines {
 		    		
 		    		
 		    		Parameter curVirusLoc = virusLocationsTreeNode.getParameter(cNode.getNumber());
-		    		curVirusLoc.setParameterValue(0, curMu.getParameterValue(0) );
-		    		curVirusLoc.setParameterValue(1, curMu.getParameterValue(1) );
+		    		setParameterValueIfChanged(curVirusLoc, 0, curMu.getParameterValue(0) );
+		    		setParameterValueIfChanged(curVirusLoc, 1, curMu.getParameterValue(1) );
 		    	}
 		    	else{
 		    		nodeloc[cNode.getNumber()][0] =   nodeloc[treeModel.getParent(cNode).getNumber()][0];
@@ -77,8 +77,8 @@ public class Tree_Clustering_Shared_Routines {
 		    		}
 		    		
 		    		Parameter curVirusLoc = virusLocationsTreeNode.getParameter(cNode.getNumber());
-		    		curVirusLoc.setParameterValue(0, nodeloc[cNode.getNumber()][0] );
-		    		curVirusLoc.setParameterValue(1,nodeloc[cNode.getNumber()][1] );
+		    		setParameterValueIfChanged(curVirusLoc, 0, nodeloc[cNode.getNumber()][0] );
+		    		setParameterValueIfChanged(curVirusLoc, 1, nodeloc[cNode.getNumber()][1] );
 		    	}
 		    	
 		    	//add all the children to the queue
@@ -97,11 +97,12 @@ public class Tree_Clustering_Shared_Routines {
   			
 		}
 
-		    //write the virus locations
+		    //write the virus locations - only the viruses in clusters whose location or membership changed are touched,
+		    //so the likelihoods listening to virusLocations only recompute those viruses
 		    for(int i=0; i < numdata; i++){
 		    	Parameter vLocParameter = virusLocations.getParameter(i);
-		    	vLocParameter.setParameterValue(0, nodeloc[correspondingTreeIndexForVirus[i]][0]);
-		    	vLocParameter.setParameterValue(1, nodeloc[correspondingTreeIndexForVirus[i]][1]);
+		    	setParameterValueIfChanged(vLocParameter, 0, nodeloc[correspondingTreeIndexForVirus[i]][0]);
+		    	setParameterValueIfChanged(vLocParameter, 1, nodeloc[correspondingTreeIndexForVirus[i]][1]);
 		    }
 			
 		    
@@ -116,6 +117,14 @@ public class Tree_Clustering_Shared_Routines {
 	
 	
 	
+	//setting a parameter fires a change event even if the value is the same, which makes the listeners recompute
+	public static void setParameterValueIfChanged(Parameter parameter, int dim, double value){
+		if(parameter.getParameterValue(dim) != value){
+			parameter.setParameterValue(dim, value);
+		}
+	}
+	
+	
 	//may be very inefficient
 	public static int findAnOnNodeIncludingRootRandomly(int numNodes, Parameter indicators) {
     	int isOn= 0;
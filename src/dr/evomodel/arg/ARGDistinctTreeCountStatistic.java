@@ -27,6 +27,8 @@ package dr.evomodel.arg;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import dr.inference.model.Statistic;
 import dr.xml.AbstractXMLObjectParser;
@@ -57,25 +59,7 @@ public class ARGDistinctTreeCountStatistic extends Statistic.Abstract{
 
 	
 	public double getStatisticValue(int dim){
-		ArrayList<String> listOfTrees = new ArrayList<String>(numberOfPartitions/10);
-		
-		for(int i = 0; i < numberOfPartitions; i++){
-			ARGTree tree = new ARGTree(arg,i);
-			
-			String newick = tree.getUniqueNewick();
-			
-			
-			
-			if(!listOfTrees.contains(newick)){
-				listOfTrees.add(newick);
-				
-			}
-		}
-		
-		
-		
-			
-		return listOfTrees.size();
+		return arg.getDistinctPartitionTreeCount();
 	}
 	
 	private class DistinctTreeCount implements Comparable<DistinctTreeCount>{
@@ -126,26 +110,19 @@ public class ARGDistinctTreeCountStatistic extends Statistic.Abstract{
 	
 	
 	public String getFullOutput(){
-		ArrayList<String> listOfTrees = new ArrayList<String>(numberOfPartitions);
-		ArrayList<Integer> numbers = new ArrayList<Integer>(numberOfPartitions);
+		// in order of first appearance
+		Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
 		
 		for(int i = 0; i < numberOfPartitions; i++){
-			ARGTree tree = new ARGTree(arg,i);
-			
-			String newick = tree.getUniqueNewick();
-			if(!listOfTrees.contains(newick)){
-				listOfTrees.add(newick);
-				numbers.add(1);
-			}else{
-				int index = listOfTrees.indexOf(newick);
-				numbers.set(index, numbers.get(index) + 1);
-			}
+			String newick = arg.getPartitionTreeUniqueNewick(i);
+			Integer count = counts.get(newick);
+			counts.put(newick, count == null ? 1 : count + 1);
 		}
 		
 		ArrayList<DistinctTreeCount> trees = new ArrayList<DistinctTreeCount>(numberOfPartitions);
 		
-		for(int i = 0; i < listOfTrees.size(); i++){
-			trees.add(new DistinctTreeCount(listOfTrees.get(i),numbers.get(i)));
+		for(Map.Entry<String, Integer> entry : counts.entrySet()){
+			trees.add(new DistinctTreeCount(entry.getKey(),entry.getValue()));
 		}
 		
 		Collections.sort(trees);
@@ -1086,6 +1086,7 @@ public class ARGModel extends AbstractModel implements MutableTree, Loggable {
      * Push a tree changed event into the event stack.
      */
     public void pushTreeChangedEvent(TreeChangedEvent event) {
+        partitionTreesChanged(event);
         if (inEdit) {
             treeChangedEvents.add(event);
         } else {
@@ -1097,6 +1098,80 @@ public class ARGModel extends AbstractModel implements MutableTree, Loggable {
         // no submodels so nothing to do
     }
 
+    public void fireModelChanged() {
+        partitionTreesChanged(this);
+        super.fireModelChanged();
+    }
+
+    public void fireModelChanged(Object object) {
+        partitionTreesChanged(object);
+        super.fireModelChanged(object);
+    }
+
+    public void fireModelChanged(Object object, int index) {
+        partitionTreesChanged(object);
+        super.fireModelChanged(object, index);
+    }
+
+    /**
+     * Drops the cached partition trees that an event may have changed.
+     */
+    private void partitionTreesChanged(Object object) {
+        if (partitionTrees == null) {
+            return;
+        }
+        if (object instanceof TreeChangedEvent) {
+            TreeChangedEvent event = (TreeChangedEvent) object;
+            Node node = event.getNode();
+            Parameter parameter = event.getParameter();
+            if (node != null && parameter != null && (parameter == node.heightParameter ||
+                    parameter == node.rateParameter || parameter == node.traitParameter)) {
+                // the partition trees read the heights through the shared parameters
+                return;
+            }
+        } else if (object instanceof PartitionChangedEvent) {
+            partitionTrees.invalidatePartitions(
+                    ((PartitionChangedEvent) object).getUpdatedPartitions());
+            return;
+        }
+        partitionTrees.invalidate();
+    }
+
+    /**
+     * The tree of one partition. The tree is shared and cached until an edit of the graph changes it
+     * so it must not be modified.
+     *
+     * @param partition the partition
+     * @return the partition tree
+     */
+    public ARGTree getPartitionTree(int partition) {
+        return getPartitionTrees().getTree(partition);
+    }
+
+    /**
+     * @param partition the partition
+     * @return the unique newick (topology and taxa only) of the partition tree
+     */
+    public String getPartitionTreeUniqueNewick(int partition) {
+        return getPartitionTrees().getUniqueNewick(partition);
+    }
+
+    /**
+     * @return the number of different partition tree topologies
+     */
+    public int getDistinctPartitionTreeCount() {
+        return getPartitionTrees().getDistinctTreeCount();
+    }
+
+    private ARGPartitionTrees getPartitionTrees() {
+        if (partitionTrees == null) {
+            partitionTrees = new ARGPartitionTrees(this);
+        }
+        return partitionTrees;
+    }
+
+    private ARGPartitionTrees partitionTrees = null;
+
     /**
      * Called when a parameter changes.
      */
@@ -1323,7 +1398,7 @@ public class ARGModel extends AbstractModel implements MutableTree, Loggable {
         }
 
         public double getDoubleValue() {
-            ARGTree argTree = new ARGTree(argModel, partition);
+            ARGTree argTree = argModel.getPartitionTree(partition);
             return argTree.getNodeHeight(argTree.getRoot());
             // return (new ARGTree(
         }
@@ -1957,6 +2032,9 @@ public class ARGModel extends AbstractModel implements MutableTree, Loggable {
         removedPartitioningParameter = null;
         removedNodes = null;
         storedNullCounter = nullCounter;
+        if (partitionTrees != null) {
+            partitionTrees.storeState();
+        }
         // System.err.println("Stored: "+Tree.Utils.uniqueNewick(this,
         // getRoot()));
         // System.err.println("Stored : "+this.toString());
@@ -2037,6 +2115,9 @@ public class ARGModel extends AbstractModel implements MutableTree, Loggable {
 
 
         nullCounter = storedNullCounter;
+        if (partitionTrees != null) {
+            partitionTrees.restoreState();
+        }
     }
 
     /**
@@ -2616,7 +2697,7 @@ public class ARGModel extends AbstractModel implements MutableTree, Loggable {
      * @return a string containing a newick representation of the tree
      */
     public final String getNewick(int partition) {
-        return Tree.Utils.newick(new ARGTree(this, partition));
+        return Tree.Utils.newick(getPartitionTree(partition));
         // return Tree.Utils.newick(this);
     }
 
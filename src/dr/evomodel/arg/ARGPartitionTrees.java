@@ -0,0 +1,179 @@
+/*
+ * ARGPartitionTrees.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evomodel.arg;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Shared, read-only views of the partition trees of an ARGModel for loggers and statistics.
+ * <p/>
+ * The tree of a partition is fixed by the graph and the parent that the partition takes at each
+ * reassortment node, so partitions with the same choices share one ARGTree (and its unique newick).
+ * The ARGModel invalidates the views as the graph is edited: a change to the partitioning of some
+ * partitions only drops those partitions, while the trees of the other choices are kept until the
+ * topology changes. Node heights are read through the shared height parameters so height moves do
+ * not invalidate anything. The views are stored and restored with the ARGModel so a rejected move
+ * does not force a rebuild.
+ * <p/>
+ * The trees must not be modified - the partition likelihoods renumber their trees so build their own.
+ */
+class ARGPartitionTrees {
+
+    ARGPartitionTrees(ARGModel arg) {
+        this.arg = arg;
+    }
+
+    ARGTree getTree(int partition) {
+        return getEntry(partition).tree;
+    }
+
+    String getUniqueNewick(int partition) {
+        return getEntry(partition).getUniqueNewick();
+    }
+
+    /**
+     * @return the number of different topologies among the partition trees
+     */
+    int getDistinctTreeCount() {
+        if (distinctTreeCount < 0) {
+            Set<Entry> entries = Collections.newSetFromMap(new IdentityHashMap<Entry, Boolean>());
+            Set<String> newicks = new HashSet<String>();
+            for (int i = 0; i < arg.getNumberOfPartitions(); i++) {
+                Entry entry = getEntry(i);
+                if (entries.add(entry)) {
+                    newicks.add(entry.getUniqueNewick());
+                }
+            }
+            distinctTreeCount = newicks.size();
+        }
+        return distinctTreeCount;
+    }
+
+    /**
+     * The topology of the graph has changed so all the trees are dropped.
+     */
+    void invalidate() {
+        partitionEntries = null;
+        // the stored views may still hold the old map so start a new one
+        entriesBySignature = new HashMap<String, Entry>();
+        distinctTreeCount = -1;
+    }
+
+    /**
+     * Only the partitioning of the flagged partitions has changed.
+     */
+    void invalidatePartitions(boolean[] changedPartitions) {
+        if (partitionEntries != null) {
+            // the array may be shared with the stored state
+            partitionEntries = partitionEntries.clone();
+            for (int i = 0; i < changedPartitions.length && i < partitionEntries.length; i++) {
+                if (changedPartitions[i]) {
+                    partitionEntries[i] = null;
+                }
+            }
+        }
+        distinctTreeCount = -1;
+    }
+
+    void storeState() {
+        storedPartitionEntries = partitionEntries;
+        storedEntriesBySignature = entriesBySignature;
+        storedDistinctTreeCount = distinctTreeCount;
+    }
+
+    void restoreState() {
+        if (storedEntriesBySignature == null) {
+            // created since the last store so nothing is known about the stored graph
+            invalidate();
+            return;
+        }
+        partitionEntries = storedPartitionEntries;
+        entriesBySignature = storedEntriesBySignature;
+        distinctTreeCount = storedDistinctTreeCount;
+    }
+
+    private Entry getEntry(int partition) {
+        final int partitionCount = arg.getNumberOfPartitions();
+        if (partitionEntries == null || partitionEntries.length != partitionCount) {
+            partitionEntries = new Entry[partitionCount];
+        }
+
+        Entry entry = partitionEntries[partition];
+        if (entry == null) {
+            String signature = getSignature(partition);
+            entry = entriesBySignature.get(signature);
+            if (entry == null) {
+                entry = new Entry(new ARGTree(arg, partition));
+                entriesBySignature.put(signature, entry);
+            }
+            partitionEntries[partition] = entry;
+        }
+        return entry;
+    }
+
+    /**
+     * @return the parent taken by the partition at each reassortment node, in node order
+     */
+    private String getSignature(int partition) {
+        StringBuilder sb = new StringBuilder();
+        for (ARGModel.Node node : arg.nodes) {
+            if (node.isReassortment()) {
+                sb.append(node.partitioning.getParameterValue(partition) == 0.0 ? '0' : '1');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static final class Entry {
+        Entry(ARGTree tree) {
+            this.tree = tree;
+        }
+
+        String getUniqueNewick() {
+            if (uniqueNewick == null) {
+                uniqueNewick = tree.getUniqueNewick();
+            }
+            return uniqueNewick;
+        }
+
+        final ARGTree tree;
+        private String uniqueNewick;
+    }
+
+    private final ARGModel arg;
+
+    private Entry[] partitionEntries;
+    private Entry[] storedPartitionEntries;
+    private Map<String, Entry> entriesBySignature = new HashMap<String, Entry>();
+    private Map<String, Entry> storedEntriesBySignature = null;
+    private int distinctTreeCount = -1;
+    private int storedDistinctTreeCount = -1;
+}
@@ -30,7 +30,6 @@ import java.util.Collections;
 import java.util.logging.Logger;
 
 import dr.evomodel.arg.ARGModel.Node;
-import dr.evomodel.arg.operators.ARGPartitioningOperator.PartitionChangedEvent;
 
 import dr.inference.model.Parameter;
 import dr.inference.model.Statistic;
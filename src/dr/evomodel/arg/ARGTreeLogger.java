@@ -81,7 +81,7 @@ public class ARGTreeLogger extends OldTreeLogger {
 	}
 
 	private String getLogYuleProbabilityString() {
-		ARGTree tree = new ARGTree((ARGModel) getTree(), partition);
+		ARGTree tree = ((ARGModel) getTree()).getPartitionTree(partition);
 //		BetaSplittingModel betaModel = new BetaSplittingModel(
 //				new Parameter.Default(1.0), tree);
 //		betaModel.setBeta(0.0);
@@ -103,7 +103,7 @@ public class ARGTreeLogger extends OldTreeLogger {
 
 	@Override
 	protected Tree getPrintTree() {
-		return new ARGTree((ARGModel) getTree(), partition);
+		return ((ARGModel) getTree()).getPartitionTree(partition);
 	}
 
 	@Override
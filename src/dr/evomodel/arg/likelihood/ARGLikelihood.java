@@ -40,7 +40,7 @@ import dr.evolution.tree.Tree;
 import dr.evolution.util.TaxonList;
 import dr.evomodel.arg.ARGModel;
 import dr.evomodel.arg.ARGTree;
-import dr.evomodel.arg.operators.ARGPartitioningOperator;
+import dr.evomodel.arg.PartitionChangedEvent;
 import dr.evomodel.branchratemodel.BranchRateModel;
 import dr.evomodel.branchratemodel.DefaultBranchRateModel;
 import dr.oldevomodel.sitemodel.SiteModel;
@@ -239,8 +239,8 @@ public class ARGLikelihood extends AbstractARGLikelihood {
                     // Other event types are ignored (probably trait changes).
                     throw new RuntimeException("Another tree event has occured (possibly a trait change).");
                 }
-            } else if (object instanceof ARGPartitioningOperator.PartitionChangedEvent) {
-	      final boolean[] updatePartition = ((ARGPartitioningOperator.PartitionChangedEvent) object).getUpdatedPartitions();
+            } else if (object instanceof PartitionChangedEvent) {
+	      final boolean[] updatePartition = ((PartitionChangedEvent) object).getUpdatedPartitions();
                 if (updatePartition[partition]) {
                     reconstructTree = true;
                     updateAllNodes(); // TODO Probably does not affect entire tree; fix
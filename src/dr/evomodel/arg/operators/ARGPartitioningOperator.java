@@ -26,6 +26,7 @@
 package dr.evomodel.arg.operators;
 
 import dr.evomodel.arg.ARGModel;
+import dr.evomodel.arg.PartitionChangedEvent;
 import dr.inference.model.CompoundParameter;
 import dr.inference.model.Parameter;
 import dr.inference.operators.OperatorFailedException;
@@ -201,24 +202,6 @@ public class ARGPartitioningOperator extends SimpleMCMCOperator {
         return null;
     }
 
-    public class PartitionChangedEvent {
-        Parameter partitioning;
-        boolean[] updatePartition;
-
-        public PartitionChangedEvent(Parameter partitioning, boolean[] updatePartition) {
-            this.partitioning = partitioning;
-            this.updatePartition = updatePartition;
-        }
-
-        public Parameter getParameter() {
-            return partitioning;
-        }
-
-        public boolean[] getUpdatedPartitions() {
-            return updatePartition;
-        }
-    }
-
     public static dr.xml.XMLObjectParser PARSER = new dr.xml.AbstractXMLObjectParser() {
 
         public String getParserName() {
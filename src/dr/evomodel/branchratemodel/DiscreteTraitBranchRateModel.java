@@ -38,6 +38,9 @@ import dr.inference.model.Model;
 import dr.inference.model.Parameter;
 import dr.inference.model.Variable;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * This Branch Rate Model takes a ancestral state likelihood and
  * gives the rate for each branch of the tree based on the ancestor
@@ -80,11 +83,12 @@ public class DiscreteTraitBranchRateModel extends AbstractBranchRateModel {
 
     private FitchParsimony fitchParsimony;
 
-    private boolean treeChanged = true;
+    // the nodes whose children have changed since the last store (or a flag for the whole tree)
+    private final List<NodeRef> changedNodes = new ArrayList<NodeRef>();
+    private boolean allNodesChanged = false;
 
     private Mode mode;
     private DataType dataType;
-//    private int treeInitializeCounter = 0;
 
     /**
      * A constructor for the (crude) parsimony reconstruction form of this class.
@@ -225,7 +229,19 @@ public class DiscreteTraitBranchRateModel extends AbstractBranchRateModel {
         for (int i = 0; i < rateKnown.length; i++) {
             rateKnown[i] = false;
         }
-        treeChanged = true;
+        if (fitchParsimony != null) {
+            if (object instanceof TreeModel.TreeChangedEvent && ((TreeModel.TreeChangedEvent) object).isNodeChanged()) {
+                TreeModel.TreeChangedEvent event = (TreeModel.TreeChangedEvent) object;
+                // changes to node heights or rates don't alter the parsimony reconstruction
+                if (event.isTreeChanged()) {
+                    fitchParsimony.updateNode(event.getNode());
+                    changedNodes.add(event.getNode());
+                }
+            } else {
+                fitchParsimony.updateAllNodes();
+                allNodesChanged = true;
+            }
+        }
         fireModelChanged();
     }
 
@@ -241,6 +257,8 @@ public class DiscreteTraitBranchRateModel extends AbstractBranchRateModel {
         if (CACHING_RATES) {
             System.arraycopy(rates, 0, storedRates, 0, rates.length);
         }
+        changedNodes.clear();
+        allNodesChanged = false;
     }
 
     protected void restoreState() {
@@ -256,8 +274,20 @@ public class DiscreteTraitBranchRateModel extends AbstractBranchRateModel {
             for (int i = 0; i < rateKnown.length; i++) {
                 rateKnown[i] = false;
             }
-            treeChanged = true;
         }
+
+        // the nodes changed by the rejected move have reverted so need recalculating again
+        if (fitchParsimony != null) {
+            if (allNodesChanged) {
+                fitchParsimony.updateAllNodes();
+            } else {
+                for (NodeRef node : changedNodes) {
+                    fitchParsimony.updateNode(node);
+                }
+            }
+        }
+        changedNodes.clear();
+        allNodesChanged = false;
     }
 
     protected void acceptState() {
@@ -354,15 +384,7 @@ public class DiscreteTraitBranchRateModel extends AbstractBranchRateModel {
             // average of the equally parsimonious state reconstructions
             // at the top and bottom of each branch.
 
-            if (treeChanged) {
-                fitchParsimony.initialize(tree);
-                // Debugging test to count work
-//                treeInitializeCounter += 1;
-//                if (treeInitializeCounter % 10 == 0) {
-//                    System.err.println("Cnt: "+treeInitializeCounter);
-//                }
-                treeChanged = false;
-            }
+            // only the nodes flagged by tree changed events are recalculated
             int[] states = fitchParsimony.getStates(tree, node);
             int[] parentStates = fitchParsimony.getStates(tree, tree.getParent(node));
 
@@ -30,6 +30,7 @@ import dr.evolution.tree.Tree;
 import dr.evomodel.tree.TreeModel;
 import dr.evomodel.tree.TreeParameterModel;
 import dr.evomodelxml.branchratemodel.DiscretizedBranchRatesParser;
+import dr.inference.distribution.MidpointQuantiles;
 import dr.inference.distribution.ParametricDistributionModel;
 import dr.inference.model.Model;
 import dr.inference.model.Parameter;
@@ -223,11 +224,16 @@ public class DiscretizedBranchRates extends AbstractBranchRateModel implements C
             currentRateArrayIndex = 1 - currentRateArrayIndex;
         }
 
-        double z = step / 2.0;
-        for (int i = 0; i < categoryCount; i++) {
-            rates[currentRateArrayIndex][i] = distributionModel.quantile(z);
-            //System.out.print(rates[i]+"\t");
-            z += step;
+        if (distributionModel instanceof MidpointQuantiles) {
+            // evaluate all the categories at once from the shared quantile tables
+            ((MidpointQuantiles) distributionModel).getMidpointQuantiles(rates[currentRateArrayIndex]);
+        } else {
+            double z = step / 2.0;
+            for (int i = 0; i < categoryCount; i++) {
+                rates[currentRateArrayIndex][i] = distributionModel.quantile(z);
+                //System.out.print(rates[i]+"\t");
+                z += step;
+            }
         }
 
         if (normalize) computeFactor();
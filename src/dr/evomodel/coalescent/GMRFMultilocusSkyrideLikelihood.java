@@ -34,6 +34,7 @@ import dr.evomodelxml.coalescent.GMRFSkyrideLikelihoodParser;
 import dr.inference.model.MatrixParameter;
 import dr.inference.model.Model;
 import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
 import dr.util.Author;
 import dr.util.Citable;
 import dr.util.Citation;
@@ -44,6 +45,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.*;
 
 /**
  * @author Mandev Gill
@@ -84,6 +86,21 @@ public class GMRFMultilocusSkyrideLikelihood extends GMRFSkyrideLikelihood
 
     private double[] coalescentEventStatisticValues;
 
+    // when at least this many loci need recomputing they are done by the thread pool
+    private static final int PARALLEL_LOCUS_THRESHOLD = 8;
+
+    // per locus sufficient statistics, double buffered for store/restore
+    private LocusStatistics[][] locusStatistics;
+    private int[] currentLocusBuffer;
+    private int[] storedLocusBuffer;
+    private boolean[] locusKnown;
+    private boolean[] storedLocusKnown;
+    private boolean[] locusChanged;
+    private int[] dirtyLoci;
+
+    private int threads = -1;
+    private ExecutorService pool = null;
+
     public GMRFMultilocusSkyrideLikelihood(List<Tree> treeList,
                                            Parameter popParameter,
                                            Parameter groupParameter,
@@ -351,8 +368,9 @@ public class GMRFMultilocusSkyrideLikelihood extends GMRFSkyrideLikelihood
             TreeModel treeModel = (TreeModel) model;
             int tn = treeList.indexOf(treeModel);
             if (tn >= 0) {
-                //   intervalsList.get(tn).setIntervalsUnknown();  // TODO Why is this slower (?) than remaking whole list?
-                makeTreeIntervalList(treeList, false);
+                // only this locus needs its intervals and sufficient statistics recomputed
+                intervalsList.get(tn).setIntervalsUnknown();
+                setLocusUnknown(tn);
                 intervalsKnown = false;
                 likelihoodKnown = false;
             } else {
@@ -389,12 +407,124 @@ public class GMRFMultilocusSkyrideLikelihood extends GMRFSkyrideLikelihood
 
     protected void setupSufficientStatistics() {
 
-        //numCoalEvents = new double[fieldLength];
-        //sufficientStatistics = new double[fieldLength];
+        if (locusStatistics == null) {
+            locusStatistics = new LocusStatistics[numTrees][2];
+            for (int i = 0; i < numTrees; i++) {
+                locusStatistics[i][0] = new LocusStatistics(fieldLength);
+                locusStatistics[i][1] = new LocusStatistics(fieldLength);
+            }
+            currentLocusBuffer = new int[numTrees];
+            storedLocusBuffer = new int[numTrees];
+            locusKnown = new boolean[numTrees];
+            storedLocusKnown = new boolean[numTrees];
+            locusChanged = new boolean[numTrees];
+            dirtyLoci = new int[numTrees];
+        }
 
+        // recompute the loci whose trees (or ploidy) have changed, leaving the rest cached
+        int dirtyCount = 0;
+        for (int i = 0; i < numTrees; i++) {
+            if (!locusKnown[i]) {
+                if (currentLocusBuffer[i] == storedLocusBuffer[i]) {
+                    // keep the stored statistics for a restore
+                    currentLocusBuffer[i] = 1 - currentLocusBuffer[i];
+                }
+                dirtyLoci[dirtyCount] = i;
+                dirtyCount++;
+            }
+        }
+
+        if (dirtyCount >= PARALLEL_LOCUS_THRESHOLD && getThreadCount() > 1) {
+            computeLociInParallel(dirtyCount);
+        } else {
+            for (int k = 0; k < dirtyCount; k++) {
+                computeLocus(dirtyLoci[k]);
+            }
+        }
+        for (int k = 0; k < dirtyCount; k++) {
+            locusKnown[dirtyLoci[k]] = true;
+        }
+
+        // combine the cached loci into the grid
         Arrays.fill(numCoalEvents, 0);
         Arrays.fill(sufficientStatistics, 0);
         Arrays.fill(ploidySums, 0);
+
+        for (int i = 0; i < numTrees; i++) {
+            LocusStatistics locus = locusStatistics[i][currentLocusBuffer[i]];
+            double logPloidyFactor = Math.log(1 / getPopulationFactor(i));
+            for (int j = 0; j < fieldLength; j++) {
+                numCoalEvents[j] += locus.counts[j];
+                sufficientStatistics[j] += locus.statistics[j];
+                if (locus.ploidyApplied[j]) {
+                    // as in the original single pass, the ploidy term uses the events accumulated over the loci so far
+                    ploidySums[j] += logPloidyFactor * numCoalEvents[j];
+                }
+            }
+            theLastTime = locus.lastCoalescentTime;
+        }
+    }
+
+    private void computeLocus(int i) {
+        LocusStatistics locus = locusStatistics[i][currentLocusBuffer[i]];
+        locus.lastCoalescentTime = computeLocusStatistics(intervalsList.get(i), 1 / getPopulationFactor(i),
+                locus.statistics, locus.counts, locus.ploidyApplied);
+    }
+
+    private void computeLociInParallel(int dirtyCount) {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(getThreadCount(), new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "skygrid-locus");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        // TreeIntervals are calculated lazily so each task only touches its own tree
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(dirtyCount);
+        for (int k = 0; k < dirtyCount; k++) {
+            final int i = dirtyLoci[k];
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    computeLocus(i);
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for (Future<Object> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while computing skygrid sufficient statistics");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Accumulates the contribution of one tree to the grid.
+     *
+     * @param intervals     the intervals of the tree
+     * @param ploidyFactor  1 / the population factor of the locus
+     * @param statistics    the sufficient statistic for each grid interval (zeroed here)
+     * @param counts        the number of coalescent events in each grid interval (zeroed here)
+     * @param ploidyApplied set for the grid intervals that get a ploidy term from this locus (cleared here)
+     * @return the time of the last coalescent event
+     */
+    private double computeLocusStatistics(TreeIntervals intervals, double ploidyFactor,
+                                          double[] statistics, double[] counts, boolean[] ploidyApplied) {
+
+        Arrays.fill(statistics, 0);
+        Arrays.fill(counts, 0);
+        Arrays.fill(ploidyApplied, false);
+
         //index of smallest grid point greater than at least one sampling/coalescent time in current tree
         int minGridIndex;
         //index of greatest grid point less than at least one sampling/coalescent time in current tree
@@ -407,192 +537,214 @@ public class GMRFMultilocusSkyrideLikelihood extends GMRFSkyrideLikelihood
 
         double currentTime;
         double nextTime;
-        double ploidyFactor;
 
         //time of last coalescent event in tree
         double lastCoalescentTime;
 
-        for (int i = 0; i < numTrees; i++) {
-            ploidyFactor = 1 / getPopulationFactor(i);
-            currentTimeIndex = 0;
-            currentTime = intervalsList.get(i).getIntervalTime(currentTimeIndex);
-            nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
-            while (nextTime <= currentTime) {
-                currentTimeIndex++;
-                currentTime = intervalsList.get(i).getIntervalTime(currentTimeIndex);
-                nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
-            }
+        currentTimeIndex = 0;
+        currentTime = intervals.getIntervalTime(currentTimeIndex);
+        nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
+        while (nextTime <= currentTime) {
+            currentTimeIndex++;
+            currentTime = intervals.getIntervalTime(currentTimeIndex);
+            nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
+        }
 
-            numLineages = intervalsList.get(i).getLineageCount(currentTimeIndex + 1);
-            minGridIndex = 0;
-            while (minGridIndex < numGridPoints - 1 && gridPoints[minGridIndex] <= currentTime) { // MAS: Unclear about need for -1
-                minGridIndex++;
-            }
-            currentGridIndex = minGridIndex;
+        numLineages = intervals.getLineageCount(currentTimeIndex + 1);
+        minGridIndex = 0;
+        while (minGridIndex < numGridPoints - 1 && gridPoints[minGridIndex] <= currentTime) { // MAS: Unclear about need for -1
+            minGridIndex++;
+        }
+        currentGridIndex = minGridIndex;
 
-            lastCoalescentTime = currentTime + intervalsList.get(i).getTotalDuration();
+        lastCoalescentTime = currentTime + intervals.getTotalDuration();
 
-            theLastTime = lastCoalescentTime;
+        maxGridIndex = numGridPoints - 1;
+        while ((maxGridIndex >= 0) && (gridPoints[maxGridIndex] >= lastCoalescentTime)) {
+            maxGridIndex = maxGridIndex - 1;
+        }
 
-            maxGridIndex = numGridPoints - 1;
-            while ((maxGridIndex >= 0) && (gridPoints[maxGridIndex] >= lastCoalescentTime)) {
-                maxGridIndex = maxGridIndex - 1;
-            }
+        if (maxGridIndex >= 0 && minGridIndex < numGridPoints) {
 
-            if (maxGridIndex >= 0 && minGridIndex < numGridPoints) {
 
+            //from likelihood of interval between first sampling time and gridPoints[minGridIndex]
 
-                //from likelihood of interval between first sampling time and gridPoints[minGridIndex]
+            while (nextTime < gridPoints[currentGridIndex]) {
 
-                while (nextTime < gridPoints[currentGridIndex]) {
+                //check to see if interval ends with coalescent event
+                if (intervals.getCoalescentEvents(currentTimeIndex + 1) > 0) {
 
-                    //check to see if interval ends with coalescent event
-                    if (intervalsList.get(i).getCoalescentEvents(currentTimeIndex + 1) > 0) {
+                    counts[currentGridIndex]++;
+                }
+                statistics[currentGridIndex] = statistics[currentGridIndex] + (nextTime - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
+                currentTime = nextTime;
+                currentTimeIndex++;
+                nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
 
-                        numCoalEvents[currentGridIndex]++;
-                    }
-                    sufficientStatistics[currentGridIndex] = sufficientStatistics[currentGridIndex] + (nextTime - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
-                    currentTime = nextTime;
+                while (nextTime <= currentTime) {
                     currentTimeIndex++;
-                    nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
+                    currentTime = intervals.getIntervalTime(currentTimeIndex);
+                    nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
+                }
 
-                    while (nextTime <= currentTime) {
-                        currentTimeIndex++;
-                        currentTime = intervalsList.get(i).getIntervalTime(currentTimeIndex);
-                        nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
-                    }
+                numLineages = intervals.getLineageCount(currentTimeIndex + 1);
 
-                    numLineages = intervalsList.get(i).getLineageCount(currentTimeIndex + 1);
+            }
 
-                }
+            statistics[currentGridIndex] = statistics[currentGridIndex] + (gridPoints[currentGridIndex] - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
+            ploidyApplied[currentGridIndex] = true;
 
-                sufficientStatistics[currentGridIndex] = sufficientStatistics[currentGridIndex] + (gridPoints[currentGridIndex] - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
-                ploidySums[currentGridIndex] = ploidySums[currentGridIndex] + Math.log(ploidyFactor) * numCoalEvents[currentGridIndex];
+            currentGridIndex++;
 
-                currentGridIndex++;
 
+            //from likelihood of intervals between gridPoints[minGridIndex] and gridPoints[maxGridIndex]
 
-                //from likelihood of intervals between gridPoints[minGridIndex] and gridPoints[maxGridIndex]
+            while (currentGridIndex <= maxGridIndex) {
+                if (nextTime >= gridPoints[currentGridIndex]) {
+                    statistics[currentGridIndex] = statistics[currentGridIndex] + (gridPoints[currentGridIndex] - gridPoints[currentGridIndex - 1]) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
+                    ploidyApplied[currentGridIndex] = true;
+
+                    currentGridIndex++;
+                } else {
 
-                while (currentGridIndex <= maxGridIndex) {
-                    if (nextTime >= gridPoints[currentGridIndex]) {
-                        sufficientStatistics[currentGridIndex] = sufficientStatistics[currentGridIndex] + (gridPoints[currentGridIndex] - gridPoints[currentGridIndex - 1]) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
-                        ploidySums[currentGridIndex] = ploidySums[currentGridIndex] + Math.log(ploidyFactor) * numCoalEvents[currentGridIndex];
+                    statistics[currentGridIndex] = statistics[currentGridIndex] + (nextTime - gridPoints[currentGridIndex - 1]) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
 
-                        currentGridIndex++;
-                    } else {
+                    //check to see if interval ends with coalescent event
+                    if (intervals.getCoalescentEvents(currentTimeIndex + 1) > 0) {
+                        counts[currentGridIndex]++;
+                    }
+                    currentTime = nextTime;
+                    currentTimeIndex++;
+                    nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
+                    while (nextTime <= currentTime) {
+                        currentTimeIndex++;
+                        currentTime = intervals.getIntervalTime(currentTimeIndex);
+                        nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
+                    }
 
-                        sufficientStatistics[currentGridIndex] = sufficientStatistics[currentGridIndex] + (nextTime - gridPoints[currentGridIndex - 1]) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
+                    numLineages = intervals.getLineageCount(currentTimeIndex + 1);
 
-                        //check to see if interval ends with coalescent event
-                        if (intervalsList.get(i).getCoalescentEvents(currentTimeIndex + 1) > 0) {
-                            numCoalEvents[currentGridIndex]++;
+                    while (nextTime < gridPoints[currentGridIndex]) {
+                        //check to see if interval is coalescent interval or sampling interval
+                        if (intervals.getCoalescentEvents(currentTimeIndex + 1) > 0) {
+                            counts[currentGridIndex]++;
                         }
+                        statistics[currentGridIndex] = statistics[currentGridIndex] + (nextTime - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
+
                         currentTime = nextTime;
                         currentTimeIndex++;
-                        nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
+                        nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
                         while (nextTime <= currentTime) {
                             currentTimeIndex++;
-                            currentTime = intervalsList.get(i).getIntervalTime(currentTimeIndex);
-                            nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
+                            currentTime = intervals.getIntervalTime(currentTimeIndex);
+                            nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
                         }
 
-                        numLineages = intervalsList.get(i).getLineageCount(currentTimeIndex + 1);
+                        numLineages = intervals.getLineageCount(currentTimeIndex + 1);
 
-                        while (nextTime < gridPoints[currentGridIndex]) {
-                            //check to see if interval is coalescent interval or sampling interval
-                            if (intervalsList.get(i).getCoalescentEvents(currentTimeIndex + 1) > 0) {
-                                numCoalEvents[currentGridIndex]++;
-                            }
-                            sufficientStatistics[currentGridIndex] = sufficientStatistics[currentGridIndex] + (nextTime - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
+                    }
+                    statistics[currentGridIndex] = statistics[currentGridIndex] + (gridPoints[currentGridIndex] - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
+                    ploidyApplied[currentGridIndex] = true;
 
-                            currentTime = nextTime;
-                            currentTimeIndex++;
-                            nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
-                            while (nextTime <= currentTime) {
-                                currentTimeIndex++;
-                                currentTime = intervalsList.get(i).getIntervalTime(currentTimeIndex);
-                                nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
-                            }
+                    currentGridIndex++;
+                }
+            }
 
-                            numLineages = intervalsList.get(i).getLineageCount(currentTimeIndex + 1);
+            //from likelihood of interval between gridPoints[maxGridIndex] and lastCoalescentTime
 
-                        }
-                        sufficientStatistics[currentGridIndex] = sufficientStatistics[currentGridIndex] + (gridPoints[currentGridIndex] - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
-                        ploidySums[currentGridIndex] = ploidySums[currentGridIndex] + Math.log(ploidyFactor) * numCoalEvents[currentGridIndex];
+            statistics[currentGridIndex] = statistics[currentGridIndex] + (nextTime - gridPoints[currentGridIndex - 1]) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
 
-                        currentGridIndex++;
-                    }
-                }
+            //check to see if interval ends with coalescent event
+            if (intervals.getCoalescentEvents(currentTimeIndex + 1) > 0) {
+                counts[currentGridIndex]++;
+            }
 
-                //from likelihood of interval between gridPoints[maxGridIndex] and lastCoalescentTime
+            currentTime = nextTime;
+            currentTimeIndex++;
 
-                sufficientStatistics[currentGridIndex] = sufficientStatistics[currentGridIndex] + (nextTime - gridPoints[currentGridIndex - 1]) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
+            while ((currentTimeIndex + 1) < intervals.getIntervalCount()) {
+                // currentTime = nextTime;
+                // currentTimeIndex++;
 
-                //check to see if interval ends with coalescent event
-                if (intervalsList.get(i).getCoalescentEvents(currentTimeIndex + 1) > 0) {
-                    numCoalEvents[currentGridIndex]++;
+                nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
+                while (nextTime <= currentTime) {
+                    currentTimeIndex++;
+                    currentTime = intervals.getIntervalTime(currentTimeIndex);
+                    nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
                 }
 
-                currentTime = nextTime;
-                currentTimeIndex++;
+                numLineages = intervals.getLineageCount(currentTimeIndex + 1);
 
-                while ((currentTimeIndex + 1) < intervalsList.get(i).getIntervalCount()) {
-                    // currentTime = nextTime;
-                    // currentTimeIndex++;
+                //check to see if interval is coalescent interval or sampling interval
 
-                    nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
-                    while (nextTime <= currentTime) {
-                        currentTimeIndex++;
-                        currentTime = intervalsList.get(i).getIntervalTime(currentTimeIndex);
-                        nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
-                    }
 
-                    numLineages = intervalsList.get(i).getLineageCount(currentTimeIndex + 1);
-
-                    //check to see if interval is coalescent interval or sampling interval
+                if (intervals.getCoalescentEvents(currentTimeIndex + 1) > 0) {
+                    counts[currentGridIndex]++;
+                }
+                statistics[currentGridIndex] = statistics[currentGridIndex] + (nextTime - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
+                currentTime = nextTime;
+                currentTimeIndex++;
 
+            }
 
-                    if (intervalsList.get(i).getCoalescentEvents(currentTimeIndex + 1) > 0) {
-                        numCoalEvents[currentGridIndex]++;
-                    }
-                    sufficientStatistics[currentGridIndex] = sufficientStatistics[currentGridIndex] + (nextTime - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
-                    currentTime = nextTime;
-                    currentTimeIndex++;
+            // if tree does not overlap with any gridpoints/change-points, in which case logpopsize is constant
 
+        } else {
+            while ((currentTimeIndex + 1) < intervals.getIntervalCount()) {
+                //check to see if interval is coalescent interval or sampling interval
+                if (intervals.getCoalescentEvents(currentTimeIndex + 1) > 0) {
+                    counts[currentGridIndex]++;
                 }
+                statistics[currentGridIndex] = statistics[currentGridIndex] + (nextTime - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
 
-                // if tree does not overlap with any gridpoints/change-points, in which case logpopsize is constant
+                currentTime = nextTime;
+                currentTimeIndex++;
+                if ((currentTimeIndex + 1) < intervals.getIntervalCount()) {
+                    nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
 
-            } else {
-                while ((currentTimeIndex + 1) < intervalsList.get(i).getIntervalCount()) {
-                    //check to see if interval is coalescent interval or sampling interval
-                    if (intervalsList.get(i).getCoalescentEvents(currentTimeIndex + 1) > 0) {
-                        numCoalEvents[currentGridIndex]++;
+                    while (nextTime <= currentTime) {
+                        currentTimeIndex++;
+                        currentTime = intervals.getIntervalTime(currentTimeIndex);
+                        nextTime = intervals.getIntervalTime(currentTimeIndex + 1);
                     }
-                    sufficientStatistics[currentGridIndex] = sufficientStatistics[currentGridIndex] + (nextTime - currentTime) * numLineages * (numLineages - 1) * 0.5 * ploidyFactor;
 
-                    currentTime = nextTime;
-                    currentTimeIndex++;
-                    if ((currentTimeIndex + 1) < intervalsList.get(i).getIntervalCount()) {
-                        nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
+                    numLineages = intervals.getLineageCount(currentTimeIndex + 1);
 
-                        while (nextTime <= currentTime) {
-                            currentTimeIndex++;
-                            currentTime = intervalsList.get(i).getIntervalTime(currentTimeIndex);
-                            nextTime = intervalsList.get(i).getIntervalTime(currentTimeIndex + 1);
-                        }
+                }
 
-                        numLineages = intervalsList.get(i).getLineageCount(currentTimeIndex + 1);
+            }
+            ploidyApplied[currentGridIndex] = true;
 
-                    }
+        }
 
-                }
-                ploidySums[currentGridIndex] = ploidySums[currentGridIndex] + Math.log(ploidyFactor) * numCoalEvents[currentGridIndex];
+        return lastCoalescentTime;
+    }
 
-            }
+    public void setThreadCount(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @return the number of threads used to recompute loci (-1 is one per processor up to the number of loci)
+     */
+    public int getThreadCount() {
+        if (threads < 0) {
+            return Math.min(Runtime.getRuntime().availableProcessors(), numTrees);
+        }
+        return threads;
+    }
+
+    private static class LocusStatistics {
+        LocusStatistics(int fieldLength) {
+            statistics = new double[fieldLength];
+            counts = new double[fieldLength];
+            ploidyApplied = new boolean[fieldLength];
         }
 
+        final double[] statistics;
+        final double[] counts;
+        final boolean[] ploidyApplied;
+        double lastCoalescentTime;
     }
 
     public double[] getNumCoalEvents() {
@@ -776,15 +928,62 @@ public class GMRFMultilocusSkyrideLikelihood extends GMRFSkyrideLikelihood
         return covariates;
     }
 
+    protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+        super.handleVariableChangedEvent(variable, index, type);
+        if (variable == ploidyFactors) {
+            if (index >= 0 && index < numTrees) {
+                setLocusUnknown(index);
+            } else {
+                for (int i = 0; i < numTrees; i++) {
+                    setLocusUnknown(i);
+                }
+            }
+            intervalsKnown = false;
+        }
+    }
+
+    public void makeDirty() {
+        super.makeDirty();
+        // the trees may have changed without firing events, so every cached locus is recomputed
+        if (intervalsList != null) {
+            for (int i = 0; i < numTrees; i++) {
+                intervalsList.get(i).setIntervalsUnknown();
+                setLocusUnknown(i);
+            }
+        }
+    }
+
+    private void setLocusUnknown(int i) {
+        if (locusKnown != null) {
+            locusKnown[i] = false;
+            locusChanged[i] = true;
+        }
+    }
+
     public void storeTheState() {
-        for (TreeIntervals intervals : intervalsList) {
-            intervals.storeState();
+        // the cached loci are double buffered so only the buffer indices are stored
+        if (locusStatistics != null) {
+            System.arraycopy(currentLocusBuffer, 0, storedLocusBuffer, 0, numTrees);
+            System.arraycopy(locusKnown, 0, storedLocusKnown, 0, numTrees);
+            Arrays.fill(locusChanged, false);
         }
     }
 
     public void restoreTheState() {
-        for (TreeIntervals intervals : intervalsList) {
-            intervals.restoreState();
+        if (locusStatistics != null) {
+            for (int i = 0; i < numTrees; i++) {
+                if (locusChanged[i]) {
+                    // the intervals were calculated for the rejected tree
+                    intervalsList.get(i).setIntervalsUnknown();
+                    locusChanged[i] = false;
+                }
+            }
+            System.arraycopy(storedLocusBuffer, 0, currentLocusBuffer, 0, numTrees);
+            System.arraycopy(storedLocusKnown, 0, locusKnown, 0, numTrees);
+        } else {
+            for (TreeIntervals intervals : intervalsList) {
+                intervals.setIntervalsUnknown();
+            }
         }
     }
 
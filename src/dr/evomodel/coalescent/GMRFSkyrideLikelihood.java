@@ -34,10 +34,10 @@ import dr.inference.model.MatrixParameter;
 import dr.inference.model.Parameter;
 import dr.inference.model.Variable;
 import dr.math.MathUtils;
+import dr.math.matrixAlgebra.SymmetricTridiagonalCholesky;
 import dr.util.Author;
 import dr.util.Citable;
 import dr.util.Citation;
-import no.uib.cipr.matrix.DenseVector;
 import no.uib.cipr.matrix.NotConvergedException;
 import no.uib.cipr.matrix.SymmTridiagEVD;
 import no.uib.cipr.matrix.SymmTridiagMatrix;
@@ -83,6 +83,12 @@ public class GMRFSkyrideLikelihood extends OldAbstractCoalescentLikelihood imple
 
     protected SymmTridiagMatrix weightMatrix;
     protected SymmTridiagMatrix storedWeightMatrix;
+
+    // work space for the field likelihood
+    private double[] fieldDiagonal;
+    private double[] fieldOffDiagonal;
+    private double[] fieldGamma;
+
     protected MatrixParameter dMatrix;
     protected boolean timeAwareSmoothing = TIME_AWARE_IS_ON_BY_DEFAULT;
     protected boolean rescaleByRootHeight;
@@ -409,6 +415,42 @@ public class GMRFSkyrideLikelihood extends OldAbstractCoalescentLikelihood imple
     }
 
 
+    /**
+     * Fills the given arrays with the diagonal and off-diagonal of the scaled weight matrix, as returned by
+     * getScaledWeightMatrix(precision, lambda), without allocating a matrix.
+     */
+    public void getScaledWeightMatrix(double precision, double lambda, double[] diagonal, double[] offDiagonal) {
+        scaleWeightMatrix(weightMatrix, precision, lambda, diagonal, offDiagonal);
+    }
+
+    /**
+     * Fills the given arrays with the diagonal and off-diagonal of the stored scaled weight matrix, as returned by
+     * getStoredScaledWeightMatrix(precision, lambda), without allocating a matrix.
+     */
+    public void getStoredScaledWeightMatrix(double precision, double lambda, double[] diagonal, double[] offDiagonal) {
+        scaleWeightMatrix(storedWeightMatrix, precision, lambda, diagonal, offDiagonal);
+    }
+
+    private static void scaleWeightMatrix(SymmTridiagMatrix matrix, double precision, double lambda,
+                                          double[] diagonal, double[] offDiagonal) {
+        double[] weightDiagonal = matrix.getDiagonal();
+        double[] weightOffDiagonal = matrix.getOffDiagonal();
+        int n = weightDiagonal.length;
+        if (lambda == 1) {
+            for (int i = 0; i < n - 1; i++) {
+                diagonal[i] = weightDiagonal[i] * precision;
+                offDiagonal[i] = weightOffDiagonal[i] * precision;
+            }
+            diagonal[n - 1] = weightDiagonal[n - 1] * precision;
+        } else {
+            for (int i = 0; i < n - 1; i++) {
+                diagonal[i] = precision * (1 - lambda + lambda * weightDiagonal[i]);
+                offDiagonal[i] = weightOffDiagonal[i] * precision * lambda;
+            }
+            diagonal[n - 1] = precision * (1 - lambda + lambda * weightDiagonal[n - 1]);
+        }
+    }
+
     protected void storeState() {
         super.storeState();
         System.arraycopy(coalescentIntervals, 0, storedCoalescentIntervals, 0, coalescentIntervals.length);
@@ -456,16 +498,23 @@ public class GMRFSkyrideLikelihood extends OldAbstractCoalescentLikelihood imple
     protected double calculateLogFieldLikelihood() {
         makeIntervalsKnown();
 
-        double currentLike = 0;
-        DenseVector diagonal1 = new DenseVector(fieldLength);
-        DenseVector currentGamma = new DenseVector(popSizeParameter.getParameterValues());
+        if (fieldDiagonal == null || fieldDiagonal.length != fieldLength) {
+            fieldDiagonal = new double[fieldLength];
+            fieldOffDiagonal = new double[fieldLength - 1];
+            fieldGamma = new double[fieldLength];
+        }
+        getScaledWeightMatrix(precisionParameter.getParameterValue(0), lambdaParameter.getParameterValue(0),
+                fieldDiagonal, fieldOffDiagonal);
+        for (int i = 0; i < fieldLength; i++) {
+            fieldGamma[i] = popSizeParameter.getParameterValue(i);
+        }
 
-        SymmTridiagMatrix currentQ = getScaledWeightMatrix(precisionParameter.getParameterValue(0), lambdaParameter.getParameterValue(0));
-        currentQ.mult(currentGamma, diagonal1);
+        double currentLike = 0;
 
 //        currentLike += 0.5 * logGeneralizedDeterminant(currentQ) - 0.5 * currentGamma.dot(diagonal1);
 
-        currentLike += 0.5 * (fieldLength - 1) * Math.log(precisionParameter.getParameterValue(0)) - 0.5 * currentGamma.dot(diagonal1);
+        currentLike += 0.5 * (fieldLength - 1) * Math.log(precisionParameter.getParameterValue(0)) -
+                0.5 * SymmetricTridiagonalCholesky.quadraticForm(fieldDiagonal, fieldOffDiagonal, fieldGamma);
         if (lambdaParameter.getParameterValue(0) == 1) {
             currentLike -= (fieldLength - 1) / 2.0 * LOG_TWO_TIMES_PI;
         } else {
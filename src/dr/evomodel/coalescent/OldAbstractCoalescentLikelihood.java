@@ -235,7 +235,7 @@ public class OldAbstractCoalescentLikelihood extends AbstractModelLikelihood imp
         return logLikelihood;
     }
 
-    public final void makeDirty() {
+    public void makeDirty() {
         likelihoodKnown = false;
         intervalsKnown = false;
     }
@@ -30,6 +30,7 @@ import dr.evomodelxml.coalescent.operators.GMRFSkyrideBlockUpdateOperatorParser;
 import dr.inference.model.Parameter;
 import dr.inference.operators.*;
 import dr.math.MathUtils;
+import dr.math.matrixAlgebra.SymmetricTridiagonalCholesky;
 import no.uib.cipr.matrix.*;
 
 import java.util.logging.Logger;
@@ -55,7 +56,24 @@ public class GMRFSkyrideBlockUpdateOperator extends AbstractCoercableOperator {
 
     GMRFSkyrideLikelihood gmrfField;
 
-    private double[] zeros;
+    // work space so that an operation does not allocate
+    private final SymmetricTridiagonalCholesky cholesky;
+    private final double[] currentGamma;
+    private final double[] proposedGamma;
+    private final double[] currentDiagonal;
+    private final double[] currentOffDiagonal;
+    private final double[] proposedDiagonal;
+    private final double[] proposedOffDiagonal;
+    private final double[] qwDiagonal;
+    private final double[] jacobianDiagonal;
+    private final double[] fieldMode;
+    private final double[] canonical;
+    private final double[] mean;
+    private final double[] standNorm;
+    private final double[] gradient;
+    private final double[] step;
+
+    private static final Logger logger = Logger.getLogger("dr.evomodel.coalescent.operators.GMRFSkyrideBlockUpdateOperator");
 
     public GMRFSkyrideBlockUpdateOperator(GMRFSkyrideLikelihood gmrfLikelihood,
                                           double weight, CoercionMode mode, double scaleFactor,
@@ -74,7 +92,21 @@ public class GMRFSkyrideBlockUpdateOperator extends AbstractCoercableOperator {
         this.stopValue = stopValue;
         setWeight(weight);
 
-        zeros = new double[fieldLength];
+        cholesky = new SymmetricTridiagonalCholesky(fieldLength);
+        currentGamma = new double[fieldLength];
+        proposedGamma = new double[fieldLength];
+        currentDiagonal = new double[fieldLength];
+        currentOffDiagonal = new double[fieldLength - 1];
+        proposedDiagonal = new double[fieldLength];
+        proposedOffDiagonal = new double[fieldLength - 1];
+        qwDiagonal = new double[fieldLength];
+        jacobianDiagonal = new double[fieldLength];
+        fieldMode = new double[fieldLength];
+        canonical = new double[fieldLength];
+        mean = new double[fieldLength];
+        standNorm = new double[fieldLength];
+        gradient = new double[fieldLength];
+        step = new double[fieldLength];
     }
 
     private double getNewLambda(double currentValue, double lambdaScale) {
@@ -104,44 +136,6 @@ public class GMRFSkyrideBlockUpdateOperator extends AbstractCoercableOperator {
         return returnValue;
     }
 
-    public DenseVector getMultiNormalMean(DenseVector CanonVector, BandCholesky Cholesky) {
-
-        DenseVector tempValue = new DenseVector(zeros);
-        DenseVector Mean = new DenseVector(zeros);
-
-        UpperTriangBandMatrix CholeskyUpper = Cholesky.getU();
-
-        // Assume Cholesky factorization of the precision matrix Q = LL^T
-
-        // 1. Solve L\omega = b
-
-        CholeskyUpper.transSolve(CanonVector, tempValue);
-
-        // 2. Solve L^T \mu = \omega
-
-        CholeskyUpper.solve(tempValue, Mean);
-
-        return Mean;
-    }
-
-    public DenseVector getMultiNormal(DenseVector StandNorm, DenseVector Mean, BandCholesky Cholesky) {
-
-        DenseVector returnValue = new DenseVector(zeros);
-
-        UpperTriangBandMatrix CholeskyUpper = Cholesky.getU();
-
-        // 3. Solve L^T v = z
-
-        CholeskyUpper.solve(StandNorm, returnValue);
-
-        // 4. Return x = \mu + v
-
-        returnValue.add(Mean);
-
-        return returnValue;
-    }
-
-
     public static DenseVector getMultiNormal(DenseVector Mean, UpperSPDDenseMatrix Variance) {
         int length = Mean.size();
         DenseVector tempValue = new DenseVector(length);
@@ -174,10 +168,6 @@ public class GMRFSkyrideBlockUpdateOperator extends AbstractCoercableOperator {
         return returnValue;
     }
 
-    public DenseVector newtonRaphson(double[] data, DenseVector currentGamma, SymmTridiagMatrix proposedQ) throws OperatorFailedException {
-        return newNewtonRaphson(data, currentGamma, proposedQ, maxIterations, stopValue);
-    }
-
     public static DenseVector newNewtonRaphson(double[] data, DenseVector currentGamma, SymmTridiagMatrix proposedQ,
                                                int maxIterations, double stopValue) throws OperatorFailedException {
         DenseVector iterateGamma = currentGamma.copy();
@@ -231,6 +221,71 @@ public class GMRFSkyrideBlockUpdateOperator extends AbstractCoercableOperator {
         return jacobian;
     }
 
+    /**
+     * Finds the mode of the full conditional of the field by Newton-Raphson using the work space arrays.
+     * The tridiagonal equivalent of newNewtonRaphson.
+     */
+    private void findMode(double[] data, double[] start, double[] diagonal, double[] offDiagonal, double[] mode)
+            throws OperatorFailedException {
+        System.arraycopy(start, 0, mode, 0, fieldLength);
+
+        int numberIterations = 0;
+
+        while (gradient(data, mode, diagonal, offDiagonal, gradient) > stopValue) {
+            for (int i = 0; i < fieldLength; i++) {
+                jacobianDiagonal[i] = diagonal[i] + Math.exp(-mode[i]) * data[i];
+            }
+            if (!cholesky.factor(jacobianDiagonal, offDiagonal)) {
+                logger.fine("Newton-Raphson F");
+                throw new OperatorFailedException("");
+            }
+            cholesky.solveSystem(gradient, step);
+            for (int i = 0; i < fieldLength; i++) {
+                mode[i] += step[i];
+            }
+            numberIterations++;
+
+            if (numberIterations > maxIterations) {
+                logger.fine("Newton-Raphson F");
+                throw new OperatorFailedException("Newton Raphson algorithm did not converge within " + maxIterations + " step to a norm less than " + stopValue + "\n" +
+                        "Try starting BEAST with a more accurate initial tree.");
+            }
+        }
+
+        logger.fine("Newton-Raphson S");
+    }
+
+    /**
+     * Fills gradient with -Q value - 1 + data * exp(-value)
+     *
+     * @return the Euclidean norm of the gradient
+     */
+    private static double gradient(double[] data, double[] value, double[] diagonal, double[] offDiagonal, double[] gradient) {
+        SymmetricTridiagonalCholesky.multiply(diagonal, offDiagonal, value, gradient);
+        double sumOfSquares = 0.0;
+        for (int i = 0; i < value.length; i++) {
+            gradient[i] = -gradient[i] - 1 + data[i] * Math.exp(-value[i]);
+            sumOfSquares += gradient[i] * gradient[i];
+        }
+        return Math.sqrt(sumOfSquares);
+    }
+
+    /**
+     * Sets up the precision (in qwDiagonal and offDiagonal) and canonical mean of the Gaussian approximation
+     * to the full conditional at the mode and factors the precision.
+     */
+    private void factorApproximation(double[] data, double[] diagonal, double[] offDiagonal) throws OperatorFailedException {
+        for (int i = 0; i < fieldLength; i++) {
+            double weight = data[i] * Math.exp(-fieldMode[i]);
+            qwDiagonal[i] = diagonal[i] + weight;
+            canonical[i] = weight * (fieldMode[i] + 1) - 1;
+        }
+        if (!cholesky.factor(qwDiagonal, offDiagonal)) {
+            throw new OperatorFailedException("GMRF precision matrix is not positive definite");
+        }
+        cholesky.solveSystem(canonical, mean);
+    }
+
     public double doOperation() throws OperatorFailedException {
 
         double currentPrecision = precisionParameter.getParameterValue(0);
@@ -242,83 +297,56 @@ public class GMRFSkyrideBlockUpdateOperator extends AbstractCoercableOperator {
         precisionParameter.setParameterValue(0, proposedPrecision);
         lambdaParameter.setParameterValue(0, proposedLambda);
 
-        DenseVector currentGamma = new DenseVector(gmrfField.getPopSizeParameter().getParameterValues());
-        DenseVector proposedGamma;
-
-        SymmTridiagMatrix currentQ = gmrfField.getStoredScaledWeightMatrix(currentPrecision, currentLambda);
-        SymmTridiagMatrix proposedQ = gmrfField.getScaledWeightMatrix(proposedPrecision, proposedLambda);
+        for (int i = 0; i < fieldLength; i++) {
+            currentGamma[i] = popSizeParameter.getParameterValue(i);
+        }
 
+        gmrfField.getStoredScaledWeightMatrix(currentPrecision, currentLambda, currentDiagonal, currentOffDiagonal);
+        gmrfField.getScaledWeightMatrix(proposedPrecision, proposedLambda, proposedDiagonal, proposedOffDiagonal);
 
         double[] wNative = gmrfField.getSufficientStatistics();
 
-        UpperSPDBandMatrix forwardQW = new UpperSPDBandMatrix(proposedQ, 1);
-        UpperSPDBandMatrix backwardQW = new UpperSPDBandMatrix(currentQ, 1);
-
-        BandCholesky forwardCholesky = new BandCholesky(wNative.length, 1, true);
-        BandCholesky backwardCholesky = new BandCholesky(wNative.length, 1, true);
-
-        DenseVector diagonal1 = new DenseVector(fieldLength);
-        DenseVector diagonal2 = new DenseVector(fieldLength);
-        DenseVector diagonal3 = new DenseVector(fieldLength);
+        findMode(wNative, currentGamma, proposedDiagonal, proposedOffDiagonal, fieldMode);
+        factorApproximation(wNative, proposedDiagonal, proposedOffDiagonal);
 
-        DenseVector modeForward = newtonRaphson(wNative, currentGamma, proposedQ.copy());
+        double forwardLogDeterminant = cholesky.getLogDeterminantOfFactor();
 
+        double standNormSquared = 0.0;
         for (int i = 0; i < fieldLength; i++) {
-            diagonal1.set(i, wNative[i] * Math.exp(-modeForward.get(i)));
-            diagonal2.set(i, modeForward.get(i) + 1);
-
-            forwardQW.set(i, i, diagonal1.get(i) + forwardQW.get(i, i));
-            diagonal1.set(i, diagonal1.get(i) * diagonal2.get(i) - 1);
+            standNorm[i] = MathUtils.nextGaussian();
+            standNormSquared += standNorm[i] * standNorm[i];
         }
 
-        forwardCholesky.factor(forwardQW.copy());
-
-        DenseVector forwardMean = getMultiNormalMean(diagonal1, forwardCholesky);
-
-        DenseVector stand_norm = new DenseVector(zeros);
-
-        for (int i = 0; i < zeros.length; i++)
-            stand_norm.set(i, MathUtils.nextGaussian());
-
-        proposedGamma = getMultiNormal(stand_norm, forwardMean, forwardCholesky);
-
+        // x = mu + U^-1 z
+        cholesky.solve(standNorm, proposedGamma);
+        for (int i = 0; i < fieldLength; i++) {
+            proposedGamma[i] += mean[i];
+        }
 
         for (int i = 0; i < fieldLength; i++)
-            popSizeParameter.setParameterValueQuietly(i, proposedGamma.get(i));
+            popSizeParameter.setParameterValueQuietly(i, proposedGamma[i]);
 
         ((Parameter.Abstract) popSizeParameter).fireParameterChangedEvent();
 
 
         double hRatio = 0;
 
-        diagonal1.zero();
-        diagonal2.zero();
-        diagonal3.zero();
-
-        DenseVector modeBackward = newtonRaphson(wNative, proposedGamma, currentQ.copy());
+        findMode(wNative, proposedGamma, currentDiagonal, currentOffDiagonal, fieldMode);
+        factorApproximation(wNative, currentDiagonal, currentOffDiagonal);
 
         for (int i = 0; i < fieldLength; i++) {
-            diagonal1.set(i, wNative[i] * Math.exp(-modeBackward.get(i)));
-            diagonal2.set(i, modeBackward.get(i) + 1);
-
-            backwardQW.set(i, i, diagonal1.get(i) + backwardQW.get(i, i));
-            diagonal1.set(i, diagonal1.get(i) * diagonal2.get(i) - 1);
+            step[i] = currentGamma[i] - mean[i];
         }
+        SymmetricTridiagonalCholesky.multiply(qwDiagonal, currentOffDiagonal, step, gradient);
 
-        backwardCholesky.factor(backwardQW.copy());
-
-        DenseVector backwardMean = getMultiNormalMean(diagonal1, backwardCholesky);
-
+        double backwardSquared = 0.0;
         for (int i = 0; i < fieldLength; i++) {
-            diagonal1.set(i, currentGamma.get(i) - backwardMean.get(i));
+            backwardSquared += step[i] * gradient[i];
         }
 
-        backwardQW.mult(diagonal1, diagonal3);
-
         // Removed 0.5 * 2
-        hRatio += logGeneralizedDeterminant(backwardCholesky.getU()) - 0.5 * diagonal1.dot(diagonal3);
-        hRatio -= logGeneralizedDeterminant(forwardCholesky.getU() ) - 0.5 * stand_norm.dot(stand_norm);
-
+        hRatio += cholesky.getLogDeterminantOfFactor() - 0.5 * backwardSquared;
+        hRatio -= forwardLogDeterminant - 0.5 * standNormSquared;
 
         return hRatio;
     }
@@ -41,18 +41,31 @@ public class BranchMapModel extends AbstractModel {
 
     private AbstractCase[] map;
     private AbstractCase[] storedMap;
+
+    // nodes whose entry has been set since the last store; storedMap is only out of date at these
+
+    private boolean[] nodeJournaled;
+    private int[] journaledNodes;
+    private int journaledNodeCount;
+    private boolean allNodesJournaled;
+
     public final static String BRANCH_MAP_MODEL = "branchMapModel";
 
     public BranchMapModel(PartitionedTreeModel tree){
         super(BRANCH_MAP_MODEL);
         map = new AbstractCase[tree.getNodeCount()];
         storedMap = new AbstractCase[tree.getNodeCount()];
+        nodeJournaled = new boolean[tree.getNodeCount()];
+        journaledNodes = new int[tree.getNodeCount()];
+        journaledNodeCount = 0;
+        allNodesJournaled = true;
     }
 
     public void set(int index, AbstractCase aCase, boolean silent){
 
         AbstractCase oldCase = map[index];
 
+        journalNode(index);
         map[index] = aCase;
 
         if(!silent){
@@ -76,12 +89,16 @@ public class BranchMapModel extends AbstractModel {
         pushMapChangedEvents(out);
     }
 
-    // WARNING WARNING WARNING This is to be called ONLY at the start of the run
+    // WARNING WARNING WARNING This is to be called ONLY at the start of the run (changes made through the returned
+    // array are not journaled)
 
     public AbstractCase[] getArray(){
+        allNodesJournaled = true;
         return map;
     }
 
+    // the new entries are copied in, so the caller is free to go on modifying newMap
+
     public void setAll(AbstractCase[] newMap, boolean silent){
         ArrayList<BranchMapChangedEvent> changes = new ArrayList<BranchMapChangedEvent>();
 
@@ -95,7 +112,26 @@ public class BranchMapModel extends AbstractModel {
             pushMapChangedEvents(changes);
         }
 
-        map = newMap;
+        for(BranchMapChangedEvent change : changes){
+            journalNode(change.getNodeToRecalculate());
+            map[change.getNodeToRecalculate()] = change.getNewCase();
+        }
+    }
+
+    private void journalNode(int index){
+        if(!nodeJournaled[index]){
+            nodeJournaled[index] = true;
+            journaledNodes[journaledNodeCount] = index;
+            journaledNodeCount++;
+        }
+    }
+
+    private void clearJournal(){
+        for(int i=0; i<journaledNodeCount; i++){
+            nodeJournaled[journaledNodes[i]] = false;
+        }
+        journaledNodeCount = 0;
+        allNodesJournaled = false;
     }
 
     public AbstractCase[] getArrayCopy(){
@@ -111,11 +147,25 @@ public class BranchMapModel extends AbstractModel {
     }
 
     protected void storeState() {
-        storedMap = Arrays.copyOf(map, map.length);
+        if(allNodesJournaled){
+            System.arraycopy(map, 0, storedMap, 0, map.length);
+        } else {
+            for(int i=0; i<journaledNodeCount; i++){
+                storedMap[journaledNodes[i]] = map[journaledNodes[i]];
+            }
+        }
+        clearJournal();
     }
 
     protected void restoreState() {
-        map = storedMap;
+        if(allNodesJournaled){
+            System.arraycopy(storedMap, 0, map, 0, map.length);
+        } else {
+            for(int i=0; i<journaledNodeCount; i++){
+                map[journaledNodes[i]] = storedMap[journaledNodes[i]];
+            }
+        }
+        clearJournal();
     }
 
     protected void acceptState() {
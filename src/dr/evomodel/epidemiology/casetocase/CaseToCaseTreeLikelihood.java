@@ -94,9 +94,19 @@ public abstract class CaseToCaseTreeLikelihood extends AbstractTreeLikelihood im
     protected double[] latentPeriods;
     private double[] storedLatentPeriods;
     protected boolean[] recalculateCaseFlags;
+    private boolean[] storedRecalculateCaseFlags;
 
-    protected HashMap<AbstractCase,Treelet> elementsAsTrees;
-    protected HashMap<AbstractCase,Treelet> storedElementsAsTrees;
+    // cases whose cached values may have changed since the last store; only these are copied on store and restore
+
+    private boolean[] caseJournaled;
+    private int[] journaledCases;
+    private int journaledCaseCount;
+    private boolean allCasesJournaled;
+
+    // indexed by case; null for a case that has not yet been (or needs to be) extracted from the tree
+
+    protected Treelet[] elementsAsTrees;
+    protected Treelet[] storedElementsAsTrees;
 
     //because of the way the former works, we need a maximum value of the time from first infection to root node.
 
@@ -156,16 +166,28 @@ public abstract class CaseToCaseTreeLikelihood extends AbstractTreeLikelihood im
         hasLatentPeriods = outbreak.hasLatentPeriods();
 
         infectionTimes = new double[outbreak.size()];
+        storedInfectionTimes = new double[outbreak.size()];
         infectiousPeriods = new double[outbreak.size()];
+        storedInfectiousPeriods = new double[outbreak.size()];
 
         if(hasLatentPeriods){
             infectiousTimes = new double[outbreak.size()];
+            storedInfectiousTimes = new double[outbreak.size()];
             latentPeriods = new double[outbreak.size()];
+            storedLatentPeriods = new double[outbreak.size()];
         }
 
+        elementsAsTrees = new Treelet[outbreak.size()];
+        storedElementsAsTrees = new Treelet[outbreak.size()];
 
         recalculateCaseFlags = new boolean[outbreak.size()];
         Arrays.fill(recalculateCaseFlags, true);
+        storedRecalculateCaseFlags = new boolean[outbreak.size()];
+
+        caseJournaled = new boolean[outbreak.size()];
+        journaledCases = new int[outbreak.size()];
+        journaledCaseCount = 0;
+        allCasesJournaled = true;
 
 
 
@@ -243,7 +265,7 @@ public abstract class CaseToCaseTreeLikelihood extends AbstractTreeLikelihood im
 
         for(int i=0; i<outbreak.size(); i++){
             AbstractCase aCase = outbreak.getCase(i);
-            if(aCase.wasEverInfected() && elementsAsTrees.get(aCase)==null){
+            if(aCase.wasEverInfected() && elementsAsTrees[i]==null){
 
                 NodeRef partitionRoot = ((PartitionedTreeModel)treeModel).getEarliestNodeInElement(aCase);
 
@@ -275,7 +297,7 @@ public abstract class CaseToCaseTreeLikelihood extends AbstractTreeLikelihood im
                 Treelet treelet = new Treelet(littleTree,
                         littleTree.getRootHeight() + extraHeight);
 
-                elementsAsTrees.put(aCase, treelet);
+                elementsAsTrees[i] = treelet;
             }
         }
     }
@@ -428,6 +450,56 @@ public abstract class CaseToCaseTreeLikelihood extends AbstractTreeLikelihood im
 
     protected void recalculateCase(int index){
         recalculateCaseFlags[index] = true;
+        journalCase(index);
+    }
+
+    /**
+     * Records that the cached values for this case may be about to change, so that they are saved by the next
+     * storeState or put back by the next restoreState.
+     */
+
+    protected void journalCase(int index){
+        if(!caseJournaled[index]){
+            caseJournaled[index] = true;
+            journaledCases[journaledCaseCount] = index;
+            journaledCaseCount++;
+        }
+    }
+
+    protected void journalAllCases(){
+        allCasesJournaled = true;
+    }
+
+    // cases still awaiting recalculation stay journaled, since their cached values will change without a further
+    // call to journalCase
+
+    private void clearJournal(){
+        int kept = 0;
+        if(allCasesJournaled){
+            for(int i=0; i<noCases; i++){
+                caseJournaled[i] = isCasePending(i);
+                if(caseJournaled[i]){
+                    journaledCases[kept] = i;
+                    kept++;
+                }
+            }
+        } else {
+            for(int i=0; i<journaledCaseCount; i++){
+                int index = journaledCases[i];
+                if(isCasePending(index)){
+                    journaledCases[kept] = index;
+                    kept++;
+                } else {
+                    caseJournaled[index] = false;
+                }
+            }
+        }
+        journaledCaseCount = kept;
+        allCasesJournaled = false;
+    }
+
+    protected boolean isCasePending(int index){
+        return recalculateCaseFlags[index];
     }
 
     protected void recalculateCase(AbstractCase aCase){
@@ -454,31 +526,67 @@ public abstract class CaseToCaseTreeLikelihood extends AbstractTreeLikelihood im
     // **************************************************************
 
     /**
-     * Stores the precalculated state (in this case the node labels and subtree likelihoods)
+     * Stores the precalculated state. Only the cases journaled since the last store or restore are copied; the
+     * stored values of every other case are already current.
      */
 
     protected void storeState() {
         super.storeState();
-        storedInfectionTimes = Arrays.copyOf(infectionTimes, infectionTimes.length);
-        storedInfectiousPeriods = Arrays.copyOf(infectiousPeriods, infectiousPeriods.length);
-        if(hasLatentPeriods){
-            storedInfectiousTimes = Arrays.copyOf(infectiousTimes, infectionTimes.length);
-            storedLatentPeriods = Arrays.copyOf(latentPeriods, latentPeriods.length);
+        if(allCasesJournaled){
+            for(int i=0; i<noCases; i++){
+                storeCase(i);
+            }
+        } else {
+            for(int i=0; i<journaledCaseCount; i++){
+                storeCase(journaledCases[i]);
+            }
         }
+        clearJournal();
     }
 
     /**
-     * Restores the precalculated state.
+     * Restores the precalculated state of the cases journaled since the last store.
      */
 
     protected void restoreState() {
         super.restoreState();
-        infectionTimes = storedInfectionTimes;
-        infectiousPeriods = storedInfectiousPeriods;
+        if(allCasesJournaled){
+            for(int i=0; i<noCases; i++){
+                restoreCase(i);
+            }
+        } else {
+            for(int i=0; i<journaledCaseCount; i++){
+                restoreCase(journaledCases[i]);
+            }
+        }
+        clearJournal();
+    }
+
+    /**
+     * Copies the cached values of one case into the stored state. Subclasses caching their own per-case values
+     * should override this (and restoreCase) and call the super method.
+     */
+
+    protected void storeCase(int index){
+        storedRecalculateCaseFlags[index] = recalculateCaseFlags[index];
+        storedInfectionTimes[index] = infectionTimes[index];
+        storedInfectiousPeriods[index] = infectiousPeriods[index];
+        if(hasLatentPeriods){
+            storedInfectiousTimes[index] = infectiousTimes[index];
+            storedLatentPeriods[index] = latentPeriods[index];
+        }
+        storedElementsAsTrees[index] = elementsAsTrees[index];
+    }
+
+    protected void restoreCase(int index){
+        recalculateCaseFlags[index] = storedRecalculateCaseFlags[index];
+        infectionTimes[index] = storedInfectionTimes[index];
+        infectiousPeriods[index] = storedInfectiousPeriods[index];
         if(hasLatentPeriods){
-            infectiousTimes = storedInfectiousTimes;
-            latentPeriods = storedLatentPeriods;
+            infectiousTimes[index] = storedInfectiousTimes[index];
+            latentPeriods[index] = storedLatentPeriods[index];
         }
+        elementsAsTrees[index] = storedElementsAsTrees[index];
     }
 
     protected final void acceptState() {
@@ -500,6 +608,7 @@ public abstract class CaseToCaseTreeLikelihood extends AbstractTreeLikelihood im
     public void makeDirty() {
         likelihoodKnown = false;
         Arrays.fill(recalculateCaseFlags, true);
+        journalAllCases();
     }
 
 
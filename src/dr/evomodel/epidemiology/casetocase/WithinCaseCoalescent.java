@@ -61,6 +61,7 @@ public class WithinCaseCoalescent extends CaseToCaseTreeLikelihood {
     private double[] partitionTreeLogLikelihoods;
     private double[] storedPartitionTreeLogLikelihoods;
     private boolean[] recalculateCoalescentFlags;
+    private boolean[] storedRecalculateCoalescentFlags;
     private DemographicModel demoModel;
     private Mode mode;
 
@@ -83,16 +84,7 @@ public class WithinCaseCoalescent extends CaseToCaseTreeLikelihood {
         storedPartitionTreeLogLikelihoods = new double[outbreak.getCases().size()];
         recalculateCoalescentFlags = new boolean[outbreak.getCases().size()];
         Arrays.fill(recalculateCoalescentFlags, true);
-
-        elementsAsTrees = new HashMap<AbstractCase, Treelet>();
-        for(AbstractCase aCase: outbreak.getCases()){
-            if(aCase.wasEverInfected()){
-                elementsAsTrees.put(aCase, null);
-            }
-        }
-
-
-        storedElementsAsTrees = new HashMap<AbstractCase, Treelet>();
+        storedRecalculateCoalescentFlags = new boolean[outbreak.getCases().size()];
 
     }
 
@@ -118,7 +110,7 @@ public class WithinCaseCoalescent extends CaseToCaseTreeLikelihood {
 
                 if (recalculateCoalescentFlags[number]) {
 
-                    Treelet treelet = elementsAsTrees.get(aCase);
+                    Treelet treelet = elementsAsTrees[number];
 
                     if (treelet.getExternalNodeCount() > 1) {
                         SpecifiedZeroCoalescent coalescent = new SpecifiedZeroCoalescent(treelet, demoModel,
@@ -147,23 +139,30 @@ public class WithinCaseCoalescent extends CaseToCaseTreeLikelihood {
 
     public void storeState(){
         super.storeState();
-        storedElementsAsTrees = new HashMap<AbstractCase, Treelet>(elementsAsTrees);
-        storedPartitionTreeLogLikelihoods = Arrays.copyOf(partitionTreeLogLikelihoods,
-                partitionTreeLogLikelihoods.length);
-
-
         storedCoalescencesLogLikelihood = coalescencesLogLikelihood;
-
     }
 
     public void restoreState(){
         super.restoreState();
-        elementsAsTrees = storedElementsAsTrees;
-        partitionTreeLogLikelihoods = storedPartitionTreeLogLikelihoods;
+        coalescencesLogLikelihood = storedCoalescencesLogLikelihood;
+    }
 
+    // the treelets are stored by the superclass
 
-        coalescencesLogLikelihood = storedCoalescencesLogLikelihood;
+    protected void storeCase(int index){
+        super.storeCase(index);
+        storedPartitionTreeLogLikelihoods[index] = partitionTreeLogLikelihoods[index];
+        storedRecalculateCoalescentFlags[index] = recalculateCoalescentFlags[index];
+    }
+
+    protected void restoreCase(int index){
+        super.restoreCase(index);
+        partitionTreeLogLikelihoods[index] = storedPartitionTreeLogLikelihoods[index];
+        recalculateCoalescentFlags[index] = storedRecalculateCoalescentFlags[index];
+    }
 
+    protected boolean isCasePending(int index){
+        return super.isCasePending(index) || recalculateCoalescentFlags[index];
     }
 
     protected void handleModelChangedEvent(Model model, Object object, int index) {
@@ -201,6 +200,7 @@ public class WithinCaseCoalescent extends CaseToCaseTreeLikelihood {
             }
         } else if(model == demoModel){
             Arrays.fill(recalculateCoalescentFlags, true);
+            journalAllCases();
         } else if(model == outbreak){
             if(object instanceof AbstractCase){
                 AbstractCase thisCase = (AbstractCase)object;
@@ -217,9 +217,10 @@ public class WithinCaseCoalescent extends CaseToCaseTreeLikelihood {
     }
 
     protected void recalculateCaseWCC(int index){
-        elementsAsTrees.put(outbreak.getCase(index), null);
+        elementsAsTrees[index] = null;
         pleaseReExplode = true;
         recalculateCoalescentFlags[index] = true;
+        journalCase(index);
     }
 
     protected void recalculateCaseWCC(AbstractCase aCase){
@@ -232,11 +233,7 @@ public class WithinCaseCoalescent extends CaseToCaseTreeLikelihood {
     public void makeDirty(){
         super.makeDirty();
         Arrays.fill(recalculateCoalescentFlags, true);
-        for(AbstractCase aCase : outbreak.getCases()){
-            if(aCase.wasEverInfected()) {
-                elementsAsTrees.put(aCase, null);
-            }
-        }
+        Arrays.fill(elementsAsTrees, null);
         pleaseReExplode = true;
     }
 
@@ -29,7 +29,7 @@ import dr.inference.model.AbstractModel;
 import dr.inference.model.Model;
 import dr.inference.model.Parameter;
 import dr.inference.model.Variable;
-import dr.math.distributions.GammaDistribution;
+import dr.math.distributions.QuantileTables;
 import dr.evomodel.substmodel.SubstitutionModel;
 import dr.util.Author;
 import dr.util.Citable;
@@ -251,9 +251,14 @@ public class GammaSiteRateModel extends AbstractModel implements SiteRateModel,
             double mean = 0.0;
             final int gammaCatCount = categoryCount - cat;
 
+            if (gammaQuantiles == null || gammaQuantiles.length != gammaCatCount) {
+                gammaQuantiles = new double[gammaCatCount];
+            }
+            QuantileTables.gammaQuantiles(a, 1.0 / a, 0.0, gammaQuantiles);
+
             for (int i = 0; i < gammaCatCount; i++) {
 
-                categoryRates[i + cat] = GammaDistribution.quantile((2.0 * i + 1.0) / (2.0 * gammaCatCount), a, 1.0 / a);
+                categoryRates[i + cat] = gammaQuantiles[i];
                 mean += categoryRates[i + cat];
 
                 categoryProportions[i + cat] = propVariable / gammaCatCount;
@@ -339,6 +344,8 @@ public class GammaSiteRateModel extends AbstractModel implements SiteRateModel,
 
     private double[] categoryProportions;
 
+    private double[] gammaQuantiles;
+
 
 
     // This is here solely to allow the GammaSiteModelParser to pass on the substitution model to the
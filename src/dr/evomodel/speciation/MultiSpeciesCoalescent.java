@@ -28,60 +28,104 @@ package dr.evomodel.speciation;
 import dr.evolution.coalescent.DemographicFunction;
 import dr.evolution.coalescent.ScaledDemographic;
 import dr.evolution.tree.NodeRef;
-import dr.evolution.tree.Tree;
 import dr.evolution.util.Units;
-import dr.inference.model.Likelihood;
+import dr.evomodelxml.speciation.MultiSpeciesCoalescentParser;
+import dr.inference.model.AbstractModelLikelihood;
 import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
 import jebl.util.FixedBitSet;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
 
 /**
  * Compute coalecent log-liklihood of a set of gene trees embedded inside one species tree.
+ * <p/>
+ * The contribution of each gene tree within each species branch is cached together with the number of lineages
+ * and the position in the coalescent list at the top of the branch. A change to a gene tree only recomputes that
+ * gene tree, and only the species branches reaching above the oldest unchanged coalescent event. A change to the
+ * species tree recomputes all gene trees, in parallel when more than one thread is used.
  *
  * @author Joseph Heled, Graham Jones
  *         Date: 26/05/2008
  */
-public class MultiSpeciesCoalescent extends Likelihood.Abstract implements Units {
+public class MultiSpeciesCoalescent extends AbstractModelLikelihood implements Units {
+    private static final int PARALLEL_GENE_TREE_THRESHOLD = 4;
+
     private final SpeciesTreeModel spTree;
     private final SpeciesBindings species;
+    private final SpeciesBindings.GeneTreeInfo[] geneTrees;
     private boolean checkCompatibility;
     private final boolean[] compatibleCheckRequited;
 
     public MultiSpeciesCoalescent(SpeciesBindings species, SpeciesTreeModel tree) {
-        super(tree);
+        super(MultiSpeciesCoalescentParser.SPECIES_COALESCENT);
         spTree = tree;
         this.species = species;
 
-        spTree.addModelRestoreListener(this);
+        addModel(spTree);
 
-        // recompute on any change in geneTree -
-        // possible optimization: keep track which tree changed.
-        final SpeciesBindings.GeneTreeInfo[] trees = species.getGeneTrees();
-        for(SpeciesBindings.GeneTreeInfo geneTree : trees) {
-            geneTree.tree.addModelListener(this);
+        // each gene tree is tracked separately so only the trees which changed are recomputed
+        geneTrees = species.getGeneTrees();
+        for(SpeciesBindings.GeneTreeInfo geneTree : geneTrees) {
+            addModel(geneTree.tree);
         }
 
-        compatibleCheckRequited = new boolean[trees.length];
+        compatibleCheckRequited = new boolean[geneTrees.length];
         Arrays.fill(compatibleCheckRequited, false);
         checkCompatibility = false;
-    }
 
-    // override this for efficiency, otherwise the overridden makeDirty, which results in additional overhead is called
-    public void modelRestored(Model model) {
-        super.makeDirty();
+        final int nGenes = geneTrees.length;
+        final int nNodes = spTree.getNodeCount();
+
+        branchLike = new double[nGenes][2][nNodes];
+        branchLineages = new int[nGenes][2][nNodes];
+        branchIndex = new int[nGenes][2][nNodes];
+        geneLogL = new double[nGenes][2];
+        coalInfo = new SpeciesBindings.CoalInfo[nGenes][2][];
+        currentBuffer = new int[nGenes];
+        storedBuffer = new int[nGenes];
+        geneTreeChanged = new boolean[nGenes];
+        changedTimes = new double[nGenes];
+        dirtyGeneTrees = new int[nGenes];
+
+        postorder = new int[nNodes];
+        nodeChildren = new int[2 * nNodes];
+        nodeHeights = new double[nNodes];
+        nodeStopTimes = new double[nNodes];
+        nodeDemographics = new DemographicFunction[nNodes];
+        nodeSpecies = new FixedBitSet[nNodes];
+        nodeSpeciesIndex = new int[nNodes];
+
+        speciesChanged = true;
     }
 
     // Upon a direct "make dirty" enable all compatibility checks, since the last call to calculateLogLikelihood may have
     // found a non compatible tree and returned -inf. This case is not explicitly saved.
     public void makeDirty() {
-        super.makeDirty(); 
+        likelihoodKnown = false;
+        speciesChanged = true;
         checkCompatibility = true;
-        for(int i = 0; i < species.getGeneTrees().length; i++) {
+        for(int i = 0; i < geneTrees.length; i++) {
             compatibleCheckRequited[i] = true;
         }
     }
 
+    public Model getModel() {
+        return this;
+    }
+
+    public double getLogLikelihood() {
+        if( !likelihoodKnown ) {
+            logLikelihood = calculateLogLikelihood();
+            likelihoodKnown = true;
+        }
+        return logLikelihood;
+    }
+
     protected double calculateLogLikelihood() {
         if( checkCompatibility ) {
             boolean compatibility = true;
@@ -89,11 +133,10 @@ public class MultiSpeciesCoalescent extends Likelihood.Abstract implements Units
             for(int i = 0; i < compatibleCheckRequited.length; ++i) {
                 if( compatibleCheckRequited[i] ) {
 
-                    if( !spTree.isCompatible(species.getGeneTrees()[i]) ) {
+                    if( !spTree.isCompatible(geneTrees[i]) ) {
                         compatibility = false;
                     }
                     compatibleCheckRequited[i] = false;
-                    //System.out.println("check compatibility:" + species.getGeneTrees()[i].tree.getId() + " - " + compatibility );
                 }
             }
             if( !compatibility ) {
@@ -102,171 +145,326 @@ public class MultiSpeciesCoalescent extends Likelihood.Abstract implements Units
             checkCompatibility = false;
         }
 
+        setSpeciesBranches();
+
+        boolean anyGeneTreeChanged = false;
+        for(boolean changed : geneTreeChanged) {
+            anyGeneTreeChanged |= changed;
+        }
+        final boolean allChanged = speciesChanged || (anyGeneTreeChanged && spTree.demographicsDependOnGeneTrees());
+
+        // the root population may extend to the oldest gene tree root
+        double rootChangeTime = Double.POSITIVE_INFINITY;
+        if( spTree.rootDemographicDependsOnGeneTrees() ) {
+            double h = -1;
+            for(SpeciesBindings.GeneTreeInfo t : geneTrees) {
+                h = Math.max(h, t.tree.getNodeHeight(t.tree.getRoot()));
+            }
+            if( h != geneRootHeight ) {
+                rootChangeTime = spTree.getNodeHeight(spTree.getRoot());
+                geneRootHeight = h;
+            }
+        }
+
+        int dirtyCount = 0;
+        for(int i = 0; i < geneTrees.length; i++) {
+            double changedTime = rootChangeTime;
+            if( allChanged ) {
+                changedTime = Double.NEGATIVE_INFINITY;
+            } else if( geneTreeChanged[i] ) {
+                changedTime = Math.min(changedTime,
+                        firstChangedTime(coalInfo[i][currentBuffer[i]], geneTrees[i].getCoalInfo()));
+            }
+
+            if( changedTime < Double.POSITIVE_INFINITY ) {
+                if( currentBuffer[i] == storedBuffer[i] ) {
+                    // keep the stored contributions for a restore
+                    copyBuffer(i, currentBuffer[i], 1 - currentBuffer[i]);
+                    currentBuffer[i] = 1 - currentBuffer[i];
+                }
+                // getCoalInfo is lazy so it is called here rather than from the worker threads
+                geneTrees[i].getCoalInfo();
+                changedTimes[i] = changedTime;
+                dirtyGeneTrees[dirtyCount] = i;
+                dirtyCount++;
+            }
+            geneTreeChanged[i] = false;
+        }
+        speciesChanged = false;
+
+        if( dirtyCount >= PARALLEL_GENE_TREE_THRESHOLD && getThreadCount() > 1 ) {
+            computeGeneTreesInParallel(dirtyCount);
+        } else {
+            for(int k = 0; k < dirtyCount; k++) {
+                computeGeneTree(dirtyGeneTrees[k]);
+            }
+        }
+
         double logl = 0;
-        int[] info = {0, 0};
-        for( SpeciesBindings.GeneTreeInfo geneTree : species.getGeneTrees() ) {
-            final double v = treeLogLikelihood(geneTree, spTree.getRoot(), info, geneTree.popFactor());
+        for(int i = 0; i < geneTrees.length; i++) {
+            final double v = geneLogL[i][currentBuffer[i]];
             assert ! Double.isNaN(v);
-//           if( Double.isNaN(v) ) {
-//               double x = 0;              
-//           }
             logl += v;
         }
-        ccc += 1;
         return logl;
     }
-    int ccc = 0;
-    private final boolean verbose = false;
-
-    private double treeLogLikelihood(SpeciesBindings.GeneTreeInfo geneTree, NodeRef node, int[] info, double popFactor) {
-        // number of lineages remaining at node
-        int nLineages;
-        // location in coalescent list (optimization)
-        int indexInClist = 0;
-        // accumulated log-likelihood inBranchh from node to it's parent
-        double like = 0;
 
-        final double t0 = spTree.getNodeHeight(node);
-
-        final SpeciesBindings.CoalInfo[] cList = geneTree.getCoalInfo();
+    /**
+     * @return the time of the oldest coalescent event below which the two (sorted) lists agree,
+     *         -inf if there is no cached list and +inf if the lists are equal.
+     */
+    private static double firstChangedTime(SpeciesBindings.CoalInfo[] cached, SpeciesBindings.CoalInfo[] cList) {
+        if( cached == null ) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        for(int k = 0; k < cList.length; ++k) {
+            final SpeciesBindings.CoalInfo a = cached[k];
+            final SpeciesBindings.CoalInfo b = cList[k];
+            if( a != b && (a.ctime != b.ctime || !Arrays.equals(a.sinfo, b.sinfo)) ) {
+                return Math.min(a.ctime, b.ctime);
+            }
+        }
+        return Double.POSITIVE_INFINITY;
+    }
 
-        if( verbose ) {
-            if( spTree.isRoot(node) ) {
-                System.err.println("gtree:" + geneTree.tree.getId());
-                System.err.println("t0 " + t0);
-                for(int k = 0; k < cList.length; ++k) {
-                    System.err.println(k + " " + cList[k].ctime + " " + cList[k].sinfo[0] + " " + cList[k].sinfo[1]);
-                }
+    private void copyBuffer(int i, int from, int to) {
+        System.arraycopy(branchLike[i][from], 0, branchLike[i][to], 0, postorder.length);
+        System.arraycopy(branchLineages[i][from], 0, branchLineages[i][to], 0, postorder.length);
+        System.arraycopy(branchIndex[i][from], 0, branchIndex[i][to], 0, postorder.length);
+        geneLogL[i][to] = geneLogL[i][from];
+        if( coalInfo[i][from] == null ) {
+            coalInfo[i][to] = null;
+        } else {
+            if( coalInfo[i][to] == null ) {
+                coalInfo[i][to] = new SpeciesBindings.CoalInfo[coalInfo[i][from].length];
             }
+            System.arraycopy(coalInfo[i][from], 0, coalInfo[i][to], 0, coalInfo[i][from].length);
         }
+    }
 
+    /**
+     * Take a snapshot of the species tree, so gene trees can be computed concurrently.
+     */
+    private void setSpeciesBranches() {
+        nextPostorder = 0;
+        setSpeciesBranches(spTree.getRoot());
+    }
+
+    private void setSpeciesBranches(NodeRef node) {
+        final int n = node.getNumber();
         if( spTree.isExternal(node) ) {
-            nLineages = geneTree.nLineages(spTree.speciesIndex(node));
-            indexInClist = 0;
+            nodeSpeciesIndex[n] = spTree.speciesIndex(node);
+            nodeChildren[2 * n] = -1;
+            nodeChildren[2 * n + 1] = -1;
         } else {
-            //assert spTree.getChildCount(node) == 2;
-
-            nLineages = 0;
             for(int nc = 0; nc < 2; ++nc) {
                 final NodeRef child = spTree.getChild(node, nc);
-                like += treeLogLikelihood(geneTree, child, info, popFactor);
-                nLineages += info[0];
-                indexInClist = Math.max(indexInClist, info[1]);
+                setSpeciesBranches(child);
+                nodeChildren[2 * n + nc] = child.getNumber();
             }
+        }
 
-            // The root of every gene tree (last coalescent point) should be always above
-            // root of species tree
-            if( indexInClist >=  cList.length)  {
-                int k = 1;
-            }
-            assert indexInClist < cList.length;
+        nodeHeights[n] = spTree.getNodeHeight(node);
+        // use of (t0 + spTree.getBranchLength(node)) caused problem since there was a tiny difference
+        // between those (supposedly equal) values. we should track where the discrepancy comes from.
+        nodeStopTimes[n] = spTree.isRoot(node) ? Double.MAX_VALUE : spTree.getNodeHeight(spTree.getParent(node));
+        nodeDemographics[n] = spTree.getNodeDemographic(node);
+        // Species sharing this branch
+        nodeSpecies[n] = spTree.spSet(node);
 
-            // Skip over (presumably, not tested by assert) non interesting coalescent
-            // events to the first event before speciation point
+        postorder[nextPostorder] = n;
+        nextPostorder++;
+    }
 
-            while( cList[indexInClist].ctime < t0 ) {
-                ++indexInClist;
+    /**
+     * Recompute the species branches of gene tree i which reach above its oldest unchanged coalescent event.
+     */
+    private void computeGeneTree(int i) {
+        final SpeciesBindings.GeneTreeInfo geneTree = geneTrees[i];
+        final SpeciesBindings.CoalInfo[] cList = geneTree.getCoalInfo();
+        final double changedTime = changedTimes[i];
+        final double popFactor = geneTree.popFactor();
+
+        final int buffer = currentBuffer[i];
+        final double[] like = branchLike[i][buffer];
+        final int[] lineages = branchLineages[i][buffer];
+        final int[] index = branchIndex[i][buffer];
+
+        for(final int n : postorder) {
+            // all events this branch looks at are older than the changed ones
+            if( nodeStopTimes[n] <= changedTime ) {
+                continue;
             }
-        }
 
-        final boolean isRoot = spTree.isRoot(node);
+            // number of lineages remaining at node
+            int nLineages;
+            // location in coalescent list (optimization)
+            int indexInClist = 0;
 
-        // Upper limit
-        // use of (t0 + spTree.getBranchLength(node)) caused problem since there was a tiny difference
-        // between those (supposedly equal) values. we should track where the discrepancy comes from.
-        final double stopTime = isRoot ? Double.MAX_VALUE : spTree.getNodeHeight(spTree.getParent(node));
+            final double t0 = nodeHeights[n];
 
-        // demographic function is 0 based (relative to node height)
-        // time away from node
-        double lastTime = 0.0;
+            if( isExternal(n) ) {
+                nLineages = geneTree.nLineages(nodeSpeciesIndex[n]);
+            } else {
+                final int c0 = nodeChildren[2 * n];
+                final int c1 = nodeChildren[2 * n + 1];
+                nLineages = lineages[c0] + lineages[c1];
+                indexInClist = Math.max(index[c0], index[c1]);
 
-        // demographic function across branch
-        DemographicFunction demog = spTree.getNodeDemographic(node);
-        if( popFactor > 0 ) {
-            demog = new ScaledDemographic(demog, popFactor);
-        }
+                // The root of every gene tree (last coalescent point) should be always above
+                // root of species tree
+                assert indexInClist < cList.length;
 
-//        if(false) {
-//            final double duration = isRoot ? cList[cList.length - 1].ctime - t0 : stopTime;
-//            double demographicAtCoalPoint = demog.getDemographic(duration);
-//            double intervalArea = demog.getIntegral(0, duration);
-//            if( demographicAtCoalPoint < 1e-12 * (duration/intervalArea) ) {
-//               return Double.NEGATIVE_INFINITY;
-//            }
-//        }
-        // Species sharing this branch
-        FixedBitSet subspeciesSet = spTree.spSet(node);
+                // Skip over (presumably, not tested by assert) non interesting coalescent
+                // events to the first event before speciation point
 
-        if( verbose ) {
-            System.err.println(Tree.Utils.uniqueNewick(spTree, node) + " nl " + nLineages
-                    + " " + subspeciesSet + " t0 - st " + t0 + " - " + stopTime);
-        }
+                while( cList[indexInClist].ctime < t0 ) {
+                    ++indexInClist;
+                }
+            }
 
-        while( nLineages > 1 ) {
-//            if ( !( indexInClist < cList.length ) ) {
-//                System.err.println( indexInClist ) ;
-//            }
-            assert ( indexInClist < cList.length );
+            // Upper limit
+            final double stopTime = nodeStopTimes[n];
 
-            final double nextT = cList[indexInClist].ctime;
+            // demographic function is 0 based (relative to node height)
+            // time away from node
+            double lastTime = 0.0;
 
-            // while rare they can be equal
-            if( nextT >= stopTime ) {
-                break;
+            // demographic function across branch
+            DemographicFunction demog = nodeDemographics[n];
+            if( popFactor > 0 ) {
+                demog = new ScaledDemographic(demog, popFactor);
             }
 
-            if( nonEmptyIntersection(cList[indexInClist].sinfo, subspeciesSet) ) {
-                final double time = nextT - t0;
-                if( time > 0 ) {
-                    final double interval = demog.getIntegral(lastTime, time);
-                    lastTime = time;
+            // Species sharing this branch
+            final FixedBitSet subspeciesSet = nodeSpecies[n];
+
+            // accumulated log-likelihood inBranchh from node to it's parent
+            double branchLogL = 0;
+
+            while( nLineages > 1 ) {
+                assert ( indexInClist < cList.length );
 
-                    final int nLineageOver2 = (nLineages * (nLineages - 1)) / 2;
-                    like -= nLineageOver2 * interval;
+                final double nextT = cList[indexInClist].ctime;
 
-                    final double pop = demog.getDemographic(time);  assert( pop > 0 );
-                    like -= Math.log(pop);
+                // while rare they can be equal
+                if( nextT >= stopTime ) {
+                    break;
+                }
+
+                if( nonEmptyIntersection(cList[indexInClist].sinfo, subspeciesSet) ) {
+                    final double time = nextT - t0;
+                    if( time > 0 ) {
+                        final double interval = demog.getIntegral(lastTime, time);
+                        lastTime = time;
+
+                        final int nLineageOver2 = (nLineages * (nLineages - 1)) / 2;
+                        branchLogL -= nLineageOver2 * interval;
+
+                        final double pop = demog.getDemographic(time);  assert( pop > 0 );
+                        branchLogL -= Math.log(pop);
+                    }
+                    --nLineages;
                 }
-                --nLineages;
+                ++indexInClist;
+            }
+
+            if( nLineages > 1 ) {
+                // add term for No coalescent until root
+                final double interval = demog.getIntegral(lastTime, stopTime - t0);
+
+                final int nLineageOver2 = (nLineages * (nLineages - 1)) / 2;
+
+                branchLogL -= nLineageOver2 * interval;
             }
-            ++indexInClist;
+
+            like[n] = branchLogL;
+            lineages[n] = nLineages;
+            index[n] = indexInClist;
         }
 
+        double logL = 0;
+        for(final int n : postorder) {
+            logL += like[n];
+        }
+        geneLogL[i][buffer] = logL;
 
-        if( nLineages > 1 ) {
-            // add term for No coalescent until root
-            final double interval = demog.getIntegral(lastTime, stopTime - t0);
+        if( coalInfo[i][buffer] == null ) {
+            coalInfo[i][buffer] = new SpeciesBindings.CoalInfo[cList.length];
+        }
+        System.arraycopy(cList, 0, coalInfo[i][buffer], 0, cList.length);
+    }
 
-            final int nLineageOver2 = (nLineages * (nLineages - 1)) / 2;
+    private void computeGeneTreesInParallel(int dirtyCount) {
+        if( pool == null ) {
+            pool = Executors.newFixedThreadPool(getThreadCount(), new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "species-coalescent");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
 
-            like -= nLineageOver2 * interval;
+        // the species tree was copied by setSpeciesBranches so each task only touches its own gene tree
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(dirtyCount);
+        for(int k = 0; k < dirtyCount; k++) {
+            final int i = dirtyGeneTrees[k];
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    computeGeneTree(i);
+                    return null;
+                }
+            });
         }
 
-        info[0] = nLineages;
-        info[1] = indexInClist;
-        if( verbose ) {
-            System.err.println(Tree.Utils.uniqueNewick(spTree, node) + " stopTime " + stopTime +
-                    " nl " + nLineages + " icl " + indexInClist);
+        try {
+            for(Future<Object> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while computing the multispecies coalescent");
+        } catch (ExecutionException e) {
+            if( e.getCause() instanceof RuntimeException ) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    public void setThreadCount(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @return the number of threads used to recompute gene trees (-1 is one per processor up to the number of gene trees)
+     */
+    public int getThreadCount() {
+        if( threads < 0 ) {
+            return Math.min(Runtime.getRuntime().availableProcessors(), geneTrees.length);
         }
-        return like;
+        return threads;
     }
 
-    public void modelChangedEvent(Model model, Object object, int index) {
-        //super.modelChangedEvent(model, object, index);
-        // not the above for efficiency, otherwise the overridden makeDirty, which results in additional overhead is called.
-        super.makeDirty();
-        
+    protected void handleModelChangedEvent(Model model, Object object, int index) {
+        likelihoodKnown = false;
+
         if( model == spTree ) {
-          if( object == spTree && index != -1 ) {
-            // Species tree scaling
-            checkCompatibility = true;
-            Arrays.fill(compatibleCheckRequited, true);
-          }
+            if( object == species ) {
+                // a gene tree change passed on by the species tree - handled by the gene tree event
+                return;
+            }
+            speciesChanged = true;
+            if( object == spTree && index != -1 ) {
+                // Species tree scaling
+                checkCompatibility = true;
+                Arrays.fill(compatibleCheckRequited, true);
+            }
         } else {
-
-            final SpeciesBindings.GeneTreeInfo[] trees = species.getGeneTrees();
-            for(int i = 0; i < species.getGeneTrees().length; i++) {
-                if( trees[i].tree == model ) {
+            for(int i = 0; i < geneTrees.length; i++) {
+                if( geneTrees[i].tree == model ) {
+                    geneTreeChanged[i] = true;
                     checkCompatibility = true;
                     compatibleCheckRequited[i] = true;
                     break;
@@ -275,6 +473,39 @@ public class MultiSpeciesCoalescent extends Likelihood.Abstract implements Units
         }
     }
 
+    protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+        // no variables
+    }
+
+    protected void storeState() {
+        System.arraycopy(currentBuffer, 0, storedBuffer, 0, currentBuffer.length);
+        storedLogLikelihood = logLikelihood;
+        storedLikelihoodKnown = likelihoodKnown;
+        storedGeneRootHeight = geneRootHeight;
+    }
+
+    protected void restoreState() {
+        int[] tmp = currentBuffer;
+        currentBuffer = storedBuffer;
+        storedBuffer = tmp;
+
+        logLikelihood = storedLogLikelihood;
+        likelihoodKnown = storedLikelihoodKnown;
+        geneRootHeight = storedGeneRootHeight;
+
+        Arrays.fill(geneTreeChanged, false);
+        // if the stored state was never evaluated the cached contributions may be out of date
+        speciesChanged = !likelihoodKnown;
+    }
+
+    protected void acceptState() {
+        // nothing to do
+    }
+
+    private boolean isExternal(int n) {
+        return nodeChildren[2 * n] < 0;
+    }
+
     private boolean nonEmptyIntersection(FixedBitSet[] sinfo, FixedBitSet subspeciesSet) {
         for( FixedBitSet nodeSpSet : sinfo ) {
             if( nodeSpSet.intersectCardinality(subspeciesSet) == 0 ) {
@@ -293,4 +524,40 @@ public class MultiSpeciesCoalescent extends Likelihood.Abstract implements Units
         assert false;
     }
 
+    private double logLikelihood;
+    private double storedLogLikelihood;
+    private boolean likelihoodKnown = false;
+    private boolean storedLikelihoodKnown = false;
+
+    private boolean speciesChanged;
+    private final boolean[] geneTreeChanged;
+    private double geneRootHeight = -1;
+    private double storedGeneRootHeight = -1;
+
+    // per gene tree, buffer and species node: log-likelihood within the branch, and lineage count and
+    // coalescent list position at the top of the branch
+    private final double[][][] branchLike;
+    private final int[][][] branchLineages;
+    private final int[][][] branchIndex;
+    private final double[][] geneLogL;
+    // the coalescent lists the cached contributions were computed from
+    private final SpeciesBindings.CoalInfo[][][] coalInfo;
+    private int[] currentBuffer;
+    private int[] storedBuffer;
+
+    private final double[] changedTimes;
+    private final int[] dirtyGeneTrees;
+
+    // species tree snapshot, indexed by node number
+    private final int[] postorder;
+    private int nextPostorder;
+    private final int[] nodeChildren;
+    private final double[] nodeHeights;
+    private final double[] nodeStopTimes;
+    private final DemographicFunction[] nodeDemographics;
+    private final FixedBitSet[] nodeSpecies;
+    private final int[] nodeSpeciesIndex;
+
+    private int threads = -1;
+    private ExecutorService pool = null;
 }
@@ -189,6 +189,21 @@ public class SpeciesTreeModel extends AbstractModel implements
         return constantPopulation;
     }
 
+    /**
+     * @return true if the population functions are placed at the coalescent points of the gene trees, so any
+     *         gene tree change alters the demographic of every branch
+     */
+    public boolean demographicsDependOnGeneTrees() {
+        return coalPointsPops != null;
+    }
+
+    /**
+     * @return true if the population at the root changes linearly up to the oldest gene tree root
+     */
+    public boolean rootDemographicDependsOnGeneTrees() {
+        return coalPointsPops == null && !constantPopulation && nonConstRootPopulation;
+    }
+
     // Is gene tree compatible with species tree
 
     public boolean isCompatible(SpeciesBindings.GeneTreeInfo geneTreeInfo) {
@@ -1027,7 +1042,8 @@ public class SpeciesTreeModel extends AbstractModel implements
         nodePropsReady = false;
         anyChange = true;
         // this should happen by default, no?
-        fireModelChanged();
+        // pass on the source so listeners can tell gene tree changes from changes to the species tree
+        fireModelChanged(model, index);
     }
 
     protected final void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
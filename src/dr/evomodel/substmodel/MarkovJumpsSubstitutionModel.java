@@ -117,6 +117,9 @@ public class MarkovJumpsSubstitutionModel extends AbstractModel {
                                             double[] rateReg,
                                             double[] ievcRateRegEvec) {
 
+        // the substitution model replaces its decomposition when it changes or is restored
+        eigenDecomposition = substModel.getEigenDecomposition();
+
         if (type == MarkovJumpsType.COUNTS || type == MarkovJumpsType.HISTORY) {
 
             substModel.getInfinitesimalMatrix(rateMatrix);
@@ -205,6 +208,37 @@ public class MarkovJumpsSubstitutionModel extends AbstractModel {
         }
     }
 
+    /**
+     * Brings the registered rate matrix up to date with the substitution model so that
+     * computeCondStatMarkovJumps(MarkovJumpsCore, ...) only reads shared state.
+     */
+    public void updateRateRegistrationMatrix() {
+        if (regRateChanged || eigenDecomposition != substModel.getEigenDecomposition()) {
+            makeRateRegistrationMatrix(registration, rateReg, ievcRateRegEvec);
+        }
+    }
+
+    /**
+     * A thread-safe variant that uses the caller's workspace. updateRateRegistrationMatrix() must be called
+     * first whenever the substitution model or registration may have changed.
+     */
+    public void computeCondStatMarkovJumps(MarkovJumpsCore core,
+                                           double time,
+                                           double[] transitionProbs,
+                                           double[] countMatrix) {
+
+        double[] evec = eigenDecomposition.getEigenVectors();
+        double[] ievc = eigenDecomposition.getInverseEigenVectors();
+        double[] eval = eigenDecomposition.getEigenValues();
+
+        if (PRECOMPUTE) {
+            core.computeCondStatMarkovJumpsPrecompute(
+                    evec, ievc, eval, ievcRateRegEvec, time, transitionProbs, countMatrix);
+        } else {
+            core.computeCondStatMarkovJumps(evec, ievc, eval, rateReg, time, transitionProbs, countMatrix);
+        }
+    }
+
     public void computeJointStatMarkovJumps(double time,
                                             double[] countMatrix) {
 
@@ -0,0 +1,198 @@
+/*
+ * CachedEmpiricalTreeLikelihood.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+package dr.evomodel.tree;
+
+import dr.inference.model.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the log likelihood of a likelihood on an empirical tree distribution for the most recently used
+ * trees. When the chain returns to a tree while all the other models that the likelihood depends on are
+ * unchanged, the cached value is used rather than recomputing the likelihood from scratch. Each entry
+ * records the version of the other models it was computed with, so a rejected change to them does not
+ * invalidate the cache but an accepted one does.
+ *
+ * The wrapped likelihood is only evaluated on a miss, so it is marked dirty whenever it may not have been
+ * brought up to date with the state being restored.
+ */
+public class CachedEmpiricalTreeLikelihood extends AbstractModelLikelihood {
+
+    public static final String CACHED_EMPIRICAL_TREE_LIKELIHOOD = "cachedEmpiricalTreeLikelihood";
+
+    public CachedEmpiricalTreeLikelihood(Likelihood likelihood, EmpiricalTreeDistributionModel treeModel,
+                                         final int cacheSize) {
+        super(CACHED_EMPIRICAL_TREE_LIKELIHOOD);
+
+        if (likelihood.getModel() == null) {
+            throw new IllegalArgumentException("The likelihood must depend on the empirical tree model");
+        }
+
+        this.likelihood = likelihood;
+        this.treeModel = treeModel;
+
+        Model model = likelihood.getModel();
+        // so that the wrapped likelihood is stored and restored with this one
+        addModel(model);
+        // and so that changes to anything other than the tree can be told apart
+        for (int i = 0; i < model.getModelCount(); i++) {
+            if (model.getModel(i) != treeModel) {
+                addModel(model.getModel(i));
+            }
+        }
+        for (int i = 0; i < model.getVariableCount(); i++) {
+            addVariable(model.getVariable(i));
+        }
+        addModel(treeModel);
+
+        cache = new LinkedHashMap<Integer, CacheEntry>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Integer, CacheEntry> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    public int getMissCount() {
+        return missCount;
+    }
+
+    // **************************************************************
+    // ModelListener IMPLEMENTATION
+    // **************************************************************
+
+    protected void handleModelChangedEvent(Model model, Object object, int index) {
+        if (model == likelihood.getModel()) {
+            return; // the changes are heard directly from its components
+        }
+        if (model != treeModel) {
+            version = ++versionCount;
+        }
+        likelihoodKnown = false;
+        wrappedKnown = false;
+    }
+
+    protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+        version = ++versionCount;
+        likelihoodKnown = false;
+        wrappedKnown = false;
+    }
+
+    protected void storeState() {
+        storedLogLikelihood = logLikelihood;
+        storedLikelihoodKnown = likelihoodKnown;
+        storedWrappedKnown = wrappedKnown;
+        storedVersion = version;
+    }
+
+    protected void restoreState() {
+        logLikelihood = storedLogLikelihood;
+        likelihoodKnown = storedLikelihoodKnown;
+        wrappedKnown = storedWrappedKnown;
+        // versions are never reused so entries added during the rejected proposal cannot match
+        version = storedVersion;
+        if (!wrappedKnown) {
+            // the wrapped likelihood may have been evaluated during the rejected proposal and then restored
+            // to a state it was never brought up to date with
+            likelihood.makeDirty();
+        }
+    }
+
+    protected void acceptState() {
+    }
+
+    // **************************************************************
+    // Likelihood IMPLEMENTATION
+    // **************************************************************
+
+    public Model getModel() {
+        return this;
+    }
+
+    public double getLogLikelihood() {
+        if (!likelihoodKnown) {
+            logLikelihood = calculateLogLikelihood();
+            likelihoodKnown = true;
+        }
+        return logLikelihood;
+    }
+
+    public void makeDirty() {
+        version = ++versionCount;
+        likelihoodKnown = false;
+        wrappedKnown = false;
+        likelihood.makeDirty();
+    }
+
+    private double calculateLogLikelihood() {
+        if (wrappedKnown) {
+            return likelihood.getLogLikelihood();
+        }
+
+        Integer key = treeModel.getCurrentTreeIndex();
+        CacheEntry entry = cache.get(key);
+        if (entry != null && entry.version == version) {
+            hitCount++;
+            return entry.logLikelihood;
+        }
+
+        missCount++;
+        double value = likelihood.getLogLikelihood();
+        wrappedKnown = true;
+        if (entry == null) {
+            entry = new CacheEntry();
+            cache.put(key, entry);
+        }
+        entry.logLikelihood = value;
+        entry.version = version;
+        return value;
+    }
+
+    private static class CacheEntry {
+        double logLikelihood;
+        long version;
+    }
+
+    private final Likelihood likelihood;
+    private final EmpiricalTreeDistributionModel treeModel;
+    private final Map<Integer, CacheEntry> cache;
+
+    private double logLikelihood;
+    private double storedLogLikelihood;
+    private boolean likelihoodKnown = false;
+    private boolean storedLikelihoodKnown = false;
+    private boolean wrappedKnown = false;
+    private boolean storedWrappedKnown = false;
+    private long version = 0;
+    private long storedVersion = 0;
+    private long versionCount = 0;
+
+    private int hitCount = 0;
+    private int missCount = 0;
+}
@@ -58,9 +58,7 @@ public class ConditionalCladeFrequency extends
 
     private long samples = 0;
 
-    private HashMap<BitSet, Clade> cladeProbabilities;
-
-    private HashMap<BitSet, HashMap<BitSet, Clade>> cladeCoProbabilities;
+    private ConditionalCladeIndex index;
 
     private TreeTrace[] traces;
 
@@ -73,8 +71,7 @@ public class ConditionalCladeFrequency extends
     public ConditionalCladeFrequency(Tree tree, double epsilon) {
 
         // initializing global variables
-        cladeProbabilities = new HashMap<BitSet, Clade>();
-        cladeCoProbabilities = new HashMap<BitSet, HashMap<BitSet, Clade>>();
+        index = new ConditionalCladeIndex(tree.getExternalNodeCount());
 
         // setting global variables
         EPSILON = epsilon;
@@ -89,10 +86,19 @@ public class ConditionalCladeFrequency extends
      */
     public ConditionalCladeFrequency(TreeTrace[] traces, double epsilon,
                                      int burnIn, boolean verbose) {
+        this(traces, epsilon, burnIn, verbose, 1);
+    }
 
-        // initializing global variables
-        cladeProbabilities = new HashMap<BitSet, Clade>();
-        cladeCoProbabilities = new HashMap<BitSet, HashMap<BitSet, Clade>>();
+    /**
+     * @param traces      - samples of trees in a tree traces array.
+     * @param epsilon     - the default number of occurences for each clade which wasn't
+     *                    observed to guarantee non-zero probabilities
+     * @param burnIn      - number of trees discarded from the trace
+     * @param verbose     - hide the runtime status and outputs
+     * @param threadCount - the number of threads used to index the trees
+     */
+    public ConditionalCladeFrequency(TreeTrace[] traces, double epsilon,
+                                     int burnIn, boolean verbose, int threadCount) {
 
         // setting global variables
         EPSILON = epsilon;
@@ -116,7 +122,7 @@ public class ConditionalCladeFrequency extends
         }
 
         // analyzing the whole trace -> reading the trees
-        analyzeTrace(verbose);
+        analyzeTrace(verbose, threadCount);
     }
 
     /**
@@ -126,6 +132,17 @@ public class ConditionalCladeFrequency extends
      * @param verbose if true then progress is logged to stdout
      */
     public void analyzeTrace(boolean verbose) {
+        analyzeTrace(verbose, 1);
+    }
+
+    /**
+     * Actually analyzes the trace given the burn-in. With more than one thread the trees are
+     * indexed in blocks in parallel and the blocks merged.
+     *
+     * @param verbose     if true then progress is logged to stdout
+     * @param threadCount the number of threads used to index the trees
+     */
+    public void analyzeTrace(boolean verbose, int threadCount) {
 
         if (verbose) {
             if (traces.length > 1)
@@ -135,6 +152,24 @@ public class ConditionalCladeFrequency extends
         // get first tree to extract the taxon
         Tree tree = getTree(0);
         // taxonMap = getTaxonMap(tree);
+        index = new ConditionalCladeIndex(tree.getExternalNodeCount());
+        samples = 0;
+
+        if (threadCount > 1) {
+            List<Tree> trees = new ArrayList<Tree>();
+            for (TreeTrace trace : traces) {
+                int treeCount = trace.getTreeCount(burnin * trace.getStepSize());
+                for (int i = 1; i < treeCount; i++) {
+                    trees.add(trace.getTree(i, burnin * trace.getStepSize()));
+                }
+            }
+            if (verbose) {
+                System.out.println("Analyzing " + trees.size() + " trees using " + threadCount + " threads...");
+            }
+            index = ConditionalCladeIndex.build(trees, tree.getExternalNodeCount(), null, threadCount);
+            samples = trees.size();
+            return;
+        }
 
         // read every tree from the trace
         for (TreeTrace trace : traces) {
@@ -212,54 +247,7 @@ public class ConditionalCladeFrequency extends
      * @return estimated posterior probability in log
      */
     public double getTreeProbability(Tree tree) {
-
-        double prob = 0.0;
-
-        List<Clade> clades = new ArrayList<Clade>();
-        List<Clade> parentClades = new ArrayList<Clade>();
-        // get clades contained in the tree
-        getNonComplementaryClades(tree, tree.getRoot(), parentClades, clades);
-
-        int size = clades.size();
-        // for every clade multiply its conditional clade probability to the tree probability
-        for (int i = 0; i < size; i++) {
-            Clade c = clades.get(i);
-
-            // get the bits of the clade
-            Clade parent = parentClades.get(i);
-
-            // set the occurrences to epsilon
-            double tmp = EPSILON;
-            double parentOccurrences = 0.0;
-            BitSet parentBits = parent.getBits();
-            if (cladeProbabilities.containsKey(parentBits)) {
-                // if we observed this clade in the trace, add the occurrences to epsilon
-                parentOccurrences += cladeProbabilities.get(parentBits)
-                        .getSampleCount();
-            }
-
-            if (cladeCoProbabilities.containsKey(parentBits)) {
-                // if we observed the parent clade
-                HashMap<BitSet, Clade> conditionalProbs = cladeCoProbabilities
-                        .get(parentBits);
-
-                BitSet bits = c.getBits();
-                if (conditionalProbs.containsKey(bits)) {
-                    // if we observed this conditional clade in the trace, add the occurrences to epsilon
-                    tmp += conditionalProbs.get(bits).getSampleCount();
-                }
-            }
-            // add epsilon for each clade
-            final double splits = Math.pow(2, parent.getSize() - 1) - 1;
-            parentOccurrences += EPSILON * splits;
-
-            // multiply the conditional clade probability to the tree
-            // probability
-            prob += Math.log(tmp / parentOccurrences);
-
-        }
-
-        return prob;
+        return index.getTreeProbability(tree, null, EPSILON);
     }
 
     /**
@@ -270,59 +258,7 @@ public class ConditionalCladeFrequency extends
      */
     public double getTreeProbability(Tree tree,
                                      HashMap<String, Integer> taxonMap) {
-        double prob = 0.0;
-
-        List<Clade> clades = new ArrayList<Clade>();
-        List<Clade> parentClades = new ArrayList<Clade>();
-        // get clades contained in the tree
-        getNonComplementaryClades(tree, tree.getRoot(), parentClades, clades,
-                taxonMap);
-
-        int size = clades.size();
-        // for every clade multiply its conditional clade probability to the
-        // tree probability
-        for (int i = 0; i < size; i++) {
-            Clade c = clades.get(i);
-
-            // get the bits of the clade
-            Clade parent = parentClades.get(i);
-
-            // set the occurrences to epsilon
-            double tmp = EPSILON;
-            double parentOccurrences = 0.0;
-            BitSet parentBits = parent.getBits();
-            if (cladeProbabilities.containsKey(parentBits)) {
-                // if we observed this clade in the trace, add the
-                // occurrences
-                // to epsilon
-                parentOccurrences += cladeProbabilities.get(parentBits)
-                        .getSampleCount();
-            }
-
-            if (cladeCoProbabilities.containsKey(parentBits)) {
-                // if we observed the parent clade
-                HashMap<BitSet, Clade> conditionalProbs = cladeCoProbabilities
-                        .get(parentBits);
-
-                BitSet bits = c.getBits();
-                if (conditionalProbs.containsKey(bits)) {
-                    // if we observed this conditional clade in the trace,
-                    // add
-                    // the occurrences to epsilon
-                    tmp += conditionalProbs.get(bits).getSampleCount();
-                }
-            }
-            // add epsilon for each clade
-            final double splits = Math.pow(2, parent.getSize() - 1) - 1;
-            parentOccurrences += EPSILON * splits;
-
-            // multiply the conditional clade probability to the tree
-            // probability
-            prob += Math.log(tmp / parentOccurrences);
-
-        }
-
-        return prob;
+        return index.getTreeProbability(tree, taxonMap, EPSILON);
     }
 
     public double splitClade(Clade parent, Clade[] children) {
@@ -336,20 +272,20 @@ public class ConditionalCladeFrequency extends
 
         double prob = 0;
 
-        if (cladeCoProbabilities.containsKey(parent.getBits())) {
-            HashMap<BitSet, Clade> childClades = cladeCoProbabilities
-                    .get(parent.getBits());
+        int parentId = index.getCladeId(parent.getBits());
+        int firstSplit = (parentId >= 0 ? index.getFirstSplit(parentId) : -1);
+
+        if (firstSplit >= 0) {
             double noChildClades = 0.0;
 
             double sum = 0.0;
-            Set<BitSet> keys = childClades.keySet();
-            for (BitSet child : keys) {
-                Clade tmp = childClades.get(child);
-                if (parent.getSize() > tmp.getSize() + 1) {
-                    sum += (tmp.getSampleCount() + EPSILON) / 2.0;
+            for (int split = firstSplit; split >= 0; split = index.getNextSplit(split)) {
+                double occurrences = index.getSplitOccurrences(split);
+                if (parent.getSize() > index.getCladeSize(index.getSplitChild(split)) + 1) {
+                    sum += (occurrences + EPSILON) / 2.0;
                     noChildClades += 0.5;
                 } else {
-                    sum += (tmp.getSampleCount() + EPSILON);
+                    sum += (occurrences + EPSILON);
                     noChildClades += 1.0;
                 }
             }
@@ -359,16 +295,16 @@ public class ConditionalCladeFrequency extends
 
             // roulette wheel
             double randomNumber = Math.random() * sum;
-            for (BitSet child : keys) {
-                Clade tmp = childClades.get(child);
-                if (parent.getSize() > tmp.getSize() + 1) {
-                    randomNumber -= (tmp.getSampleCount() + EPSILON) / 2.0;
+            for (int split = firstSplit; split >= 0; split = index.getNextSplit(split)) {
+                double occurrences = index.getSplitOccurrences(split);
+                if (parent.getSize() > index.getCladeSize(index.getSplitChild(split)) + 1) {
+                    randomNumber -= (occurrences + EPSILON) / 2.0;
                 } else {
-                    randomNumber -= (tmp.getSampleCount() + EPSILON);
+                    randomNumber -= (occurrences + EPSILON);
                 }
                 if (randomNumber < 0) {
-                    children[0] = tmp;
-                    prob = (tmp.getSampleCount() + EPSILON) / sum;
+                    children[0] = getClade(index.getSplitChild(split));
+                    prob = (occurrences + EPSILON) / sum;
                     break;
                 }
             }
@@ -392,8 +328,8 @@ public class ConditionalCladeFrequency extends
                             || newChild.cardinality() == parent.getSize());
                     inverseBits = (BitSet) newChild.clone();
                     inverseBits.xor(parent.getBits());
-                } while (childClades.containsKey(newChild)
-                        || childClades.containsKey(inverseBits));
+                } while (isObservedSplit(parentId, newChild)
+                        || isObservedSplit(parentId, inverseBits));
 
                 Clade randomClade = new Clade(newChild, 0.9999 * parent
                         .getHeight());
@@ -406,8 +342,10 @@ public class ConditionalCladeFrequency extends
             } else {
                 BitSet secondChild = (BitSet) children[0].getBits().clone();
                 secondChild.xor(parent.getBits());
-                children[1] = childClades.get(secondChild);
-                if (children[1] == null) {
+                int secondId = index.getCladeId(secondChild);
+                if (secondId >= 0 && index.getSplit(parentId, secondId) >= 0) {
+                    children[1] = getClade(secondId);
+                } else {
                     children[1] = new Clade(secondChild, 0.9999 * parent
                             .getHeight());
                 }
@@ -443,6 +381,22 @@ public class ConditionalCladeFrequency extends
 
     }
 
+    private boolean isObservedSplit(int parentId, BitSet child) {
+        int childId = index.getCladeId(child);
+        return childId >= 0 && index.getSplit(parentId, childId) >= 0;
+    }
+
+    private Clade getClade(int cladeId) {
+        return new Clade(index.getCladeBits(cladeId), index.getCladeHeight(cladeId));
+    }
+
+    /**
+     * @return the index of the observed clades and conditional clades
+     */
+    public ConditionalCladeIndex getCladeIndex() {
+        return index;
+    }
+
     public double getChanceForNodeHeights(TreeModel tree,
                                           Likelihood likelihood, Prior prior) {
         double prob = 0.0;
@@ -510,64 +464,7 @@ public class ConditionalCladeFrequency extends
 
         samples++;
 
-        List<Clade> clades = new ArrayList<Clade>();
-        List<Clade> parentClades = new ArrayList<Clade>();
-        // get clades contained in the tree
-        getClades(tree, tree.getRoot(), parentClades, clades);
-        // add the clade containing all taxa as well so that it get counted
-        clades.add(parentClades.get(parentClades.size() - 1));
-        parentClades.add(clades.get(clades.size() - 1));
-
-        int size = clades.size();
-        // for every clade multiply its conditional clade probability to the
-        // tree probability
-        for (int i = 0; i < size; i++) {
-            Clade c = clades.get(i);
-
-            // get the bits of the clade
-            Clade parent = parentClades.get(i);
-
-            HashMap<BitSet, Clade> coFreqs;
-            // increment the clade occurrences
-            if (cladeProbabilities.containsKey(c.getBits())) {
-                Clade tmp = cladeProbabilities.get(c.getBits());
-                // tmp.addSample();
-                tmp.addHeight(c.getHeight());
-                // add the amount to the current occurences
-                // frequency += cladeProbabilities.get(c);
-            } else {
-                // just to set the first value of the height value list
-                // c.addSample();
-                c.addHeight(c.getHeight());
-                cladeProbabilities.put(c.getBits(), c);
-            }
-
-            // increment the conditional clade occurrences
-            if (!parent.equals(c)) {
-                if (cladeCoProbabilities.containsKey(parent.getBits())) {
-                    coFreqs = cladeCoProbabilities.get(parent.getBits());
-                } else {
-                    // if it's the first time we observe the parent then we need
-                    // a new list for its conditional clades
-                    coFreqs = new HashMap<BitSet, Clade>();
-                    cladeCoProbabilities.put(parent.getBits(), coFreqs);
-                }
-
-                // add the previous observed occurrences for this conditional
-                // clade
-                if (coFreqs.containsKey(c.getBits())) {
-                    Clade tmp = coFreqs.get(c.getBits());
-                    tmp.addHeight(c.getHeight());
-                    // coFrequency += coFreqs.get(c.getBits());
-                } else {
-                    // TODO check this code, especially if the cloning is needed
-                    // and not just the clade could be added
-                    Clade tmp = new Clade((BitSet) c.getBits().clone(), c.getHeight());
-                    tmp.addHeight(c.getHeight());
-                    coFreqs.put(c.getBits(), tmp);
-                }
-            }
-        }
+        index.addTree(tree, null);
     }
 
     /**
@@ -579,65 +476,7 @@ public class ConditionalCladeFrequency extends
 
         samples++;
 
-        List<Clade> clades = new ArrayList<Clade>();
-        List<Clade> parentClades = new ArrayList<Clade>();
-        // get clades contained in the tree
-        getClades(tree, tree.getRoot(), parentClades, clades, taxonMap);
-        // add the clade containing all taxa as well so that it get counted
-        clades.add(parentClades.get(parentClades.size() - 1));
-        parentClades.add(clades.get(clades.size() - 1));
-
-        int size = clades.size();
-        // for every clade multiply its conditional clade probability to the
-        // tree probability
-        for (int i = 0; i < size; i++) {
-            Clade c = clades.get(i);
-
-            // get the bits of the clade
-            Clade parent = parentClades.get(i);
-
-            HashMap<BitSet, Clade> coFreqs;
-            // increment the clade occurrences
-            if (cladeProbabilities.containsKey(c.getBits())) {
-                Clade tmp = cladeProbabilities.get(c.getBits());
-                // tmp.addSample();
-                tmp.addHeight(c.getHeight());
-                // add the amount to the current occurences
-                // frequency += cladeProbabilities.get(c);
-            } else {
-                // just to set the first value of the height value list
-                // c.addSample();
-                c.addHeight(c.getHeight());
-                cladeProbabilities.put(c.getBits(), c);
-            }
-
-            // increment the conditional clade occurrences
-            if (!parent.equals(c)) {
-                if (cladeCoProbabilities.containsKey(parent.getBits())) {
-                    coFreqs = cladeCoProbabilities.get(parent.getBits());
-                } else {
-                    // if it's the first time we observe the parent then we need
-                    // a new list for its conditional clades
-                    coFreqs = new HashMap<BitSet, Clade>();
-                    cladeCoProbabilities.put(parent.getBits(), coFreqs);
-                }
-
-                // add the previous observed occurrences for this conditional
-                // clade
-                if (coFreqs.containsKey(c.getBits())) {
-                    Clade tmp = coFreqs.get(c.getBits());
-                    tmp.addHeight(c.getHeight());
-                    // coFrequency += coFreqs.get(c.getBits());
-                } else {
-                    // TODO check this code, especially if the cloning is needed
-                    // and not just the clade could be added
-                    Clade tmp = new Clade((BitSet) c.getBits().clone(), c
-                            .getHeight());
-                    tmp.addHeight(c.getHeight());
-                    coFreqs.put(c.getBits(), tmp);
-                }
-            }
-        }
+        index.addTree(tree, taxonMap);
     }
 
     /**
@@ -649,6 +488,20 @@ public class ConditionalCladeFrequency extends
      */
     public static ConditionalCladeFrequency analyzeLogFile(Reader[] reader,
                                                            double e, int burnin, boolean verbose) throws IOException {
+        return analyzeLogFile(reader, e, burnin, verbose, 1);
+    }
+
+    /**
+     * @param reader      the readers to be analyzed
+     * @param burnin      the burnin in states
+     * @param verbose     true if progress should be logged to stdout
+     * @param threadCount the number of threads used to index the trees
+     * @return an analyses of the trees in a log file.
+     * @throws java.io.IOException if general I/O error occurs
+     */
+    public static ConditionalCladeFrequency analyzeLogFile(Reader[] reader,
+                                                           double e, int burnin, boolean verbose,
+                                                           int threadCount) throws IOException {
 
         TreeTrace[] trace = new TreeTrace[reader.length];
         for (int i = 0; i < reader.length; i++) {
@@ -661,6 +514,6 @@ public class ConditionalCladeFrequency extends
 
         }
 
-        return new ConditionalCladeFrequency(trace, e, burnin, verbose);
+        return new ConditionalCladeFrequency(trace, e, burnin, verbose, threadCount);
     }
 }
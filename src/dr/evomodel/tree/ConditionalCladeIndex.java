@@ -0,0 +1,577 @@
+/*
+ * ConditionalCladeIndex.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evomodel.tree;
+
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A compact index of the clades and conditional clade splits observed in a sample of trees. Clades are
+ * interned to integer ids and stored as packed bit words with an order independent hash (the XOR of a
+ * random key per taxon), so the hash of a clade is the XOR of its children's hashes and a tree is indexed
+ * with a single hash probe per node. The observed splits of each parent clade are kept in primitive
+ * arrays linked per parent.
+ * <p/>
+ * Tips are identified by their node number, or through a taxon map when one is given. Instances are not
+ * thread safe; use build() to index a large sample in parallel.
+ */
+public class ConditionalCladeIndex {
+
+    private static final int MIN_TREES_PER_THREAD = 64;
+    private static final double LOG_2 = Math.log(2.0);
+
+    public ConditionalCladeIndex(int taxonCount) {
+        this.taxonCount = taxonCount;
+        wordCount = (taxonCount + 63) >>> 6;
+
+        taxonKeys = new long[taxonCount];
+        for (int i = 0; i < taxonCount; i++) {
+            taxonKeys[i] = mix((i + 1) * 0x9E3779B97F4A7C15L);
+        }
+
+        int capacity = 64;
+        cladeWords = new long[capacity * wordCount];
+        cladeHashes = new long[capacity];
+        cladeSizes = new int[capacity];
+        cladeOccurrences = new int[capacity];
+        cladeHeights = new double[capacity];
+        cladeFirstSplit = new int[capacity];
+        cladeTable = new int[capacity * 2];
+
+        splitParents = new int[capacity];
+        splitChildren = new int[capacity];
+        splitOccurrences = new int[capacity];
+        splitNext = new int[capacity];
+        splitKeys = new long[capacity * 2];
+        splitTable = new int[capacity * 2];
+
+        queryWords = new long[wordCount];
+    }
+
+    /**
+     * Indexes the trees using several threads. Each thread indexes a contiguous block of trees and the
+     * partial indexes are merged in order, so clade ids are the same as when the trees are added serially.
+     *
+     * @param trees       the trees to index
+     * @param taxonCount  the number of taxa
+     * @param taxonMap    maps taxon ids to tip indices, or null to use the tip node numbers
+     * @param threadCount the number of threads to use
+     * @return the index
+     */
+    public static ConditionalCladeIndex build(final List<Tree> trees, final int taxonCount,
+                                              final Map<String, Integer> taxonMap, int threadCount) {
+        int blockCount = Math.min(threadCount, trees.size() / MIN_TREES_PER_THREAD);
+        if (blockCount <= 1) {
+            ConditionalCladeIndex index = new ConditionalCladeIndex(taxonCount);
+            for (Tree tree : trees) {
+                index.addTree(tree, taxonMap);
+            }
+            return index;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(blockCount, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "clade-index");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        List<Callable<ConditionalCladeIndex>> tasks = new ArrayList<Callable<ConditionalCladeIndex>>(blockCount);
+        for (int k = 0; k < blockCount; k++) {
+            final int from = (int) ((long) trees.size() * k / blockCount);
+            final int to = (int) ((long) trees.size() * (k + 1) / blockCount);
+            tasks.add(new Callable<ConditionalCladeIndex>() {
+                public ConditionalCladeIndex call() {
+                    ConditionalCladeIndex index = new ConditionalCladeIndex(taxonCount);
+                    for (int i = from; i < to; i++) {
+                        index.addTree(trees.get(i), taxonMap);
+                    }
+                    return index;
+                }
+            });
+        }
+
+        try {
+            ConditionalCladeIndex index = null;
+            for (Future<ConditionalCladeIndex> future : pool.invokeAll(tasks)) {
+                if (index == null) {
+                    index = future.get();
+                } else {
+                    index.merge(future.get());
+                }
+            }
+            return index;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while indexing clades");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public int getTaxonCount() {
+        return taxonCount;
+    }
+
+    public long getTreeCount() {
+        return treeCount;
+    }
+
+    public int getCladeCount() {
+        return cladeCount;
+    }
+
+    public int getSplitCount() {
+        return splitCount;
+    }
+
+    /**
+     * Adds the clades and splits of a bifurcating tree. Every internal node counts one occurrence of its
+     * clade and every internal child one occurrence of the split of its parent.
+     */
+    public void addTree(Tree tree, Map<String, Integer> taxonMap) {
+        fillClades(tree, tree.getRoot(), taxonMap);
+
+        final int internalCount = tree.getInternalNodeCount();
+        for (int i = 0; i < internalCount; i++) {
+            NodeRef node = tree.getInternalNode(i);
+            int n = node.getNumber();
+            int id = intern(nodeWords, n * wordCount, nodeHashes[n], nodeSizes[n]);
+            cladeOccurrences[id]++;
+            cladeHeights[id] = tree.getNodeHeight(node);
+            nodeClades[n] = id;
+        }
+
+        for (int i = 0; i < internalCount; i++) {
+            NodeRef node = tree.getInternalNode(i);
+            for (int j = 0; j < tree.getChildCount(node); j++) {
+                NodeRef child = tree.getChild(node, j);
+                if (!tree.isExternal(child)) {
+                    addSplit(nodeClades[node.getNumber()], nodeClades[child.getNumber()], 1);
+                }
+            }
+        }
+
+        treeCount++;
+    }
+
+    /**
+     * The log of the product of the conditional clade probabilities of the tree's splits. Each split is
+     * counted with the occurrences of its first non-trivial child, and every possible split is given
+     * epsilon pseudo-occurrences.
+     */
+    public double getTreeProbability(Tree tree, Map<String, Integer> taxonMap, double epsilon) {
+        fillClades(tree, tree.getRoot(), taxonMap);
+
+        double logProbability = 0.0;
+        final int internalCount = tree.getInternalNodeCount();
+        for (int i = 0; i < internalCount; i++) {
+            NodeRef node = tree.getInternalNode(i);
+            int n = node.getNumber();
+            int parentSize = nodeSizes[n];
+
+            NodeRef child = tree.getChild(node, 0);
+            if (nodeSizes[child.getNumber()] < 2) {
+                child = tree.getChild(node, 1);
+                if (nodeSizes[child.getNumber()] < 2) {
+                    // a cherry has a single split
+                    continue;
+                }
+            }
+            int c = child.getNumber();
+
+            double parentOccurrences = 0.0;
+            double childOccurrences = 0.0;
+            int parentId = find(nodeWords, n * wordCount, nodeHashes[n]);
+            if (parentId >= 0) {
+                parentOccurrences = cladeOccurrences[parentId];
+                int childId = find(nodeWords, c * wordCount, nodeHashes[c]);
+                if (childId >= 0) {
+                    int split = getSplit(parentId, childId);
+                    if (split >= 0) {
+                        childOccurrences = splitOccurrences[split];
+                    }
+                }
+            }
+
+            logProbability += Math.log(childOccurrences + epsilon) - logDenominator(parentOccurrences, parentSize, epsilon);
+        }
+        return logProbability;
+    }
+
+    /**
+     * @return log(occurrences + epsilon * (2^(size-1) - 1)), which stays finite when the number of
+     *         possible splits overflows a double
+     */
+    private static double logDenominator(double occurrences, int size, double epsilon) {
+        final double splits = Math.pow(2, size - 1) - 1;
+        if (!Double.isInfinite(splits) || epsilon <= 0.0) {
+            return Math.log(occurrences + epsilon * splits);
+        }
+        return Math.log(epsilon) + (size - 1) * LOG_2;
+    }
+
+    /**
+     * @return the id of the clade or -1 if it has not been observed
+     */
+    public int getCladeId(BitSet bits) {
+        Arrays.fill(queryWords, 0L);
+        long hash = 0L;
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            if (i >= taxonCount) {
+                return -1;
+            }
+            queryWords[i >>> 6] |= 1L << i;
+            hash ^= taxonKeys[i];
+        }
+        return find(queryWords, 0, hash);
+    }
+
+    public BitSet getCladeBits(int clade) {
+        BitSet bits = new BitSet(taxonCount);
+        int offset = clade * wordCount;
+        for (int w = 0; w < wordCount; w++) {
+            long word = cladeWords[offset + w];
+            while (word != 0L) {
+                int bit = Long.numberOfTrailingZeros(word);
+                bits.set((w << 6) + bit);
+                word &= word - 1;
+            }
+        }
+        return bits;
+    }
+
+    public int getCladeSize(int clade) {
+        return cladeSizes[clade];
+    }
+
+    public int getCladeOccurrences(int clade) {
+        return cladeOccurrences[clade];
+    }
+
+    /**
+     * @return the height of the clade in the most recently added tree containing it
+     */
+    public double getCladeHeight(int clade) {
+        return cladeHeights[clade];
+    }
+
+    /**
+     * @return the first observed split of the parent clade or -1 if it has none
+     */
+    public int getFirstSplit(int parentClade) {
+        return cladeFirstSplit[parentClade];
+    }
+
+    /**
+     * @return the next observed split of the same parent clade or -1
+     */
+    public int getNextSplit(int split) {
+        return splitNext[split];
+    }
+
+    public int getSplitChild(int split) {
+        return splitChildren[split];
+    }
+
+    public int getSplitOccurrences(int split) {
+        return splitOccurrences[split];
+    }
+
+    /**
+     * @return the split of the parent clade into the child clade or -1 if it has not been observed
+     */
+    public int getSplit(int parentClade, int childClade) {
+        long key = splitKey(parentClade, childClade);
+        int mask = splitTable.length - 1;
+        for (int slot = (int) mix(key) & mask; ; slot = (slot + 1) & mask) {
+            int entry = splitTable[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            if (splitKeys[slot] == key) {
+                return entry - 1;
+            }
+        }
+    }
+
+    /**
+     * Adds the counts of another index over the same taxa.
+     */
+    public void merge(ConditionalCladeIndex other) {
+        if (other.taxonCount != taxonCount) {
+            throw new IllegalArgumentException("Clade indices have different numbers of taxa");
+        }
+
+        int[] cladeMap = new int[other.cladeCount];
+        for (int i = 0; i < other.cladeCount; i++) {
+            int id = intern(other.cladeWords, i * wordCount, other.cladeHashes[i], other.cladeSizes[i]);
+            cladeOccurrences[id] += other.cladeOccurrences[i];
+            cladeHeights[id] = other.cladeHeights[i];
+            cladeMap[i] = id;
+        }
+
+        // split ids follow the order in which the splits were first observed
+        for (int s = 0; s < other.splitCount; s++) {
+            addSplit(cladeMap[other.splitParents[s]], cladeMap[other.splitChildren[s]], other.splitOccurrences[s]);
+        }
+
+        treeCount += other.treeCount;
+    }
+
+    private void fillClades(Tree tree, NodeRef node, Map<String, Integer> taxonMap) {
+        int nodeCount = tree.getNodeCount();
+        if (nodeSizes == null || nodeSizes.length < nodeCount) {
+            nodeWords = new long[nodeCount * wordCount];
+            nodeHashes = new long[nodeCount];
+            nodeSizes = new int[nodeCount];
+            nodeClades = new int[nodeCount];
+        }
+        fillCladesBelow(tree, node, taxonMap);
+    }
+
+    private void fillCladesBelow(Tree tree, NodeRef node, Map<String, Integer> taxonMap) {
+        final int n = node.getNumber();
+        final int offset = n * wordCount;
+
+        if (tree.isExternal(node)) {
+            int tip = n;
+            if (taxonMap != null) {
+                Integer index = taxonMap.get(tree.getNodeTaxon(node).getId());
+                if (index == null) {
+                    throw new IllegalArgumentException("Taxon " + tree.getNodeTaxon(node).getId() + " is not in the taxon map");
+                }
+                tip = index;
+            }
+            if (tip >= taxonCount) {
+                throw new IllegalArgumentException("Tree has more taxa than the clade index");
+            }
+            for (int w = 0; w < wordCount; w++) {
+                nodeWords[offset + w] = 0L;
+            }
+            nodeWords[offset + (tip >>> 6)] = 1L << tip;
+            nodeHashes[n] = taxonKeys[tip];
+            nodeSizes[n] = 1;
+        } else {
+            long hash = 0L;
+            int size = 0;
+            for (int w = 0; w < wordCount; w++) {
+                nodeWords[offset + w] = 0L;
+            }
+            for (int j = 0; j < tree.getChildCount(node); j++) {
+                NodeRef child = tree.getChild(node, j);
+                fillCladesBelow(tree, child, taxonMap);
+
+                int c = child.getNumber();
+                int childOffset = c * wordCount;
+                for (int w = 0; w < wordCount; w++) {
+                    nodeWords[offset + w] |= nodeWords[childOffset + w];
+                }
+                hash ^= nodeHashes[c];
+                size += nodeSizes[c];
+            }
+            nodeHashes[n] = hash;
+            nodeSizes[n] = size;
+        }
+    }
+
+    private int find(long[] words, int offset, long hash) {
+        int mask = cladeTable.length - 1;
+        for (int slot = (int) (hash ^ (hash >>> 32)) & mask; ; slot = (slot + 1) & mask) {
+            int entry = cladeTable[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            int id = entry - 1;
+            if (cladeHashes[id] == hash && sameWords(words, offset, id)) {
+                return id;
+            }
+        }
+    }
+
+    private boolean sameWords(long[] words, int offset, int clade) {
+        int cladeOffset = clade * wordCount;
+        for (int w = 0; w < wordCount; w++) {
+            if (words[offset + w] != cladeWords[cladeOffset + w]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int intern(long[] words, int offset, long hash, int size) {
+        int mask = cladeTable.length - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        for (; ; slot = (slot + 1) & mask) {
+            int entry = cladeTable[slot];
+            if (entry == 0) {
+                break;
+            }
+            int id = entry - 1;
+            if (cladeHashes[id] == hash && sameWords(words, offset, id)) {
+                return id;
+            }
+        }
+
+        if (cladeCount == cladeSizes.length) {
+            growClades();
+            return intern(words, offset, hash, size);
+        }
+
+        int id = cladeCount++;
+        System.arraycopy(words, offset, cladeWords, id * wordCount, wordCount);
+        cladeHashes[id] = hash;
+        cladeSizes[id] = size;
+        cladeOccurrences[id] = 0;
+        cladeFirstSplit[id] = -1;
+        cladeTable[slot] = id + 1;
+        return id;
+    }
+
+    private void growClades() {
+        int capacity = cladeSizes.length * 2;
+        cladeWords = Arrays.copyOf(cladeWords, capacity * wordCount);
+        cladeHashes = Arrays.copyOf(cladeHashes, capacity);
+        cladeSizes = Arrays.copyOf(cladeSizes, capacity);
+        cladeOccurrences = Arrays.copyOf(cladeOccurrences, capacity);
+        cladeHeights = Arrays.copyOf(cladeHeights, capacity);
+        cladeFirstSplit = Arrays.copyOf(cladeFirstSplit, capacity);
+
+        cladeTable = new int[capacity * 2];
+        int mask = cladeTable.length - 1;
+        for (int id = 0; id < cladeCount; id++) {
+            long hash = cladeHashes[id];
+            int slot = (int) (hash ^ (hash >>> 32)) & mask;
+            while (cladeTable[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            cladeTable[slot] = id + 1;
+        }
+    }
+
+    private void addSplit(int parentClade, int childClade, int occurrences) {
+        long key = splitKey(parentClade, childClade);
+        int mask = splitTable.length - 1;
+        int slot = (int) mix(key) & mask;
+        for (; ; slot = (slot + 1) & mask) {
+            int entry = splitTable[slot];
+            if (entry == 0) {
+                break;
+            }
+            if (splitKeys[slot] == key) {
+                splitOccurrences[entry - 1] += occurrences;
+                return;
+            }
+        }
+
+        if (splitCount == splitChildren.length) {
+            growSplits();
+            addSplit(parentClade, childClade, occurrences);
+            return;
+        }
+
+        int split = splitCount++;
+        splitChildren[split] = childClade;
+        splitOccurrences[split] = occurrences;
+        splitParents[split] = parentClade;
+        splitNext[split] = cladeFirstSplit[parentClade];
+        cladeFirstSplit[parentClade] = split;
+        splitKeys[slot] = key;
+        splitTable[slot] = split + 1;
+    }
+
+    private void growSplits() {
+        int capacity = splitChildren.length * 2;
+        splitParents = Arrays.copyOf(splitParents, capacity);
+        splitChildren = Arrays.copyOf(splitChildren, capacity);
+        splitOccurrences = Arrays.copyOf(splitOccurrences, capacity);
+        splitNext = Arrays.copyOf(splitNext, capacity);
+
+        long[] oldKeys = splitKeys;
+        int[] oldTable = splitTable;
+        splitKeys = new long[capacity * 2];
+        splitTable = new int[capacity * 2];
+        int mask = splitTable.length - 1;
+        for (int i = 0; i < oldTable.length; i++) {
+            if (oldTable[i] != 0) {
+                int slot = (int) mix(oldKeys[i]) & mask;
+                while (splitTable[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                splitKeys[slot] = oldKeys[i];
+                splitTable[slot] = oldTable[i];
+            }
+        }
+    }
+
+    private static long splitKey(int parentClade, int childClade) {
+        return ((long) parentClade << 32) | (childClade & 0xFFFFFFFFL);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private final int taxonCount;
+    private final int wordCount;
+    private final long[] taxonKeys;
+    private long treeCount = 0;
+
+    private int cladeCount = 0;
+    private long[] cladeWords;
+    private long[] cladeHashes;
+    private int[] cladeSizes;
+    private int[] cladeOccurrences;
+    private double[] cladeHeights;
+    private int[] cladeFirstSplit;
+    private int[] cladeTable;
+
+    private int splitCount = 0;
+    private int[] splitParents;
+    private int[] splitChildren;
+    private int[] splitOccurrences;
+    private int[] splitNext;
+    private long[] splitKeys;
+    private int[] splitTable;
+
+    // scratch space for indexing one tree
+    private long[] nodeWords;
+    private long[] nodeHashes;
+    private int[] nodeSizes;
+    private int[] nodeClades;
+    private final long[] queryWords;
+}
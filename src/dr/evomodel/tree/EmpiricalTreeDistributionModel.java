@@ -28,6 +28,7 @@ package dr.evomodel.tree;
 import dr.evolution.io.Importer;
 import dr.evolution.io.NexusImporter;
 import dr.evolution.io.TreeImporter;
+import dr.evolution.tree.CompactTreeSet;
 import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
 import dr.evolution.util.Taxon;
@@ -51,7 +52,17 @@ public class EmpiricalTreeDistributionModel extends TreeModel {
      * @param startingTree
      */
     public EmpiricalTreeDistributionModel(final Tree[] trees, int startingTree) {
-        this(trees, null, startingTree);
+        this(trees, null, null, startingTree);
+    }
+
+    /**
+     * This constructor takes a compact set of trees and jumps randomly amongst them. Each tree is only
+     * materialised when it is drawn.
+     * @param trees
+     * @param startingTree
+     */
+    public EmpiricalTreeDistributionModel(final CompactTreeSet trees, int startingTree) {
+        this(null, trees, null, startingTree);
     }
 
     /**
@@ -61,13 +72,15 @@ public class EmpiricalTreeDistributionModel extends TreeModel {
      * @param startingTree
      */
     public EmpiricalTreeDistributionModel(final TreeImporter importer, int startingTree) {
-        this(null, importer, startingTree);
+        this(null, null, importer, startingTree);
     }
 
-    private EmpiricalTreeDistributionModel(final Tree[] trees, final TreeImporter importer, int startingTree) {
+    private EmpiricalTreeDistributionModel(final Tree[] trees, final CompactTreeSet compactTrees,
+                                           final TreeImporter importer, int startingTree) {
         super(EMPIRICAL_TREE_DISTRIBUTION_MODEL);
 
         this.trees = trees;
+        this.compactTrees = compactTrees;
         this.importer = importer;
         drawTreeIndex(startingTree);
 
@@ -85,10 +98,12 @@ public class EmpiricalTreeDistributionModel extends TreeModel {
 
     protected void storeState() {
         storedCurrentTree = currentTree;
+        storedCurrentTreeIndex = currentTreeIndex;
     }
 
     protected void restoreState() {
         currentTree = storedCurrentTree;
+        currentTreeIndex = storedCurrentTreeIndex;
     }
 
     protected void acceptState() {
@@ -98,6 +113,37 @@ public class EmpiricalTreeDistributionModel extends TreeModel {
         drawTreeIndex(-1);
     }
 
+    /**
+     * Switches to a given tree in the set.
+     * @param treeIndex
+     */
+    public void setTreeIndex(int treeIndex) {
+        if (importer != null) {
+            throw new UnsupportedOperationException("Cannot choose the tree when iterating through a file");
+        }
+        if (treeIndex < 0 || treeIndex >= getTreeCount()) {
+            throw new IllegalArgumentException("Tree index out of range: " + treeIndex);
+        }
+        drawTreeIndex(treeIndex);
+    }
+
+    /**
+     * @return the index of the current tree in the set (or in the file when iterating)
+     */
+    public int getCurrentTreeIndex() {
+        return currentTreeIndex;
+    }
+
+    /**
+     * @return the number of trees to draw from or -1 when iterating through a file
+     */
+    public int getTreeCount() {
+        if (importer != null) {
+            return -1;
+        }
+        return (compactTrees != null ? compactTrees.getTreeCount() : trees.length);
+    }
+
     private void drawTreeIndex(int treeNumber) {
 //        System.err.print("Drawing new tree, (old tree = " + currentTreeIndex);
 
@@ -115,12 +161,11 @@ public class EmpiricalTreeDistributionModel extends TreeModel {
             currentTreeIndex += 1;
         } else {
             if (treeNumber == -1) {
-                currentTreeIndex = MathUtils.nextInt(trees.length);
-                currentTree = trees[currentTreeIndex];
+                currentTreeIndex = MathUtils.nextInt(getTreeCount());
             } else {
                 currentTreeIndex = treeNumber;
-                currentTree = trees[currentTreeIndex];
             }
+            currentTree = (compactTrees != null ? compactTrees.getTree(currentTreeIndex) : trees[currentTreeIndex]);
         }
 
         // Force computation of node heights now rather than later in the evaluation
@@ -161,7 +206,7 @@ public class EmpiricalTreeDistributionModel extends TreeModel {
     }
 
     public Taxon getNodeTaxon(final NodeRef node) {
-        return trees[currentTreeIndex].getNodeTaxon(node);
+        return currentTree.getNodeTaxon(node);
     }
 
     public boolean hasNodeHeights() {
@@ -271,9 +316,11 @@ public class EmpiricalTreeDistributionModel extends TreeModel {
     public static final String EMPIRICAL_TREE_DISTRIBUTION_MODEL = "empiricalTreeDistributionModel";
 
     private final Tree[] trees;
+    private final CompactTreeSet compactTrees;
     private final TreeImporter importer;
     private Tree currentTree;
     private Tree storedCurrentTree;
 
     private int currentTreeIndex;
+    private int storedCurrentTreeIndex;
 }
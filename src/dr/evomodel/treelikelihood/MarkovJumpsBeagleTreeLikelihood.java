@@ -40,14 +40,17 @@ import dr.evomodel.tree.TreeModel;
 import dr.evomodel.tipstatesmodel.TipStatesModel;
 import dr.inference.loggers.LogColumn;
 import dr.inference.loggers.NumberColumn;
+import dr.inference.markovjumps.MarkovJumpsCore;
 import dr.inference.markovjumps.MarkovJumpsRegisterAcceptor;
 import dr.inference.markovjumps.MarkovJumpsType;
+import dr.inference.model.Model;
 import dr.inference.model.Parameter;
 import dr.inference.model.Variable;
 import dr.util.Citation;
 import dr.util.CommonCitations;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * @author Marc Suchard
@@ -93,6 +96,7 @@ public class MarkovJumpsBeagleTreeLikelihood extends AncestralStateBeagleTreeLik
 //        storedExpectedJumps = new ArrayList<double[][]>();
 
         tmpProbabilities = new double[stateCount * stateCount * categoryCount];
+        leafProbabilities = new double[stateCount * stateCount * categoryCount];
         condJumps = new double[categoryCount][stateCount * stateCount];
     }
 
@@ -282,6 +286,10 @@ public class MarkovJumpsBeagleTreeLikelihood extends AncestralStateBeagleTreeLik
             numRegisters++;
 
         } // End of loop over branch models
+
+        branchJumps = null; // the lazy cache is rebuilt for the new registers
+        matrixPool = null;
+        jumpsKnown = false;
     }
 
     public void setLogHistories(boolean in) {
@@ -292,6 +300,26 @@ public class MarkovJumpsBeagleTreeLikelihood extends AncestralStateBeagleTreeLik
         useCompactHistory = in;
     }
 
+    /**
+     * In lazy mode the integrated (non-uniformized) expectations are only computed when they are requested,
+     * normally when a log is written, rather than every time the ancestral states are redrawn. The conditional
+     * jump matrices are cached per register and branch and only recomputed for branches whose times, rate or
+     * models have changed since they were last computed. Ignored when using uniformization, whose expectations
+     * are sampled along with the ancestral states.
+     *
+     * @param lazy        compute the expectations on demand
+     * @param threadCount the number of threads to compute changed branches with (-1 for the number of processors)
+     */
+    public void setUseLazyJumps(boolean lazy, int threadCount) {
+        this.lazyJumps = lazy && !useUniformization;
+        this.threadCount = threadCount;
+        jumpsKnown = false;
+    }
+
+    public boolean getUseLazyJumps() {
+        return lazyJumps;
+    }
+
 //    public double[] getRewardsForNodeAndPattern(Tree tree, NodeRef node, int pattern) {
 //        double[] rtn = new double[numRegisters];
 //        for (int r = 0; r < numRegisters; r++) {
@@ -327,6 +355,11 @@ public class MarkovJumpsBeagleTreeLikelihood extends AncestralStateBeagleTreeLik
         if (!areStatesRedrawn) {
             redrawAncestralStates();
         }
+
+        if (lazyJumps && !jumpsKnown) {
+            computeLazyMarkovJumps();
+            jumpsKnown = true;
+        }
     }
 
     public double[][] getMarkovJumpsForRegister(Tree tree, int whichRegister) {
@@ -356,6 +389,38 @@ public class MarkovJumpsBeagleTreeLikelihood extends AncestralStateBeagleTreeLik
         double[] registration = registerParameter.get(whichRegistration).getParameterValues();
         markovjumps.get(whichRegistration).setRegistration(registration);
         areStatesRedrawn = false;
+        modelVersion = ++versionCount;
+    }
+
+    public void redrawAncestralStates() {
+        super.redrawAncestralStates();
+        jumpsKnown = false;
+    }
+
+    public void makeDirty() {
+        super.makeDirty();
+        modelVersion = ++versionCount;
+    }
+
+    public void storeState() {
+        super.storeState();
+        storedModelVersion = modelVersion;
+    }
+
+    public void restoreState() {
+        super.restoreState();
+        // the restored states were not necessarily the ones the current expectations were computed from
+        jumpsKnown = false;
+        modelVersion = storedModelVersion;
+    }
+
+    protected void handleModelChangedEvent(Model model, Object object, int index) {
+        if (model != treeModel && model != branchRateModel) {
+            // substitution, site or branch model; versions are never reused so rejected proposals
+            // cannot leave matching entries in the cache
+            modelVersion = ++versionCount;
+        }
+        super.handleModelChangedEvent(model, object, index);
     }
 
     protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
@@ -372,12 +437,17 @@ public class MarkovJumpsBeagleTreeLikelihood extends AncestralStateBeagleTreeLik
                                    int[] parentStates, int[] childStates,
                                    double[] inProbabilities, int[] rateCategory) {
 
+        if (lazyJumps) {
+            return; // computed from the reconstructed states when requested
+        }
+
         final int childNum = childNode.getNumber();
 
         double[] probabilities = inProbabilities;
         if (probabilities == null) { // Leaf will call this hook with a null
-            getMatrix(childNum, tmpProbabilities);
-            probabilities = tmpProbabilities;
+            // not tmpProbabilities, which holds a copy of one category at a time
+            getMatrix(childNum, leafProbabilities);
+            probabilities = leafProbabilities;
         }
 
         final double branchRate = branchRateModel.getBranchRate(tree, childNode);
@@ -506,6 +576,249 @@ public class MarkovJumpsBeagleTreeLikelihood extends AncestralStateBeagleTreeLik
         }
     }
 
+    private void computeLazyMarkovJumps() {
+
+        final int nodeCount = treeModel.getNodeCount();
+        final int matrixSize = stateCount * stateCount * categoryCount;
+
+        if (branchJumps == null) {
+            branchJumps = new BranchJumps[numRegisters][nodeCount];
+            boolean cache = (long) numRegisters * nodeCount * matrixSize * 8 <= MAX_CACHE_BYTES;
+            for (int r = 0; r < numRegisters; r++) {
+                for (int i = 0; i < nodeCount; i++) {
+                    branchJumps[r][i] = new BranchJumps(r, i, cache ? new double[matrixSize] : null);
+                }
+            }
+            if (!cache) {
+                matrixPool = new double[CHUNK_SIZE][matrixSize];
+            }
+            categoryRates = new double[categoryCount];
+        }
+
+        // everything that is shared by the workers is brought up to date before they start
+        for (int i = 0; i < categoryCount; i++) {
+            categoryRates[i] = siteRateModel.getRateForCategory(i);
+        }
+        for (MarkovJumpsSubstitutionModel thisMarkovJumps : markovjumps) {
+            thisMarkovJumps.updateRateRegistrationMatrix();
+        }
+
+        pendingJumps.clear();
+        for (int i = 0; i < nodeCount; i++) {
+            NodeRef node = treeModel.getNode(i);
+            if (treeModel.isRoot(node)) {
+                continue;
+            }
+            final int childNum = node.getNumber();
+            final NodeRef parent = treeModel.getParent(node);
+            final double parentTime = treeModel.getNodeHeight(parent);
+            final double childTime = treeModel.getNodeHeight(node);
+            final double branchRate = branchRateModel.getBranchRate(treeModel, node);
+            final int modelNumber = branchModel.getBranchModelMapping(node).getOrder()[0];
+
+            for (int r = 0; r < numRegisters; r++) {
+                if (branchModelNumber.get(r) != modelNumber) {
+                    Arrays.fill(expectedJumps.get(r)[childNum], 0.0);
+                    continue;
+                }
+                BranchJumps branch = branchJumps[r][childNum];
+                branch.parentStates = getStatesForNode(treeModel, parent);
+                branch.childStates = getStatesForNode(treeModel, node);
+                branch.stale = !branch.isCached(parentTime, childTime, branchRate, modelVersion);
+                if (branch.stale) {
+                    branch.parentTime = parentTime;
+                    branch.childTime = childTime;
+                    branch.branchRate = branchRate;
+                    branch.version = modelVersion;
+                }
+                pendingJumps.add(branch);
+            }
+        }
+
+        final boolean cache = matrixPool == null;
+        int start = 0;
+        while (start < pendingJumps.size()) {
+            final int end = cache ? pendingJumps.size() : Math.min(start + CHUNK_SIZE, pendingJumps.size());
+
+            // BEAGLE is only ever called from this thread
+            for (int k = start; k < end; k++) {
+                BranchJumps branch = pendingJumps.get(k);
+                if (branch.stale) {
+                    if (!cache) {
+                        branch.condJumps = matrixPool[k - start];
+                    }
+                    getMatrix(branch.childNum, branch.condJumps);
+                }
+            }
+
+            computeBranchJumps(pendingJumps.subList(start, end));
+
+            if (!cache) {
+                for (int k = start; k < end; k++) {
+                    BranchJumps branch = pendingJumps.get(k);
+                    branch.condJumps = null;
+                    branch.version = -1;
+                }
+            }
+            start = end;
+        }
+    }
+
+    private void computeBranchJumps(final List<BranchJumps> branches) {
+
+        int threads = threadCount < 0 ? Runtime.getRuntime().availableProcessors() : threadCount;
+        threads = Math.min(threads, branches.size() / MIN_BRANCHES_PER_THREAD);
+
+        if (threads <= 1) {
+            JumpsWorkspace workspace = getWorkspace(0);
+            for (BranchJumps branch : branches) {
+                computeBranchJumps(branch, workspace);
+            }
+            return;
+        }
+
+        if (pool == null || poolSize != threads) {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "markovJumps");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            poolSize = threads;
+        }
+
+        List<Callable<Object>> callers = new ArrayList<Callable<Object>>(threads);
+        for (int t = 0; t < threads; t++) {
+            final int first = t;
+            final int stride = threads;
+            final JumpsWorkspace workspace = getWorkspace(t);
+            callers.add(new Callable<Object>() {
+                public Object call() throws Exception {
+                    for (int k = first; k < branches.size(); k += stride) {
+                        computeBranchJumps(branches.get(k), workspace);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for (Future<Object> future : pool.invokeAll(callers)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private JumpsWorkspace getWorkspace(int thread) {
+        while (workspaces.size() <= thread) {
+            workspaces.add(new JumpsWorkspace(stateCount));
+        }
+        return workspaces.get(thread);
+    }
+
+    /**
+     * Turns the transition probabilities held in a stale branch's matrices into conditional expectations
+     * and then picks out the values for the sampled states.
+     */
+    private void computeBranchJumps(BranchJumps branch, JumpsWorkspace workspace) {
+
+        final int r = branch.register;
+        final double[] matrices = branch.condJumps;
+        final int matrixSize = stateCount * stateCount;
+
+        if (branch.stale) {
+            MarkovJumpsSubstitutionModel thisMarkovJumps = markovjumps.get(r);
+            final double substTime = branch.parentTime - branch.childTime;
+
+            for (int i = 0; i < categoryCount; i++) {
+                final int offset = i * matrixSize;
+                final double rate = categoryRates[i];
+                if (rate > 0) {
+                    System.arraycopy(matrices, offset, workspace.probabilities, 0, matrixSize);
+                    thisMarkovJumps.computeCondStatMarkovJumps(workspace.core,
+                            substTime * branch.branchRate * rate,
+                            workspace.probabilities,
+                            workspace.condJumps);
+
+                    if (scaleByTime[r]) {
+                        double scalar = branch.branchRate * rate;
+                        for (int j = 0; j < matrixSize; j++) {
+                            workspace.condJumps[j] /= scalar;
+                        }
+                    }
+                    System.arraycopy(workspace.condJumps, 0, matrices, offset, matrixSize);
+                } else {
+                    Arrays.fill(matrices, offset, offset + matrixSize, 0.0);
+                    if (thisMarkovJumps.getType() == MarkovJumpsType.REWARDS && scaleByTime[r]) {
+                        for (int j = 0; j < stateCount; j++) {
+                            matrices[offset + j * stateCount + j] = substTime;
+                        }
+                    }
+                }
+            }
+            branch.stale = false;
+        }
+
+        final double[] thisExpectedJumps = expectedJumps.get(r)[branch.childNum];
+        final int[] parentStates = branch.parentStates;
+        final int[] childStates = branch.childStates;
+        for (int j = 0; j < patternCount; j++) { // Pick out values given parent and child states
+            int category = rateCategory == null ? 0 : rateCategory[j];
+            thisExpectedJumps[j] = matrices[category * matrixSize + parentStates[j] * stateCount + childStates[j]];
+        }
+    }
+
+    /**
+     * The conditional jump matrices of one register on one branch and the branch they were computed for.
+     */
+    private static class BranchJumps {
+
+        BranchJumps(int register, int childNum, double[] condJumps) {
+            this.register = register;
+            this.childNum = childNum;
+            this.condJumps = condJumps;
+        }
+
+        boolean isCached(double parentTime, double childTime, double branchRate, long version) {
+            return this.version == version &&
+                    this.parentTime == parentTime && this.childTime == childTime && this.branchRate == branchRate;
+        }
+
+        final int register;
+        final int childNum;
+        double[] condJumps;
+
+        double parentTime;
+        double childTime;
+        double branchRate;
+        long version = -1;
+
+        boolean stale;
+        int[] parentStates;
+        int[] childStates;
+    }
+
+    private static class JumpsWorkspace {
+
+        JumpsWorkspace(int stateCount) {
+            core = new MarkovJumpsCore(stateCount);
+            probabilities = new double[stateCount * stateCount];
+            condJumps = new double[stateCount * stateCount];
+        }
+
+        final MarkovJumpsCore core;
+        final double[] probabilities;
+        final double[] condJumps;
+    }
+
 //    public void storeState() {
 //
 //        super.storeState();
@@ -652,10 +965,31 @@ public class MarkovJumpsBeagleTreeLikelihood extends AncestralStateBeagleTreeLik
     private String[][] histories = null;
     private boolean[] scaleByTime;
     private double[] tmpProbabilities;
+    private double[] leafProbabilities;
     private double[][] condJumps;
     private int numRegisters;
     private int historyRegisterNumber = -1;
     private final boolean useUniformization;
     private final int nSimulants;
     private final boolean reportUnconditionedColumns;
+
+    // conditional jump matrices are only kept between logs if they take no more than this
+    private static final long MAX_CACHE_BYTES = 256L * 1024 * 1024;
+    // otherwise this many branches are computed at a time
+    private static final int CHUNK_SIZE = 256;
+    private static final int MIN_BRANCHES_PER_THREAD = 16;
+
+    private boolean lazyJumps = false;
+    private boolean jumpsKnown = false;
+    private int threadCount = -1;
+    private long modelVersion = 0;
+    private long storedModelVersion = 0;
+    private long versionCount = 0;
+    private BranchJumps[][] branchJumps = null;
+    private double[][] matrixPool = null;
+    private double[] categoryRates;
+    private final List<BranchJumps> pendingJumps = new ArrayList<BranchJumps>();
+    private final List<JumpsWorkspace> workspaces = new ArrayList<JumpsWorkspace>();
+    private ExecutorService pool = null;
+    private int poolSize = 0;
 }
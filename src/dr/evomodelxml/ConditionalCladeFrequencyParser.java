@@ -52,6 +52,7 @@ public class ConditionalCladeFrequencyParser extends AbstractXMLObjectParser {
     public final static String EPSILON = "epsilon";
     public final static String MIN_CLADE_PROBABILITY = "minCladeProbability";
     public static final String FILE_NAME = "fileName";
+    public static final String THREADS = "threads";
 
     public final static String REFERENCE_TREE = "referenceTree";
 
@@ -95,6 +96,11 @@ public class ConditionalCladeFrequencyParser extends AbstractXMLObjectParser {
                 e = xo.getDoubleAttribute(EPSILON);
             }
 
+            // the trees are indexed in parallel blocks
+            int threadCount = Runtime.getRuntime().availableProcessors();
+            if (xo.hasAttribute(THREADS)) {
+                threadCount = xo.getIntegerAttribute(THREADS);
+            }
 
             // read the reference tree from a newick file
             Reader refReader = null;
@@ -116,7 +122,7 @@ public class ConditionalCladeFrequencyParser extends AbstractXMLObjectParser {
             }
 
             // creates a new analyzer object
-            ConditionalCladeFrequency analysis = ConditionalCladeFrequency.analyzeLogFile(new Reader[]{reader}, e, burnin, true);
+            ConditionalCladeFrequency analysis = ConditionalCladeFrequency.analyzeLogFile(new Reader[]{reader}, e, burnin, true, threadCount);
 
             // analyze the reference tree and print its estimated posterior
             analysis.report(refReader);
@@ -151,6 +157,7 @@ public class ConditionalCladeFrequencyParser extends AbstractXMLObjectParser {
             AttributeRule.newIntegerRule(BURN_IN, true, "The number of trees discarded because of the burn-in period."),
             AttributeRule.newDoubleRule(MIN_CLADE_PROBABILITY, true, "The frequency in % that a clade must achieve to be considered for the evaulation. Otherwise it's set to epsilon."),
             AttributeRule.newDoubleRule(EPSILON, true, "Epsilon is the default number of occurences for a clade if a clade wasn't observed. The default is 1.0"),
+            AttributeRule.newIntegerRule(THREADS, true, "The number of threads used to index the trees. The default is the number of processors."),
             AttributeRule.newStringRule(REFERENCE_TREE, false, "File in newick format containing a tree which is evaluated with the statistic.")
     };
 
@@ -68,6 +68,7 @@ public class GMRFSkyrideLikelihoodParser extends AbstractXMLObjectParser {
     public static final String COLUMN_MAJOR = "columnMajor";
     public static final String LAST_OBSERVED_INDEX = "lastObservedIndex";
     public static final String COV_PREC_PARAM = "covariatePrecision";
+    public static final String THREADS = "threads";
 
 
     public String getParserName() {
@@ -245,16 +246,21 @@ public class GMRFSkyrideLikelihoodParser extends AbstractXMLObjectParser {
                     lambda, betaParameter, dMatrix, timeAwareSmoothing, rescaleByRootHeight);
 
         } else {
+            GMRFMultilocusSkyrideLikelihood skygrid;
             if(xo.getChild(GRID_POINTS) != null){
                 System.err.println("A");
 
-                return new GMRFMultilocusSkyrideLikelihood(treeList, popParameter, groupParameter, precParameter,
+                skygrid = new GMRFMultilocusSkyrideLikelihood(treeList, popParameter, groupParameter, precParameter,
                         lambda, betaParameter, dMatrix, timeAwareSmoothing, gridPoints, covariates, ploidyFactors,
                         lastObservedIndex, covPrecParam, betaList);
             }else {
-                return new GMRFMultilocusSkyrideLikelihood(treeList, popParameter, groupParameter, precParameter,
+                skygrid = new GMRFMultilocusSkyrideLikelihood(treeList, popParameter, groupParameter, precParameter,
                         lambda, betaParameter, dMatrix, timeAwareSmoothing, cutOff.getParameterValue(0), (int) numGridPoints.getParameterValue(0), phi, ploidyFactors);
             }
+
+            // the default is -1 threads (one per processor) used when many loci change at once
+            skygrid.setThreadCount(xo.getAttribute(THREADS, -1));
+            return skygrid;
         }
     }
 
@@ -296,7 +302,8 @@ public class GMRFSkyrideLikelihoodParser extends AbstractXMLObjectParser {
             AttributeRule.newBooleanRule(RESCALE_BY_ROOT_ISSUE, true),
             AttributeRule.newBooleanRule(RANDOMIZE_TREE, true),
             AttributeRule.newBooleanRule(TIME_AWARE_SMOOTHING, true),
-            AttributeRule.newBooleanRule(OLD_SKYRIDE, true)
+            AttributeRule.newBooleanRule(OLD_SKYRIDE, true),
+            AttributeRule.newIntegerRule(THREADS, true)
     };
 
 }
@@ -34,15 +34,19 @@ import dr.xml.*;
  */
 public class MultiSpeciesCoalescentParser extends AbstractXMLObjectParser {
     public static final String SPECIES_COALESCENT = "speciesCoalescent";
+    public static final String THREADS = "threads";
 
     public Object parseXMLObject(XMLObject xo) throws XMLParseException {
         final SpeciesBindings sb = (SpeciesBindings) xo.getChild(SpeciesBindings.class);
         final SpeciesTreeModel tree = (SpeciesTreeModel) xo.getChild(SpeciesTreeModel.class);
-        return new MultiSpeciesCoalescent(sb, tree);
+        final MultiSpeciesCoalescent msc = new MultiSpeciesCoalescent(sb, tree);
+        msc.setThreadCount(xo.getAttribute(THREADS, -1));
+        return msc;
     }
 
     public XMLSyntaxRule[] getSyntaxRules() {
         return new XMLSyntaxRule[]{
+                AttributeRule.newIntegerRule(THREADS, true),
                 new ElementRule(SpeciesBindings.class),
                 new ElementRule(SpeciesTreeModel.class),
         };
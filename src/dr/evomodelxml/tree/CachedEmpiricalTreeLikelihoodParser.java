@@ -0,0 +1,83 @@
+/*
+ * CachedEmpiricalTreeLikelihoodParser.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+package dr.evomodelxml.tree;
+
+import dr.evomodel.tree.CachedEmpiricalTreeLikelihood;
+import dr.evomodel.tree.EmpiricalTreeDistributionModel;
+import dr.inference.model.Likelihood;
+import dr.xml.*;
+
+import java.util.logging.Logger;
+
+public class CachedEmpiricalTreeLikelihoodParser extends AbstractXMLObjectParser {
+
+    public static final String CACHE_SIZE = "cacheSize";
+
+    public String getParserName() {
+        return CachedEmpiricalTreeLikelihood.CACHED_EMPIRICAL_TREE_LIKELIHOOD;
+    }
+
+    public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+        Likelihood likelihood = (Likelihood) xo.getChild(Likelihood.class);
+        EmpiricalTreeDistributionModel treeModel =
+                (EmpiricalTreeDistributionModel) xo.getChild(EmpiricalTreeDistributionModel.class);
+        int cacheSize = xo.getAttribute(CACHE_SIZE, 1000);
+        if (cacheSize < 1) {
+            throw new XMLParseException("The " + CACHE_SIZE + " must be at least 1");
+        }
+
+        try {
+            CachedEmpiricalTreeLikelihood cached = new CachedEmpiricalTreeLikelihood(likelihood, treeModel, cacheSize);
+            Logger.getLogger("dr.evomodel").info("Caching the likelihood, '" + likelihood.getId() +
+                    "', for the last " + cacheSize + " empirical trees visited");
+            return cached;
+        } catch (IllegalArgumentException e) {
+            throw new XMLParseException(e.getMessage());
+        }
+    }
+
+    //************************************************************************
+    // AbstractXMLObjectParser implementation
+    //************************************************************************
+
+    public XMLSyntaxRule[] getSyntaxRules() {
+        return rules;
+    }
+
+    private XMLSyntaxRule[] rules = new XMLSyntaxRule[]{
+            AttributeRule.newIntegerRule(CACHE_SIZE, true),
+            new ElementRule(Likelihood.class),
+            new ElementRule(EmpiricalTreeDistributionModel.class),
+    };
+
+    public String getParserDescription() {
+        return "Caches the likelihood computed on each of the most recently visited trees of an empirical tree distribution.";
+    }
+
+    public Class getReturnType() {
+        return CachedEmpiricalTreeLikelihood.class;
+    }
+}
@@ -29,6 +29,7 @@ import dr.util.FileHelpers;
 import dr.xml.*;
 import dr.evolution.io.NexusImporter;
 import dr.evolution.io.Importer;
+import dr.evolution.tree.CompactTreeSet;
 import dr.evolution.tree.Tree;
 import dr.evolution.util.TaxonList;
 import dr.evomodel.tree.EmpiricalTreeDistributionModel;
@@ -46,6 +47,7 @@ public class EmpiricalTreeDistributionModelParser extends AbstractXMLObjectParse
     public static final String RATE_ATTRIBUTE_NAME = "rateAttribute";
     public static final String STARTING_TREE = "startingTree";
     public static final String ITERATE = "iterate";
+    public static final String COMPACT = "compact";
 
     public String getParserName() {
         return EmpiricalTreeDistributionModel.EMPIRICAL_TREE_DISTRIBUTION_MODEL;
@@ -65,6 +67,8 @@ public class EmpiricalTreeDistributionModelParser extends AbstractXMLObjectParse
             startingTree = 0;
         }
 
+        boolean compact = !iterate && xo.getAttribute(COMPACT, false);
+
         Logger.getLogger("dr.evomodel").info("Creating the empirical tree distribution model, '" + xo.getId() + "'");
 
         TaxonList taxa = (TaxonList)xo.getChild(TaxonList.class);
@@ -72,11 +76,22 @@ public class EmpiricalTreeDistributionModelParser extends AbstractXMLObjectParse
         final File file = FileHelpers.getFile(fileName);
 
         Tree[] trees = null;
+        CompactTreeSet compactTrees = null;
         NexusImporter importer = null;
         try {
             FileReader reader = new FileReader(file);
             importer = new NexusImporter(reader);
-            if (!iterate) {
+            if (compact) {
+                // read one tree at a time so the full trees are never all in memory
+                compactTrees = new CompactTreeSet(taxa);
+                while (importer.hasTree()) {
+                    compactTrees.addTree(importer.importNextTree());
+                }
+                reader.close();
+                if (compactTrees.getTreeCount() == 0) {
+                    throw new XMLParseException("No trees found in file, " + fileName);
+                }
+            } else if (!iterate) {
                 trees = importer.importTrees(taxa, true); // Re-order taxon numbers to original TaxonList order
                 reader.close();
             }
@@ -86,12 +101,18 @@ public class EmpiricalTreeDistributionModelParser extends AbstractXMLObjectParse
             throw new XMLParseException(e.getMessage());
         } catch (Importer.ImportException e) {
             throw new XMLParseException(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new XMLParseException(e.getMessage());
         }
         
 
         if (iterate) {
             Logger.getLogger("dr.evomodel").info("    Iterate over each tree from file, " + fileName);
             return new EmpiricalTreeDistributionModel(importer, startingTree);
+        } else if (compact) {
+            Logger.getLogger("dr.evomodel").info("    Randomly jump between " + compactTrees.getTreeCount() +
+                    " compactly stored trees from file, " + fileName + " (node attributes are not kept)");
+            return new EmpiricalTreeDistributionModel(compactTrees, startingTree);
         } else {
             Logger.getLogger("dr.evomodel").info("    Randomly jump between " + trees.length + " trees from file, " + fileName);
             return new EmpiricalTreeDistributionModel(trees, startingTree);
@@ -105,6 +126,7 @@ public class EmpiricalTreeDistributionModelParser extends AbstractXMLObjectParse
         return new XMLSyntaxRule[]{
                 AttributeRule.newIntegerRule(STARTING_TREE, true),
                 AttributeRule.newBooleanRule(ITERATE, true),
+                AttributeRule.newBooleanRule(COMPACT, true),
                 new StringAttributeRule(FILE_NAME,
                         "The name of a NEXUS tree file"),
 //                AttributeRule.newIntegerRule(BURNIN, true,
@@ -45,6 +45,7 @@ import dr.xml.*;
 
 import java.util.Map;
 import java.util.Set;
+import java.util.logging.Logger;
 
 /**
  * @author Marc Suchard
@@ -64,6 +65,8 @@ public class MarkovJumpsTreeLikelihoodParser extends AncestralStateTreeLikelihoo
     public static final String COMPACT_HISTORY = "compactHistory";
     public static final String NUMBER_OF_SIMULANTS = "numberOfSimulants";
     public static final String REPORT_UNCONDITIONED_COLUMNS = "reportUnconditionedValues";
+    public static final String LAZY_JUMPS = "lazyJumps";
+    public static final String THREADS = "threads";
 
 
     public String getParserName() {
@@ -144,6 +147,13 @@ public class MarkovJumpsTreeLikelihoodParser extends AncestralStateTreeLikelihoo
             // Do nothing, should run the same as AncestralStateBeagleTreeLikelihood
         }
 
+        if (xo.getAttribute(LAZY_JUMPS, false)) {
+            if (useUniformization) {
+                Logger.getLogger("dr.evomodel").info("The " + LAZY_JUMPS + " option is ignored when using uniformization");
+            }
+            treeLikelihood.setUseLazyJumps(true, xo.getAttribute(THREADS, -1));
+        }
+
         boolean saveCompleteHistory = xo.getAttribute(SAVE_HISTORY, false);
         if (saveCompleteHistory) {
             Parameter allCounts = new Parameter.Default(dataType.getStateCount() * dataType.getStateCount());
@@ -222,6 +232,8 @@ public class MarkovJumpsTreeLikelihoodParser extends AncestralStateTreeLikelihoo
                     AttributeRule.newBooleanRule(USE_UNIFORMIZATION,true),
                     AttributeRule.newBooleanRule(REPORT_UNCONDITIONED_COLUMNS, true),
                     AttributeRule.newIntegerRule(NUMBER_OF_SIMULANTS,true),
+                    AttributeRule.newBooleanRule(LAZY_JUMPS, true),
+                    AttributeRule.newIntegerRule(THREADS, true),
                     AttributeRule.newBooleanRule(SAVE_HISTORY, true),
                     AttributeRule.newBooleanRule(LOG_HISTORY, true),
                     AttributeRule.newBooleanRule(COMPACT_HISTORY, true),
@@ -29,10 +29,15 @@ import dr.evolution.alignment.Alignment;
 import dr.evolution.alignment.SimpleAlignment;
 import dr.evolution.datatype.DataType;
 import dr.evolution.datatype.Nucleotides;
+import dr.evolution.io.FastaImporter;
+import dr.evolution.io.Importer;
 import dr.evolution.sequence.Sequence;
 import dr.evoxml.util.DataTypeUtils;
+import dr.util.FileHelpers;
 import dr.xml.*;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.logging.Logger;
 
 /**
@@ -43,6 +48,7 @@ import java.util.logging.Logger;
 public class AlignmentParser extends AbstractXMLObjectParser {
 
     public static final String ALIGNMENT = "alignment";
+    public static final String FILE_NAME = "fileName";
 
     public String getParserName() {
         return ALIGNMENT;
@@ -50,26 +56,35 @@ public class AlignmentParser extends AbstractXMLObjectParser {
 
     public Object parseXMLObject(XMLObject xo) throws XMLParseException {
 
-        final SimpleAlignment alignment = new SimpleAlignment();
-
         final DataType dataType = DataTypeUtils.getDataType(xo);
 
         if (dataType == null) {
             throw new XMLParseException("dataType attribute expected for alignment element");
         }
 
-        alignment.setDataType(dataType);
-
-        for (int i = 0; i < xo.getChildCount(); i++) {
+        final Alignment alignment;
+        if (xo.hasAttribute(FILE_NAME)) {
+            alignment = importFastaFile(xo, dataType);
+        } else {
+            final SimpleAlignment simpleAlignment = new SimpleAlignment();
+            simpleAlignment.setDataType(dataType);
+
+            for (int i = 0; i < xo.getChildCount(); i++) {
+
+                final Object child = xo.getChild(i);
+                if (child instanceof Sequence) {
+                    simpleAlignment.addSequence((Sequence) child);
+                } else if (child instanceof DataType) {
+                    // already dealt with
+                } else {
+                    throw new XMLParseException("Unknown child element found in alignment");
+                }
+            }
 
-            final Object child = xo.getChild(i);
-            if (child instanceof Sequence) {
-                alignment.addSequence((Sequence) child);
-            } else if (child instanceof DataType) {
-                // already dealt with
-            } else {
-                throw new XMLParseException("Unknown child element found in alignment");
+            if (simpleAlignment.getSequenceCount() == 0) {
+                throw new XMLParseException("An alignment needs either sequence elements or a " + FILE_NAME + " attribute");
             }
+            alignment = simpleAlignment;
         }
 
         final Logger logger = Logger.getLogger("dr.evoxml");
@@ -81,8 +96,30 @@ public class AlignmentParser extends AbstractXMLObjectParser {
         return alignment;
     }
 
+    /**
+     * Reads a (possibly very large) FASTA file into a compact alignment. The taxa are named by the
+     * FASTA headers.
+     */
+    private Alignment importFastaFile(XMLObject xo, DataType dataType) throws XMLParseException {
+        for (int i = 0; i < xo.getChildCount(); i++) {
+            if (xo.getChild(i) instanceof Sequence) {
+                throw new XMLParseException("An alignment read from a file cannot also have sequence elements");
+            }
+        }
+
+        final File file = FileHelpers.getFile(xo.getStringAttribute(FILE_NAME));
+        try {
+            return FastaImporter.importCompactAlignment(file, dataType);
+        } catch (IOException ioe) {
+            throw new XMLParseException("Unable to read FASTA file, " + file.getName() + ": " + ioe.getMessage());
+        } catch (Importer.ImportException ie) {
+            throw new XMLParseException("Unable to import FASTA file, " + file.getName() + ": " + ie.getMessage());
+        }
+    }
+
     public String getParserDescription() {
-        return "This element represents an alignment of molecular sequences.";
+        return "This element represents an alignment of molecular sequences, given as sequence elements or " +
+                "read from a FASTA file.";
     }
 
     public Class getReturnType() {
@@ -106,7 +143,10 @@ public class AlignmentParser extends AbstractXMLObjectParser {
                         "    <taxon idref=\"taxon3\"/>\n" +
                         "    ACG?CTAGAATCGAGCTTCGAGGATAGCATGC\n" +
                         "  </sequence>\n" +
-                        "</alignment>\n";
+                        "</alignment>\n" +
+                        "\n" +
+                        "<!-- A large alignment read from a FASTA file -->\n" +
+                        "<alignment fileName=\"sequences.fasta\" dataType=\"" + Nucleotides.DESCRIPTION + "\"/>\n";
     }
 
     public XMLSyntaxRule[] getSyntaxRules() {
@@ -121,6 +161,7 @@ public class AlignmentParser extends AbstractXMLObjectParser {
                             DataType.getRegisteredDataTypeNames(), false),
                     new ElementRule(DataType.class)
             ),
-            new ElementRule(Sequence.class, 1, Integer.MAX_VALUE)
+            AttributeRule.newStringRule(FILE_NAME, true, "A FASTA file to read the sequences from"),
+            new ElementRule(Sequence.class, 0, Integer.MAX_VALUE)
     };
 }
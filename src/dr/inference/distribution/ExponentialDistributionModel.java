@@ -31,6 +31,7 @@ import dr.inference.model.Parameter;
 import dr.inference.model.Variable;
 import dr.math.UnivariateFunction;
 import dr.math.distributions.ExponentialDistribution;
+import dr.math.distributions.QuantileTables;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
@@ -42,7 +43,7 @@ import org.w3c.dom.Element;
  * @version $Id: ExponentialDistributionModel.java,v 1.12 2005/05/24 20:25:59 rambaut Exp $
  */
 
-public class ExponentialDistributionModel extends AbstractModel implements ParametricDistributionModel {
+public class ExponentialDistributionModel extends AbstractModel implements ParametricDistributionModel, MidpointQuantiles {
 
     public static final String EXPONENTIAL_DISTRIBUTION_MODEL = "exponentialDistributionModel";
 
@@ -92,6 +93,10 @@ public class ExponentialDistributionModel extends AbstractModel implements Param
         return ExponentialDistribution.quantile(y, 1.0 / getMean()) + offset;
     }
 
+    public void getMidpointQuantiles(double[] quantiles) {
+        QuantileTables.exponentialQuantiles(getMean(), offset, quantiles);
+    }
+
     public double mean() {
         return ExponentialDistribution.mean(1.0 / getMean()) + offset;
     }
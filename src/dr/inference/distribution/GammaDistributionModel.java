@@ -31,6 +31,7 @@ import dr.inference.model.Parameter;
 import dr.inference.model.Variable;
 import dr.math.UnivariateFunction;
 import dr.math.distributions.GammaDistribution;
+import dr.math.distributions.QuantileTables;
 import org.apache.commons.math.MathException;
 import org.apache.commons.math.distribution.GammaDistributionImpl;
 import org.w3c.dom.Document;
@@ -44,7 +45,7 @@ import org.w3c.dom.Element;
  * @version $Id: GammaDistributionModel.java,v 1.6 2005/05/24 20:25:59 rambaut Exp $
  */
 
-public class GammaDistributionModel extends AbstractModel implements ParametricDistributionModel {
+public class GammaDistributionModel extends AbstractModel implements ParametricDistributionModel, MidpointQuantiles {
 
     public enum GammaParameterizationType {
         ShapeScale,
@@ -144,6 +145,10 @@ public class GammaDistributionModel extends AbstractModel implements ParametricD
         }
     }
 
+    public void getMidpointQuantiles(double[] quantiles) {
+        QuantileTables.gammaQuantiles(getShape(), getScale(), offset, quantiles);
+    }
+
     public double mean() {
         return GammaDistribution.mean(getShape(), getScale()) + offset;
     }
@@ -32,6 +32,7 @@ import dr.inference.model.Variable;
 import dr.inferencexml.distribution.LogNormalDistributionModelParser;
 import dr.math.UnivariateFunction;
 import dr.math.distributions.NormalDistribution;
+import dr.math.distributions.QuantileTables;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
@@ -42,7 +43,7 @@ import org.w3c.dom.Element;
  * @version $Id: LogNormalDistributionModel.java,v 1.8 2005/05/24 20:25:59 rambaut Exp $
  */
 
-public class LogNormalDistributionModel extends AbstractModel implements ParametricDistributionModel {
+public class LogNormalDistributionModel extends AbstractModel implements ParametricDistributionModel, MidpointQuantiles {
 
 
 
@@ -180,6 +181,10 @@ public class LogNormalDistributionModel extends AbstractModel implements Paramet
         return Math.exp(NormalDistribution.quantile(y, getM(), getStDev())) + offset;
     }
 
+    public void getMidpointQuantiles(double[] quantiles) {
+        QuantileTables.logNormalQuantiles(getM(), getStDev(), offset, quantiles);
+    }
+
     /**
      * @return the mean of the distribution
      */
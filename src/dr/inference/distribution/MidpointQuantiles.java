@@ -0,0 +1,41 @@
+/*
+ * MidpointQuantiles.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.distribution;
+
+/**
+ * A distribution that can give the quantiles at the midpoints of n equal probability categories,
+ * quantile((2i + 1) / 2n) for i = 0..n-1, in a single call. Discretized rate models use this in
+ * preference to calling quantile for each category.
+ *
+ * @see dr.math.distributions.QuantileTables
+ */
+public interface MidpointQuantiles {
+
+    /**
+     * @param quantiles an array to fill with the midpoint quantiles of quantiles.length categories
+     */
+    void getMidpointQuantiles(double[] quantiles);
+}
@@ -0,0 +1,94 @@
+/*
+ * MetricsLogger.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.loggers;
+
+import dr.inference.markovchain.ChainMetrics;
+import dr.inference.markovchain.LatencyHistogram;
+
+import java.io.PrintWriter;
+
+/**
+ * Periodically writes the latency histograms collected by ChainMetrics as tab-delimited rows
+ * (one per operator phase or likelihood component). The values are cumulative since the start of
+ * the run and times are in nanoseconds.
+ */
+public class MetricsLogger implements Logger {
+
+    public MetricsLogger(PrintWriter writer, long logEvery, boolean closeFile) {
+        this.writer = writer;
+        this.logEvery = logEvery;
+        this.closeFile = closeFile;
+    }
+
+    public void startLogging() {
+        writer.println("state\tgroup\tname\tphase\tcount\tmean\tmin\tmedian\t90%\t99%\tmax");
+        writer.flush();
+    }
+
+    public void log(long state) {
+        lastState = state;
+        if (logEvery > 0 && state % logEvery == 0) {
+            writeMetrics(state);
+        }
+    }
+
+    public void stopLogging() {
+        // always finish with the totals for the whole run
+        if (lastState != lastWrittenState) {
+            writeMetrics(lastState);
+        }
+        if (closeFile) {
+            writer.close();
+        }
+    }
+
+    private void writeMetrics(long state) {
+        lastWrittenState = state;
+        for (LatencyHistogram histogram : ChainMetrics.getHistograms()) {
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            writer.println(state + "\t" +
+                    histogram.getGroup() + "\t" +
+                    histogram.getName() + "\t" +
+                    histogram.getPhase() + "\t" +
+                    histogram.getCount() + "\t" +
+                    Math.round(histogram.getMeanNanos()) + "\t" +
+                    histogram.getMinNanos() + "\t" +
+                    histogram.getMedianNanos() + "\t" +
+                    histogram.get90thPercentileNanos() + "\t" +
+                    histogram.get99thPercentileNanos() + "\t" +
+                    histogram.getMaxNanos());
+        }
+        writer.flush();
+    }
+
+    private final PrintWriter writer;
+    private final long logEvery;
+    private final boolean closeFile;
+    private long lastState = 0;
+    private long lastWrittenState = -1;
+}
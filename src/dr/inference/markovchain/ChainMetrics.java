@@ -0,0 +1,158 @@
+/*
+ * ChainMetrics.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.markovchain;
+
+import dr.inference.model.Likelihood;
+import dr.inference.operators.MCMCOperator;
+import dr.inference.operators.OperatorSchedule;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Latency histograms for the store, operate, evaluate and restore phases of each operator and for the
+ * evaluation of each likelihood component. Recording is off unless enabled by the beast.metrics system
+ * property or a metricsLog element; when off the chain only tests for a null array. When enabled, each
+ * histogram is also registered as an MXBean under the dr.inference domain.
+ */
+public final class ChainMetrics {
+
+    public static final String METRICS_PROPERTY = "beast.metrics";
+    public static final String JMX_DOMAIN = "dr.inference";
+
+    public static final String OPERATOR = "operator";
+    public static final String LIKELIHOOD = "likelihood";
+
+    private ChainMetrics() {
+        // static methods only
+    }
+
+    /**
+     * The timers for one operator.
+     */
+    public static class OperatorMetrics {
+        OperatorMetrics(String name) {
+            store = createHistogram(OPERATOR, name, "store");
+            operate = createHistogram(OPERATOR, name, "operate");
+            evaluate = createHistogram(OPERATOR, name, "evaluate");
+            restore = createHistogram(OPERATOR, name, "restore");
+        }
+
+        public final LatencyHistogram store;
+        public final LatencyHistogram operate;
+        public final LatencyHistogram evaluate;
+        public final LatencyHistogram restore;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static synchronized void setEnabled(boolean enabled) {
+        ChainMetrics.enabled = enabled;
+    }
+
+    /**
+     * @return the timers for each operator in the schedule (in schedule order) or null if metrics are disabled
+     */
+    public static synchronized OperatorMetrics[] getOperatorMetrics(OperatorSchedule schedule) {
+        if (!enabled) {
+            return null;
+        }
+        OperatorMetrics[] metrics = new OperatorMetrics[schedule.getOperatorCount()];
+        for (int i = 0; i < metrics.length; ++i) {
+            MCMCOperator operator = schedule.getOperator(i);
+            metrics[i] = operatorMetrics.get(operator);
+            if (metrics[i] == null) {
+                metrics[i] = new OperatorMetrics(operator.getOperatorName());
+                operatorMetrics.put(operator, metrics[i]);
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @return the evaluation timer for the likelihood or null if metrics are disabled
+     */
+    public static synchronized LatencyHistogram getLikelihoodHistogram(Likelihood likelihood) {
+        if (!enabled) {
+            return null;
+        }
+        LatencyHistogram histogram = likelihoodHistograms.get(likelihood);
+        if (histogram == null) {
+            String name = likelihood.getId() != null ? likelihood.getId() : likelihood.prettyName();
+            histogram = createHistogram(LIKELIHOOD, name, "evaluate");
+            likelihoodHistograms.put(likelihood, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * @return all histograms in the order they were created
+     */
+    public static synchronized List<LatencyHistogram> getHistograms() {
+        return new ArrayList<LatencyHistogram>(histograms);
+    }
+
+    public static synchronized void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    private static synchronized LatencyHistogram createHistogram(String group, String name, String phase) {
+        LatencyHistogram histogram = new LatencyHistogram(group, name, phase);
+        histograms.add(histogram);
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            String key = group + "/" + name + "/" + phase;
+            int duplicate = registeredNames.containsKey(key) ? registeredNames.get(key) + 1 : 0;
+            registeredNames.put(key, duplicate);
+
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=LatencyHistogram" +
+                    ",group=" + group +
+                    ",name=" + ObjectName.quote(duplicate > 0 ? name + " #" + (duplicate + 1) : name) +
+                    ",phase=" + phase);
+            server.registerMBean(histogram, objectName);
+        } catch (Exception e) {
+            // JMX is a convenience - the histogram is still recorded and logged
+            Logger.getLogger("dr.inference").warning("Unable to register metrics for " + name + " with JMX: " + e.getMessage());
+        }
+
+        return histogram;
+    }
+
+    private static boolean enabled = Boolean.getBoolean(METRICS_PROPERTY);
+
+    private static final Map<MCMCOperator, OperatorMetrics> operatorMetrics = new IdentityHashMap<MCMCOperator, OperatorMetrics>();
+    private static final Map<Likelihood, LatencyHistogram> likelihoodHistograms = new IdentityHashMap<Likelihood, LatencyHistogram>();
+    private static final List<LatencyHistogram> histograms = new ArrayList<LatencyHistogram>();
+    private static final Map<String, Integer> registeredNames = new HashMap<String, Integer>();
+}
@@ -0,0 +1,166 @@
+/*
+ * LatencyHistogram.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.markovchain;
+
+/**
+ * A histogram of durations in nanoseconds. Each power of two is split into 8 buckets so quantiles are
+ * within 12.5% of the recorded values while recording is constant time and allocation free.
+ */
+public class LatencyHistogram implements LatencyHistogramMXBean {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    public LatencyHistogram(String group, String name, String phase) {
+        this.group = group;
+        this.name = name;
+        this.phase = phase;
+        reset();
+    }
+
+    /**
+     * @param nanos a duration from System.nanoTime() differences
+     */
+    public synchronized void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts[bucketIndex(nanos)]++;
+        count++;
+        total += nanos;
+        if (nanos < min) {
+            min = nanos;
+        }
+        if (nanos > max) {
+            max = nanos;
+        }
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] = 0;
+        }
+        count = 0;
+        total = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    /**
+     * @param quantile in [0, 1]
+     * @return the upper bound of the bucket containing the quantile (clamped to the observed maximum)
+     */
+    public synchronized long getQuantileNanos(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(quantile * count);
+        if (target < 1) {
+            target = 1;
+        }
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            cumulative += counts[i];
+            if (cumulative >= target) {
+                return Math.max(Math.min(bucketUpperBound(i), max), min);
+            }
+        }
+        return max;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int group = index / SUB_BUCKETS;
+        int subBucket = index % SUB_BUCKETS;
+        long lower = ((long) (SUB_BUCKETS + subBucket)) << (group - 1);
+        return lower + (1L << (group - 1)) - 1;
+    }
+
+    // **************************************************************
+    // LatencyHistogramMXBean IMPLEMENTATION
+    // **************************************************************
+
+    public String getGroup() {
+        return group;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized double getMeanNanos() {
+        return count > 0 ? (double) total / count : 0.0;
+    }
+
+    public synchronized long getMinNanos() {
+        return count > 0 ? min : 0;
+    }
+
+    public synchronized long getMaxNanos() {
+        return max;
+    }
+
+    public long getMedianNanos() {
+        return getQuantileNanos(0.5);
+    }
+
+    public long get90thPercentileNanos() {
+        return getQuantileNanos(0.9);
+    }
+
+    public long get99thPercentileNanos() {
+        return getQuantileNanos(0.99);
+    }
+
+    private final String group;
+    private final String name;
+    private final String phase;
+
+    private final long[] counts = new long[64 * SUB_BUCKETS];
+    private long count;
+    private long total;
+    private long min;
+    private long max;
+}
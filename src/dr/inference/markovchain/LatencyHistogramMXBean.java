@@ -0,0 +1,53 @@
+/*
+ * LatencyHistogramMXBean.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.markovchain;
+
+/**
+ * The JMX view of a LatencyHistogram. Times are in nanoseconds.
+ */
+public interface LatencyHistogramMXBean {
+    String getGroup();
+
+    String getName();
+
+    String getPhase();
+
+    long getCount();
+
+    double getMeanNanos();
+
+    long getMinNanos();
+
+    long getMaxNanos();
+
+    long getMedianNanos();
+
+    long get90thPercentileNanos();
+
+    long get99thPercentileNanos();
+
+    void reset();
+}
@@ -127,6 +127,9 @@ public final class MarkovChain implements Serializable {
 
         final Model currentModel = likelihood.getModel();
 
+        // null unless metrics are enabled
+        final ChainMetrics.OperatorMetrics[] operatorMetrics = ChainMetrics.getOperatorMetrics(schedule);
+
         if (currentState == 0) {
             initialScore = currentScore;
             bestScore = currentScore;
@@ -193,6 +196,7 @@ public final class MarkovChain implements Serializable {
             // Get the operator
             final int op = schedule.getNextOperatorIndex();
             final MCMCOperator mcmcOperator = schedule.getOperator(op);
+            final ChainMetrics.OperatorMetrics metrics = operatorMetrics != null ? operatorMetrics[op] : null;
 
             double oldScore = currentScore;
             if (usingFullEvaluation) {
@@ -201,6 +205,7 @@ public final class MarkovChain implements Serializable {
             }
 
             // assert Profiler.startProfile("Store");
+            long metricsTime = metrics != null ? System.nanoTime() : 0;
 
             // The current model is stored here in case the proposal fails
             if (currentModel != null) {
@@ -208,6 +213,9 @@ public final class MarkovChain implements Serializable {
             }
 
             // assert Profiler.stopProfile("Store");
+            if (metrics != null) {
+                metricsTime = recordMetric(metrics.store, metricsTime);
+            }
 
             boolean operatorSucceeded = true;
             double hastingsRatio = 1.0;
@@ -233,6 +241,9 @@ public final class MarkovChain implements Serializable {
             } catch (OperatorFailedException e) {
                 operatorSucceeded = false;
             }
+            if (metrics != null) {
+                recordMetric(metrics.operate, metricsTime);
+            }
 
             double score = Double.NaN;
             double deviation = Double.NaN;
@@ -251,10 +262,17 @@ public final class MarkovChain implements Serializable {
                 if (PROFILE) {
                     elapsedTime = System.currentTimeMillis();
                 }
+                if (metrics != null) {
+                    metricsTime = System.nanoTime();
+                }
 
                 // The new model is evaluated
                 score = evaluate(likelihood, prior);
 
+                if (metrics != null) {
+                    recordMetric(metrics.evaluate, metricsTime);
+                }
+
                 if (PROFILE) {
                     long duration = System.currentTimeMillis() - elapsedTime;
                     if (DEBUG) {
@@ -346,9 +364,16 @@ public final class MarkovChain implements Serializable {
                 mcmcOperator.reject();
 
                 // assert Profiler.startProfile("Restore");
+                if (metrics != null) {
+                    metricsTime = System.nanoTime();
+                }
 
                 currentModel.restoreModelState();
 
+                if (metrics != null) {
+                    recordMetric(metrics.restore, metricsTime);
+                }
+
                 if (usingFullEvaluation) {
                     // This is a test that the state is correctly restored. The
                     // restored state is fully evaluated and the likelihood compared with
@@ -410,6 +435,12 @@ public final class MarkovChain implements Serializable {
         return currentLength;
     }
 
+    private static long recordMetric(LatencyHistogram histogram, long startTime) {
+        long time = System.nanoTime();
+        histogram.record(time - startTime);
+        return time;
+    }
+
     public void terminateChain() {
         fireFinished(currentLength);
 
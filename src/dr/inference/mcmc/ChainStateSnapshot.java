@@ -0,0 +1,182 @@
+/*
+ * ChainStateSnapshot.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.mcmc;
+
+import dr.evolution.tree.SimpleTree;
+import dr.evolution.tree.Tree;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
+
+import java.util.*;
+
+/**
+ * A copy of the values of all parameters and trees below a model. The snapshot can be applied
+ * to a structurally identical model (i.e., one parsed from the same XML) so that independent
+ * copies of a model can be started from each other's state.
+ */
+class ChainStateSnapshot {
+
+    ChainStateSnapshot(Model model) {
+        for (Object item : collect(model)) {
+            if (item instanceof TreeModel) {
+                TreeModel treeModel = (TreeModel) item;
+                trees.add(new SimpleTree(treeModel));
+                nodeValues.add(getNodeValues(treeModel));
+            } else {
+                values.add(((Parameter) item).getParameterValues());
+            }
+        }
+    }
+
+    /**
+     * Sets the state of the given model to that held by this snapshot.
+     * @param model a model with the same structure as the one the snapshot was taken from
+     */
+    void apply(Model model) {
+        List<Object> items = collect(model);
+
+        if (items.size() != values.size() + trees.size()) {
+            throw new IllegalArgumentException("Model structure does not match the snapshot");
+        }
+
+        int v = 0;
+        int t = 0;
+        for (Object item : items) {
+            if (item instanceof TreeModel) {
+                TreeModel treeModel = (TreeModel) item;
+                treeModel.beginTreeEdit();
+                treeModel.adoptTreeStructure(trees.get(t));
+                setNodeValues(treeModel, nodeValues.get(t));
+                treeModel.endTreeEdit();
+                t++;
+            } else {
+                Parameter parameter = (Parameter) item;
+                double[] value = values.get(v);
+                for (int i = 0; i < value.length; ++i) {
+                    parameter.setParameterValueQuietly(i, value[i]);
+                }
+                parameter.fireParameterChangedEvent();
+                v++;
+            }
+        }
+    }
+
+    /**
+     * adoptTreeStructure only copies heights and topology so the rates and traits of each node
+     * (which keep their numbers between copies) are held separately.
+     * @return the rate followed by the traits (in name order) of each node or null if there are none
+     */
+    private static double[][] getNodeValues(TreeModel treeModel) {
+        if (!treeModel.hasRates() && !treeModel.hasNodeTraits()) {
+            return null;
+        }
+
+        double[][] values = new double[treeModel.getNodeCount()][];
+        for (int i = 0; i < values.length; ++i) {
+            List<Parameter> parameters = getNodeParameters((TreeModel.Node) treeModel.getNode(i));
+            int length = 0;
+            for (Parameter parameter : parameters) {
+                length += parameter.getDimension();
+            }
+            values[i] = new double[length];
+            int k = 0;
+            for (Parameter parameter : parameters) {
+                for (int j = 0; j < parameter.getDimension(); ++j) {
+                    values[i][k] = parameter.getParameterValue(j);
+                    k++;
+                }
+            }
+        }
+        return values;
+    }
+
+    private static void setNodeValues(TreeModel treeModel, double[][] values) {
+        if (values == null) {
+            return;
+        }
+
+        for (int i = 0; i < values.length; ++i) {
+            int k = 0;
+            for (Parameter parameter : getNodeParameters((TreeModel.Node) treeModel.getNode(i))) {
+                for (int j = 0; j < parameter.getDimension(); ++j) {
+                    parameter.setParameterValue(j, values[i][k]);
+                    k++;
+                }
+            }
+        }
+    }
+
+    private static List<Parameter> getNodeParameters(TreeModel.Node node) {
+        List<Parameter> parameters = new ArrayList<Parameter>();
+        if (node.rateParameter != null) {
+            parameters.add(node.rateParameter);
+        }
+        for (Parameter trait : new TreeMap<String, Parameter>(node.getTraitMap()).values()) {
+            if (trait != null) {
+                parameters.add(trait);
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * Collects the trees and (non-tree) parameters below a model in a deterministic depth-first order.
+     */
+    private static List<Object> collect(Model model) {
+        List<Object> items = new ArrayList<Object>();
+        collect(model, items, Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()));
+        return items;
+    }
+
+    private static void collect(Model model, List<Object> items, Set<Object> visited) {
+        if (!visited.add(model)) {
+            return;
+        }
+
+        if (model instanceof TreeModel) {
+            // node heights, rates and traits are restored with the tree
+            items.add(model);
+            return;
+        }
+
+        for (int i = 0; i < model.getVariableCount(); ++i) {
+            Variable variable = model.getVariable(i);
+            if (variable instanceof Parameter && visited.add(variable)) {
+                items.add(variable);
+            }
+        }
+
+        for (int i = 0; i < model.getModelCount(); ++i) {
+            collect(model.getModel(i), items, visited);
+        }
+    }
+
+    private final List<double[]> values = new ArrayList<double[]>();
+    private final List<Tree> trees = new ArrayList<Tree>();
+    private final List<double[][]> nodeValues = new ArrayList<double[][]>();
+}
@@ -25,6 +25,7 @@
 
 package dr.inference.mcmc;
 
+import dr.inference.loggers.LogFormatter;
 import dr.inference.loggers.Logger;
 import dr.inference.loggers.MCLogger;
 import dr.inference.markovchain.MarkovChain;
@@ -33,6 +34,7 @@ import dr.inference.model.Model;
 import dr.inference.model.PathLikelihood;
 import dr.inference.operators.*;
 import dr.inference.prior.Prior;
+import dr.math.MathUtils;
 import dr.util.Author;
 import dr.util.Citable;
 import dr.util.Citation;
@@ -44,6 +46,7 @@ import org.apache.commons.math.distribution.BetaDistributionImpl;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.*;
 
 /**
  * @author Andrew Rambaut
@@ -122,6 +125,203 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
         }
     }
 
+    /**
+     * Runs the power-posterior steps concurrently on independent copies of the model. The steps are
+     * started in order and each is warm-started from the state of the previous step at the end of
+     * its burnin, so up to threadCount steps are sampled at the same time. The logged samples are
+     * buffered per step and written out by this estimator's loggers in step order.
+     * <p>
+     * Step i always runs on copy i % threadCount and draws its random numbers from its own generator,
+     * seeded from the master seed and i, so a seeded run is reproducible for a given number of threads.
+     * It does not reproduce the samples of a sequential run with the same seed.
+     */
+    public void integrateConcurrently(Integrator scheme) {
+        setDefaultBurnin();
+
+        final List<Double> pathParameters = new ArrayList<Double>();
+        scheme.init();
+        for (double p = scheme.nextPathParameter(); p >= 0; p = scheme.nextPathParameter()) {
+            pathParameters.add(p);
+        }
+        final int stepCount = pathParameters.size();
+        final int totalSteps = scheme.pathSteps;
+
+        final List<MarginalLikelihoodEstimator> workers = new ArrayList<MarginalLikelihoodEstimator>();
+        workers.add(this);
+        for (int i = 1; i < threadCount; ++i) {
+            MarginalLikelihoodEstimator worker;
+            try {
+                worker = workerFactory.createWorker(this);
+            } catch (Exception e) {
+                throw new RuntimeException("Unable to create a copy of the model for worker " + i + ": " + e.getMessage());
+            }
+            worker.setDefaultBurnin();
+            worker.mc.addMarkovChainListener(worker.chainListener);
+            workers.add(worker);
+        }
+
+        // all workers (including this one) buffer their samples until a step is complete
+        List<List<LogFormatter>> formatters = new ArrayList<List<LogFormatter>>();
+        for (MCLogger logger : loggers) {
+            formatters.add(logger.getFormatters());
+        }
+        for (MarginalLikelihoodEstimator worker : workers) {
+            for (MCLogger logger : worker.loggers) {
+                List<LogFormatter> buffer = new ArrayList<LogFormatter>();
+                buffer.add(new BufferedLogFormatter());
+                logger.setFormatters(buffer);
+            }
+        }
+
+        final ChainStateSnapshot[] warmStarts = new ChainStateSnapshot[stepCount + 1];
+        final CountDownLatch[] warmStartReady = new CountDownLatch[stepCount + 1];
+        for (int i = 0; i <= stepCount; ++i) {
+            warmStartReady[i] = new CountDownLatch(1);
+        }
+        warmStarts[0] = new ChainStateSnapshot(pathLikelihood.getModel());
+        warmStartReady[0].countDown();
+
+        final long seed = MathUtils.getSeed();
+
+        // one thread per copy, each running its steps in order
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        List<Future<List<List<String[]>>>> results = new ArrayList<Future<List<List<String[]>>>>();
+        final CountDownLatch[] previousStepDone = new CountDownLatch[stepCount];
+
+        for (int i = 0; i < stepCount; ++i) {
+            final int step = i;
+            final MarginalLikelihoodEstimator worker = workers.get(step % threadCount);
+            previousStepDone[step] = new CountDownLatch(1);
+            final CountDownLatch workerReady = (step >= threadCount ? previousStepDone[step - threadCount] : null);
+            results.add(pool.submit(new Callable<List<List<String[]>>>() {
+                public List<List<String[]>> call() throws Exception {
+                    try {
+                        if (workerReady != null) {
+                            workerReady.await();
+                        }
+                        warmStartReady[step].await();
+                        if (warmStarts[step] == null) {
+                            throw new RuntimeException("Path step " + step + " failed so the next step cannot be started");
+                        }
+                        MathUtils.setThreadSeed(getStepSeed(seed, step));
+                        return worker.runStep(pathParameters.get(step), step, totalSteps,
+                                warmStarts, warmStartReady);
+                    } finally {
+                        MathUtils.clearThreadSeed();
+                        // make sure that the next step is not left waiting
+                        warmStartReady[step + 1].countDown();
+                        previousStepDone[step].countDown();
+                    }
+                }
+            }));
+        }
+
+        try {
+            for (Future<List<List<String[]>>> result : results) {
+                List<List<String[]>> samples = result.get();
+                for (int i = 0; i < loggers.size(); ++i) {
+                    final MCLogger logger = loggers.get(i);
+                    for (String[] values : samples.get(i)) {
+                        for (LogFormatter formatter : formatters.get(i)) {
+                            formatter.logValues(values);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Power posterior step failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+            for (int i = 0; i < loggers.size(); ++i) {
+                loggers.get(i).setFormatters(formatters.get(i));
+            }
+        }
+    }
+
+    /**
+     * @return a non-zero seed for the generator of the given step
+     */
+    private static long getStepSeed(long seed, int step) {
+        long stepSeed = (seed * 1000003L + step + 1) & 0x7fffffffL;
+        return (stepSeed == 0 ? 1 : stepSeed);
+    }
+
+    private List<List<String[]>> runStep(double pathParameter, int step, int totalSteps,
+                                         ChainStateSnapshot[] warmStarts, CountDownLatch[] warmStartReady) {
+        warmStarts[step].apply(pathLikelihood.getModel());
+
+        pathLikelihood.setPathParameter(pathParameter);
+        reportIteration(pathParameter, chainLength, burnin, totalSteps, step + 1);
+
+        for (int i = 0; i < schedule.getOperatorCount(); ++i) {
+            MCMCOperator operator = schedule.getOperator(i);
+            if (operator instanceof PathDependentOperator) {
+                ((PathDependentOperator)operator).setPathParameter(pathParameter);
+            }
+        }
+
+        mc.setCurrentLength(0);
+        mc.runChain(burnin, false);
+
+        warmStarts[step + 1] = new ChainStateSnapshot(pathLikelihood.getModel());
+        warmStartReady[step + 1].countDown();
+
+        // number the states as the sequential integrator would
+        mc.setCurrentLength(burnin + step * chainLength);
+        mc.runChain(chainLength, false);
+
+        if (SHOW_OPERATOR_ANALYSIS) {
+            synchronized (System.out) {
+                (new OperatorAnalysisPrinter(schedule)).showOperatorAnalysis(System.out);
+            }
+        }
+        ((CombinedOperatorSchedule) schedule).reset();
+
+        List<List<String[]>> samples = new ArrayList<List<String[]>>();
+        for (MCLogger logger : loggers) {
+            samples.add(((BufferedLogFormatter) logger.getFormatters().get(0)).drain());
+        }
+        return samples;
+    }
+
+    /**
+     * Holds the logged values of a worker until the step is complete.
+     */
+    private static class BufferedLogFormatter implements LogFormatter {
+
+        public void startLogging(String title) { }
+
+        public void logHeading(String heading) { }
+
+        public void logLine(String line) { }
+
+        public void logLabels(String[] labels) { }
+
+        public void logValues(String[] values) {
+            buffer.add(values);
+        }
+
+        public void stopLogging() { }
+
+        List<String[]> drain() {
+            List<String[]> values = buffer;
+            buffer = new ArrayList<String[]>();
+            return values;
+        }
+
+        private List<String[]> buffer = new ArrayList<String[]>();
+    }
+
+    private void integrate(Integrator scheme, boolean concurrent) {
+        if (concurrent) {
+            integrateConcurrently(scheme);
+        } else {
+            integrate(scheme);
+        }
+    }
+
     public abstract class Integrator {
         protected int step;
         protected int pathSteps;
@@ -320,6 +520,13 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
         }
         mc.addMarkovChainListener(chainListener);
 
+        boolean concurrent = threadCount > 1;
+        if (concurrent && workerFactory == null) {
+            java.util.logging.Logger.getLogger("dr.inference").warning("No copies of the model are available for concurrent " +
+                    "path sampling; running the path steps sequentially.");
+            concurrent = false;
+        }
+
         /*switch (scheme) {
             case LINEAR:
                 linearIntegration();
@@ -339,25 +546,25 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
 
         switch (scheme) {
             case FIXED:
-                integrate(new FixedThetaRun(fixedRunValues));
+                integrate(new FixedThetaRun(fixedRunValues), concurrent);
                 break;
             case LINEAR:
-                integrate(new LinearIntegrator(pathSteps));
+                integrate(new LinearIntegrator(pathSteps), concurrent);
                 break;
             case GEOMETRIC:
-                integrate(new GeometricIntegrator(pathSteps));
+                integrate(new GeometricIntegrator(pathSteps), concurrent);
                 break;
             case ONE_SIDED_BETA:
-                integrate(new BetaIntegrator(1.0, betaFactor, pathSteps));
+                integrate(new BetaIntegrator(1.0, betaFactor, pathSteps), concurrent);
                 break;
             case BETA:
-                integrate(new BetaIntegrator(alphaFactor, betaFactor, pathSteps));
+                integrate(new BetaIntegrator(alphaFactor, betaFactor, pathSteps), concurrent);
                 break;
             case BETA_QUANTILE:
-                integrate(new BetaQuantileIntegrator(alphaFactor, pathSteps));
+                integrate(new BetaQuantileIntegrator(alphaFactor, pathSteps), concurrent);
                 break;
             case SIGMOID:
-                integrate(new SigmoidIntegrator(alphaFactor, pathSteps));
+                integrate(new SigmoidIntegrator(alphaFactor, pathSteps), concurrent);
                 break;
             default:
                 throw new RuntimeException("Illegal path scheme");
@@ -479,6 +686,30 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
         this.spawnable = spawnable;
     }
 
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Creates independent copies of an estimator (with their own models, operators and loggers that
+     * do not write to files) for concurrent path sampling.
+     */
+    public interface WorkerFactory {
+        MarginalLikelihoodEstimator createWorker(MarginalLikelihoodEstimator estimator) throws Exception;
+    }
+
+    public PathLikelihood getPathLikelihood() {
+        return pathLikelihood;
+    }
+
+    public static void setWorkerFactory(WorkerFactory factory) {
+        workerFactory = factory;
+    }
+
     public void setAlphaFactor(double alpha) {
         alphaFactor = alpha;
     }
@@ -595,6 +826,10 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
             if (!xo.getAttribute(SPAWN, true))
                 mle.setSpawnable(false);
 
+            if (xo.hasAttribute(THREADS)) {
+                mle.setThreadCount(xo.getIntegerAttribute(THREADS));
+            }
+
             if (xo.hasAttribute(ALPHA)) {
                 mle.setAlphaFactor(xo.getAttribute(ALPHA, 0.5));
             }
@@ -616,7 +851,8 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
             java.util.logging.Logger.getLogger("dr.inference").info("\nCreating the Marginal Likelihood Estimator chain:" +
                     "\n  chainLength=" + chainLength +
                     "\n  pathSteps=" + pathSteps +
-                    "\n  pathScheme=" + scheme.getText() + alphaBetaText); //+
+                    "\n  pathScheme=" + scheme.getText() + alphaBetaText +
+                    (mle.getThreadCount() > 1 ? "\n  threads=" + mle.getThreadCount() : "")); //+
                     //"\n  If you use these results, please cite:" +
                     //"\n    Guy Baele, Philippe Lemey, Trevor Bedford, Andrew Rambaut, Marc A. Suchard, and Alexander V. Alekseyenko." +
                     //"\n    2012. Improving the accuracy of demographic and molecular clock model comparison while accommodating " +
@@ -656,6 +892,7 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
                 AttributeRule.newDoubleArrayRule(FIXED_VALUE, true),
                 AttributeRule.newDoubleRule(ALPHA, true),
                 AttributeRule.newDoubleRule(BETA, true),
+                AttributeRule.newIntegerRule(THREADS, true),
                 new ElementRule(MCMC,
                         new XMLSyntaxRule[]{new ElementRule(MCMC.class, 1, Integer.MAX_VALUE)}, false),
                 //new ElementRule(MCMC.class),
@@ -724,6 +961,7 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
     private double alphaFactor = 0.5;
     private double betaFactor = 0.5;
     private double[] fixedRunValues;
+    private int threadCount = 1;
     private final double pathDelta;
     private double pathParameter;
 
@@ -746,6 +984,9 @@ public class MarginalLikelihoodEstimator implements Runnable, Identifiable, Cita
     public static final String BETA = "beta";
     public static final String PRERUN = "prerun";
     public static final String PRINT_OPERATOR_ANALYSIS = "printOperatorAnalysis";
+    public static final String THREADS = "threads";
     
     private static boolean SHOW_OPERATOR_ANALYSIS = false;
+
+    private static WorkerFactory workerFactory = null;
 }
\ No newline at end of file
@@ -25,6 +25,8 @@
 
 package dr.inference.model;
 
+import dr.inference.markovchain.ChainMetrics;
+import dr.inference.markovchain.LatencyHistogram;
 import dr.util.NumberFormatter;
 import dr.xml.Reportable;
 
@@ -141,7 +143,7 @@ public class CompoundLikelihood implements Likelihood, Reportable {
                     lateLikelihoods.add(likelihood);
 
                     if (addToPool) {
-                        likelihoodCallers.add(new LikelihoodCaller(likelihood, index));
+                        likelihoodCallers.add(new LikelihoodCaller(likelihood, index, lateLikelihoods.size() - 1));
                     }
                 }
 
@@ -191,7 +193,11 @@ public class CompoundLikelihood implements Likelihood, Reportable {
 
     public double getLogLikelihood() {
 
-        double logLikelihood = evaluateLikelihoods(earlyLikelihoods);
+        if (EVALUATION_TIMERS && earlyHistograms == null && ChainMetrics.isEnabled()) {
+            resolveHistograms();
+        }
+
+        double logLikelihood = evaluateLikelihoods(earlyLikelihoods, earlyHistograms);
 
         if( logLikelihood == Double.NEGATIVE_INFINITY ) {
             return Double.NEGATIVE_INFINITY;
@@ -199,7 +205,7 @@ public class CompoundLikelihood implements Likelihood, Reportable {
 
         if (pool == null) {
             // Single threaded
-            logLikelihood += evaluateLikelihoods(lateLikelihoods);
+            logLikelihood += evaluateLikelihoods(lateLikelihoods, lateHistograms);
         } else {
 
             try {
@@ -229,7 +235,32 @@ public class CompoundLikelihood implements Likelihood, Reportable {
         return logLikelihood;
     }
 
-    private double evaluateLikelihoods(ArrayList<Likelihood> likelihoods) {
+    /**
+     * Looks up the evaluation histogram of each likelihood once, so that recording does not take the
+     * ChainMetrics lock on every evaluation. The arrays are indexed like the early and late likelihood lists.
+     */
+    private void resolveHistograms() {
+        LatencyHistogram[] early = new LatencyHistogram[earlyLikelihoods.size()];
+        for (int i = 0; i < early.length; i++) {
+            early[i] = ChainMetrics.getLikelihoodHistogram(earlyLikelihoods.get(i));
+            if (early[i] == null) {
+                // metrics have been disabled since
+                return;
+            }
+        }
+        LatencyHistogram[] late = new LatencyHistogram[lateLikelihoods.size()];
+        for (int i = 0; i < late.length; i++) {
+            late[i] = ChainMetrics.getLikelihoodHistogram(lateLikelihoods.get(i));
+            if (late[i] == null) {
+                // metrics have been disabled since
+                return;
+            }
+        }
+        lateHistograms = late;
+        earlyHistograms = early;
+    }
+
+    private double evaluateLikelihoods(ArrayList<Likelihood> likelihoods, LatencyHistogram[] histograms) {
         double logLikelihood = 0.0;
         int i = 0;
         for (Likelihood likelihood : likelihoods) {
@@ -237,8 +268,12 @@ public class CompoundLikelihood implements Likelihood, Reportable {
                 // this code is only compiled if EVALUATION_TIMERS is true
                 long time = System.nanoTime();
                 double l = likelihood.getLogLikelihood();
-                evaluationTimes[i] += System.nanoTime() - time;
+                long duration = System.nanoTime() - time;
+                evaluationTimes[i] += duration;
                 evaluationCounts[i] ++;
+                if (histograms != null && ChainMetrics.isEnabled()) {
+                    histograms[i].record(duration);
+                }
 
                 if( l == Double.NEGATIVE_INFINITY )
                     return Double.NEGATIVE_INFINITY;
@@ -486,11 +521,16 @@ public class CompoundLikelihood implements Likelihood, Reportable {
 
     private final List<Callable<Double>> likelihoodCallers = new ArrayList<Callable<Double>>();
 
+    // the evaluation histograms, resolved on the first evaluation after metrics are enabled
+    private LatencyHistogram[] earlyHistograms = null;
+    private LatencyHistogram[] lateHistograms = null;
+
     class LikelihoodCaller implements Callable<Double> {
 
-        public LikelihoodCaller(Likelihood likelihood, int index) {
+        public LikelihoodCaller(Likelihood likelihood, int index, int lateIndex) {
             this.likelihood = likelihood;
             this.index = index;
+            this.lateIndex = lateIndex;
         }
 
         public Double call() throws Exception {
@@ -500,8 +540,12 @@ public class CompoundLikelihood implements Likelihood, Reportable {
             if (EVALUATION_TIMERS) {
                 long time = System.nanoTime();
                 double logL = likelihood.getLogLikelihood();
-                evaluationTimes[index] += System.nanoTime() - time;
+                long duration = System.nanoTime() - time;
+                evaluationTimes[index] += duration;
                 evaluationCounts[index] ++;
+                if (lateHistograms != null && ChainMetrics.isEnabled()) {
+                    lateHistograms[lateIndex].record(duration);
+                }
                 return logL;
             }
             return likelihood.getLogLikelihood();
@@ -509,6 +553,7 @@ public class CompoundLikelihood implements Likelihood, Reportable {
 
         private final Likelihood likelihood;
         private final int index;
+        private final int lateIndex;
     }
 
     public static final boolean DEBUG_PARALLEL_EVALUATION = false;
@@ -0,0 +1,95 @@
+/*
+ * MDSGradient.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.multidimensionalscaling;
+
+import dr.math.distributions.NormalDistribution;
+
+/**
+ * MDSGradient - the gradient of the MDS log likelihood with respect to the locations, shared by the Java cores.
+ */
+
+final class MDSGradient {
+
+    private MDSGradient() {
+        // static methods only
+    }
+
+    /**
+     * Computes the gradient of the log likelihood with respect to the locations start (inclusive) to end (exclusive).
+     *
+     * @param gradient receives the gradient (location-major order); only the rows start to end are written
+     * @param locations the locations (location-major order)
+     * @param observations the pairwise observations (row-major order)
+     */
+    static void computeGradient(double[] gradient, double[] locations, double[] observations,
+                                int locationCount, int embeddingDimension,
+                                double precision, boolean isLeftTruncated, int start, int end) {
+        final double oneOverSd = Math.sqrt(precision);
+
+        for (int i = start; i < end; ++i) {
+            final int iOffset = i * embeddingDimension;
+            for (int k = 0; k < embeddingDimension; ++k) {
+                gradient[iOffset + k] = 0.0;
+            }
+
+            for (int j = 0; j < locationCount; ++j) {
+                if (i == j) {
+                    continue;
+                }
+
+                final int jOffset = j * embeddingDimension;
+                double sum = 0.0;
+                for (int k = 0; k < embeddingDimension; ++k) {
+                    double difference = locations[iOffset + k] - locations[jOffset + k];
+                    sum += difference * difference;
+                }
+                double distance = Math.sqrt(sum);
+                if (distance == 0.0) {
+                    continue; // gradient is not defined at coincident locations
+                }
+
+                double residual = distance - observations[i * locationCount + j];
+                double dLogLikelihoodDDistance = -precision * residual;
+                if (isLeftTruncated) {
+                    dLogLikelihoodDDistance -= oneOverSd * inverseMillsRatio(distance * oneOverSd);
+                }
+
+                final double factor = dLogLikelihoodDDistance / distance;
+                for (int k = 0; k < embeddingDimension; ++k) {
+                    gradient[iOffset + k] += factor * (locations[iOffset + k] - locations[jOffset + k]);
+                }
+            }
+        }
+    }
+
+    private static double inverseMillsRatio(double x) {
+        // pdf(x) / cdf(x) computed on the log scale for stability in the lower tail
+        double logPdf = -0.5 * x * x - HALF_LOG_TWO_PI;
+        return Math.exp(logPdf - NormalDistribution.standardCDF(x, true));
+    }
+
+    private static final double HALF_LOG_TWO_PI = 0.5 * Math.log(2 * Math.PI);
+}
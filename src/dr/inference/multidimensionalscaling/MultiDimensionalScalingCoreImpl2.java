@@ -41,7 +41,7 @@ import dr.math.distributions.NormalDistribution;
  * $LastChangedRevision$
  */
 
-public class MultiDimensionalScalingCoreImpl2 implements MultiDimensionalScalingCore {
+public class MultiDimensionalScalingCoreImpl2 implements MultiDimensionalScalingCore, MultiDimensionalScalingGradient {
 
     @Override
     public void initialize(int embeddingDimension, int locationCount, long flags) {
@@ -164,6 +164,19 @@ public class MultiDimensionalScalingCoreImpl2 implements MultiDimensionalScaling
         return logLikelihood;
     }
 
+    @Override
+    public double[] getGradient() {
+        double[] flatLocations = new double[locationCount * embeddingDimension];
+        for (int i = 0; i < locationCount; i++) {
+            System.arraycopy(locations[i], 0, flatLocations, i * embeddingDimension, embeddingDimension);
+        }
+
+        double[] gradient = new double[locationCount * embeddingDimension];
+        MDSGradient.computeGradient(gradient, flatLocations, getPairwiseData(), locationCount, embeddingDimension,
+                precision, isLeftTruncated, 0, locationCount);
+        return gradient;
+    }
+
     @Override
     public void storeState() {
         // Handle residuals
@@ -321,6 +334,7 @@ public class MultiDimensionalScalingCoreImpl2 implements MultiDimensionalScaling
     private double sumOfIncrements;
     private double storedSumOfIncrements;
 
+
     private static boolean REPORT_ROUNDOFF = false;
 
 }
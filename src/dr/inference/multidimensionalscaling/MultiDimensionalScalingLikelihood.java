@@ -199,7 +199,12 @@ public class MultiDimensionalScalingLikelihood extends AbstractModelLikelihood i
         }
 
         MultiDimensionalScalingCore core;
-        if (computeMode > 0) {
+        if (computeMode > 0 && (computeMode & MultiDimensionalScalingCore.USE_NATIVE_MDS) == 0
+                && (computeMode & MultiDimensionalScalingCore.MULTI_CORE) != 0) {
+            System.err.println("Using a multi-threaded Java MDS core with flag: " + computeMode);
+            core = new MultiThreadedMDSImpl();
+            flags = computeMode;
+        } else if (computeMode > 0) {
             System.err.println("Attempting to use a native MDS core with flag: " + computeMode + "; may the force be with you ....");
             core = new MassivelyParallelMDSImpl();
             flags = computeMode;
@@ -353,6 +358,18 @@ public class MultiDimensionalScalingLikelihood extends AbstractModelLikelihood i
         return this;
     }
 
+    /**
+     * @return the gradient of the log likelihood with respect to the locations parameter, in the
+     * order given by locationsParameter.getParameterValues()
+     */
+    public double[] getGradientLogDensity() {
+        if (!(mdsCore instanceof MultiDimensionalScalingGradient)) {
+            throw new UnsupportedOperationException("The " + mdsCore.getClass().getSimpleName() +
+                    " core does not compute gradients; use a Java MDS core");
+        }
+        return ((MultiDimensionalScalingGradient) mdsCore).getGradient();
+    }
+
     public double getLogLikelihood() {
         if (!likelihoodKnown) {
             logLikelihood = mdsCore.calculateLogLikelihood();
@@ -0,0 +1,413 @@
+/*
+ * MultiThreadedMDSImpl.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.multidimensionalscaling;
+
+import dr.math.distributions.NormalDistribution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * MultiThreadedMDSImpl - a pure Java core that splits the pairwise computations into blocks of rows
+ * and evaluates them on a fixed thread pool. Unlike MultiDimensionalScalingCoreImpl2 it also provides
+ * the gradient of the log likelihood with respect to all locations.
+ *
+ * @version $Id$
+ */
+
+public class MultiThreadedMDSImpl implements MultiDimensionalScalingCore, MultiDimensionalScalingGradient {
+
+    public static final String THREAD_COUNT_PROPERTY = "mds.thread.count";
+
+    private static final int MIN_ROWS_PER_BLOCK = 16;
+
+    public MultiThreadedMDSImpl() {
+        this(getDefaultThreadCount());
+    }
+
+    public MultiThreadedMDSImpl(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    private static int getDefaultThreadCount() {
+        String r = System.getProperty(THREAD_COUNT_PROPERTY);
+        if (r != null) {
+            return Integer.parseInt(r.trim());
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    @Override
+    public void initialize(int embeddingDimension, int locationCount, long flags) {
+        this.embeddingDimension = embeddingDimension;
+        this.locationCount = locationCount;
+        this.observationCount = (locationCount * (locationCount - 1)) / 2;
+
+        isLeftTruncated = (flags & MultiDimensionalScalingCore.LEFT_TRUNCATION) != 0;
+
+        observations = new double[locationCount * locationCount];
+        increments = new double[locationCount * locationCount];
+        storedIncrements = new double[locationCount];
+        hasStoredIncrements = false;
+        incrementsKnown = false;
+        sumOfIncrementsKnown = false;
+
+        locations = new double[locationCount * embeddingDimension];
+        storedLocations = new double[locationCount * embeddingDimension];
+        gradient = new double[locationCount * embeddingDimension];
+        gradientKnown = false;
+
+        updatedLocation = -1;
+
+        setupBlocks();
+    }
+
+    private void setupBlocks() {
+        int blockCount = Math.min(threadCount, Math.max(1, locationCount / MIN_ROWS_PER_BLOCK));
+
+        blockStart = new int[blockCount + 1];
+        for (int b = 0; b <= blockCount; ++b) {
+            blockStart[b] = (int) (((long) b * locationCount) / blockCount);
+        }
+
+        fullCallers = new ArrayList<Callable<Double>>(blockCount);
+        updateCallers = new ArrayList<Callable<Double>>(blockCount);
+        gradientCallers = new ArrayList<Callable<Double>>(blockCount);
+        for (int b = 0; b < blockCount; ++b) {
+            final int start = blockStart[b];
+            final int end = blockStart[b + 1];
+            fullCallers.add(new Callable<Double>() {
+                public Double call() throws Exception {
+                    return computeRowBlock(start, end);
+                }
+            });
+            updateCallers.add(new Callable<Double>() {
+                public Double call() throws Exception {
+                    return updateColumnBlock(updatedLocation, start, end);
+                }
+            });
+            gradientCallers.add(new Callable<Double>() {
+                public Double call() throws Exception {
+                    computeGradientBlock(start, end);
+                    return 0.0;
+                }
+            });
+        }
+
+        if (blockCount > 1 && pool == null) {
+            pool = Executors.newFixedThreadPool(blockCount, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "mds-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    @Override
+    public void setPairwiseData(double[] observations) {
+        if (observations.length != (locationCount * locationCount)) {
+            throw new RuntimeException("Observation data is not the correct dimension");
+        }
+        System.arraycopy(observations, 0, this.observations, 0, observations.length);
+    }
+
+    @Override
+    public double[] getPairwiseData() {
+        double[] data = new double[locationCount * locationCount];
+        System.arraycopy(observations, 0, data, 0, data.length);
+        return data;
+    }
+
+    @Override
+    public void setParameters(double[] parameters) {
+        precision = parameters[0];
+        gradientKnown = false;
+
+        // Handle truncations
+        if (isLeftTruncated) {
+            incrementsKnown = false;
+            sumOfIncrementsKnown = false;
+        }
+    }
+
+    @Override
+    public void updateLocation(int locationIndex, double[] location) {
+        if (updatedLocation != -1 || locationIndex == -1) {
+            // more than one location updated - do a full recomputation
+            incrementsKnown = false;
+            hasStoredIncrements = false;
+        }
+
+        if (locationIndex != -1) {
+            updatedLocation = locationIndex;
+
+            if (location.length != embeddingDimension) {
+                throw new RuntimeException("Location is not the correct dimension");
+            }
+
+            System.arraycopy(location, 0, locations, locationIndex * embeddingDimension, embeddingDimension);
+
+        } else {
+            if (location.length != embeddingDimension * locationCount) {
+                throw new RuntimeException("Location is the not correct dimension");
+            }
+
+            System.arraycopy(location, 0, locations, 0, location.length);
+        }
+
+        sumOfIncrementsKnown = false;
+        gradientKnown = false;
+    }
+
+    @Override
+    public double calculateLogLikelihood() {
+        if (!sumOfIncrementsKnown) {
+
+            if (!incrementsKnown) {
+                computeSumOfSquaredResiduals();
+            } else {
+                updateSumOfSquaredResiduals();
+            }
+            sumOfIncrementsKnown = true;
+        }
+
+        double logLikelihood = 0.5 * (Math.log(precision) - Math.log(2 * Math.PI)) * observationCount;
+
+        if (isLeftTruncated) {
+            logLikelihood -= sumOfIncrements; // If truncated, then values on difference scale
+        } else {
+            logLikelihood -= 0.5 * precision * sumOfIncrements;
+        }
+
+        return logLikelihood;
+    }
+
+    @Override
+    public double[] getGradient() {
+        if (!gradientKnown) {
+            invoke(gradientCallers);
+            gradientKnown = true;
+        }
+        double[] result = new double[gradient.length];
+        System.arraycopy(gradient, 0, result, 0, gradient.length);
+        return result;
+    }
+
+    @Override
+    public void storeState() {
+        // Handle residuals
+        storedSumOfIncrements = sumOfIncrements;
+        hasStoredIncrements = false;
+
+        // Handle locations
+        System.arraycopy(locations, 0, storedLocations, 0, locations.length);
+        updatedLocation = -1;
+
+        // Handle precision
+        storedPrecision = precision;
+    }
+
+    @Override
+    public void restoreState() {
+        // Handle residuals
+        sumOfIncrements = storedSumOfIncrements;
+        sumOfIncrementsKnown = true;
+
+        if (hasStoredIncrements) {
+            System.arraycopy(storedIncrements, 0, increments, updatedLocation * locationCount, locationCount);
+            incrementsKnown = true;
+        } else {
+            incrementsKnown = false;
+        }
+        hasStoredIncrements = false;
+
+        // Handle locations
+        double[] tmp1 = storedLocations;
+        storedLocations = locations;
+        locations = tmp1;
+
+        // Handle precision
+        precision = storedPrecision;
+
+        gradientKnown = false;
+    }
+
+    @Override
+    public void acceptState() {
+        if (hasStoredIncrements) {
+            final int i = updatedLocation;
+            for (int j = 0; j < locationCount; ++j) {
+                increments[j * locationCount + i] = increments[i * locationCount + j];
+            }
+        }
+    }
+
+    @Override
+    public void makeDirty() {
+        sumOfIncrementsKnown = false;
+        incrementsKnown = false;
+        gradientKnown = false;
+    }
+
+    protected void computeSumOfSquaredResiduals() {
+        sumOfIncrements = invoke(fullCallers) / 2;
+
+        incrementsKnown = true;
+        sumOfIncrementsKnown = true;
+    }
+
+    protected void updateSumOfSquaredResiduals() {
+        final int i = updatedLocation;
+
+        System.arraycopy(increments, i * locationCount, storedIncrements, 0, locationCount);
+        hasStoredIncrements = true;
+
+        sumOfIncrements += invoke(updateCallers);
+    }
+
+    private double invoke(List<Callable<Double>> callers) {
+        double sum = 0.0;
+        if (pool == null) {
+            for (Callable<Double> caller : callers) {
+                try {
+                    sum += caller.call();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        } else {
+            try {
+                for (Future<Double> result : pool.invokeAll(callers)) {
+                    sum += result.get();
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return sum;
+    }
+
+    private double computeIncrement(int i, int j, double distance, double scale, double oneOverSd) {
+        double residual = distance - observations[i * locationCount + j];
+        double increment = residual * residual;
+        if (isLeftTruncated) {
+            increment = scale * increment;
+            if (i != j) {
+                increment += computeTruncation(distance, precision, oneOverSd);
+            }
+        }
+        return increment;
+    }
+
+    private double computeRowBlock(int start, int end) {
+        final double oneOverSd = Math.sqrt(precision);
+        final double scale = 0.5 * precision;
+
+        double sum = 0.0;
+        for (int i = start; i < end; ++i) {
+            final int offset = i * locationCount;
+            for (int j = 0; j < locationCount; ++j) {
+                double increment = computeIncrement(i, j, calculateDistance(i, j), scale, oneOverSd);
+                increments[offset + j] = increment;
+                sum += increment;
+            }
+        }
+        return sum;
+    }
+
+    private double updateColumnBlock(int i, int start, int end) {
+        final double oneOverSd = Math.sqrt(precision);
+        final double scale = 0.5 * precision;
+        final int offset = i * locationCount;
+
+        double delta = 0.0;
+        for (int j = start; j < end; ++j) {
+            double increment = computeIncrement(i, j, calculateDistance(i, j), scale, oneOverSd);
+            delta += increment - increments[offset + j];
+            increments[offset + j] = increment; // Do not write transposed values until acceptState()
+        }
+        return delta;
+    }
+
+    private void computeGradientBlock(int start, int end) {
+        MDSGradient.computeGradient(gradient, locations, observations, locationCount, embeddingDimension,
+                precision, isLeftTruncated, start, end);
+    }
+
+    protected double calculateDistance(int i, int j) {
+        final int iOffset = i * embeddingDimension;
+        final int jOffset = j * embeddingDimension;
+        double sum = 0.0;
+        for (int k = 0; k < embeddingDimension; ++k) {
+            double difference = locations[iOffset + k] - locations[jOffset + k];
+            sum += difference * difference;
+        }
+        return Math.sqrt(sum);
+    }
+
+    protected double computeTruncation(double mean, double precision, double oneOverSd) {
+        return NormalDistribution.standardCDF(mean * oneOverSd, true);
+    }
+
+    private final int threadCount;
+    private ExecutorService pool = null;
+
+    private int[] blockStart;
+    private List<Callable<Double>> fullCallers;
+    private List<Callable<Double>> updateCallers;
+    private List<Callable<Double>> gradientCallers;
+
+    private int embeddingDimension;
+    private boolean isLeftTruncated = false;
+    private int locationCount;
+    private int observationCount;
+    private double precision;
+    private double storedPrecision;
+
+    private int updatedLocation = -1;
+
+    private double[] observations;
+    private double[] locations;
+    private double[] storedLocations;
+
+    private boolean incrementsKnown = false;
+    private boolean sumOfIncrementsKnown = false;
+    private double[] increments;
+
+    private double[] storedIncrements;
+    private boolean hasStoredIncrements = false;
+
+    private double sumOfIncrements;
+    private double storedSumOfIncrements;
+
+    private double[] gradient;
+    private boolean gradientKnown = false;
+}
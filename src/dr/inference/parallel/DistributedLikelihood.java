@@ -0,0 +1,410 @@
+/*
+ * DistributedLikelihood.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.parallel;
+
+import dr.inference.model.AbstractModelLikelihood;
+import dr.inference.model.Likelihood;
+import dr.inference.model.Model;
+import dr.inference.model.Variable;
+import dr.xml.*;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * A sum of likelihoods that are calculated by worker processes (see DistributedLikelihoodWorker),
+ * typically other JVMs on the same machine. Each worker holds its own copy of the model and is sent
+ * only the parameter values and tree nodes that changed since it last calculated, along with the
+ * outcome (accept or restore) of the proposals it took part in. Workers whose likelihoods do not depend
+ * on anything that changed are not contacted.
+ *
+ * This replaces the MPI (mpj) based MPIServices for running on a single multi-core machine and only
+ * needs sockets.
+ */
+public class DistributedLikelihood extends AbstractModelLikelihood {
+
+    public static final String DISTRIBUTED_LIKELIHOOD = "distributedLikelihood";
+    public static final String WORKER = "worker";
+    public static final String ADDRESS = "address";
+    public static final String CONNECT_TIMEOUT = "connectTimeout";
+
+    static final int PROTOCOL_VERSION = 1;
+
+    static final byte OUTCOME_NONE = 0;
+    static final byte OUTCOME_ACCEPT = 1;
+    static final byte OUTCOME_RESTORE = 2;
+
+    public DistributedLikelihood(List<String> addresses, List<List<Likelihood>> likelihoods, int connectTimeout) throws IOException {
+        super(DISTRIBUTED_LIKELIHOOD);
+
+        connections = new ArrayList<Connection>();
+        for (int i = 0; i < addresses.size(); ++i) {
+            for (Likelihood likelihood : likelihoods.get(i)) {
+                if (likelihood.getModel() != null) {
+                    addModel(likelihood.getModel());
+                }
+            }
+            Connection connection = new Connection(addresses.get(i), likelihoods.get(i), connectTimeout);
+            connections.add(connection);
+
+            // listen to the parameters and trees directly as the likelihoods may not pass their changes on
+            for (int j = 0; j < connection.state.getItemCount(); ++j) {
+                Object item = connection.state.getItem(j);
+                if (item instanceof Model) {
+                    addModel((Model) item);
+                } else {
+                    addVariable((Variable) item);
+                }
+            }
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                for (Connection connection : connections) {
+                    connection.close();
+                }
+            }
+        });
+    }
+
+    // **************************************************************
+    // Likelihood IMPLEMENTATION
+    // **************************************************************
+
+    public Model getModel() {
+        return this;
+    }
+
+    public double getLogLikelihood() {
+        if (!likelihoodKnown) {
+            logLikelihood = calculateLogLikelihood();
+            likelihoodKnown = true;
+        }
+        return logLikelihood;
+    }
+
+    private double calculateLogLikelihood() {
+        try {
+            // send all requests before waiting for any reply so that the workers calculate concurrently
+            for (Connection connection : connections) {
+                connection.sendRequest();
+            }
+            double logL = 0.0;
+            for (Connection connection : connections) {
+                logL += connection.receiveReply();
+            }
+            return logL;
+        } catch (IOException e) {
+            throw new RuntimeException("Lost connection to a distributed likelihood worker: " + e.getMessage());
+        }
+    }
+
+    public void makeDirty() {
+        likelihoodKnown = false;
+        for (Connection connection : connections) {
+            connection.makeDirty();
+        }
+    }
+
+    // **************************************************************
+    // Model IMPLEMENTATION
+    // **************************************************************
+
+    protected void handleModelChangedEvent(Model model, Object object, int index) {
+        likelihoodKnown = false;
+    }
+
+    protected void handleVariableChangedEvent(Variable variable, int index, Variable.ChangeType type) {
+        likelihoodKnown = false;
+    }
+
+    protected void storeState() {
+        storedLogLikelihood = logLikelihood;
+        storedLikelihoodKnown = likelihoodKnown;
+        for (Connection connection : connections) {
+            connection.storeState();
+        }
+    }
+
+    protected void restoreState() {
+        logLikelihood = storedLogLikelihood;
+        likelihoodKnown = storedLikelihoodKnown;
+        for (Connection connection : connections) {
+            connection.restoreState();
+        }
+    }
+
+    protected void acceptState() {
+        for (Connection connection : connections) {
+            connection.acceptState();
+        }
+    }
+
+    /**
+     * The link to one worker process and the likelihoods it calculates.
+     */
+    private static class Connection {
+
+        Connection(String address, List<Likelihood> likelihoods, int connectTimeout) throws IOException {
+            this.state = new RemoteModelState(likelihoods);
+            this.changed = new boolean[state.getItemCount()];
+
+            logLikelihoods = new double[likelihoods.size()];
+            storedLogLikelihoods = new double[likelihoods.size()];
+            likelihoodKnown = new boolean[likelihoods.size()];
+            storedLikelihoodKnown = new boolean[likelihoods.size()];
+            requested = new int[likelihoods.size()];
+
+            socket = connect(address, connectTimeout);
+            socket.setTcpNoDelay(true);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            try {
+                out.writeInt(PROTOCOL_VERSION);
+                out.writeInt(likelihoods.size());
+                for (Likelihood likelihood : likelihoods) {
+                    out.writeUTF(likelihood.getId() == null ? "" : likelihood.getId());
+                }
+                state.writeSignature(out);
+                out.flush();
+
+                if (!in.readBoolean()) {
+                    throw new IOException("Worker at " + address + " does not match this model: " + in.readUTF());
+                }
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+
+            Logger.getLogger("dr.inference").info("Connected to distributed likelihood worker at " + address +
+                    " (" + likelihoods.size() + " likelihoods, " + state.getItemCount() + " parameters and trees)");
+        }
+
+        private static Socket connect(String address, int connectTimeout) throws IOException {
+            int colon = address.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IOException("Worker address, " + address + ", should be of the form host:port");
+            }
+            String host = address.substring(0, colon);
+            int port = Integer.parseInt(address.substring(colon + 1));
+
+            // the workers may still be starting up
+            long giveUp = System.currentTimeMillis() + connectTimeout * 1000L;
+            while (true) {
+                try {
+                    return new Socket(host, port);
+                } catch (ConnectException ce) {
+                    if (System.currentTimeMillis() > giveUp) {
+                        throw ce;
+                    }
+                    try {
+                        Thread.sleep(250);
+                    } catch (InterruptedException ie) {
+                        throw ce;
+                    }
+                }
+            }
+        }
+
+        void sendRequest() throws IOException {
+            int changedCount = state.findChanges(changed);
+
+            requestCount = 0;
+            for (int i = 0; i < logLikelihoods.length; ++i) {
+                if (!likelihoodKnown[i] || state.dependsOn(i, changed)) {
+                    requested[requestCount] = i;
+                    requestCount++;
+                }
+            }
+            if (requestCount == 0 && changedCount == 0 && !dirty) {
+                return;
+            }
+
+            out.writeInt(ServiceRequest.CALCULATION_LIKELIHOOD_ID);
+            out.writeByte(pendingOutcome);
+            out.writeBoolean(!sentThisProposal);
+            out.writeBoolean(dirty);
+            state.writeChanges(out, changed, changedCount);
+            out.writeInt(requestCount);
+            for (int i = 0; i < requestCount; ++i) {
+                out.writeInt(requested[i]);
+            }
+            out.flush();
+
+            pendingOutcome = OUTCOME_NONE;
+            sentThisProposal = true;
+            dirty = false;
+        }
+
+        double receiveReply() throws IOException {
+            for (int i = 0; i < requestCount; ++i) {
+                logLikelihoods[requested[i]] = in.readDouble();
+                likelihoodKnown[requested[i]] = true;
+            }
+            requestCount = 0;
+
+            double logL = 0.0;
+            for (double l : logLikelihoods) {
+                logL += l;
+            }
+            return logL;
+        }
+
+        void makeDirty() {
+            dirty = true;
+            for (int i = 0; i < likelihoodKnown.length; ++i) {
+                likelihoodKnown[i] = false;
+            }
+        }
+
+        void storeState() {
+            System.arraycopy(logLikelihoods, 0, storedLogLikelihoods, 0, logLikelihoods.length);
+            System.arraycopy(likelihoodKnown, 0, storedLikelihoodKnown, 0, likelihoodKnown.length);
+            state.storeMirror();
+            if (sentThisProposal) {
+                // calculated outside of a proposal (e.g., the initial state) so the worker should keep it
+                pendingOutcome = OUTCOME_ACCEPT;
+                sentThisProposal = false;
+            }
+        }
+
+        void restoreState() {
+            System.arraycopy(storedLogLikelihoods, 0, logLikelihoods, 0, logLikelihoods.length);
+            System.arraycopy(storedLikelihoodKnown, 0, likelihoodKnown, 0, likelihoodKnown.length);
+            state.restoreMirror();
+            if (sentThisProposal) {
+                pendingOutcome = OUTCOME_RESTORE;
+                sentThisProposal = false;
+            }
+        }
+
+        void acceptState() {
+            if (sentThisProposal) {
+                pendingOutcome = OUTCOME_ACCEPT;
+                sentThisProposal = false;
+            }
+        }
+
+        void close() {
+            try {
+                out.writeInt(ServiceRequest.TERMINATE_ID);
+                out.flush();
+                socket.close();
+            } catch (IOException e) {
+                // the worker has already gone
+            }
+        }
+
+        private final RemoteModelState state;
+        private final boolean[] changed;
+
+        private final double[] logLikelihoods;
+        private final double[] storedLogLikelihoods;
+        private final boolean[] likelihoodKnown;
+        private final boolean[] storedLikelihoodKnown;
+        private final int[] requested;
+        private int requestCount = 0;
+
+        private byte pendingOutcome = OUTCOME_NONE;
+        private boolean sentThisProposal = false;
+        private boolean dirty = true;
+
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final DataInputStream in;
+    }
+
+    // **************************************************************
+    // XMLObjectParser
+    // **************************************************************
+
+    public static XMLObjectParser PARSER = new AbstractXMLObjectParser() {
+
+        public String getParserName() {
+            return DISTRIBUTED_LIKELIHOOD;
+        }
+
+        public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+            int connectTimeout = xo.getAttribute(CONNECT_TIMEOUT, 60);
+
+            List<String> addresses = new ArrayList<String>();
+            List<List<Likelihood>> likelihoods = new ArrayList<List<Likelihood>>();
+            for (int i = 0; i < xo.getChildCount(); i++) {
+                XMLObject cxo = (XMLObject) xo.getChild(i);
+                addresses.add(cxo.getStringAttribute(ADDRESS));
+
+                List<Likelihood> workerLikelihoods = new ArrayList<Likelihood>();
+                for (int j = 0; j < cxo.getChildCount(); j++) {
+                    workerLikelihoods.add((Likelihood) cxo.getChild(j));
+                }
+                likelihoods.add(workerLikelihoods);
+            }
+
+            try {
+                return new DistributedLikelihood(addresses, likelihoods, connectTimeout);
+            } catch (IOException e) {
+                throw new XMLParseException("Unable to connect to distributed likelihood workers: " + e.getMessage());
+            }
+        }
+
+        //************************************************************************
+        // AbstractXMLObjectParser implementation
+        //************************************************************************
+
+        public String getParserDescription() {
+            return "A likelihood that is the sum of likelihoods calculated by worker processes connected by sockets.";
+        }
+
+        public Class getReturnType() {
+            return DistributedLikelihood.class;
+        }
+
+        public XMLSyntaxRule[] getSyntaxRules() {
+            return rules;
+        }
+
+        private final XMLSyntaxRule[] rules = {
+                AttributeRule.newIntegerRule(CONNECT_TIMEOUT, true, "Seconds to wait for the workers to start"),
+                new ElementRule(WORKER, new XMLSyntaxRule[]{
+                        AttributeRule.newStringRule(ADDRESS, false, "host:port of the worker"),
+                        new ElementRule(Likelihood.class, 1, Integer.MAX_VALUE)
+                }, 1, Integer.MAX_VALUE)
+        };
+    };
+
+    private final List<Connection> connections;
+
+    private double logLikelihood;
+    private double storedLogLikelihood;
+    private boolean likelihoodKnown = false;
+    private boolean storedLikelihoodKnown = false;
+}
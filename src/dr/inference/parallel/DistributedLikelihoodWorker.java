@@ -0,0 +1,214 @@
+/*
+ * DistributedLikelihoodWorker.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.parallel;
+
+import dr.inference.model.Likelihood;
+import dr.inference.model.Model;
+import dr.xml.*;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Calculates likelihoods on behalf of a DistributedLikelihood in another process. The worker is given
+ * the same model as the master (usually by running BEAST on a copy of the XML with this element in place
+ * of the mcmc), listens on a port for the master to connect and then serves its requests until the
+ * master terminates.
+ */
+public class DistributedLikelihoodWorker implements Runnable {
+
+    public static final String DISTRIBUTED_LIKELIHOOD_WORKER = "distributedLikelihoodWorker";
+    public static final String PORT = "port";
+
+    public DistributedLikelihoodWorker(int port, List<Likelihood> likelihoods) {
+        this.port = port;
+        this.likelihoods = likelihoods;
+        this.state = new RemoteModelState(likelihoods);
+
+        Set<Model> modelSet = new LinkedHashSet<Model>();
+        for (Likelihood likelihood : likelihoods) {
+            if (likelihood.getModel() != null) {
+                modelSet.add(likelihood.getModel());
+            }
+        }
+        models = new ArrayList<Model>(modelSet);
+    }
+
+    public void run() {
+        try {
+            ServerSocket serverSocket = new ServerSocket(port);
+            Logger.getLogger("dr.inference").info("Distributed likelihood worker waiting on port " + port);
+            Socket socket = serverSocket.accept();
+            serverSocket.close();
+            socket.setTcpNoDelay(true);
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            String mismatch = checkHandshake(in);
+            if (mismatch != null) {
+                out.writeBoolean(false);
+                out.writeUTF(mismatch);
+                out.flush();
+                socket.close();
+                throw new RuntimeException("Distributed likelihood master does not match this worker: " + mismatch);
+            }
+            out.writeBoolean(true);
+            out.flush();
+
+            Logger.getLogger("dr.inference").info("Distributed likelihood worker connected to " + socket.getInetAddress());
+
+            boolean terminate = false;
+            while (!terminate) {
+                int request;
+                try {
+                    request = in.readInt();
+                } catch (EOFException eof) {
+                    break;
+                }
+                switch (ServiceRequest.getByID(request)) {
+                    case calculateLikeliood:
+                        calculate(in, out);
+                        break;
+                    case terminateProcess:
+                        terminate = true;
+                        break;
+                    default:
+                        throw new RuntimeException("Unknown request from the distributed likelihood master: " + request);
+                }
+            }
+            socket.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Distributed likelihood worker failed: " + e.getMessage());
+        }
+    }
+
+    private String checkHandshake(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != DistributedLikelihood.PROTOCOL_VERSION) {
+            return "protocol version " + version + " is not supported";
+        }
+        int count = in.readInt();
+        String mismatch = count != likelihoods.size() ?
+                "the master has " + count + " likelihoods for this worker but the worker has " + likelihoods.size() : null;
+        for (int i = 0; i < count; ++i) {
+            String id = in.readUTF();
+            if (mismatch == null && likelihoods.get(i).getId() != null && !likelihoods.get(i).getId().equals(id)) {
+                mismatch = "likelihood " + (i + 1) + " is " + id + " on the master but " + likelihoods.get(i).getId() + " on the worker";
+            }
+        }
+        String stateMismatch = state.checkSignature(in);
+        return mismatch != null ? mismatch : stateMismatch;
+    }
+
+    private void calculate(DataInputStream in, DataOutputStream out) throws IOException {
+        byte outcome = in.readByte();
+        boolean store = in.readBoolean();
+        boolean dirty = in.readBoolean();
+
+        // complete the master's previous proposal before starting this one
+        if (outcome == DistributedLikelihood.OUTCOME_ACCEPT) {
+            for (Model model : models) {
+                model.acceptModelState();
+            }
+        } else if (outcome == DistributedLikelihood.OUTCOME_RESTORE) {
+            for (Model model : models) {
+                model.restoreModelState();
+            }
+        }
+        if (store) {
+            for (Model model : models) {
+                model.storeModelState();
+            }
+        }
+
+        state.readChanges(in);
+
+        if (dirty) {
+            for (Likelihood likelihood : likelihoods) {
+                likelihood.makeDirty();
+            }
+        }
+
+        int count = in.readInt();
+        for (int i = 0; i < count; ++i) {
+            out.writeDouble(likelihoods.get(in.readInt()).getLogLikelihood());
+        }
+        out.flush();
+    }
+
+    // **************************************************************
+    // XMLObjectParser
+    // **************************************************************
+
+    public static XMLObjectParser PARSER = new AbstractXMLObjectParser() {
+
+        public String getParserName() {
+            return DISTRIBUTED_LIKELIHOOD_WORKER;
+        }
+
+        public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+            int port = xo.getIntegerAttribute(PORT);
+
+            List<Likelihood> likelihoods = new ArrayList<Likelihood>();
+            for (int i = 0; i < xo.getChildCount(); i++) {
+                likelihoods.add((Likelihood) xo.getChild(i));
+            }
+
+            return new DistributedLikelihoodWorker(port, likelihoods);
+        }
+
+        //************************************************************************
+        // AbstractXMLObjectParser implementation
+        //************************************************************************
+
+        public String getParserDescription() {
+            return "Calculates likelihoods for a distributedLikelihood running in another process.";
+        }
+
+        public Class getReturnType() {
+            return DistributedLikelihoodWorker.class;
+        }
+
+        public XMLSyntaxRule[] getSyntaxRules() {
+            return rules;
+        }
+
+        private final XMLSyntaxRule[] rules = {
+                AttributeRule.newIntegerRule(PORT, false, "The port to wait on for the master to connect"),
+                new ElementRule(Likelihood.class, 1, Integer.MAX_VALUE)
+        };
+    };
+
+    private final int port;
+    private final List<Likelihood> likelihoods;
+    private final List<Model> models;
+    private final RemoteModelState state;
+}
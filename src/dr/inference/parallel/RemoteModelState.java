@@ -0,0 +1,483 @@
+/*
+ * RemoteModelState.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.parallel;
+
+import dr.evolution.tree.NodeRef;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Likelihood;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The parameters and trees that a set of likelihoods depend on, together with a mirror of the values
+ * last sent to (or received by) the other side of a connection. The master side uses the mirror to
+ * send only the parameter values and tree nodes that changed; the worker side applies them to its
+ * own copy of the model. Both sides must have been parsed from the same model description so that
+ * the items are collected in the same order.
+ *
+ * Node rates and traits stored in a TreeModel are not mirrored so trees that have them are rejected
+ * in the handshake.
+ */
+class RemoteModelState {
+
+    RemoteModelState(List<Likelihood> likelihoods) {
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        itemsByLikelihood = new ArrayList<Set<Integer>>();
+        for (Likelihood likelihood : likelihoods) {
+            Set<Integer> used = new HashSet<Integer>();
+            collect(likelihood.getModel(), visited, used, new HashSet<Object>());
+            itemsByLikelihood.add(used);
+        }
+
+        mirrors = new Object[items.size()];
+        for (int i = 0; i < items.size(); ++i) {
+            Object item = items.get(i);
+            if (item instanceof TreeModel) {
+                mirrors[i] = new TreeMirror(((TreeModel) item).getNodeCount());
+            } else {
+                double[] values = new double[((Parameter) item).getDimension()];
+                Arrays.fill(values, Double.NaN);
+                mirrors[i] = values;
+            }
+        }
+    }
+
+    private void collect(Model model, Set<Object> visited, Set<Integer> used, Set<Object> seen) {
+        if (!seen.add(model)) {
+            return;
+        }
+
+        if (model instanceof TreeModel) {
+            used.add(addItem(model, visited));
+            return;
+        }
+
+        for (int i = 0; i < model.getVariableCount(); ++i) {
+            Variable variable = model.getVariable(i);
+            if (variable instanceof Parameter) {
+                used.add(addItem(variable, visited));
+            }
+        }
+
+        for (int i = 0; i < model.getModelCount(); ++i) {
+            collect(model.getModel(i), visited, used, seen);
+        }
+    }
+
+    private int addItem(Object item, Set<Object> visited) {
+        if (visited.add(item)) {
+            items.add(item);
+            return items.size() - 1;
+        }
+        for (int i = 0; i < items.size(); ++i) {
+            if (items.get(i) == item) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Visited item is missing");
+    }
+
+    int getItemCount() {
+        return items.size();
+    }
+
+    /**
+     * @return the i'th item, either a Parameter or a TreeModel
+     */
+    Object getItem(int i) {
+        return items.get(i);
+    }
+
+    /**
+     * @return true if the likelihood depends on any of the flagged items
+     */
+    boolean dependsOn(int likelihoodIndex, boolean[] changed) {
+        for (int item : itemsByLikelihood.get(likelihoodIndex)) {
+            if (changed[item]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // **************************************************************
+    // Handshake
+    // **************************************************************
+
+    void writeSignature(DataOutputStream out) throws IOException {
+        for (Object item : items) {
+            if (item instanceof TreeModel && hasNodeParameters((TreeModel) item)) {
+                throw new IOException(unsupportedTree((TreeModel) item));
+            }
+        }
+
+        out.writeInt(items.size());
+        for (Object item : items) {
+            if (item instanceof TreeModel) {
+                TreeModel tree = (TreeModel) item;
+                out.writeUTF(tree.getId() == null ? "" : tree.getId());
+                out.writeInt(tree.getNodeCount());
+                // the tips may be numbered differently in each process so they are matched by taxon
+                out.writeBoolean(true);
+                for (int j = 0; j < tree.getExternalNodeCount(); ++j) {
+                    out.writeUTF(tree.getNodeTaxon(tree.getExternalNode(j)).getId());
+                }
+            } else {
+                out.writeUTF(((Parameter) item).getParameterName() == null ? "" : ((Parameter) item).getParameterName());
+                out.writeInt(((Parameter) item).getDimension());
+                out.writeBoolean(false);
+            }
+        }
+    }
+
+    /**
+     * Checks the master's signature against this side's items and sets up the mapping of the master's
+     * tree node numbers to this side's.
+     * @return null if the signature matches, otherwise a description of the difference
+     */
+    String checkSignature(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        String mismatch = null;
+        if (count != items.size()) {
+            mismatch = "expected " + items.size() + " parameters and trees but the master has " + count;
+        }
+        for (int i = 0; i < count; ++i) {
+            String name = in.readUTF();
+            int dimension = in.readInt();
+            boolean isTree = in.readBoolean();
+            Object item = mismatch == null ? items.get(i) : null;
+            if (item != null && isTree != item instanceof TreeModel) {
+                mismatch = name + " is a " + (isTree ? "tree" : "parameter") + " on the master but not on the worker";
+                item = null;
+            }
+            if (item != null) {
+                int expected = isTree ? ((TreeModel) item).getNodeCount() : ((Parameter) item).getDimension();
+                if (dimension != expected) {
+                    mismatch = "dimension of " + name + " is " + expected + " on the worker but " + dimension + " on the master";
+                    item = null;
+                }
+            }
+            if (isTree) {
+                int externalCount = (dimension + 1) / 2;
+                String[] taxa = new String[externalCount];
+                for (int j = 0; j < externalCount; ++j) {
+                    taxa[j] = in.readUTF();
+                }
+                if (item != null && hasNodeParameters((TreeModel) item)) {
+                    mismatch = unsupportedTree((TreeModel) item);
+                    item = null;
+                }
+                if (item != null) {
+                    TreeModel tree = (TreeModel) item;
+                    int[] nodeMap = new int[dimension];
+                    for (int j = 0; j < dimension; ++j) {
+                        nodeMap[j] = j;
+                    }
+                    for (int j = 0; j < externalCount; ++j) {
+                        int index = tree.getTaxonIndex(taxa[j]);
+                        if (index < 0) {
+                            mismatch = "taxon " + taxa[j] + " of " + name + " is missing on the worker";
+                        } else {
+                            nodeMap[j] = tree.getExternalNode(index).getNumber();
+                        }
+                    }
+                    nodeMaps.put(i, nodeMap);
+                }
+            }
+        }
+        return mismatch;
+    }
+
+    private static boolean hasNodeParameters(TreeModel tree) {
+        return tree.hasRates() || tree.hasNodeTraits();
+    }
+
+    private static String unsupportedTree(TreeModel tree) {
+        return "tree " + tree.getId() + " has node rates or traits, which are not sent to distributed likelihood workers";
+    }
+
+    // **************************************************************
+    // Master side
+    // **************************************************************
+
+    /**
+     * Compares the current values against the mirror.
+     * @return the number of changed items
+     */
+    int findChanges(boolean[] changed) {
+        int count = 0;
+        for (int i = 0; i < items.size(); ++i) {
+            Object item = items.get(i);
+            if (item instanceof TreeModel) {
+                changed[i] = ((TreeMirror) mirrors[i]).differs((TreeModel) item);
+            } else {
+                Parameter parameter = (Parameter) item;
+                double[] sent = (double[]) mirrors[i];
+                changed[i] = false;
+                for (int j = 0; j < sent.length && !changed[i]; ++j) {
+                    changed[i] = Double.doubleToLongBits(parameter.getParameterValue(j)) != Double.doubleToLongBits(sent[j]);
+                }
+            }
+            if (changed[i]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes the changed entries of the flagged items and updates the mirror. The previous mirror of each
+     * item is kept (once per proposal) so that it can be put back by restoreMirror().
+     */
+    void writeChanges(DataOutputStream out, boolean[] changed, int changedCount) throws IOException {
+        out.writeInt(changedCount);
+        for (int i = 0; i < items.size(); ++i) {
+            if (!changed[i]) {
+                continue;
+            }
+            if (!storedMirrors.containsKey(i)) {
+                storedMirrors.put(i, copyMirror(mirrors[i]));
+            }
+
+            out.writeInt(i);
+            Object item = items.get(i);
+            if (item instanceof TreeModel) {
+                ((TreeMirror) mirrors[i]).writeChanges(out, (TreeModel) item);
+            } else {
+                Parameter parameter = (Parameter) item;
+                double[] sent = (double[]) mirrors[i];
+                int count = 0;
+                for (int j = 0; j < sent.length; ++j) {
+                    if (Double.doubleToLongBits(parameter.getParameterValue(j)) != Double.doubleToLongBits(sent[j])) {
+                        count++;
+                    }
+                }
+                out.writeInt(count);
+                for (int j = 0; j < sent.length; ++j) {
+                    double value = parameter.getParameterValue(j);
+                    if (Double.doubleToLongBits(value) != Double.doubleToLongBits(sent[j])) {
+                        out.writeInt(j);
+                        out.writeDouble(value);
+                        sent[j] = value;
+                    }
+                }
+            }
+        }
+    }
+
+    void storeMirror() {
+        storedMirrors.clear();
+    }
+
+    void restoreMirror() {
+        for (Map.Entry<Integer, Object> entry : storedMirrors.entrySet()) {
+            mirrors[entry.getKey()] = entry.getValue();
+        }
+        storedMirrors.clear();
+    }
+
+    private static Object copyMirror(Object mirror) {
+        if (mirror instanceof TreeMirror) {
+            return new TreeMirror((TreeMirror) mirror);
+        }
+        return ((double[]) mirror).clone();
+    }
+
+    // **************************************************************
+    // Worker side
+    // **************************************************************
+
+    void readChanges(DataInputStream in) throws IOException {
+        int changedCount = in.readInt();
+        for (int k = 0; k < changedCount; ++k) {
+            int i = in.readInt();
+            Object item = items.get(i);
+            if (item instanceof TreeModel) {
+                TreeMirror.readChanges(in, (TreeModel) item, nodeMaps.get(i));
+            } else {
+                Parameter parameter = (Parameter) item;
+                int count = in.readInt();
+                for (int j = 0; j < count; ++j) {
+                    int index = in.readInt();
+                    parameter.setParameterValueQuietly(index, in.readDouble());
+                }
+                parameter.fireParameterChangedEvent();
+            }
+        }
+    }
+
+    /**
+     * The node heights, children and root of a tree as last sent.
+     */
+    private static class TreeMirror {
+
+        TreeMirror(int nodeCount) {
+            heights = new double[nodeCount];
+            Arrays.fill(heights, Double.NaN);
+            child0 = new int[nodeCount];
+            child1 = new int[nodeCount];
+            Arrays.fill(child0, UNKNOWN);
+            Arrays.fill(child1, UNKNOWN);
+            root = UNKNOWN;
+        }
+
+        TreeMirror(TreeMirror mirror) {
+            heights = mirror.heights.clone();
+            child0 = mirror.child0.clone();
+            child1 = mirror.child1.clone();
+            root = mirror.root;
+        }
+
+        private static int child(TreeModel tree, NodeRef node, int i) {
+            return tree.getChildCount(node) > i ? tree.getChild(node, i).getNumber() : NONE;
+        }
+
+        private boolean differs(TreeModel tree, int i) {
+            NodeRef node = tree.getNode(i);
+            return Double.doubleToLongBits(tree.getNodeHeight(node)) != Double.doubleToLongBits(heights[i]) ||
+                    child(tree, node, 0) != child0[i] || child(tree, node, 1) != child1[i];
+        }
+
+        boolean differs(TreeModel tree) {
+            if (tree.getRoot().getNumber() != root) {
+                return true;
+            }
+            for (int i = 0; i < heights.length; ++i) {
+                if (differs(tree, i)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void writeChanges(DataOutputStream out, TreeModel tree) throws IOException {
+            int count = 0;
+            for (int i = 0; i < heights.length; ++i) {
+                if (differs(tree, i)) {
+                    count++;
+                }
+            }
+            out.writeInt(count);
+            for (int i = 0; i < heights.length; ++i) {
+                if (differs(tree, i)) {
+                    NodeRef node = tree.getNode(i);
+                    heights[i] = tree.getNodeHeight(node);
+                    child0[i] = child(tree, node, 0);
+                    child1[i] = child(tree, node, 1);
+                    out.writeInt(i);
+                    out.writeDouble(heights[i]);
+                    out.writeInt(child0[i]);
+                    out.writeInt(child1[i]);
+                }
+            }
+            root = tree.getRoot().getNumber();
+            out.writeInt(root);
+        }
+
+        /**
+         * Applies the changes to the tree. The worker's tree may have been restored since the last changes
+         * so they are compared against the tree itself rather than the mirror.
+         * @param nodeMap the master's node numbers mapped to those of this tree
+         */
+        static void readChanges(DataInputStream in, TreeModel tree, int[] nodeMap) throws IOException {
+            int nodeCount = tree.getNodeCount();
+            double[] heights = new double[nodeCount];
+            int[] child0 = new int[nodeCount];
+            int[] child1 = new int[nodeCount];
+            for (int i = 0; i < nodeCount; ++i) {
+                NodeRef node = tree.getNode(i);
+                heights[i] = tree.getNodeHeight(node);
+                child0[i] = child(tree, node, 0);
+                child1[i] = child(tree, node, 1);
+            }
+
+            boolean topologyChanged = false;
+            int count = in.readInt();
+            for (int k = 0; k < count; ++k) {
+                int i = nodeMap[in.readInt()];
+                heights[i] = in.readDouble();
+                int c0 = in.readInt();
+                int c1 = in.readInt();
+                c0 = c0 >= 0 ? nodeMap[c0] : c0;
+                c1 = c1 >= 0 ? nodeMap[c1] : c1;
+                if (c0 != child0[i] || c1 != child1[i]) {
+                    topologyChanged = true;
+                    child0[i] = c0;
+                    child1[i] = c1;
+                }
+            }
+            int root = nodeMap[in.readInt()];
+            topologyChanged |= root != tree.getRoot().getNumber();
+
+            tree.beginTreeEdit();
+            if (topologyChanged) {
+                // unlink everything and rebuild from the child arrays
+                for (int i = 0; i < nodeCount; ++i) {
+                    NodeRef node = tree.getNode(i);
+                    while (tree.getChildCount(node) > 0) {
+                        tree.removeChild(node, tree.getChild(node, tree.getChildCount(node) - 1));
+                    }
+                }
+                for (int i = 0; i < nodeCount; ++i) {
+                    if (child0[i] >= 0) {
+                        tree.addChild(tree.getNode(i), tree.getNode(child0[i]));
+                    }
+                    if (child1[i] >= 0) {
+                        tree.addChild(tree.getNode(i), tree.getNode(child1[i]));
+                    }
+                }
+                tree.setRoot(tree.getNode(root));
+            }
+            for (int i = 0; i < nodeCount; ++i) {
+                NodeRef node = tree.getNode(i);
+                if (Double.doubleToLongBits(tree.getNodeHeight(node)) != Double.doubleToLongBits(heights[i])) {
+                    tree.setNodeHeight(node, heights[i]);
+                }
+            }
+            tree.endTreeEdit();
+        }
+
+        private static final int UNKNOWN = -2;
+        private static final int NONE = -1;
+
+        private final double[] heights;
+        private final int[] child0;
+        private final int[] child1;
+        private int root;
+    }
+
+    private final List<Object> items = new ArrayList<Object>();
+    private final List<Set<Integer>> itemsByLikelihood;
+    private final Object[] mirrors;
+    private final Map<Integer, Object> storedMirrors = new HashMap<Integer, Object>();
+    private final Map<Integer, int[]> nodeMaps = new HashMap<Integer, int[]>();
+}
@@ -0,0 +1,81 @@
+/*
+ * MetricsLoggerParser.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inferencexml.loggers;
+
+import dr.inference.loggers.MetricsLogger;
+import dr.inference.markovchain.ChainMetrics;
+import dr.xml.*;
+
+import java.io.PrintWriter;
+
+/**
+ * Parses a metricsLog element which switches on the collection of operator and likelihood timings.
+ */
+public class MetricsLoggerParser extends AbstractXMLObjectParser {
+
+    public static final String METRICS_LOG = "metricsLog";
+
+    public String getParserName() {
+        return METRICS_LOG;
+    }
+
+    public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+        // logEvery of zero only writes the totals at the end of the run
+        long logEvery = xo.hasAttribute(LoggerParser.LOG_EVERY) ? xo.getLongIntegerAttribute(LoggerParser.LOG_EVERY) : 0;
+
+        final PrintWriter pw = LoggerParser.getLogFile(xo, getParserName());
+
+        ChainMetrics.setEnabled(true);
+
+        return new MetricsLogger(pw, logEvery, xo.hasAttribute(LoggerParser.FILE_NAME));
+    }
+
+    //************************************************************************
+    // AbstractXMLObjectParser implementation
+    //************************************************************************
+
+    public XMLSyntaxRule[] getSyntaxRules() {
+        return rules;
+    }
+
+    private final XMLSyntaxRule[] rules = {
+            AttributeRule.newLongIntegerRule(LoggerParser.LOG_EVERY, true),
+            AttributeRule.newBooleanRule(LoggerParser.ALLOW_OVERWRITE_LOG, true),
+            new StringAttributeRule(LoggerParser.FILE_NAME,
+                    "The name of the file to send the metrics to. " +
+                            "If no file name is specified then they are sent to standard output", true)
+    };
+
+    public String getParserDescription() {
+        return "Logs latency histograms (in nanoseconds) for each operator's store, operate, evaluate and " +
+                "restore steps and for each likelihood component's evaluation.";
+    }
+
+    public Class getReturnType() {
+        return MetricsLogger.class;
+    }
+}
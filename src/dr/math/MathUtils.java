@@ -54,6 +54,42 @@ public class MathUtils {
 	 */
 	private static final MersenneTwisterFast random = MersenneTwisterFast.DEFAULT_INSTANCE;
 
+	/**
+	 * Generators that replace the default instance for the threads that set one, so that chains run
+	 * concurrently draw reproducible, independent streams. The flag saves the thread local lookup when no
+	 * thread has its own generator.
+	 */
+	private static final ThreadLocal<MersenneTwisterFast> threadRandom = new ThreadLocal<MersenneTwisterFast>();
+	private static volatile boolean threadRandomInUse = false;
+
+	/**
+	 * Gives the calling thread its own generator, seeded with the given seed, in place of the default
+	 * instance for all the random number methods below except getSeed and setSeed.
+	 */
+	public static void setThreadSeed(long seed) {
+		MersenneTwisterFast generator = new MersenneTwisterFast();
+		generator.setSeed(seed);
+		threadRandom.set(generator);
+		threadRandomInUse = true;
+	}
+
+	/**
+	 * Returns the calling thread to the default instance.
+	 */
+	public static void clearThreadSeed() {
+		threadRandom.remove();
+	}
+
+	private static MersenneTwisterFast getRandom() {
+		if (threadRandomInUse) {
+			MersenneTwisterFast generator = threadRandom.get();
+			if (generator != null) {
+				return generator;
+			}
+		}
+		return random;
+	}
+
 	// Chooses one category if a cumulative probability distribution is given
 	public static int randomChoice(double[] cf) {
 
@@ -192,6 +228,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static byte nextByte() {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.nextByte();
 		}
@@ -201,6 +238,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static boolean nextBoolean() {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.nextBoolean();
 		}
@@ -210,6 +248,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static void nextBytes(byte[] bs) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			random.nextBytes(bs);
 		}
@@ -219,6 +258,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static char nextChar() {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.nextChar();
 		}
@@ -228,6 +268,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static double nextGaussian() {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.nextGaussian();
 		}
@@ -237,6 +278,7 @@ public class MathUtils {
 	//Variance = alpha / (lambda*lambda)
 
 	public static double nextGamma(double alpha, double lambda) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.nextGamma(alpha, lambda);
 		}
@@ -258,6 +300,7 @@ public class MathUtils {
 	 * @return a pseudo random double precision floating point number in [01)
 	 */
 	public static double nextDouble() {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.nextDouble();
 		}
@@ -274,6 +317,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static double nextExponential(double lambda) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return -1.0 * Math.log(1 - random.nextDouble()) / lambda;
 		}
@@ -283,6 +327,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static double nextInverseGaussian(double mu, double lambda) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			/* CODE TAKEN FROM WIKIPEDIA. TESTING DONE WITH RESULTS GENERATED IN R AND LOOK COMPARABLE */
 			double v = random.nextGaussian();   // sample from a normal distribution with a mean of 0 and 1 standard deviation
@@ -302,6 +347,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static float nextFloat() {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.nextFloat();
 		}
@@ -311,6 +357,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static long nextLong() {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.nextLong();
 		}
@@ -320,6 +367,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static short nextShort() {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.nextShort();
 		}
@@ -329,6 +377,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static int nextInt() {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.nextInt();
 		}
@@ -338,6 +387,7 @@ public class MathUtils {
 	 * Access a default instance of this class, access is synchronized
 	 */
 	public static int nextInt(int n) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.nextInt(n);
 		}
@@ -356,6 +406,7 @@ public class MathUtils {
 	 * Shuffles an array.
 	 */
 	public static void shuffle(int[] array) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			random.shuffle(array);
 		}
@@ -365,6 +416,7 @@ public class MathUtils {
 	 * Shuffles an array. Shuffles numberOfShuffles times
 	 */
 	public static void shuffle(int[] array, int numberOfShuffles) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			random.shuffle(array, numberOfShuffles);
 		}
@@ -376,6 +428,7 @@ public class MathUtils {
 	 * @param l length of the array required.
 	 */
 	public static int[] shuffled(int l) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.shuffled(l);
 		}
@@ -383,6 +436,7 @@ public class MathUtils {
 
 
 	public static int[] sampleIndicesWithReplacement(int length) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			int[] result = new int[length];
 			for (int i = 0; i < length; i++)
@@ -395,6 +449,7 @@ public class MathUtils {
 	 * Permutes an array.
 	 */
 	public static void permute(int[] array) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			random.permute(array);
 		}
@@ -406,6 +461,7 @@ public class MathUtils {
 	 * @param l length of the array required.
 	 */
 	public static int[] permuted(int l) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.permuted(l);
 		}
@@ -451,12 +507,14 @@ public class MathUtils {
 	}
 
 	public static int[] getRandomState() {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			return random.getRandomState();
 		}
 	}
 
 	public static void setRandomState(int[] rngState) {
+		final MersenneTwisterFast random = getRandom();
 		synchronized (random) {
 			random.setRandomState(rngState);
 		}
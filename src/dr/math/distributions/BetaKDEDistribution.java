@@ -77,6 +77,48 @@ public class BetaKDEDistribution extends KernelDensityEstimatorDistribution {
       *
       */
      protected double evaluateKernel(double x) {
+         if (densityGrid == null) {
+             densityGrid = tabulateDensity();
+         }
+         if (densityGrid.contains(x)) {
+             return densityGrid.evaluate(x);
+         }
+         if (logSample == null) {
+             logSample = logOf(sample, false);
+             logComplementSample = logOf(sample, true);
+         }
+         return sumKernels(x, logSample, logComplementSample, null);
+     }
+
+     /*
+      * Beta kernels change shape across the unit interval so they cannot be applied by FFT. Instead the
+      * estimate is tabulated once from the sample, linearly binned on the logit scale, across the bounds
+      * and then interpolated.
+      */
+     private KernelDensityGrid tabulateDensity() {
+         double[] logitSample = new double[N];
+         for (int i = 0; i < N; i++) {
+             logitSample[i] = Math.log(sample[i]) - Math.log(1.0 - sample[i]);
+         }
+         double[][] reduced = KernelDensityGrid.reduceSample(logitSample, GRID_SIZE);
+         double[] logitPoints = reduced[0];
+         double[] weights = reduced[1];
+         double[] logPoints = new double[logitPoints.length];
+         double[] logComplementPoints = new double[logitPoints.length];
+         for (int i = 0; i < logitPoints.length; i++) {
+             logPoints[i] = -Math.log1p(Math.exp(-logitPoints[i]));
+             logComplementPoints[i] = -Math.log1p(Math.exp(logitPoints[i]));
+         }
+
+         double[] density = new double[GRID_SIZE];
+         double delta = range / (GRID_SIZE - 1);
+         for (int i = 0; i < GRID_SIZE; i++) {
+             density[i] = sumKernels(lowerBound + i * delta, logPoints, logComplementPoints, weights);
+         }
+         return new KernelDensityGrid(lowerBound, upperBound, density);
+     }
+
+     private double sumKernels(double x, double[] logPoints, double[] logComplementPoints, double[] weights) {
 
          double xPrime = (x - lowerBound) / range;
          double alphaMinus1 = xPrime/bandWidth - 1.0;
@@ -90,10 +132,22 @@ public class BetaKDEDistribution extends KernelDensityEstimatorDistribution {
          double logK = GammaFunction.lnGamma(alphaMinus1+betaMinus1+2.0) - GammaFunction.lnGamma(alphaMinus1+1.0) - GammaFunction.lnGamma(betaMinus1+1.0);
 
          double pdf = 0;
-         for(int i=0; i<N; i++)
-             pdf +=  Math.pow(sample[i],alphaMinus1) * Math.pow(1.0-sample[i],betaMinus1);
+         for (int i = 0; i < logPoints.length; i++) {
+             // 0^0 = 1 for points on the bounds
+             final double logPower = (alphaMinus1 == 0.0 ? 0.0 : alphaMinus1 * logPoints[i]) +
+                     (betaMinus1 == 0.0 ? 0.0 : betaMinus1 * logComplementPoints[i]);
+             pdf += (weights != null ? weights[i] * Math.exp(logPower) : Math.exp(logPower));
+         }
 
-         return pdf * Math.exp(logK) / (double)N / range;
+         return (weights != null ? pdf : pdf / (double)N) * Math.exp(logK) / range;
+     }
+
+     private static double[] logOf(double[] values, boolean complement) {
+         double[] logValues = new double[values.length];
+         for (int i = 0; i < values.length; i++) {
+             logValues[i] = Math.log(complement ? 1.0 - values[i] : values[i]);
+         }
+         return logValues;
      }
 
      private double getRho(double x, double bandWidth) {
@@ -108,6 +162,12 @@ public class BetaKDEDistribution extends KernelDensityEstimatorDistribution {
 
     private double range;
 
+    private static final int GRID_SIZE = 2048;
+
+    private KernelDensityGrid densityGrid;
+    private double[] logSample;
+    private double[] logComplementSample;
+
 // public static void main(String[] args) {
 //
 //     String fileName = "out.txt";
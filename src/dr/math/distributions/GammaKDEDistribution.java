@@ -25,6 +25,7 @@
 
 package dr.math.distributions;
 
+import dr.math.GammaFunction;
 import dr.stats.DiscreteStatistics;
 
 import java.util.Random;
@@ -72,7 +73,46 @@ public class GammaKDEDistribution extends KernelDensityEstimatorDistribution {
 
     }
 
+    /**
+     * Gamma kernels change shape along the x axis so they cannot be applied by FFT. Instead the estimate is
+     * tabulated once from the sample, linearly binned on the log scale, on a grid covering the sample and its upper tail,
+     * after which evaluations are interpolated; points beyond the grid are summed over the full sample.
+     */
     protected double evaluateKernel(double x) {
+        if (densityGrid == null) {
+            densityGrid = tabulateDensity();
+        }
+        if (densityGrid.contains(x)) {
+            return densityGrid.evaluate(x);
+        }
+        if (logSample == null) {
+            logSample = logOf(sample);
+        }
+        return sumKernels(x, sample, logSample, null);
+    }
+
+    private KernelDensityGrid tabulateDensity() {
+        double[][] reduced = KernelDensityGrid.reduceSample(logOf(sample), GRID_SIZE);
+        double[] logPoints = reduced[0];
+        double[] weights = reduced[1];
+        double[] points = new double[logPoints.length];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = Math.exp(logPoints[i]);
+        }
+
+        // the kernel at x has a standard deviation of sqrt(x * bandWidth)
+        double max = DiscreteStatistics.max(sample);
+        double upper = max + TAIL_CUT * Math.sqrt(bandWidth * (max + bandWidth));
+
+        double[] density = new double[GRID_SIZE];
+        double delta = (upper - lowerBound) / (GRID_SIZE - 1);
+        for (int i = 0; i < GRID_SIZE; i++) {
+            density[i] = sumKernels(lowerBound + i * delta, points, logPoints, weights);
+        }
+        return new KernelDensityGrid(lowerBound, upper, density);
+    }
+
+    private double sumKernels(double x, double[] points, double[] logPoints, double[] weights) {
 
         double shape;
         double scale;
@@ -83,19 +123,32 @@ public class GammaKDEDistribution extends KernelDensityEstimatorDistribution {
             shape = .25 * Math.pow(x / bandWidth, 2) + 1;
         }
         scale = bandWidth;
+        final double logNormalization = shape * Math.log(scale) + GammaFunction.lnGamma(shape);
+
         double pdf = 0;
-        for (int i = 0; i < N; i++) {
-            pdf +=
-                    Math.pow(sample[i], shape - 1) * Math.exp(-sample[i] / scale) / (Math.pow(scale, shape) * gamma(shape));
+        for (int i = 0; i < points.length; i++) {
+            // (shape - 1) is zero at x = 0 where a point at zero contributes 0^0 = 1
+            final double logPower = (shape == 1.0 ? 0.0 : (shape - 1) * logPoints[i]);
+            final double kernel = Math.exp(logPower - points[i] / scale - logNormalization);
+            pdf += (weights != null ? weights[i] * kernel : kernel);
         }
-        return pdf / N;
+        return (weights != null ? pdf : pdf / N);
     }
 
-    private double gamma(double value) {
-        return cern.jet.stat.Gamma.gamma(value);
-
+    private static double[] logOf(double[] values) {
+        double[] logValues = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            logValues[i] = Math.log(values[i]);
+        }
+        return logValues;
     }
 
+    private static final int GRID_SIZE = 2048;
+    private static final double TAIL_CUT = 4.0;
+
+    private KernelDensityGrid densityGrid;
+    private double[] logSample;
+
     public static void main(String[] args) {
 
         long start = System.currentTimeMillis();
@@ -0,0 +1,203 @@
+/*
+ * KernelDensityGrid.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.math.distributions;
+
+import java.util.Arrays;
+
+/**
+ * A density tabulated on an evenly spaced grid. Evaluation is a constant time linear interpolation
+ * between the two neighbouring grid points so that kernel density estimates can be computed once and
+ * then looked up cheaply (e.g., when used as priors inside an MCMC chain).
+ */
+public class KernelDensityGrid {
+
+    /**
+     * @param lower the first grid point
+     * @param upper the last grid point
+     * @param density the density at each of the evenly spaced grid points
+     */
+    public KernelDensityGrid(double lower, double upper, double[] density) {
+        if (density.length < 2) {
+            throw new IllegalArgumentException("Density grid needs at least two points");
+        }
+        this.lower = lower;
+        this.upper = upper;
+        this.delta = (upper - lower) / (density.length - 1);
+        this.density = density;
+    }
+
+    public boolean contains(double x) {
+        return x >= lower && x <= upper;
+    }
+
+    /**
+     * @param x evaluation point
+     * @return the interpolated density or zero outside the grid
+     */
+    public double evaluate(double x) {
+        if (x < lower || x > upper) {
+            return 0.0;
+        }
+
+        final double position = (x - lower) / delta;
+        final int i = (int) position;
+        if (i >= density.length - 1) {
+            return density[density.length - 1];
+        }
+        return density[i] + (density[i + 1] - density[i]) * (position - i);
+    }
+
+    public double getLower() {
+        return lower;
+    }
+
+    public double getUpper() {
+        return upper;
+    }
+
+    public int getPointCount() {
+        return density.length;
+    }
+
+    public double getPoint(int index) {
+        return lower + index * delta;
+    }
+
+    public double getDensity(int index) {
+        return density[index];
+    }
+
+    /**
+     * Spreads the unit mass of a sample over an evenly spaced grid, splitting each value between its two
+     * neighbouring grid points in proportion to its distance from them (linear binning).
+     *
+     * @param sample the values to bin
+     * @param lower the first grid point
+     * @param upper the last grid point
+     * @param gridSize the number of grid points
+     * @return the mass at each grid point
+     */
+    public static double[] linearBinning(double[] sample, double lower, double upper, int gridSize) {
+        double[] mass = new double[gridSize];
+
+        final double delta = (upper - lower) / (gridSize - 1);
+        final double weight = 1.0 / sample.length;
+        for (double value : sample) {
+            final double position = (value - lower) / delta;
+            final int i = (int) Math.floor(position);
+            final double fraction = position - i;
+
+            if (i >= 0 && i < gridSize - 1) {
+                mass[i] += (1 - fraction) * weight;
+                mass[i + 1] += fraction * weight;
+            } else if (i == -1) {
+                mass[0] += fraction * weight;
+            } else if (i == gridSize - 1) {
+                mass[i] += (1 - fraction) * weight;
+            }
+        }
+        return mass;
+    }
+
+    /**
+     * Reduces a sample to weighted points for kernels that have to be summed directly. Samples with no
+     * more than gridSize values are returned as they are, larger ones are linearly binned over their range.
+     * Binning should be done on a scale on which the kernels are smooth (e.g., log or logit transformed)
+     * and infinite values (the transformed bounds) are kept as separate points.
+     *
+     * @param sample the values
+     * @param gridSize the maximum number of binned points
+     * @return the points and their weights (which sum to one) as {points, weights}
+     */
+    public static double[][] reduceSample(double[] sample, int gridSize) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        int negativeInfinityCount = 0;
+        int positiveInfinityCount = 0;
+        for (double value : sample) {
+            if (value == Double.NEGATIVE_INFINITY) {
+                negativeInfinityCount++;
+            } else if (value == Double.POSITIVE_INFINITY) {
+                positiveInfinityCount++;
+            } else {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+        }
+
+        if (sample.length <= gridSize || !(max > min)) {
+            double[] weights = new double[sample.length];
+            Arrays.fill(weights, 1.0 / sample.length);
+            return new double[][] { sample.clone(), weights };
+        }
+
+        int finiteCount = sample.length - negativeInfinityCount - positiveInfinityCount;
+        double[] finiteSample = new double[finiteCount];
+        int k = 0;
+        for (double value : sample) {
+            if (!Double.isInfinite(value)) {
+                finiteSample[k] = value;
+                k++;
+            }
+        }
+        double[] mass = linearBinning(finiteSample, min, max, gridSize);
+
+        int count = (negativeInfinityCount > 0 ? 1 : 0) + (positiveInfinityCount > 0 ? 1 : 0);
+        for (double m : mass) {
+            if (m > 0.0) {
+                count++;
+            }
+        }
+
+        double[] points = new double[count];
+        double[] weights = new double[count];
+        k = 0;
+        if (negativeInfinityCount > 0) {
+            points[k] = Double.NEGATIVE_INFINITY;
+            weights[k] = (double) negativeInfinityCount / sample.length;
+            k++;
+        }
+        final double delta = (max - min) / (gridSize - 1);
+        final double finiteWeight = (double) finiteCount / sample.length;
+        for (int i = 0; i < gridSize; i++) {
+            if (mass[i] > 0.0) {
+                points[k] = (i == gridSize - 1 ? max : min + i * delta);
+                weights[k] = mass[i] * finiteWeight;
+                k++;
+            }
+        }
+        if (positiveInfinityCount > 0) {
+            points[k] = Double.POSITIVE_INFINITY;
+            weights[k] = (double) positiveInfinityCount / sample.length;
+        }
+        return new double[][] { points, weights };
+    }
+
+    private final double lower;
+    private final double upper;
+    private final double delta;
+    private final double[] density;
+}
@@ -28,7 +28,6 @@ package dr.math.distributions;
 import dr.math.ComplexArray;
 import dr.math.FastFourierTransform;
 import dr.stats.DiscreteStatistics;
-import dr.util.HeapSort;
 
 import java.util.Arrays;
 
@@ -243,6 +242,7 @@ public class LogTransformedNormalKDEDistribution extends KernelDensityEstimatorD
         //preferably before setting densityKnown to true
         //stored values are in xPoints and densityPoints
         transformEstimator();
+        densityGrid = new KernelDensityGrid(xPoints[0], xPoints[xPoints.length - 1], finalDensityPoints);
         densityKnown = true;
     }
     
@@ -378,7 +378,7 @@ public class LogTransformedNormalKDEDistribution extends KernelDensityEstimatorD
         	computeDensity();
         }
         //xPoints and densityPoints are now back in normal space
-        return linearApproximate(xPoints, finalDensityPoints, x, 0.0, 0.0);
+        return densityGrid.evaluate(x);
     }
 
     @Override
@@ -401,11 +401,12 @@ public class LogTransformedNormalKDEDistribution extends KernelDensityEstimatorD
     }
 
     public double bandwidthNRD(double[] x) {
-        int[] indices = new int[x.length];
-        HeapSort.sort(x, indices);
+        double[] sorted = x.clone();
+        Arrays.sort(sorted);
 
+        // the same order statistics as DiscreteStatistics.quantile
         final double h =
-                (DiscreteStatistics.quantile(0.75, x, indices) - DiscreteStatistics.quantile(0.25, x, indices)) / 1.34;
+                (sorted[(int) Math.ceil(0.75 * sorted.length) - 1] - sorted[(int) Math.ceil(0.25 * sorted.length) - 1]) / 1.34;
         return 1.06 *
                 Math.min(Math.sqrt(DiscreteStatistics.variance(x)), h) *
                 Math.pow(x.length, -0.2);
@@ -414,6 +415,7 @@ public class LogTransformedNormalKDEDistribution extends KernelDensityEstimatorD
     private ComplexArray kOrdinates;
     private double[] xPoints, backupXPoints;
     private double[] densityPoints, finalDensityPoints;
+    private KernelDensityGrid densityGrid;
     private double[] backupSample, logSample;
 
     private int gridSize;
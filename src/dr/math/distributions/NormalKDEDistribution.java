@@ -28,8 +28,8 @@ package dr.math.distributions;
 import dr.math.ComplexArray;
 import dr.math.FastFourierTransform;
 import dr.stats.DiscreteStatistics;
-import dr.util.HeapSort;
 
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -78,46 +78,6 @@ public class NormalKDEDistribution extends KernelDensityEstimatorDistribution {
         return to;
     }
 
-    /**
-     * Returns a linear approximation evaluated at pt
-     * @param x data (assumed sorted increasingly
-     * @param y data
-     * @param pt evaluation point
-     * @param low return value if pt < x
-     * @param high return value if pt > x
-     * @return  evaluated coordinate
-     */
-    private double linearApproximate(double[] x, double[] y, double pt, double low, double high) {
-
-        int i = 0;
-        int j = x.length - 1;
-
-        if (pt < x[i]) {
-            return low;
-        }
-        if (pt > x[j]) {
-            return high;
-        }
-
-        // Bisection search
-        while (i < j - 1) {
-            int ij = (i + j) / 2;
-            if (pt < x[ij]) {
-                j = ij;
-            } else {
-                i = ij;
-            }
-        }
-
-        if (pt == x[j]) {
-            return y[j];
-        }
-        if (pt == x[i]) {
-            return y[i];
-        }
-        return y[i] + (y[j] - y[i]) * ((pt - x[i]) / (x[j] - x[i]));
-    }
-
     private double[] rescaleAndTrim(double[] x) {
         final int length = x.length / 2;
         final double scale = 1.0 / x.length;
@@ -183,6 +143,7 @@ public class NormalKDEDistribution extends KernelDensityEstimatorDistribution {
     protected void computeDensity() {
         makeOrdinates();
         transformData();
+        densityGrid = new KernelDensityGrid(xPoints[0], xPoints[gridSize - 1], densityPoints);
         densityKnown = true;
     }
 
@@ -234,7 +195,17 @@ public class NormalKDEDistribution extends KernelDensityEstimatorDistribution {
         if (!densityKnown) {
            computeDensity();
         }
-        return linearApproximate(xPoints, densityPoints, x, 0.0, 0.0);
+        return densityGrid.evaluate(x);
+    }
+
+    /**
+     * @return the estimated density tabulated on the FFT grid
+     */
+    public KernelDensityGrid getDensityGrid() {
+        if (!densityKnown) {
+            computeDensity();
+        }
+        return densityGrid;
     }
 
     @Override
@@ -265,11 +236,12 @@ public class NormalKDEDistribution extends KernelDensityEstimatorDistribution {
 //   }
 
     public double bandwidthNRD(double[] x) {
-        int[] indices = new int[x.length];
-        HeapSort.sort(x, indices);
+        double[] sorted = x.clone();
+        Arrays.sort(sorted);
 
+        // the same order statistics as DiscreteStatistics.quantile
         final double h =
-                (DiscreteStatistics.quantile(0.75, x, indices) - DiscreteStatistics.quantile(0.25, x, indices)) / 1.34;
+                (sorted[(int) Math.ceil(0.75 * sorted.length) - 1] - sorted[(int) Math.ceil(0.25 * sorted.length) - 1]) / 1.34;
         return 1.06 *
                 Math.min(Math.sqrt(DiscreteStatistics.variance(x)), h) *
                 Math.pow(x.length, -0.2);
@@ -278,6 +250,7 @@ public class NormalKDEDistribution extends KernelDensityEstimatorDistribution {
     private ComplexArray kOrdinates;
     private double[] xPoints;
     private double[] densityPoints;
+    private KernelDensityGrid densityGrid;
 
     private int gridSize;
     private double cut;
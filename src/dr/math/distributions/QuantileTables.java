@@ -0,0 +1,335 @@
+/*
+ * QuantileTables.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.math.distributions;
+
+import org.apache.commons.math.MathException;
+import org.apache.commons.math.special.Gamma;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Batch evaluation of the quantiles at the midpoints of equal probability categories, i.e.
+ * quantile((2i + 1) / 2n) for i = 0..n-1, as used to discretize rate distributions.
+ * <p/>
+ * The normal (and so lognormal) and exponential families are location-scale families so the standard
+ * quantiles are computed once per category count and then transformed. The gamma quantiles depend on the
+ * shape so a table of standard (unit scale) quantiles is kept on a grid of shapes, evenly spaced in log
+ * shape. For other shapes the node quantiles are interpolated (in log space) to give a starting point that
+ * is refined with Halley's method on the regularized incomplete gamma function, so every returned value is
+ * within a relative error of GAMMA_TOLERANCE whatever the grid spacing (for very large shapes, where the
+ * incomplete gamma function is slow to converge, the AS91 approximation is used instead). The quantiles of
+ * the most recently used shapes are also kept so that restoring a shape costs only a copy.
+ * <p/>
+ * All the tables are shared, thread safe and immutable once published.
+ */
+public final class QuantileTables {
+
+    /**
+     * The relative error bound on the returned standard gamma quantiles
+     */
+    public static final double GAMMA_TOLERANCE = 1.0E-12;
+
+    private QuantileTables() {
+        // static methods only
+    }
+
+    /**
+     * @param count the number of categories
+     * @return the category midpoint probabilities (2i + 1) / 2n - this array is shared and should not be modified
+     */
+    public static double[] getProbabilities(int count) {
+        double[] probabilities = PROBABILITIES.get(count);
+        if (probabilities == null) {
+            probabilities = new double[count];
+            for (int i = 0; i < count; i++) {
+                probabilities[i] = (2.0 * i + 1.0) / (2.0 * count);
+            }
+            PROBABILITIES.putIfAbsent(count, probabilities);
+        }
+        return probabilities;
+    }
+
+    /**
+     * Fills quantiles with the midpoint quantiles of the lognormal distribution exp(N(m, s^2)) + offset.
+     */
+    public static void logNormalQuantiles(double m, double s, double offset, double[] quantiles) {
+        final double[] z = getStandardNormalQuantiles(quantiles.length);
+        for (int i = 0; i < quantiles.length; i++) {
+            quantiles[i] = Math.exp(m + s * z[i]) + offset;
+        }
+    }
+
+    /**
+     * Fills quantiles with the midpoint quantiles of the exponential distribution with the given mean, plus offset.
+     */
+    public static void exponentialQuantiles(double mean, double offset, double[] quantiles) {
+        final double[] e = getStandardExponentialQuantiles(quantiles.length);
+        for (int i = 0; i < quantiles.length; i++) {
+            quantiles[i] = mean * e[i] + offset;
+        }
+    }
+
+    /**
+     * Fills quantiles with the midpoint quantiles of the gamma distribution with the given shape and scale, plus offset.
+     */
+    public static void gammaQuantiles(double shape, double scale, double offset, double[] quantiles) {
+        if (!(shape > 0.0) || Double.isInfinite(shape)) {
+            throw new IllegalArgumentException("The gamma shape must be positive and finite: " + shape);
+        }
+        final double[] g = getGammaTable(quantiles.length).getQuantiles(shape);
+        for (int i = 0; i < quantiles.length; i++) {
+            quantiles[i] = scale * g[i] + offset;
+        }
+    }
+
+    /**
+     * The quantile of the gamma distribution with unit scale, refined to within GAMMA_TOLERANCE
+     * from the starting point x.
+     *
+     * @param p     the probability
+     * @param shape the shape
+     * @param x     a starting point (or a non-positive value if there is none)
+     * @return the quantile
+     */
+    public static double standardGammaQuantile(double p, double shape, double x) {
+        return refineGammaQuantile(p, shape, Gamma.logGamma(shape), x);
+    }
+
+    private static double[] getStandardNormalQuantiles(int count) {
+        double[] z = NORMAL.get(count);
+        if (z == null) {
+            final double[] probabilities = getProbabilities(count);
+            z = new double[count];
+            for (int i = 0; i < count; i++) {
+                z[i] = NormalDistribution.quantile(probabilities[i], 0.0, 1.0);
+            }
+            NORMAL.putIfAbsent(count, z);
+        }
+        return z;
+    }
+
+    private static double[] getStandardExponentialQuantiles(int count) {
+        double[] e = EXPONENTIAL.get(count);
+        if (e == null) {
+            final double[] probabilities = getProbabilities(count);
+            e = new double[count];
+            for (int i = 0; i < count; i++) {
+                e[i] = -Math.log1p(-probabilities[i]);
+            }
+            EXPONENTIAL.putIfAbsent(count, e);
+        }
+        return e;
+    }
+
+    private static GammaTable getGammaTable(int count) {
+        GammaTable table = GAMMA.get(count);
+        if (table == null) {
+            GAMMA.putIfAbsent(count, new GammaTable(count));
+            table = GAMMA.get(count);
+        }
+        return table;
+    }
+
+    /**
+     * Halley's method on log(x) for P(shape, x) = p, safeguarded by bisection once the root is bracketed.
+     */
+    private static double refineGammaQuantile(double p, double shape, double logGammaShape, double x) {
+        // for small x, P(a, x) ~ x^a / Gamma(a + 1)
+        final double uSmall = (Math.log(p) + logGammaShape + Math.log(shape)) / shape;
+        if (uSmall < MIN_LOG_X) {
+            // beyond the range in which P can be evaluated - the leading term is accurate here
+            return Math.exp(uSmall);
+        }
+
+        double u;
+        if (x > 0.0 && !Double.isInfinite(x)) {
+            u = Math.log(x);
+        } else if (p < 0.5 && uSmall < 0.0) {
+            u = uSmall;
+        } else {
+            u = Math.log(GammaDistribution.quantile(p, shape, 1.0));
+        }
+
+        double lower = Double.NEGATIVE_INFINITY;
+        double upper = Double.POSITIVE_INFINITY;
+
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            final double x1 = Math.exp(u);
+            final double f = regularizedGammaP(shape, x1) - p;
+            if (Double.isNaN(f)) {
+                return GammaDistribution.quantile(p, shape, 1.0);
+            }
+            if (f == 0.0) {
+                return x1;
+            }
+            if (f < 0.0) {
+                lower = u;
+            } else {
+                upper = u;
+            }
+
+            // derivatives of P(a, exp(u)) with respect to u
+            final double d1 = Math.exp(shape * u - x1 - logGammaShape);
+            double step = f / d1;
+            final double correction = 1.0 - 0.5 * step * (shape - x1);
+            if (correction > 0.5) {
+                // only take the Halley correction when it does not blow up the step
+                step /= correction;
+            }
+
+            if (Math.abs(step) <= GAMMA_TOLERANCE) {
+                return Math.exp(u - step);
+            }
+
+            double next = u - step;
+            if (Double.isNaN(next) || next <= lower || next >= upper) {
+                if (Double.isInfinite(lower)) {
+                    next = upper - 1.0;
+                } else if (Double.isInfinite(upper)) {
+                    next = lower + 1.0;
+                } else {
+                    next = 0.5 * (lower + upper);
+                }
+            }
+
+            if (upper - lower <= GAMMA_TOLERANCE) {
+                return Math.exp(0.5 * (lower + upper));
+            }
+            u = next;
+        }
+        return Math.exp(u);
+    }
+
+    private static double regularizedGammaP(double shape, double x) {
+        try {
+            return Gamma.regularizedGammaP(shape, x, 1.0E-15, Integer.MAX_VALUE);
+        } catch (MathException e) {
+            throw new RuntimeException("Unable to compute the incomplete gamma function: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The standard gamma quantiles for one category count.
+     */
+    private static final class GammaTable {
+
+        GammaTable(int count) {
+            this.probabilities = getProbabilities(count);
+            this.maxNodes = Math.max(4, MAX_TABLE_SIZE / count);
+        }
+
+        double[] getQuantiles(double shape) {
+            synchronized (recent) {
+                final double[] quantiles = recent.get(shape);
+                if (quantiles != null) {
+                    return quantiles;
+                }
+            }
+
+            final double position = Math.log(shape) / NODE_SPACING;
+            final int node = (int) Math.floor(position);
+            final double[] quantiles;
+            if (shape > MAX_TABLE_SHAPE) {
+                // the incomplete gamma function converges slowly here but the AS91 approximation is good
+                quantiles = new double[probabilities.length];
+                for (int i = 0; i < quantiles.length; i++) {
+                    quantiles[i] = GammaDistribution.quantile(probabilities[i], shape, 1.0);
+                }
+            } else if (position == node) {
+                quantiles = getNode(node);
+            } else {
+                final double[] lower = getNode(node);
+                final double[] upper = getNode(node + 1);
+                final double weight = position - node;
+                final double logGammaShape = Gamma.logGamma(shape);
+
+                quantiles = new double[probabilities.length];
+                for (int i = 0; i < quantiles.length; i++) {
+                    double start = 0.0;
+                    if (lower[i] > 0.0 && upper[i] > 0.0) {
+                        start = Math.exp((1.0 - weight) * Math.log(lower[i]) + weight * Math.log(upper[i]));
+                    }
+                    quantiles[i] = refineGammaQuantile(probabilities[i], shape, logGammaShape, start);
+                }
+            }
+
+            synchronized (recent) {
+                recent.put(shape, quantiles);
+            }
+            return quantiles;
+        }
+
+        private double[] getNode(int node) {
+            double[] quantiles = nodes.get(node);
+            if (quantiles == null) {
+                final double shape = Math.exp(node * NODE_SPACING);
+                final double logGammaShape = Gamma.logGamma(shape);
+
+                quantiles = new double[probabilities.length];
+                double start = 0.0;
+                for (int i = 0; i < quantiles.length; i++) {
+                    // each category starts from its predecessor
+                    quantiles[i] = refineGammaQuantile(probabilities[i], shape, logGammaShape, start);
+                    start = quantiles[i];
+                }
+
+                if (nodes.size() >= maxNodes) {
+                    // the chain has wandered - start again around the current shapes
+                    nodes.clear();
+                }
+                nodes.putIfAbsent(node, quantiles);
+            }
+            return quantiles;
+        }
+
+        private final double[] probabilities;
+        private final int maxNodes;
+        private final ConcurrentMap<Integer, double[]> nodes = new ConcurrentHashMap<Integer, double[]>();
+        private final Map<Double, double[]> recent = new LinkedHashMap<Double, double[]>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Double, double[]> eldest) {
+                return size() > RECENT_SHAPES;
+            }
+        };
+    }
+
+    // the gamma table nodes are 2^(1/32) apart in shape
+    private static final double NODE_SPACING = Math.log(2.0) / 32.0;
+    // the number of doubles held in the nodes of one gamma table
+    private static final int MAX_TABLE_SIZE = 1 << 20;
+    // above this shape the quantiles are those of GammaDistribution.quantile (within about 1E-9)
+    private static final double MAX_TABLE_SHAPE = 1000.0;
+    private static final int RECENT_SHAPES = 8;
+    private static final int MAX_ITERATIONS = 200;
+    private static final double MIN_LOG_X = Math.log(Double.MIN_NORMAL);
+
+    private static final ConcurrentMap<Integer, double[]> PROBABILITIES = new ConcurrentHashMap<Integer, double[]>();
+    private static final ConcurrentMap<Integer, double[]> NORMAL = new ConcurrentHashMap<Integer, double[]>();
+    private static final ConcurrentMap<Integer, double[]> EXPONENTIAL = new ConcurrentHashMap<Integer, double[]>();
+    private static final ConcurrentMap<Integer, GammaTable> GAMMA = new ConcurrentHashMap<Integer, GammaTable>();
+}
@@ -0,0 +1,155 @@
+/*
+ * SymmetricTridiagonalCholesky.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.math.matrixAlgebra;
+
+/**
+ * Cholesky factorization Q = U^T U of a symmetric positive definite tridiagonal matrix given by its
+ * diagonal and off-diagonal, with the triangular solves needed to find the mean of and sample from a
+ * Gaussian in canonical form. All work is done in arrays allocated once so repeated factorizations
+ * (e.g. by the GMRF block update operators) do not generate garbage.
+ */
+public class SymmetricTridiagonalCholesky {
+
+    // the same cut off as GMRFSkyrideBlockUpdateOperator.logGeneralizedDeterminant
+    private static final double SINGULAR_PIVOT = 0.0000001;
+
+    public SymmetricTridiagonalCholesky(int dimension) {
+        this.dimension = dimension;
+        this.upperDiagonal = new double[dimension];
+        this.upperOffDiagonal = new double[Math.max(dimension - 1, 0)];
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Factors the matrix. The arguments are not modified.
+     *
+     * @param diagonal    the dimension diagonal entries
+     * @param offDiagonal the dimension - 1 entries Q[i][i+1]
+     * @return false if the matrix is not positive definite (the factor is then not usable)
+     */
+    public boolean factor(double[] diagonal, double[] offDiagonal) {
+        double pivot = diagonal[0];
+        if (!(pivot > 0.0)) {
+            return false;
+        }
+        upperDiagonal[0] = Math.sqrt(pivot);
+        for (int i = 1; i < dimension; i++) {
+            double e = offDiagonal[i - 1] / upperDiagonal[i - 1];
+            upperOffDiagonal[i - 1] = e;
+            pivot = diagonal[i] - e * e;
+            if (!(pivot > 0.0)) {
+                return false;
+            }
+            upperDiagonal[i] = Math.sqrt(pivot);
+        }
+        return true;
+    }
+
+    /**
+     * Solves U^T x = b. x and b may be the same array.
+     */
+    public void solveTranspose(double[] b, double[] x) {
+        x[0] = b[0] / upperDiagonal[0];
+        for (int i = 1; i < dimension; i++) {
+            x[i] = (b[i] - upperOffDiagonal[i - 1] * x[i - 1]) / upperDiagonal[i];
+        }
+    }
+
+    /**
+     * Solves U x = b. x and b may be the same array.
+     */
+    public void solve(double[] b, double[] x) {
+        int last = dimension - 1;
+        x[last] = b[last] / upperDiagonal[last];
+        for (int i = last - 1; i >= 0; i--) {
+            x[i] = (b[i] - upperOffDiagonal[i] * x[i + 1]) / upperDiagonal[i];
+        }
+    }
+
+    /**
+     * Solves Q x = b using the factorization. x and b may be the same array.
+     */
+    public void solveSystem(double[] b, double[] x) {
+        solveTranspose(b, x);
+        solve(x, x);
+    }
+
+    /**
+     * @return log det(U) = 0.5 * log det(Q), ignoring (near) zero pivots
+     */
+    public double getLogDeterminantOfFactor() {
+        double logDet = 0.0;
+        for (int i = 0; i < dimension; i++) {
+            if (upperDiagonal[i] > SINGULAR_PIVOT) {
+                logDet += Math.log(upperDiagonal[i]);
+            }
+        }
+        return logDet;
+    }
+
+    public double[] getUpperDiagonal() {
+        return upperDiagonal;
+    }
+
+    public double[] getUpperOffDiagonal() {
+        return upperOffDiagonal;
+    }
+
+    /**
+     * result = Q x for the symmetric tridiagonal Q. x and result must be different arrays.
+     */
+    public static void multiply(double[] diagonal, double[] offDiagonal, double[] x, double[] result) {
+        int n = diagonal.length;
+        if (n == 1) {
+            result[0] = diagonal[0] * x[0];
+            return;
+        }
+        result[0] = diagonal[0] * x[0] + offDiagonal[0] * x[1];
+        for (int i = 1; i < n - 1; i++) {
+            result[i] = offDiagonal[i - 1] * x[i - 1] + diagonal[i] * x[i] + offDiagonal[i] * x[i + 1];
+        }
+        result[n - 1] = offDiagonal[n - 2] * x[n - 2] + diagonal[n - 1] * x[n - 1];
+    }
+
+    /**
+     * @return x^T Q x for the symmetric tridiagonal Q
+     */
+    public static double quadraticForm(double[] diagonal, double[] offDiagonal, double[] x) {
+        int n = diagonal.length;
+        double sum = diagonal[n - 1] * x[n - 1] * x[n - 1];
+        for (int i = 0; i < n - 1; i++) {
+            sum += x[i] * (diagonal[i] * x[i] + 2.0 * offDiagonal[i] * x[i + 1]);
+        }
+        return sum;
+    }
+
+    private final int dimension;
+    private final double[] upperDiagonal;
+    private final double[] upperOffDiagonal;
+}
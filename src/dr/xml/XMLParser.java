@@ -135,6 +135,20 @@ public class XMLParser {
         javax.xml.parsers.DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
         Document document = documentBuilder.parse(in);
 
+        return parse(document, target);
+    }
+
+    /**
+     * Parses an already loaded document (which may have been edited) returning the first
+     * object of the target class. No runnable elements are run.
+     *
+     * @param document the DOM document
+     * @param target the class of the object to return
+     * @return the first object of the target class
+     * @throws dr.xml.XMLParseException
+     */
+    public Object parse(Document document, Class target) throws dr.xml.XMLParseException {
+
         Element e = document.getDocumentElement();
         if (e.getTagName().equals("beast")) {
 
@@ -445,6 +459,13 @@ public class XMLParser {
     public static PrintWriter getFilePrintWriter(XMLObject xo, String parserName, String attributeName) throws XMLParseException {
 
         if (xo.hasAttribute(attributeName)) {
+            if (isDiscardingOutput()) {
+                return new PrintWriter(new OutputStream() {
+                    public void write(int b) {
+                    }
+                });
+            }
+
             File logFile = getLogFile(xo, attributeName);
 
             try {
@@ -458,6 +479,25 @@ public class XMLParser {
         return new PrintWriter(System.out);
     }
 
+    /**
+     * While set, the elements parsed on the calling thread are given writers that discard their output
+     * in place of their files. This is used to parse a copy of a model without touching the files the
+     * original is writing to.
+     */
+    public static void setDiscardingOutput(boolean discard) {
+        discardingOutput.set(discard);
+    }
+
+    public static boolean isDiscardingOutput() {
+        return discardingOutput.get();
+    }
+
+    private static final ThreadLocal<Boolean> discardingOutput = new ThreadLocal<Boolean>() {
+        protected Boolean initialValue() {
+            return false;
+        }
+    };
+
     public static File getLogFile(XMLObject xo, String attributeName) throws XMLParseException {
         final File logFile = getFileHandle(xo, attributeName);
         boolean allowOverwrite = false;
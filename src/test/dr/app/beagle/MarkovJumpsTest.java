@@ -121,6 +121,104 @@ public class MarkovJumpsTest extends TraceCorrelationAssert {
         assertEquals(valuesFromR, averages, 1E-2);
     }
 
+    public void testLazyMarkovJumps() {
+
+        MathUtils.setSeed(666);
+
+        int taxonCount = 24;
+        int siteCount = 30;
+        String[][] sequences = new String[2][taxonCount];
+        for (int i = 0; i < taxonCount; i++) {
+            sequences[0][i] = "taxon" + i;
+            StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < siteCount; j++) {
+                sb.append("ACGT".charAt(MathUtils.nextInt(4)));
+            }
+            sequences[1][i] = sb.toString();
+        }
+        createAlignment(sequences, Nucleotides.INSTANCE);
+        try {
+            createRandomInitialTree(1.0);
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to simulate tree");
+        }
+
+        Parameter freqs = new Parameter.Default(new double[]{0.40, 0.25, 0.25, 0.10});
+        Parameter kappa = new Parameter.Default(HKYParser.KAPPA, 10.0, 0, 100);
+        HKY hky = new HKY(kappa, new FrequencyModel(Nucleotides.INSTANCE, freqs));
+
+        Parameter mu = new Parameter.Default(GammaSiteModelParser.MUTATION_RATE, 0.5, 0, Double.POSITIVE_INFINITY);
+        Parameter alpha = new Parameter.Default(GammaSiteModelParser.GAMMA_SHAPE, 0.5, 0, Double.POSITIVE_INFINITY);
+        GammaSiteRateModel siteRateModel = new GammaSiteRateModel("gammaModel", mu, alpha, 4, null);
+        siteRateModel.setSubstitutionModel(hky);
+
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+
+        MarkovJumpsBeagleTreeLikelihood eager = createLikelihood(patterns, siteRateModel, hky);
+        MarkovJumpsBeagleTreeLikelihood lazy = createLikelihood(patterns, siteRateModel, hky);
+        lazy.setUseLazyJumps(true, 4);
+
+        for (int i = 0; i < 10; i++) {
+            if (i == 5) {
+                kappa.setParameterValue(0, 2.0); // invalidates every cached branch
+            }
+
+            // the states are redrawn without a model change the second time, so all branches come from the cache
+            for (int redraw = 0; redraw < 2; redraw++) {
+                drawStates(eager, redraw == 0, i + 1);
+                drawStates(lazy, redraw == 0, i + 1);
+
+                for (int r = 0; r < registerValues.length; r++) {
+                    double[][] expected = eager.getMarkovJumpsForRegister(treeModel, r);
+                    double[][] values = lazy.getMarkovJumpsForRegister(treeModel, r);
+                    for (int n = 0; n < expected.length; n++) {
+                        assertEquals(expected[n], values[n], 1E-12);
+                    }
+                }
+            }
+        }
+    }
+
+    private void drawStates(MarkovJumpsBeagleTreeLikelihood likelihood, boolean makeDirty, long seed) {
+        MathUtils.setSeed(seed);
+        if (makeDirty) {
+            likelihood.makeDirty();
+            likelihood.getStatesForNode(treeModel, treeModel.getRoot());
+        } else {
+            likelihood.redrawAncestralStates();
+        }
+    }
+
+    private MarkovJumpsBeagleTreeLikelihood createLikelihood(SitePatterns patterns,
+                                                             GammaSiteRateModel siteRateModel,
+                                                             HKY hky) {
+        MarkovJumpsBeagleTreeLikelihood likelihood = new MarkovJumpsBeagleTreeLikelihood(
+                patterns,
+                treeModel,
+                new HomogeneousBranchModel(hky),
+                siteRateModel,
+                null,
+                null,
+                false,
+                PartialsRescalingScheme.AUTO,
+                true,
+                null,
+                hky.getDataType(),
+                "stateTag",
+                false, // use MAP
+                true, // return ML
+                false, // use uniformization
+                false,
+                1
+        );
+        for (int i = 0; i < registerValues.length; i++) {
+            Parameter registerParameter = new Parameter.Default(registerValues[i]);
+            registerParameter.setId(registerTages[i]);
+            likelihood.addRegister(registerParameter, registerTypes[i], registerScales[i]);
+        }
+        return likelihood;
+    }
+
     private static double[][] registerValues = {
             {
                     0, 1, 1, 1,
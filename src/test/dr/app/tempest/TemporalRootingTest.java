@@ -0,0 +1,216 @@
+/*
+ * TemporalRootingTest.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.app.tempest;
+
+import dr.app.tempest.TemporalRooting;
+import dr.evolution.tree.FlexibleTree;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.SimpleNode;
+import dr.evolution.tree.SimpleTree;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Date;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.Units;
+import dr.math.MathUtils;
+import dr.stats.Regression;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Checks the analytical search for the best root over all branches against re-rooting the tree on
+ * each branch in turn and optimising the root position along it, on small random dated trees.
+ */
+public class TemporalRootingTest extends TestCase {
+
+    // the re-rooting search optimises the root position numerically
+    private static final double TOLERANCE = 1E-6;
+
+    public void testResidualMeanSquared() {
+        MathUtils.setSeed(666);
+        checkAgainstReRooting(TemporalRooting.RootingFunction.RESIDUAL_MEAN_SQUARED);
+    }
+
+    public void testCorrelation() {
+        MathUtils.setSeed(667);
+        checkAgainstReRooting(TemporalRooting.RootingFunction.CORRELATION);
+    }
+
+    private static void checkAgainstReRooting(TemporalRooting.RootingFunction rootingFunction) {
+        for (int taxonCount = 4; taxonCount <= 24; taxonCount += 4) {
+            for (int replicate = 0; replicate < 10; replicate++) {
+                Taxa taxa = new Taxa();
+                for (int i = 0; i < taxonCount; i++) {
+                    Taxon taxon = new Taxon("taxon" + i);
+                    taxon.setAttribute("date", new Date(MathUtils.nextDouble() * 10.0, Units.Type.YEARS, false));
+                    taxa.addTaxon(taxon);
+                }
+                Tree source = randomTree(taxa);
+                TemporalRooting rooting = new TemporalRooting(taxa);
+
+                Tree expected = findRootByReRooting(rooting, source, rootingFunction);
+                Tree actual = rooting.findRoot(source, rootingFunction);
+
+                String message = rootingFunction + ", " + taxonCount + " taxa, replicate " + replicate;
+
+                double expectedRate = rooting.getRootToTipRegression(expected).getGradient();
+                double actualRate = rooting.getRootToTipRegression(actual).getGradient();
+                assertEquals(message + ": rate", expectedRate, actualRate, TOLERANCE * Math.abs(expectedRate));
+                assertEquals(message + ": score", getScore(rooting, expected, rootingFunction),
+                        getScore(rooting, actual, rootingFunction), TOLERANCE);
+
+                // the root position, as the distance from the root to each tip
+                Map<String, Double> expectedDistances = getRootToTipDistances(rooting, expected);
+                Map<String, Double> actualDistances = getRootToTipDistances(rooting, actual);
+                double scale = getTreeLength(source);
+                for (String id : expectedDistances.keySet()) {
+                    assertEquals(message + ": distance to " + id, expectedDistances.get(id), actualDistances.get(id),
+                            TOLERANCE * scale);
+                }
+
+                // the root branch, unless the root is at (or very near) a node where it is on several
+                assertEquals(message + ": root branch", getRootBranch(expected, TOLERANCE * scale),
+                        getRootBranch(actual, TOLERANCE * scale));
+            }
+        }
+    }
+
+    /**
+     * The search as it used to be done, re-rooting a copy of the tree on every branch.
+     */
+    private static Tree findRootByReRooting(TemporalRooting rooting, Tree source,
+                                            TemporalRooting.RootingFunction rootingFunction) {
+        Tree bestTree = rooting.findLocalRoot(source, rootingFunction);
+        double minF = getScore(rooting, bestTree, rootingFunction);
+
+        for (int i = 0; i < source.getNodeCount(); i++) {
+            FlexibleTree tmpTree = new FlexibleTree(source);
+            NodeRef node = tmpTree.getNode(i);
+            if (!tmpTree.isRoot(node)) {
+                double length = tmpTree.getBranchLength(node);
+                tmpTree.changeRoot(node, length * 0.5, length * 0.5);
+
+                Tree tree = rooting.findLocalRoot(tmpTree, rootingFunction);
+                double f = getScore(rooting, tree, rootingFunction);
+                if (f < minF) {
+                    minF = f;
+                    bestTree = tree;
+                }
+            }
+        }
+        return bestTree;
+    }
+
+    private static double getScore(TemporalRooting rooting, Tree tree, TemporalRooting.RootingFunction rootingFunction) {
+        Regression regression = rooting.getRootToTipRegression(tree);
+        switch (rootingFunction) {
+            case CORRELATION:
+                return -regression.getCorrelationCoefficient();
+            case RESIDUAL_MEAN_SQUARED:
+                return regression.getResidualMeanSquared();
+            default:
+                throw new IllegalArgumentException("Unexpected rooting function");
+        }
+    }
+
+    private static Map<String, Double> getRootToTipDistances(TemporalRooting rooting, Tree tree) {
+        Map<String, Double> distances = new HashMap<String, Double>();
+        for (int i = 0; i < tree.getExternalNodeCount(); i++) {
+            NodeRef tip = tree.getExternalNode(i);
+            distances.put(tree.getNodeTaxon(tip).getId(), rooting.getRootToTipDistance(tree, tip));
+        }
+        return distances;
+    }
+
+    /**
+     * @return the taxa on the side of the root without taxon0, or null if the root is within
+     * the tolerance of a node
+     */
+    private static Set<String> getRootBranch(Tree tree, double tolerance) {
+        NodeRef root = tree.getRoot();
+        Set<String> clade = null;
+        for (int i = 0; i < tree.getChildCount(root); i++) {
+            NodeRef child = tree.getChild(root, i);
+            if (tree.getBranchLength(child) < tolerance) {
+                return null;
+            }
+            Set<String> ids = new HashSet<String>();
+            for (NodeRef tip : Tree.Utils.getExternalNodes(tree, child)) {
+                ids.add(tree.getNodeTaxon(tip).getId());
+            }
+            if (!ids.contains("taxon0")) {
+                clade = ids;
+            }
+        }
+        return clade;
+    }
+
+    private static double getTreeLength(Tree tree) {
+        double length = 0.0;
+        for (int i = 0; i < tree.getNodeCount(); i++) {
+            NodeRef node = tree.getNode(i);
+            if (!tree.isRoot(node)) {
+                length += tree.getBranchLength(node);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * A random binary tree with tip heights that follow the dates with some noise, so the tips
+     * are roughly but not exactly clock-like.
+     */
+    private static SimpleTree randomTree(Taxa taxa) {
+        List<SimpleNode> lineages = new ArrayList<SimpleNode>();
+        for (int i = 0; i < taxa.getTaxonCount(); ++i) {
+            Taxon taxon = taxa.getTaxon(i);
+            double date = ((Date) taxon.getAttribute("date")).getAbsoluteTimeValue();
+            SimpleNode tip = new SimpleNode();
+            tip.setTaxon(taxon);
+            tip.setHeight(0.01 * (10.0 - date) + 0.02 * MathUtils.nextDouble());
+            lineages.add(tip);
+        }
+
+        while (lineages.size() > 1) {
+            SimpleNode node = new SimpleNode();
+            double height = 0.0;
+            for (int j = 0; j < 2; ++j) {
+                SimpleNode child = lineages.remove(MathUtils.nextInt(lineages.size()));
+                height = Math.max(height, child.getHeight());
+                node.addChild(child);
+            }
+            node.setHeight(height + MathUtils.nextExponential(20.0));
+            lineages.add(node);
+        }
+        return new SimpleTree(lineages.get(0));
+    }
+}
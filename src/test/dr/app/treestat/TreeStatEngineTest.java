@@ -0,0 +1,336 @@
+/*
+ * TreeStatEngineTest.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.app.treestat;
+
+import dr.app.treestat.TreeStatEngine;
+import dr.app.treestat.statistics.AbstractTreeSummaryStatistic;
+import dr.app.treestat.statistics.CollessIndex;
+import dr.app.treestat.statistics.GammaStatistic;
+import dr.app.treestat.statistics.NodeHeights;
+import dr.app.treestat.statistics.TreeHeight;
+import dr.app.treestat.statistics.TreeLength;
+import dr.app.treestat.statistics.TreeSummaryStatistic;
+import dr.evolution.io.Importer;
+import dr.evolution.io.NexusImporter;
+import dr.evolution.io.TreeImporter;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.TaxonList;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that the rows TreeStatEngine writes on one or several threads are identical to those
+ * of the loop TreeStatFrame ran before, that only a few trees are read ahead of the rows written
+ * and that errors from a statistic or the importer reach the caller.
+ */
+public class TreeStatEngineTest extends TestCase {
+
+    private static final int TAXON_COUNT = 12;
+    private static final int TREE_COUNT = 120;
+
+    private static final int[] THREAD_COUNTS = {1, 2, 3, 8};
+
+    // the number of trees per thread the engine reads ahead of the rows written
+    private static final int TREES_PER_THREAD = 4;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        MathUtils.setSeed(4801);
+        nexus = createNexus(TREE_COUNT, -1);
+    }
+
+    public void testRowsMatchSerialLoop() throws Exception {
+        String expected = serialLoop(nexus, createStatistics(false));
+        assertEquals(TREE_COUNT + 1, expected.split("\n").length);
+
+        for (int threadCount : THREAD_COUNTS) {
+            // the delays make the statistics finish out of order
+            String actual = process(nexus, createStatistics(true), threadCount, null);
+            assertEquals(threadCount + " threads", expected, actual);
+        }
+    }
+
+    public void testTreesInFlightAreBounded() throws Exception {
+        for (int threadCount : THREAD_COUNTS) {
+            final int[] rowCount = {0};
+            CountingImporter importer = new CountingImporter(new NexusImporter(new StringReader(nexus)), rowCount,
+                    threadCount * TREES_PER_THREAD);
+            Tree firstTree = importer.importNextTree();
+
+            StringWriter output = new StringWriter();
+            int count = new TreeStatEngine(createStatistics(true), threadCount).process(importer, firstTree,
+                    new PrintWriter(output), new TreeStatEngine.ProgressListener() {
+                        public void treesProcessed(int treeCount) {
+                            rowCount[0]++;
+                            assertEquals(rowCount[0], treeCount);
+                        }
+                    });
+
+            assertEquals(TREE_COUNT, count);
+            assertEquals(TREE_COUNT, rowCount[0]);
+            assertEquals(TREE_COUNT, importer.treeCount);
+        }
+    }
+
+    public void testFailingStatisticIsThrown() throws Exception {
+        for (int threadCount : THREAD_COUNTS) {
+            List<TreeSummaryStatistic> statistics = createStatistics(true);
+            statistics.add(2, new FailingStatistic("STATE_" + (TREE_COUNT / 2)));
+            try {
+                process(nexus, statistics, threadCount, null);
+                fail("the statistic's exception should be thrown with " + threadCount + " threads");
+            } catch (IllegalStateException e) {
+                assertEquals(FailingStatistic.MESSAGE, e.getMessage());
+            }
+        }
+    }
+
+    public void testImportErrorIsThrown() throws Exception {
+        String broken = createNexus(TREE_COUNT, TREE_COUNT / 3);
+        try {
+            serialLoop(broken, createStatistics(false));
+            fail("the import error should be thrown");
+        } catch (Importer.ImportException e) {
+            // expected
+        }
+
+        for (int threadCount : THREAD_COUNTS) {
+            try {
+                process(broken, createStatistics(true), threadCount, null);
+                fail("the import error should be thrown with " + threadCount + " threads");
+            } catch (Importer.ImportException e) {
+                // expected
+            }
+        }
+    }
+
+    private static String process(String nexus, List<TreeSummaryStatistic> statistics, int threadCount,
+                                  TreeStatEngine.ProgressListener listener)
+            throws IOException, Importer.ImportException {
+        NexusImporter importer = new NexusImporter(new StringReader(nexus));
+        Tree firstTree = importer.importNextTree();
+
+        StringWriter output = new StringWriter();
+        new TreeStatEngine(statistics, threadCount).process(importer, firstTree, new PrintWriter(output), listener);
+        return output.toString();
+    }
+
+    /**
+     * the rows as TreeStatFrame wrote them before the engine
+     */
+    private static String serialLoop(String nexus, List<TreeSummaryStatistic> statistics)
+            throws IOException, Importer.ImportException {
+        NexusImporter importer = new NexusImporter(new StringReader(nexus));
+        StringWriter output = new StringWriter();
+        PrintWriter writer = new PrintWriter(output);
+
+        Tree tree = importer.importNextTree();
+
+        writer.print("state");
+        for (int i = 0; i < statistics.size(); i++) {
+            TreeSummaryStatistic tss = statistics.get(i);
+
+            int dim = tss.getStatisticDimensions(tree);
+            for (int j = 0; j < dim; j++) {
+                writer.print("\t" + tss.getStatisticLabel(tree, j));
+            }
+        }
+        writer.println();
+
+        int state = 0;
+        do {
+            writer.print(state);
+            for (int i = 0; i < statistics.size(); i++) {
+                TreeSummaryStatistic tss = statistics.get(i);
+                double[] stats = tss.getSummaryStatistic(tree);
+                for (int j = 0; j < stats.length; j++) {
+                    writer.print("\t" + stats[j]);
+                }
+            }
+            writer.println();
+            state += 1;
+
+            tree = importer.importNextTree();
+        } while (tree != null);
+
+        writer.flush();
+        return output.toString();
+    }
+
+    private static List<TreeSummaryStatistic> createStatistics(boolean delayed) {
+        TreeSummaryStatistic.Factory[] factories = {
+                TreeHeight.FACTORY, TreeLength.FACTORY, NodeHeights.FACTORY, CollessIndex.FACTORY, GammaStatistic.FACTORY
+        };
+        List<TreeSummaryStatistic> statistics = new ArrayList<TreeSummaryStatistic>();
+        for (TreeSummaryStatistic.Factory factory : factories) {
+            TreeSummaryStatistic statistic = factory.createStatistic();
+            statistics.add(delayed ? new DelayedStatistic(statistic) : statistic);
+        }
+        return statistics;
+    }
+
+    /**
+     * a NEXUS file of random trees with a translate block. If brokenTree is not -1 that tree
+     * refers to a taxon that is not in the translate block.
+     */
+    private static String createNexus(int treeCount, int brokenTree) {
+        StringBuilder nexus = new StringBuilder("#NEXUS\n\nbegin trees;\n\ttranslate\n");
+        for (int i = 0; i < TAXON_COUNT; i++) {
+            nexus.append("\t\t").append(i + 1).append(" taxon").append(i).append(i < TAXON_COUNT - 1 ? ",\n" : ";\n");
+        }
+        for (int i = 0; i < treeCount; i++) {
+            List<String> clades = new ArrayList<String>();
+            for (int j = 0; j < TAXON_COUNT; j++) {
+                clades.add(Integer.toString(i == brokenTree && j == 0 ? TAXON_COUNT + 5 : j + 1));
+            }
+            while (clades.size() > 1) {
+                String a = clades.remove(MathUtils.nextInt(clades.size()));
+                String b = clades.remove(MathUtils.nextInt(clades.size()));
+                clades.add("(" + a + ":" + MathUtils.nextDouble() + "," + b + ":" + MathUtils.nextDouble() + ")");
+            }
+            nexus.append("\ttree STATE_").append(i).append(" = [&R] ").append(clades.get(0)).append(";\n");
+        }
+        nexus.append("end;\n");
+        return nexus.toString();
+    }
+
+    /**
+     * a statistic that takes a random time so the tasks finish out of order
+     */
+    private static class DelayedStatistic extends AbstractTreeSummaryStatistic {
+
+        DelayedStatistic(TreeSummaryStatistic statistic) {
+            this.statistic = statistic;
+        }
+
+        public int getStatisticDimensions(Tree tree) {
+            return statistic.getStatisticDimensions(tree);
+        }
+
+        public String getStatisticLabel(Tree tree, int i) {
+            return statistic.getStatisticLabel(tree, i);
+        }
+
+        public double[] getSummaryStatistic(Tree tree) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // the statistic is only used by one thread at a time
+            delay = (delay + 1) % 3;
+            return statistic.getSummaryStatistic(tree);
+        }
+
+        public String getSummaryStatisticName() { return statistic.getSummaryStatisticName(); }
+        public String getSummaryStatisticDescription() { return statistic.getSummaryStatisticDescription(); }
+        public String getSummaryStatisticReference() { return statistic.getSummaryStatisticReference(); }
+        public boolean allowsPolytomies() { return statistic.allowsPolytomies(); }
+        public boolean allowsNonultrametricTrees() { return statistic.allowsNonultrametricTrees(); }
+        public boolean allowsUnrootedTrees() { return statistic.allowsUnrootedTrees(); }
+        public Category getCategory() { return statistic.getCategory(); }
+
+        private final TreeSummaryStatistic statistic;
+        private int delay = 0;
+    }
+
+    /**
+     * a statistic that throws for the tree with the given id
+     */
+    private static class FailingStatistic extends AbstractTreeSummaryStatistic {
+
+        static final String MESSAGE = "failed on purpose";
+
+        FailingStatistic(String treeId) {
+            this.treeId = treeId;
+        }
+
+        public double[] getSummaryStatistic(Tree tree) {
+            if (treeId.equals(tree.getId())) {
+                throw new IllegalStateException(MESSAGE);
+            }
+            return new double[]{0.0};
+        }
+
+        public String getSummaryStatisticName() { return "Failing"; }
+        public String getSummaryStatisticDescription() { return "Fails for one tree"; }
+        public String getSummaryStatisticReference() { return "-"; }
+        public boolean allowsPolytomies() { return true; }
+        public boolean allowsNonultrametricTrees() { return true; }
+        public boolean allowsUnrootedTrees() { return true; }
+        public Category getCategory() { return Category.GENERAL; }
+
+        private final String treeId;
+    }
+
+    /**
+     * an importer that checks no more than the given number of trees are waiting for their rows
+     * each time the engine reads a tree
+     */
+    private static class CountingImporter implements TreeImporter {
+
+        CountingImporter(TreeImporter importer, int[] rowCount, int maxInFlight) {
+            this.importer = importer;
+            this.rowCount = rowCount;
+            this.maxInFlight = maxInFlight;
+        }
+
+        public Tree importNextTree() throws IOException, Importer.ImportException {
+            assertTrue((treeCount - rowCount[0]) + " trees in flight", treeCount - rowCount[0] <= maxInFlight);
+            Tree tree = importer.importNextTree();
+            if (tree != null) {
+                treeCount++;
+            }
+            return tree;
+        }
+
+        public boolean hasTree() throws IOException, Importer.ImportException {
+            return importer.hasTree();
+        }
+
+        public Tree importTree(TaxonList taxonList) throws IOException, Importer.ImportException {
+            throw new UnsupportedOperationException();
+        }
+
+        public Tree[] importTrees(TaxonList taxonList) throws IOException, Importer.ImportException {
+            throw new UnsupportedOperationException();
+        }
+
+        private final TreeImporter importer;
+        private final int[] rowCount;
+        private final int maxInFlight;
+        int treeCount = 0;
+    }
+
+    private String nexus;
+}
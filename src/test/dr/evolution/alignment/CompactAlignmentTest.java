@@ -0,0 +1,157 @@
+/*
+ * CompactAlignmentTest.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package test.dr.evolution.alignment;
+
+import dr.evolution.alignment.Alignment;
+import dr.evolution.alignment.CompactAlignment;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.AminoAcids;
+import dr.evolution.datatype.DataType;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.io.FastaImporter;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evoxml.AlignmentParser;
+import dr.math.MathUtils;
+import dr.xml.XMLParser;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+
+/**
+ * Checks that a FASTA file read into a CompactAlignment gives the same sequences and site patterns
+ * as one read into a SimpleAlignment.
+ */
+public class CompactAlignmentTest extends TestCase {
+
+    public void setUp() throws Exception {
+        super.setUp();
+        MathUtils.setSeed(666);
+        file = File.createTempFile("compact", ".fasta");
+    }
+
+    public void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    public void testNucleotideSitePatterns() throws Exception {
+        // lower case, ambiguity codes, gaps, unknowns and a short sequence that is padded with gaps
+        writeRandomFasta("ACGTacgtRYMWSKBDHVN-?", 20, 500);
+        checkAgainstSimpleAlignment(Nucleotides.INSTANCE);
+    }
+
+    public void testAminoAcidSitePatterns() throws Exception {
+        writeRandomFasta("ACDEFGHIKLMNPQRSTVWYBZX-?", 12, 300);
+        checkAgainstSimpleAlignment(AminoAcids.INSTANCE);
+    }
+
+    public void testRejectsEightBitCharacters() {
+        Taxa taxa = new Taxa();
+        taxa.addTaxon(new Taxon("a"));
+        taxa.addTaxon(new Taxon("b"));
+        byte[][] characters = {{'A', 'C'}, {'G', (byte) 0xC3}};
+        try {
+            new CompactAlignment(taxa, characters, Nucleotides.INSTANCE);
+            fail("a byte of 128 or more should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testAlignmentElementReadsFastaFile() throws Exception {
+        writeRandomFasta("ACGT-", 5, 50);
+
+        XMLParser parser = new XMLParser(false, false);
+        parser.addXMLObjectParser(new AlignmentParser());
+        Reader xml = new StringReader("<beast><alignment id=\"alignment\" dataType=\"nucleotide\" fileName=\"" +
+                file.getAbsolutePath() + "\"/></beast>");
+        Alignment alignment = (Alignment) parser.parse(xml, Alignment.class);
+
+        assertTrue(alignment instanceof CompactAlignment);
+        assertEquals(5, alignment.getSequenceCount());
+        assertEquals(50, alignment.getSiteCount());
+    }
+
+    private void checkAgainstSimpleAlignment(DataType dataType) throws Exception {
+        Reader reader = new FileReader(file);
+        Alignment simple = new FastaImporter(reader, dataType).importAlignment();
+        reader.close();
+        CompactAlignment compact = FastaImporter.importCompactAlignment(file, dataType);
+
+        assertEquals(simple.getSequenceCount(), compact.getSequenceCount());
+        assertEquals(simple.getSiteCount(), compact.getSiteCount());
+        for (int i = 0; i < simple.getSequenceCount(); i++) {
+            assertEquals(simple.getTaxonId(i), compact.getTaxonId(i));
+            // SimpleAlignment keeps a short sequence as it is and reads gaps beyond its end
+            for (int j = 0; j < simple.getSiteCount(); j++) {
+                assertEquals("taxon " + i + ", site " + j, simple.getState(i, j), compact.getState(i, j));
+            }
+            assertEquals(simple.getUnalignedSequenceString(i), compact.getUnalignedSequenceString(i));
+        }
+
+        SitePatterns expected = new SitePatterns(simple);
+        SitePatterns actual = new SitePatterns(compact);
+        assertEquals(expected.getPatternCount(), actual.getPatternCount());
+        for (int i = 0; i < expected.getPatternCount(); i++) {
+            int[] expectedPattern = expected.getPattern(i);
+            int[] actualPattern = actual.getPattern(i);
+            for (int j = 0; j < expectedPattern.length; j++) {
+                assertEquals("pattern " + i + ", taxon " + j, expectedPattern[j], actualPattern[j]);
+            }
+            assertEquals("weight of pattern " + i, expected.getPatternWeight(i), actual.getPatternWeight(i), 0.0);
+        }
+    }
+
+    /**
+     * Writes sequences split over several lines, with the last one shorter than the rest.
+     */
+    private void writeRandomFasta(String characters, int sequenceCount, int siteCount) throws Exception {
+        Writer writer = new FileWriter(file);
+        for (int i = 0; i < sequenceCount; i++) {
+            writer.write(">taxon" + i + "\n");
+            int length = (i == sequenceCount - 1 ? siteCount - 7 : siteCount);
+            for (int j = 0; j < length; j++) {
+                // mostly unambiguous so that some sites share a pattern
+                int k = MathUtils.nextDouble() < 0.9 ? MathUtils.nextInt(4) : MathUtils.nextInt(characters.length());
+                writer.write(characters.charAt(k));
+                if (j % 60 == 59) {
+                    writer.write("\n");
+                }
+            }
+            writer.write("\n");
+        }
+        writer.close();
+    }
+
+    private File file;
+}
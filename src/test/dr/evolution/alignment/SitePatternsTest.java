@@ -0,0 +1,397 @@
+/*
+ * SitePatternsTest.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evolution.alignment;
+
+import dr.evolution.alignment.Alignment;
+import dr.evolution.alignment.AscertainedSitePatterns;
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.alignment.SiteList;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.DataType;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.TaxonList;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks the patterns, weights and site pattern indices found with the hashed pattern index
+ * against those found by comparing each site with every pattern so far, as SitePatterns did before
+ * the index.
+ */
+public class SitePatternsTest extends TestCase {
+
+    private static final String BASES = "ACGT";
+    private static final String AMBIGUITIES = "RYN-?";
+
+    public void setUp() throws Exception {
+        super.setUp();
+        MathUtils.setSeed(4101);
+        alignment = createAlignment(12, 40, 300);
+    }
+
+    public void testAlignmentConstructors() {
+        // the single alignment constructor reads just the first site
+        assertSamePatterns(linearScan(alignment, 0, 0, 1, true, true, null), new SitePatterns(alignment));
+        assertSamePatterns(linearScan(alignment, 0, 0, 1, true, true, null), new SitePatterns(alignment, 0, 0, 1));
+
+        assertSamePatterns(linearScan(alignment, 0, 299, 1, true, true, null), new SitePatterns(alignment, 0, 299, 1));
+        assertSamePatterns(linearScan(alignment, 2, 250, 3, true, true, null), new SitePatterns(alignment, 2, 250, 3));
+
+        for (boolean strip : new boolean[]{true, false}) {
+            for (boolean unique : new boolean[]{true, false}) {
+                assertSamePatterns(linearScan(alignment, 1, 298, 2, strip, unique, null),
+                        new SitePatterns(alignment, null, 1, 298, 2, strip, unique));
+            }
+        }
+    }
+
+    public void testTaxonListConstructors() {
+        TaxonList taxa = everyOtherTaxon(alignment);
+        Alignment subset = subset(alignment, taxa);
+
+        assertSamePatterns(linearScan(subset, 0, 0, 1, true, true, null), new SitePatterns(alignment, taxa));
+        assertSamePatterns(linearScan(subset, 5, 295, 1, true, true, null), new SitePatterns(alignment, taxa, 5, 295, 1));
+        for (boolean strip : new boolean[]{true, false}) {
+            for (boolean unique : new boolean[]{true, false}) {
+                assertSamePatterns(linearScan(subset, 0, 299, 4, strip, unique, null),
+                        new SitePatterns(alignment, taxa, 0, 299, 4, strip, unique));
+            }
+        }
+    }
+
+    public void testConstantSiteCounts() {
+        int[] constantSiteCounts = {5, 0, 7, 11};
+        // few enough distinct columns that the constant patterns and the sites fit in the list
+        Alignment repeated = createAlignment(8, 10, 200);
+        assertSamePatterns(linearScan(repeated, 0, 199, 1, true, true, constantSiteCounts),
+                new SitePatterns(repeated, null, 0, 199, 1, true, true, constantSiteCounts));
+        assertSamePatterns(linearScan(repeated, 0, 199, 1, false, true, constantSiteCounts),
+                new SitePatterns(repeated, null, 0, 199, 1, false, true, constantSiteCounts));
+    }
+
+    public void testSiteListConstructors() {
+        // a SiteList that is not an Alignment
+        SiteList siteList = new SitePatterns(alignment, null, 0, 299, 1, false, false);
+
+        assertSamePatterns(linearScan(siteList, -1, -1, 1, true, true, null), new SitePatterns(siteList));
+        assertSamePatterns(linearScan(siteList, 3, 280, 5, true, true, null), new SitePatterns(siteList, 3, 280, 5));
+        assertSamePatterns(linearScan(siteList, 0, 299, 1, false, true, null), new SitePatterns(siteList, 0, 299, 1, false));
+        assertSamePatterns(linearScan(siteList, 0, 299, 1, true, false, null), new SitePatterns(siteList, 0, 299, 1, true, false));
+        assertSamePatterns(linearScan((SiteList) alignment, -1, -1, 1, true, true, null), new SitePatterns((SiteList) alignment));
+    }
+
+    public void testMaskConstructors() {
+        boolean[] mask = new boolean[alignment.getSiteCount()];
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] = MathUtils.nextBoolean();
+        }
+
+        assertSamePatterns(linearScan(alignment, mask, true, true), new SitePatterns(alignment, mask));
+        for (boolean strip : new boolean[]{true, false}) {
+            assertSamePatterns(linearScan(alignment, mask, strip, true), new SitePatterns(alignment, mask, strip));
+            for (boolean unique : new boolean[]{true, false}) {
+                assertSamePatterns(linearScan(alignment, mask, strip, unique), new SitePatterns(alignment, mask, strip, unique));
+            }
+        }
+    }
+
+    public void testAscertainedSitePatterns() {
+        TaxonList taxa = everyOtherTaxon(alignment);
+        Alignment subset = subset(alignment, taxa);
+
+        assertSamePatterns(linearScan(alignment, 0, 0, 1, true, true, null), new AscertainedSitePatterns(alignment));
+        assertSamePatterns(linearScan(subset, 0, 299, 2, true, true, null), new AscertainedSitePatterns(alignment, taxa, 0, 299, 2));
+
+        // patterns from within the sites and beyond them, the latter more than the table was
+        // sized for
+        checkAscertained(alignment, null, 0, 299, 1, 10, 20, 250, 256);
+        checkAscertained(alignment, taxa, 0, 299, 3, 0, 6, 290, 300);
+        checkAscertained(alignment, null, 100, 120, 1, 0, 300, 0, 0);
+        checkAscertained(alignment, taxa, 100, 110, 1, 0, 0, 0, 300);
+    }
+
+    public void testLargeAlignment() {
+        // enough states in a block to be read on several threads (where there is more than one
+        // processor) and more sites than fit in one block
+        Alignment large = createAlignment(256, 700, 9000);
+        assertSamePatterns(linearScan(large, 0, 8999, 1, true, true, null), new SitePatterns(large, 0, 8999, 1));
+        assertSamePatterns(linearScan(large, 0, 8999, 1, false, false, null),
+                new SitePatterns(large, null, 0, 8999, 1, false, false));
+
+        boolean[] mask = new boolean[large.getSiteCount()];
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] = i % 7 != 3;
+        }
+        assertSamePatterns(linearScan(large, mask, true, true), new SitePatterns(large, mask));
+    }
+
+    private void checkAscertained(Alignment alignment, TaxonList taxa, int from, int to, int every,
+                                  int includeFrom, int includeTo, int excludeFrom, int excludeTo) {
+        Alignment source = taxa != null ? subset(alignment, taxa) : alignment;
+        LinearScanPatterns expected = linearScan(source, from, to, every, true, true, null);
+        int[] includeIndices = expected.ascertain(source, includeFrom, includeTo, every, false);
+        int[] excludeIndices = expected.ascertain(source, excludeFrom, excludeTo, every, true);
+
+        AscertainedSitePatterns actual = new AscertainedSitePatterns(alignment, taxa, from, to, every,
+                includeFrom, includeTo, excludeFrom, excludeTo);
+
+        assertSamePatterns(expected, actual);
+        assertEquals(includeIndices.length, actual.getIncludePatternCount());
+        for (int i = 0; i < includeIndices.length; i++) {
+            assertEquals("included pattern " + i, includeIndices[i], actual.getIncludePatternIndices()[i]);
+        }
+        assertEquals(excludeIndices.length, actual.getExcludePatternCount());
+        for (int i = 0; i < excludeIndices.length; i++) {
+            assertEquals("excluded pattern " + i, excludeIndices[i], actual.getExcludePatternIndices()[i]);
+        }
+    }
+
+    private static void assertSamePatterns(LinearScanPatterns expected, SitePatterns actual) {
+        assertEquals("pattern count", expected.patterns.size(), actual.getPatternCount());
+        for (int i = 0; i < expected.patterns.size(); i++) {
+            assertTrue("pattern " + i, Arrays.equals(expected.patterns.get(i), actual.getPattern(i)));
+            assertEquals("weight of pattern " + i, expected.weights.get(i), actual.getPatternWeight(i), 0.0);
+        }
+        assertEquals("site count", expected.sitePatternIndices.length, actual.getSiteCount());
+        for (int i = 0; i < expected.sitePatternIndices.length; i++) {
+            assertEquals("pattern of site " + i, expected.sitePatternIndices[i], actual.getPatternIndex(i));
+        }
+    }
+
+    /**
+     * a random nucleotide alignment made of the given number of distinct columns (some invariant,
+     * some gapped or ambiguous) repeated at random
+     */
+    private static Alignment createAlignment(int taxonCount, int distinctCount, int siteCount) {
+        char[][] columns = new char[distinctCount][taxonCount];
+        for (char[] column : columns) {
+            char base = BASES.charAt(MathUtils.nextInt(BASES.length()));
+            switch (MathUtils.nextInt(6)) {
+                case 0:
+                    // invariant
+                    Arrays.fill(column, base);
+                    break;
+                case 1:
+                    // invariant apart from a gap
+                    Arrays.fill(column, base);
+                    column[MathUtils.nextInt(taxonCount)] = '-';
+                    break;
+                case 2:
+                    // all gaps or unknown
+                    Arrays.fill(column, MathUtils.nextBoolean() ? '-' : '?');
+                    break;
+                case 3:
+                    // with ambiguities
+                    for (int i = 0; i < taxonCount; i++) {
+                        String characters = BASES + AMBIGUITIES;
+                        column[i] = characters.charAt(MathUtils.nextInt(characters.length()));
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < taxonCount; i++) {
+                        column[i] = BASES.charAt(MathUtils.nextInt(BASES.length()));
+                    }
+            }
+        }
+
+        StringBuilder[] sequences = new StringBuilder[taxonCount];
+        for (int i = 0; i < taxonCount; i++) {
+            sequences[i] = new StringBuilder();
+        }
+        for (int site = 0; site < siteCount; site++) {
+            char[] column = columns[MathUtils.nextInt(distinctCount)];
+            for (int i = 0; i < taxonCount; i++) {
+                sequences[i].append(column[i]);
+            }
+        }
+
+        SimpleAlignment alignment = new SimpleAlignment();
+        alignment.setDataType(Nucleotides.INSTANCE);
+        for (int i = 0; i < taxonCount; i++) {
+            alignment.addSequence(new Sequence(new Taxon("taxon" + i), sequences[i].toString()));
+        }
+        return alignment;
+    }
+
+    private static TaxonList everyOtherTaxon(Alignment alignment) {
+        Taxa taxa = new Taxa();
+        for (int i = 0; i < alignment.getTaxonCount(); i += 2) {
+            taxa.addTaxon(alignment.getTaxon(i));
+        }
+        return taxa;
+    }
+
+    private static Alignment subset(Alignment alignment, TaxonList taxa) {
+        SimpleAlignment subset = new SimpleAlignment();
+        for (int i = 0; i < alignment.getSequenceCount(); i++) {
+            if (taxa.getTaxonIndex(alignment.getTaxonId(i)) != -1) {
+                subset.addSequence(alignment.getSequence(i));
+            }
+        }
+        return subset;
+    }
+
+    private static LinearScanPatterns linearScan(SiteList siteList, int from, int to, int every,
+                                                 boolean strip, boolean unique, int[] constantSiteCounts) {
+        if (from <= -1) {
+            from = 0;
+        }
+        if (to <= -1) {
+            to = siteList.getSiteCount() - 1;
+        }
+        if (every <= 0) {
+            every = 1;
+        }
+        LinearScanPatterns patterns = new LinearScanPatterns(siteList.getDataType(), strip, unique, ((to - from) / every) + 1);
+
+        if (constantSiteCounts != null) {
+            for (int i = 0; i < siteList.getStateCount(); i++) {
+                int[] pattern = new int[siteList.getPatternLength()];
+                Arrays.fill(pattern, i);
+                patterns.addPattern(pattern, constantSiteCounts[i]);
+            }
+        }
+
+        int site = 0;
+        for (int i = from; i <= to; i += every) {
+            patterns.addSite(site, siteList.getSitePattern(i));
+            site++;
+        }
+        return patterns;
+    }
+
+    private static LinearScanPatterns linearScan(SiteList siteList, boolean[] mask, boolean strip, boolean unique) {
+        LinearScanPatterns patterns = new LinearScanPatterns(siteList.getDataType(), strip, unique, siteList.getSiteCount());
+
+        int site = 0;
+        for (int i = 0; i < siteList.getSiteCount(); i++) {
+            if (mask[i]) {
+                patterns.addSite(site, siteList.getSitePattern(i));
+                site++;
+            }
+        }
+        return patterns;
+    }
+
+    /**
+     * the patterns found by comparing each site with every pattern so far
+     */
+    private static class LinearScanPatterns {
+
+        LinearScanPatterns(DataType dataType, boolean strip, boolean unique, int siteCount) {
+            this.dataType = dataType;
+            this.strip = strip;
+            this.unique = unique;
+            sitePatternIndices = new int[siteCount];
+        }
+
+        void addSite(int site, int[] pattern) {
+            if (!strip || !isInvariant(pattern) || (!hasGapAmbiguityOrUnknown(pattern))) {
+                sitePatternIndices[site] = addPattern(pattern, 1);
+            } else {
+                sitePatternIndices[site] = -1;
+            }
+        }
+
+        int addPattern(int[] pattern, double weight) {
+            for (int i = 0; i < patterns.size(); i++) {
+                if (unique && Arrays.equals(patterns.get(i), pattern)) {
+                    weights.set(i, weights.get(i) + weight);
+                    return i;
+                }
+            }
+            patterns.add(pattern);
+            weights.add(weight);
+            return patterns.size() - 1;
+        }
+
+        /**
+         * adds the patterns of the given sites with no weight (or sets an existing pattern's
+         * weight to zero if excluding), as AscertainedSitePatterns does
+         */
+        int[] ascertain(SiteList siteList, int from, int to, int every, boolean exclude) {
+            List<Integer> indices = new ArrayList<Integer>();
+            for (int i = from; i < to; i += every) {
+                int[] pattern = siteList.getPattern(i);
+                int index = -1;
+                for (int j = 0; j < patterns.size() && index < 0; j++) {
+                    if (Arrays.equals(patterns.get(j), pattern)) {
+                        index = j;
+                    }
+                }
+                if (index < 0) {
+                    patterns.add(pattern);
+                    weights.add(0.0);
+                    index = patterns.size() - 1;
+                }
+                if (exclude) {
+                    weights.set(index, 0.0);
+                }
+                indices.add(index);
+            }
+            int[] result = new int[indices.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = indices.get(i);
+            }
+            return result;
+        }
+
+        private boolean isInvariant(int[] pattern) {
+            for (int state : pattern) {
+                if (state != pattern[0]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean hasGapAmbiguityOrUnknown(int[] pattern) {
+            for (int state : pattern) {
+                if (dataType.isGapState(state) || dataType.isAmbiguousState(state) || dataType.isUnknownState(state)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private final DataType dataType;
+        private final boolean strip;
+        private final boolean unique;
+
+        final List<int[]> patterns = new ArrayList<int[]>();
+        final List<Double> weights = new ArrayList<Double>();
+        final int[] sitePatternIndices;
+    }
+
+    private Alignment alignment;
+}
@@ -0,0 +1,223 @@
+/*
+ * DistanceMatrixTest.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evolution.distance;
+
+import dr.evolution.alignment.PatternList;
+import dr.evolution.alignment.Patterns;
+import dr.evolution.datatype.AminoAcids;
+import dr.evolution.datatype.DataType;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.distance.DistanceMatrix;
+import dr.evolution.distance.F84DistanceMatrix;
+import dr.evolution.distance.JukesCantorDistanceMatrix;
+import dr.evolution.distance.SMMDistanceMatrix;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+/**
+ * Checks the distances counted with bit-packed patterns against the same distances summed one
+ * pattern at a time. The sums are exact so the two must be identical.
+ */
+public class DistanceMatrixTest extends TestCase {
+
+    private static final String NUCLEOTIDE_AMBIGUITIES = "RYMWSKBDHVN?-";
+    private static final String AMINO_ACID_AMBIGUITIES = "BZX?-";
+
+    // pattern counts either side of the 64 patterns in a word
+    private static final int[] PATTERN_COUNTS = {1, 5, 63, 64, 65, 200};
+
+    public void testNucleotides() {
+        MathUtils.setSeed(666);
+        for (int patternCount : PATTERN_COUNTS) {
+            PatternList patterns = randomPatterns(Nucleotides.INSTANCE, NUCLEOTIDE_AMBIGUITIES, 12, patternCount, true);
+            checkObservedAndJukesCantor(patterns, true);
+            checkF84(patterns, true);
+        }
+    }
+
+    public void testAminoAcids() {
+        MathUtils.setSeed(667);
+        for (int patternCount : PATTERN_COUNTS) {
+            PatternList patterns = randomPatterns(AminoAcids.INSTANCE, AMINO_ACID_AMBIGUITIES, 12, patternCount, true);
+            checkObservedAndJukesCantor(patterns, true);
+        }
+    }
+
+    public void testNonIntegerWeights() {
+        MathUtils.setSeed(668);
+        for (int patternCount : PATTERN_COUNTS) {
+            PatternList patterns = randomPatterns(Nucleotides.INSTANCE, NUCLEOTIDE_AMBIGUITIES, 12, patternCount, false);
+            checkObservedAndJukesCantor(patterns, false);
+            checkF84(patterns, false);
+        }
+    }
+
+    public void testLargeMatrix() {
+        MathUtils.setSeed(669);
+        // big enough to be filled in parallel tiles when there is more than one processor
+        PatternList patterns = randomPatterns(Nucleotides.INSTANCE, NUCLEOTIDE_AMBIGUITIES, 300, 200, true);
+        checkObservedAndJukesCantor(patterns, true);
+        checkF84(patterns, true);
+    }
+
+    public void testSMMDoesNotPackPatterns() {
+        MathUtils.setSeed(670);
+        PatternList patterns = randomPatterns(Nucleotides.INSTANCE, NUCLEOTIDE_AMBIGUITIES, 12, 5, true);
+        final boolean[] packed = new boolean[1];
+        DistanceMatrix matrix = new SMMDistanceMatrix(patterns) {
+            public void calculateDistances() {
+                super.calculateDistances();
+                packed[0] = (packedPatterns != null);
+            }
+        };
+        matrix.calculateDistances();
+        assertFalse(packed[0]);
+    }
+
+    public void testParallelIsOptIn() {
+        MathUtils.setSeed(671);
+        // enough work to be filled in parallel tiles
+        PatternList patterns = randomPatterns(Nucleotides.INSTANCE, NUCLEOTIDE_AMBIGUITIES, 300, 200, true);
+        final boolean[] parallel = new boolean[4];
+        new DistanceMatrix(patterns) {
+            public void calculateDistances() {
+                parallel[0] = isWorthCalculatingInParallel();
+            }
+        }.calculateDistances();
+        new JukesCantorDistanceMatrix(patterns) {
+            public void calculateDistances() {
+                parallel[1] = isWorthCalculatingInParallel();
+            }
+        }.calculateDistances();
+        new F84DistanceMatrix(patterns) {
+            public void calculateDistances() {
+                parallel[2] = isWorthCalculatingInParallel();
+            }
+        }.calculateDistances();
+        new SMMDistanceMatrix(patterns) {
+            public void calculateDistances() {
+                parallel[3] = isWorthCalculatingInParallel();
+            }
+        }.calculateDistances();
+
+        // subclasses are only filled in parallel if they (or a superclass other than DistanceMatrix) opt in
+        assertFalse(parallel[0]);
+        assertTrue(parallel[1]);
+        assertTrue(parallel[2]);
+        assertTrue(parallel[3]);
+    }
+
+    private static void checkObservedAndJukesCantor(PatternList patterns, boolean isPacked) {
+        final boolean[] packed = new boolean[2];
+        DistanceMatrix observed = new DistanceMatrix(patterns) {
+            public void calculateDistances() {
+                super.calculateDistances();
+                packed[0] = (packedPatterns != null);
+            }
+        };
+        DistanceMatrix jukesCantor = new JukesCantorDistanceMatrix(patterns) {
+            public void calculateDistances() {
+                super.calculateDistances();
+                packed[1] = (packedPatterns != null);
+            }
+        };
+        DistanceMatrix unpackedObserved = new DistanceMatrix(patterns) {
+            protected boolean isUsingPackedPatterns() {
+                return false;
+            }
+        };
+        DistanceMatrix unpackedJukesCantor = new JukesCantorDistanceMatrix(patterns) {
+            protected boolean isUsingPackedPatterns() {
+                return false;
+            }
+        };
+
+        assertSameDistances(unpackedObserved, observed);
+        assertSameDistances(unpackedJukesCantor, jukesCantor);
+        assertEquals(isPacked, packed[0]);
+        assertEquals(isPacked, packed[1]);
+    }
+
+    private static void checkF84(PatternList patterns, boolean isPacked) {
+        final boolean[] packed = new boolean[1];
+        DistanceMatrix f84 = new F84DistanceMatrix(patterns) {
+            public void calculateDistances() {
+                super.calculateDistances();
+                packed[0] = (packedPatterns != null);
+            }
+        };
+        DistanceMatrix unpackedF84 = new F84DistanceMatrix(patterns) {
+            protected boolean isUsingPackedPatterns() {
+                return false;
+            }
+        };
+
+        assertSameDistances(unpackedF84, f84);
+        assertEquals(isPacked, packed[0]);
+    }
+
+    private static void assertSameDistances(DistanceMatrix expected, DistanceMatrix actual) {
+        int dimension = expected.getRowCount();
+        assertEquals(dimension, actual.getRowCount());
+        for (int i = 0; i < dimension; i++) {
+            for (int j = 0; j < dimension; j++) {
+                assertEquals("distance " + i + ", " + j, expected.getElement(i, j), actual.getElement(i, j), 0.0);
+            }
+        }
+    }
+
+    /**
+     * Random patterns in which most taxa share a state, including ambiguity codes, unknowns and gaps.
+     * The weights are integers (some zero) or non-integers.
+     */
+    private static PatternList randomPatterns(DataType dataType, String ambiguities, int taxonCount,
+                                              int patternCount, boolean integerWeights) {
+        Taxa taxa = new Taxa();
+        for (int i = 0; i < taxonCount; ++i) {
+            taxa.addTaxon(new Taxon("taxon" + i));
+        }
+
+        Patterns patterns = new Patterns(dataType, taxa);
+        while (patterns.getPatternCount() < patternCount) {
+            int[] pattern = new int[taxonCount];
+            int common = MathUtils.nextInt(dataType.getStateCount());
+            for (int j = 0; j < pattern.length; ++j) {
+                double u = MathUtils.nextDouble();
+                if (u < 0.7) {
+                    pattern[j] = common;
+                } else if (u < 0.9) {
+                    pattern[j] = MathUtils.nextInt(dataType.getStateCount());
+                } else {
+                    pattern[j] = dataType.getState(ambiguities.charAt(MathUtils.nextInt(ambiguities.length())));
+                }
+            }
+            patterns.addPattern(pattern, integerWeights ? MathUtils.nextInt(4) : 0.5 + MathUtils.nextDouble());
+        }
+        return patterns;
+    }
+}
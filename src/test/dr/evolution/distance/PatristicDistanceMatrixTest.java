@@ -0,0 +1,163 @@
+/*
+ * PatristicDistanceMatrixTest.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evolution.distance;
+
+import dr.evolution.distance.PatristicDistanceMatrix;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.SimpleNode;
+import dr.evolution.tree.SimpleTree;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxon;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks the patristic distances found from common ancestor queries against adding up the branch
+ * lengths along the path between each pair of tips, on random multifurcating trees that are not
+ * ultrametric and have some zero length branches.
+ */
+public class PatristicDistanceMatrixTest extends TestCase {
+
+    // relative to the largest distance from the root as the two can differ by rounding
+    private static final double TOLERANCE = 1E-12;
+
+    public void testAllPairs() {
+        MathUtils.setSeed(666);
+        for (int taxonCount : new int[]{2, 3, 5, 17, 64, 65, 200}) {
+            for (int replicate = 0; replicate < 5; replicate++) {
+                Tree tree = randomTree(taxonCount);
+                double tolerance = TOLERANCE * getMaxRootDistance(tree);
+
+                PatristicDistanceMatrix matrix = new PatristicDistanceMatrix(tree);
+                double[][] expected = new double[taxonCount][taxonCount];
+                double sum = 0.0;
+                for (int i = 0; i < taxonCount; i++) {
+                    for (int j = 0; j < taxonCount; j++) {
+                        expected[i][j] = getPathLength(tree, tree.getExternalNode(i), tree.getExternalNode(j));
+                        // the elements are calculated on demand before the matrix is filled
+                        assertEquals(expected[i][j], matrix.getElement(i, j), tolerance);
+                        if (i < j) {
+                            sum += expected[i][j];
+                        }
+                    }
+                }
+
+                assertEquals(sum / (taxonCount * (taxonCount - 1) / 2), matrix.getMeanDistance(), tolerance);
+                for (int i = 0; i < taxonCount; i++) {
+                    for (int j = 0; j < taxonCount; j++) {
+                        assertEquals(expected[i][j], matrix.getElement(i, j), tolerance);
+                    }
+                }
+            }
+        }
+    }
+
+    public void testLargeTree() {
+        MathUtils.setSeed(667);
+        // big enough for the matrix to be filled in parallel when there is more than one processor
+        int taxonCount = 2100;
+        Tree tree = randomTree(taxonCount);
+        double tolerance = TOLERANCE * getMaxRootDistance(tree);
+
+        PatristicDistanceMatrix matrix = new PatristicDistanceMatrix(tree);
+        int[][] pairs = new int[20000][];
+        for (int k = 0; k < pairs.length; k++) {
+            pairs[k] = new int[]{MathUtils.nextInt(taxonCount), MathUtils.nextInt(taxonCount)};
+        }
+        for (int[] pair : pairs) {
+            double expected = getPathLength(tree, tree.getExternalNode(pair[0]), tree.getExternalNode(pair[1]));
+            assertEquals(expected, matrix.getElement(pair[0], pair[1]), tolerance);
+        }
+
+        matrix.calculateDistances();
+        for (int[] pair : pairs) {
+            double expected = getPathLength(tree, tree.getExternalNode(pair[0]), tree.getExternalNode(pair[1]));
+            assertEquals(expected, matrix.getElement(pair[0], pair[1]), tolerance);
+        }
+    }
+
+    /**
+     * The path length walked up from both tips to their common ancestor, as the distances used to be
+     * calculated.
+     */
+    private static double getPathLength(Tree tree, NodeRef node1, NodeRef node2) {
+        Set<NodeRef> ancestors = new HashSet<NodeRef>();
+        for (NodeRef node = node1; node != null; node = tree.getParent(node)) {
+            ancestors.add(node);
+        }
+        NodeRef ancestor = node2;
+        while (!ancestors.contains(ancestor)) {
+            ancestor = tree.getParent(ancestor);
+        }
+        return getLength(tree, node1, ancestor) + getLength(tree, node2, ancestor);
+    }
+
+    private static double getLength(Tree tree, NodeRef node, NodeRef ancestor) {
+        if (node == ancestor) return 0.0;
+        return tree.getBranchLength(node) + getLength(tree, tree.getParent(node), ancestor);
+    }
+
+    private static double getMaxRootDistance(Tree tree) {
+        double max = 0.0;
+        for (int i = 0; i < tree.getExternalNodeCount(); i++) {
+            max = Math.max(max, getLength(tree, tree.getExternalNode(i), tree.getRoot()));
+        }
+        return max;
+    }
+
+    private static SimpleTree randomTree(int taxonCount) {
+        List<SimpleNode> lineages = new ArrayList<SimpleNode>();
+        for (int i = 0; i < taxonCount; ++i) {
+            SimpleNode tip = new SimpleNode();
+            tip.setTaxon(new Taxon("taxon" + i));
+            tip.setHeight(MathUtils.nextDouble() * 2.0);
+            lineages.add(tip);
+        }
+
+        while (lineages.size() > 1) {
+            int childCount = Math.min(lineages.size(), 2 + MathUtils.nextInt(3));
+            SimpleNode node = new SimpleNode();
+            double height = 0.0;
+            for (int j = 0; j < childCount; ++j) {
+                SimpleNode child = lineages.remove(MathUtils.nextInt(lineages.size()));
+                height = Math.max(height, child.getHeight());
+                node.addChild(child);
+            }
+            // some branches above the oldest child have zero length
+            if (MathUtils.nextInt(5) > 0) {
+                height += MathUtils.nextExponential(1.0);
+            }
+            node.setHeight(height);
+            lineages.add(node);
+        }
+        return new SimpleTree(lineages.get(0));
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * FitchParsimonyTest.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package test.dr.evolution.parsimony;
+
+import dr.evolution.alignment.Patterns;
+import dr.evolution.datatype.AminoAcids;
+import dr.evolution.datatype.DataType;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.parsimony.FitchParsimony;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.SimpleNode;
+import dr.evolution.tree.SimpleTree;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Model;
+import dr.inference.model.ModelListener;
+import dr.inference.operators.OperatorFailedException;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks the bit-packed Fitch parsimony against a direct implementation of the algorithm, one pattern
+ * and one state set at a time, and the incremental updates against a fresh reconstruction.
+ */
+public class FitchParsimonyTest extends TestCase {
+
+    private static final int TAXON_COUNT = 9;
+
+    private static final String NUCLEOTIDE_AMBIGUITIES = "RYMWSKBDHVN?-";
+    private static final String AMINO_ACID_AMBIGUITIES = "BZX?-";
+
+    // pattern counts either side of the 64 patterns in a word
+    private static final int[] PATTERN_COUNTS = {1, 5, 63, 64, 65, 130};
+
+    public void testNucleotidesAgainstReference() {
+        MathUtils.setSeed(666);
+        for (int patternCount : PATTERN_COUNTS) {
+            for (boolean gapsAreStates : new boolean[]{false, true}) {
+                checkAgainstReference(Nucleotides.INSTANCE, NUCLEOTIDE_AMBIGUITIES, patternCount, gapsAreStates, false);
+            }
+        }
+    }
+
+    public void testAminoAcidsAgainstReference() {
+        MathUtils.setSeed(667);
+        for (int patternCount : PATTERN_COUNTS) {
+            for (boolean gapsAreStates : new boolean[]{false, true}) {
+                checkAgainstReference(AminoAcids.INSTANCE, AMINO_ACID_AMBIGUITIES, patternCount, gapsAreStates, false);
+            }
+        }
+    }
+
+    public void testPolytomiesAgainstReference() {
+        MathUtils.setSeed(668);
+        for (int patternCount : PATTERN_COUNTS) {
+            checkAgainstReference(Nucleotides.INSTANCE, NUCLEOTIDE_AMBIGUITIES, patternCount, true, true);
+        }
+    }
+
+    public void testIncrementalUpdates() throws Exception {
+        MathUtils.setSeed(669);
+        Taxa taxa = createTaxa();
+        Patterns patterns = randomPatterns(Nucleotides.INSTANCE, NUCLEOTIDE_AMBIGUITIES, taxa, 100);
+
+        final TreeModel tree = new TreeModel("tree", randomTree(taxa, false));
+        final FitchParsimony fitch = new FitchParsimony(patterns, false);
+
+        // flag the nodes whose children change, as DiscreteTraitBranchRateModel does
+        tree.addModelListener(new ModelListener() {
+            public void modelChangedEvent(Model model, Object object, int index) {
+                if (object instanceof TreeModel.TreeChangedEvent && ((TreeModel.TreeChangedEvent) object).isNodeChanged()) {
+                    if (((TreeModel.TreeChangedEvent) object).isTreeChanged()) {
+                        fitch.updateNode(((TreeModel.TreeChangedEvent) object).getNode());
+                    }
+                } else {
+                    fitch.updateAllNodes();
+                }
+            }
+
+            public void modelRestored(Model model) {
+            }
+        });
+
+        ExchangeOperator narrow = new ExchangeOperator(ExchangeOperator.NARROW, tree, 1.0);
+        ExchangeOperator wide = new ExchangeOperator(ExchangeOperator.WIDE, tree, 1.0);
+
+        for (int step = 0; step < 200; ++step) {
+            try {
+                (MathUtils.nextBoolean() ? narrow : wide).doOperation();
+            } catch (OperatorFailedException e) {
+                // nothing changed
+            }
+
+            FitchParsimony fresh = new FitchParsimony(patterns, false);
+            assertEquals("score at step " + step, fresh.getScore(tree), fitch.getScore(tree), 0.0);
+            assertSiteScores("step " + step, fresh.getSiteScores(tree), fitch.getSiteScores(tree));
+            if (step % 5 == 0) {
+                for (int i = 0; i < tree.getNodeCount(); ++i) {
+                    NodeRef node = tree.getNode(i);
+                    assertStates("node " + i + " at step " + step, fresh.getStates(tree, node), fitch.getStates(tree, node));
+                }
+            }
+        }
+    }
+
+    public void testScoresOfManyTrees() {
+        MathUtils.setSeed(670);
+        Taxa taxa = createTaxa();
+        Patterns patterns = randomPatterns(Nucleotides.INSTANCE, NUCLEOTIDE_AMBIGUITIES, taxa, 70);
+
+        List<Tree> trees = new ArrayList<Tree>();
+        for (int i = 0; i < 10; ++i) {
+            trees.add(randomTree(taxa, false));
+        }
+
+        double[] serial = FitchParsimony.getScores(patterns, false, trees, 1);
+        double[] threaded = FitchParsimony.getScores(patterns, false, trees, 3);
+        for (int i = 0; i < trees.size(); ++i) {
+            double expected = new Reference(patterns, false, trees.get(i)).getScore();
+            assertEquals("tree " + i, expected, serial[i], 1E-10);
+            assertEquals("tree " + i, expected, threaded[i], 1E-10);
+        }
+    }
+
+    private void checkAgainstReference(DataType dataType, String ambiguities, int patternCount, boolean gapsAreStates, boolean polytomies) {
+        Taxa taxa = createTaxa();
+        Patterns patterns = randomPatterns(dataType, ambiguities, taxa, patternCount);
+        String message = dataType.getDescription() + ", " + patternCount + " patterns" + (gapsAreStates ? ", gaps as states" : "");
+
+        for (int t = 0; t < 5; ++t) {
+            Tree tree = randomTree(taxa, polytomies);
+            FitchParsimony fitch = new FitchParsimony(patterns, gapsAreStates);
+            Reference reference = new Reference(patterns, gapsAreStates, tree);
+
+            assertSiteScores(message, reference.siteScores, fitch.getSiteScores(tree));
+            assertEquals(message, reference.getScore(), fitch.getScore(tree), 1E-10);
+
+            if (!polytomies) {
+                for (int i = 0; i < tree.getNodeCount(); ++i) {
+                    NodeRef node = tree.getNode(i);
+                    assertStates(message + ", node " + i, reference.getStates(node), fitch.getStates(tree, node));
+                }
+            }
+        }
+    }
+
+    private static void assertSiteScores(String message, double[] expected, double[] actual) {
+        for (int i = 0; i < expected.length; ++i) {
+            assertEquals(message + ", pattern " + i, expected[i], actual[i], 0.0);
+        }
+    }
+
+    private static void assertStates(String message, int[] expected, int[] actual) {
+        for (int i = 0; i < expected.length; ++i) {
+            assertEquals(message + ", pattern " + i, expected[i], actual[i]);
+        }
+    }
+
+    private static Taxa createTaxa() {
+        Taxa taxa = new Taxa();
+        for (int i = 0; i < TAXON_COUNT; ++i) {
+            taxa.addTaxon(new Taxon("taxon" + i));
+        }
+        return taxa;
+    }
+
+    /**
+     * Random patterns that include ambiguity codes, unknowns and gaps, with non-integer weights.
+     */
+    private static Patterns randomPatterns(DataType dataType, String ambiguities, Taxa taxa, int patternCount) {
+        Patterns patterns = new Patterns(dataType, taxa);
+        while (patterns.getPatternCount() < patternCount) {
+            int[] pattern = new int[taxa.getTaxonCount()];
+            for (int j = 0; j < pattern.length; ++j) {
+                if (MathUtils.nextDouble() < 0.8) {
+                    pattern[j] = MathUtils.nextInt(dataType.getStateCount());
+                } else {
+                    pattern[j] = dataType.getState(ambiguities.charAt(MathUtils.nextInt(ambiguities.length())));
+                }
+            }
+            patterns.addPattern(pattern, 0.5 + MathUtils.nextDouble());
+        }
+        return patterns;
+    }
+
+    private static SimpleTree randomTree(Taxa taxa, boolean polytomies) {
+        List<SimpleNode> lineages = new ArrayList<SimpleNode>();
+        for (int i = 0; i < taxa.getTaxonCount(); ++i) {
+            SimpleNode tip = new SimpleNode();
+            tip.setTaxon(taxa.getTaxon(i));
+            lineages.add(tip);
+        }
+
+        double height = 0.0;
+        while (lineages.size() > 1) {
+            height += MathUtils.nextExponential(1.0);
+            int childCount = polytomies && lineages.size() > 2 && MathUtils.nextBoolean() ? 3 : 2;
+            SimpleNode node = new SimpleNode();
+            for (int j = 0; j < childCount; ++j) {
+                node.addChild(lineages.remove(MathUtils.nextInt(lineages.size())));
+            }
+            node.setHeight(height);
+            lineages.add(node);
+        }
+        return new SimpleTree(lineages.get(0));
+    }
+
+    /**
+     * The Fitch algorithm with a boolean state set for each node and pattern.
+     */
+    private static class Reference {
+
+        Reference(Patterns patterns, boolean gapsAreStates, Tree tree) {
+            this.patterns = patterns;
+            this.tree = tree;
+            DataType dataType = patterns.getDataType();
+            int stateCount = dataType.getStateCount() + (gapsAreStates ? 1 : 0);
+            int patternCount = patterns.getPatternCount();
+
+            stateSets = new boolean[tree.getNodeCount()][patternCount][];
+            siteScores = new double[patternCount];
+            for (int j = 0; j < tree.getExternalNodeCount(); ++j) {
+                NodeRef node = tree.getExternalNode(j);
+                int taxon = patterns.getTaxonIndex(tree.getNodeTaxon(node).getId());
+                for (int i = 0; i < patternCount; ++i) {
+                    int state = patterns.getPattern(i)[taxon];
+                    boolean[] set = new boolean[stateCount];
+                    if (gapsAreStates && dataType.isGapState(state)) {
+                        set[stateCount - 1] = true;
+                    } else {
+                        boolean[] stateSet = dataType.getStateSet(state);
+                        System.arraycopy(stateSet, 0, set, 0, stateSet.length);
+                    }
+                    stateSets[node.getNumber()][i] = set;
+                }
+            }
+            calculateSteps(tree.getRoot());
+        }
+
+        private void calculateSteps(NodeRef node) {
+            if (tree.isExternal(node)) {
+                return;
+            }
+            for (int j = 0; j < tree.getChildCount(node); ++j) {
+                calculateSteps(tree.getChild(node, j));
+            }
+            for (int i = 0; i < siteScores.length; ++i) {
+                boolean[] first = stateSets[tree.getChild(node, 0).getNumber()][i];
+                boolean[] union = first.clone();
+                boolean[] intersection = first.clone();
+                for (int j = 1; j < tree.getChildCount(node); ++j) {
+                    boolean[] set = stateSets[tree.getChild(node, j).getNumber()][i];
+                    for (int k = 0; k < set.length; ++k) {
+                        union[k] |= set[k];
+                        intersection[k] &= set[k];
+                    }
+                }
+                if (firstIndex(intersection) >= 0) {
+                    stateSets[node.getNumber()][i] = intersection;
+                } else {
+                    stateSets[node.getNumber()][i] = union;
+                    siteScores[i]++;
+                }
+            }
+        }
+
+        double getScore() {
+            double score = 0;
+            for (int i = 0; i < siteScores.length; ++i) {
+                score += siteScores[i] * patterns.getPatternWeight(i);
+            }
+            return score;
+        }
+
+        /**
+         * The parent's state if it is in the node's set, otherwise the first state in the set.
+         */
+        int[] getStates(NodeRef node) {
+            int[] parentStates = tree.isRoot(node) ? null : getStates(tree.getParent(node));
+            int[] states = new int[siteScores.length];
+            for (int i = 0; i < states.length; ++i) {
+                boolean[] set = stateSets[node.getNumber()][i];
+                states[i] = parentStates != null && set[parentStates[i]] ? parentStates[i] : firstIndex(set);
+            }
+            return states;
+        }
+
+        private static int firstIndex(boolean[] set) {
+            for (int k = 0; k < set.length; ++k) {
+                if (set[k]) {
+                    return k;
+                }
+            }
+            return -1;
+        }
+
+        private final Patterns patterns;
+        private final Tree tree;
+        private final boolean[][][] stateSets;
+        final double[] siteScores;
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * ClusteringTreeTest.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evolution.tree;
+
+import dr.evolution.distance.DistanceMatrix;
+import dr.evolution.tree.NeighborJoiningTree;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.tree.UPGMATree;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.*;
+
+/**
+ * Checks the neighbor-joining and UPGMA trees against a scan of every pair of clusters at each
+ * join (as these were built before the distances were packed and the rows searched). The trees
+ * are compared by the height of each clade.
+ */
+public class ClusteringTreeTest extends TestCase {
+
+    private static final int[] TAXON_COUNTS = {3, 4, 5, 8, 13, 30, 100, 300};
+
+    private static final double TOLERANCE = 1E-9;
+
+    public void testNeighborJoiningRandomDistances() {
+        MathUtils.setSeed(4401);
+        for (int taxonCount : TAXON_COUNTS) {
+            for (int rep = 0; rep < 5; rep++) {
+                checkNeighborJoining(randomDistances(taxonCount));
+            }
+        }
+    }
+
+    public void testNeighborJoiningTiesAndZeros() {
+        MathUtils.setSeed(4402);
+        for (int taxonCount : TAXON_COUNTS) {
+            for (int rep = 0; rep < 5; rep++) {
+                checkNeighborJoining(tiedDistances(taxonCount, 4));
+                checkNeighborJoining(duplicatedDistances(taxonCount));
+            }
+            checkNeighborJoining(tiedDistances(taxonCount, 1));
+        }
+    }
+
+    public void testNeighborJoiningAdditiveDistances() {
+        MathUtils.setSeed(4403);
+        for (int taxonCount : TAXON_COUNTS) {
+            for (int rep = 0; rep < 5; rep++) {
+                checkNeighborJoining(additiveDistances(taxonCount));
+            }
+        }
+    }
+
+    public void testUPGMARandomDistances() {
+        MathUtils.setSeed(4404);
+        checkUPGMA(randomDistances(2));
+        for (int taxonCount : TAXON_COUNTS) {
+            for (int rep = 0; rep < 5; rep++) {
+                checkUPGMA(randomDistances(taxonCount));
+            }
+        }
+    }
+
+    public void testUPGMATiesAndZeros() {
+        MathUtils.setSeed(4405);
+        checkUPGMA(tiedDistances(2, 1));
+        for (int taxonCount : TAXON_COUNTS) {
+            for (int rep = 0; rep < 5; rep++) {
+                checkUPGMA(tiedDistances(taxonCount, 4));
+                checkUPGMA(duplicatedDistances(taxonCount));
+            }
+            checkUPGMA(tiedDistances(taxonCount, 1));
+        }
+    }
+
+    public void testUPGMAAdditiveDistances() {
+        MathUtils.setSeed(4406);
+        for (int taxonCount : TAXON_COUNTS) {
+            for (int rep = 0; rep < 5; rep++) {
+                checkUPGMA(additiveDistances(taxonCount));
+            }
+        }
+    }
+
+    private void checkNeighborJoining(double[][] d) {
+        Tree tree = new NeighborJoiningTree(createMatrix(d));
+        assertSameClades(neighborJoining(d), cladeHeights(tree));
+    }
+
+    private void checkUPGMA(double[][] d) {
+        Tree tree = new UPGMATree(createMatrix(d));
+        assertSameClades(upgma(d), cladeHeights(tree));
+    }
+
+    private void assertSameClades(Map<BitSet, Double> expected, Map<BitSet, Double> actual) {
+        assertEquals("topology", expected.keySet(), actual.keySet());
+        for (Map.Entry<BitSet, Double> entry : expected.entrySet()) {
+            double height = entry.getValue();
+            assertEquals("height of " + entry.getKey(), height, actual.get(entry.getKey()),
+                    TOLERANCE * Math.max(1.0, Math.abs(height)));
+        }
+    }
+
+    // the distances between random points (so with no ties)
+
+    private static double[][] randomDistances(int taxonCount) {
+        double[][] d = new double[taxonCount][taxonCount];
+        for (int i = 0; i < taxonCount; i++) {
+            for (int j = 0; j < i; j++) {
+                d[i][j] = d[j][i] = MathUtils.nextDouble();
+            }
+        }
+        return d;
+    }
+
+    // small whole distances (between 0 and maxDistance) so many pairs tie exactly
+
+    private static double[][] tiedDistances(int taxonCount, int maxDistance) {
+        double[][] d = new double[taxonCount][taxonCount];
+        for (int i = 0; i < taxonCount; i++) {
+            for (int j = 0; j < i; j++) {
+                d[i][j] = d[j][i] = MathUtils.nextInt(maxDistance + 1);
+            }
+        }
+        return d;
+    }
+
+    // a few distinct taxa each repeated several times (so the copies are zero apart)
+
+    private static double[][] duplicatedDistances(int taxonCount) {
+        int distinctCount = Math.max(2, taxonCount / 3);
+        double[][] distinct = tiedDistances(distinctCount, 6);
+        int[] copyOf = new int[taxonCount];
+        for (int i = 0; i < taxonCount; i++) {
+            copyOf[i] = MathUtils.nextInt(distinctCount);
+        }
+        double[][] d = new double[taxonCount][taxonCount];
+        for (int i = 0; i < taxonCount; i++) {
+            for (int j = 0; j < taxonCount; j++) {
+                d[i][j] = distinct[copyOf[i]][copyOf[j]];
+            }
+        }
+        return d;
+    }
+
+    // the path lengths on a random tree with whole branch lengths (some of them zero)
+
+    private static double[][] additiveDistances(int taxonCount) {
+        List<List<Integer>> clusters = new ArrayList<List<Integer>>();
+        double[][] d = new double[taxonCount][taxonCount];
+        int[] depth = new int[taxonCount];
+        for (int i = 0; i < taxonCount; i++) {
+            clusters.add(new ArrayList<Integer>(Collections.singletonList(i)));
+        }
+        while (clusters.size() > 1) {
+            List<Integer> a = clusters.remove(MathUtils.nextInt(clusters.size()));
+            List<Integer> b = clusters.remove(MathUtils.nextInt(clusters.size()));
+            int la = MathUtils.nextInt(3);
+            int lb = MathUtils.nextInt(3);
+            for (int i : a) {
+                depth[i] += la;
+            }
+            for (int j : b) {
+                depth[j] += lb;
+            }
+            for (int i : a) {
+                for (int j : b) {
+                    d[i][j] = d[j][i] = depth[i] + depth[j];
+                }
+            }
+            a.addAll(b);
+            clusters.add(a);
+        }
+        return d;
+    }
+
+    private static DistanceMatrix createMatrix(double[][] d) {
+        Taxa taxa = new Taxa();
+        for (int i = 0; i < d.length; i++) {
+            taxa.addTaxon(new Taxon("t" + i));
+        }
+        DistanceMatrix matrix = new DistanceMatrix(taxa);
+        for (int i = 0; i < d.length; i++) {
+            for (int j = 0; j < d.length; j++) {
+                matrix.setElement(i, j, d[i][j]);
+            }
+        }
+        return matrix;
+    }
+
+    private static Map<BitSet, Double> cladeHeights(Tree tree) {
+        Map<BitSet, Double> heights = new HashMap<BitSet, Double>();
+        cladeHeights(tree, tree.getRoot(), heights);
+        return heights;
+    }
+
+    private static BitSet cladeHeights(Tree tree, NodeRef node, Map<BitSet, Double> heights) {
+        BitSet clade = new BitSet();
+        if (tree.isExternal(node)) {
+            clade.set(Integer.parseInt(tree.getNodeTaxon(node).getId().substring(1)));
+        } else {
+            assertEquals(2, tree.getChildCount(node));
+            for (int i = 0; i < tree.getChildCount(node); i++) {
+                clade.or(cladeHeights(tree, tree.getChild(node, i), heights));
+            }
+        }
+        heights.put(clade, tree.getNodeHeight(node));
+        return clade;
+    }
+
+    /**
+     * a cluster in the reference trees
+     */
+    private static class Cluster {
+
+        Cluster(int taxon) {
+            clade.set(taxon);
+            tipCount = 1;
+        }
+
+        Cluster(Cluster left, double leftLength, Cluster right, double rightLength) {
+            this.left = left;
+            this.right = right;
+            left.length = leftLength;
+            right.length = rightLength;
+            clade.or(left.clade);
+            clade.or(right.clade);
+            tipCount = left.tipCount + right.tipCount;
+        }
+
+        final BitSet clade = new BitSet();
+        final int tipCount;
+        Cluster left, right;
+        double length;
+        double height;
+    }
+
+    private static List<Cluster> createTips(int taxonCount) {
+        List<Cluster> clusters = new ArrayList<Cluster>();
+        for (int i = 0; i < taxonCount; i++) {
+            clusters.add(new Cluster(i));
+        }
+        return clusters;
+    }
+
+    private static double[][] copy(double[][] d) {
+        double[][] copy = new double[d.length][];
+        for (int i = 0; i < d.length; i++) {
+            copy[i] = d[i].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * replaces the clusters at i and j (i < j) with their join, at i, with the given distances
+     * from it to the others
+     */
+    private static void join(List<Cluster> clusters, double[][] d, int i, int j, Cluster joined, double[] distances) {
+        int n = clusters.size();
+        for (int k = 0; k < n; k++) {
+            d[i][k] = d[k][i] = distances[k];
+        }
+        d[i][i] = 0.0;
+        clusters.set(i, joined);
+        clusters.remove(j);
+        for (int k = 0; k < n; k++) {
+            System.arraycopy(d[k], j + 1, d[k], j, n - j - 1);
+        }
+        System.arraycopy(d, j + 1, d, j, n - j - 1);
+    }
+
+    private static Map<BitSet, Double> neighborJoining(double[][] distances) {
+        double[][] d = copy(distances);
+        List<Cluster> clusters = createTips(d.length);
+
+        while (clusters.size() > 2) {
+            int n = clusters.size();
+            double[] r = new double[n];
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    r[i] += d[i][j];
+                }
+            }
+
+            int besti = 0;
+            int bestj = 1;
+            double smax = -1.0;
+            double scale = 1.0 / (n - 2);
+            for (int i = 0; i < n - 1; i++) {
+                for (int j = i + 1; j < n; j++) {
+                    double sij = (r[i] + r[j]) * scale - d[i][j];
+                    if (sij > smax) {
+                        smax = sij;
+                        besti = i;
+                        bestj = j;
+                    }
+                }
+            }
+
+            double dij = d[besti][bestj];
+            double li = (dij + (r[besti] - r[bestj]) * scale) * 0.5;
+            double lj = dij - li;
+            Cluster joined = new Cluster(clusters.get(besti), Math.max(li, 0.0), clusters.get(bestj), Math.max(lj, 0.0));
+
+            double[] updated = new double[n];
+            for (int k = 0; k < n; k++) {
+                updated[k] = (d[k][besti] + d[k][bestj] - dij) * 0.5;
+            }
+            join(clusters, d, besti, bestj, joined, updated);
+        }
+
+        double l = Math.max(d[0][1] * 0.5, 0.0);
+        Cluster root = new Cluster(clusters.get(0), l, clusters.get(1), l);
+
+        // heights measured back from the furthest tip
+        double maxDepth = setDepths(root, 0.0);
+        Map<BitSet, Double> heights = new HashMap<BitSet, Double>();
+        collectHeights(root, maxDepth, heights);
+        return heights;
+    }
+
+    private static double setDepths(Cluster cluster, double depth) {
+        cluster.height = depth;
+        if (cluster.left == null) {
+            return depth;
+        }
+        return Math.max(setDepths(cluster.left, depth + cluster.left.length),
+                setDepths(cluster.right, depth + cluster.right.length));
+    }
+
+    private static void collectHeights(Cluster cluster, double maxDepth, Map<BitSet, Double> heights) {
+        heights.put(cluster.clade, maxDepth - cluster.height);
+        if (cluster.left != null) {
+            collectHeights(cluster.left, maxDepth, heights);
+            collectHeights(cluster.right, maxDepth, heights);
+        }
+    }
+
+    private static Map<BitSet, Double> upgma(double[][] distances) {
+        double[][] d = copy(distances);
+        List<Cluster> clusters = createTips(d.length);
+        Map<BitSet, Double> heights = new HashMap<BitSet, Double>();
+        for (Cluster tip : clusters) {
+            heights.put(tip.clade, 0.0);
+        }
+
+        while (clusters.size() > 1) {
+            int n = clusters.size();
+            int besti = 0;
+            int bestj = 1;
+            double dmin = d[0][1];
+            for (int i = 0; i < n - 1; i++) {
+                for (int j = i + 1; j < n; j++) {
+                    if (d[i][j] < dmin) {
+                        dmin = d[i][j];
+                        besti = i;
+                        bestj = j;
+                    }
+                }
+            }
+
+            Cluster ci = clusters.get(besti);
+            Cluster cj = clusters.get(bestj);
+            Cluster joined = new Cluster(ci, 0.0, cj, 0.0);
+            heights.put(joined.clade, d[besti][bestj] / 2.0);
+
+            double tipSum = (double) (ci.tipCount + cj.tipCount);
+            double[] updated = new double[n];
+            for (int k = 0; k < n; k++) {
+                updated[k] = (((double) ci.tipCount) / tipSum) * d[k][besti] +
+                        (((double) cj.tipCount) / tipSum) * d[k][bestj];
+            }
+            join(clusters, d, besti, bestj, joined, updated);
+        }
+        return heights;
+    }
+}
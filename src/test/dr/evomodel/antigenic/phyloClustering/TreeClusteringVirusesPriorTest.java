@@ -0,0 +1,360 @@
+/*
+ * TreeClusteringVirusesPriorTest.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evomodel.antigenic.phyloClustering;
+
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.FlexibleTree;
+import dr.evolution.tree.NodeRef;
+import dr.evomodel.antigenic.phyloClustering.TreeClusteringVirusesPrior;
+import dr.evomodel.antigenic.phyloClustering.Tree_Clustering_Shared_Routines;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.MatrixParameter;
+import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
+import dr.inference.model.VariableListener;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Checks that the cached per-node terms of the genotype to phenotype priors give the same log
+ * likelihood as a freshly constructed prior whether moves are accepted or rejected, and that the
+ * shared location update only writes the values that change.
+ */
+public class TreeClusteringVirusesPriorTest extends TestCase {
+
+    private static final String NEWICK = "((((t0:1.0,t1:1.0):0.5,t2:1.5):1.0,(t3:0.7,t4:0.7):1.8):0.5," +
+            "(((t5:0.4,t6:0.4):0.6,t7:1.0):1.2,(t8:1.5,t9:1.5):0.7):0.8);";
+
+    // codons for different amino acids so that changing one always gives a mutation
+    private static final String[] CODONS = {"GCT", "TGG", "AAA", "GAT", "CAT", "ATG"};
+
+    private static final int CODON_COUNT = 12;
+    private static final int STEP_COUNT = 1000;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        MathUtils.setSeed(4001);
+
+        FlexibleTree tree = (FlexibleTree) new NewickImporter(NEWICK).importTree(null);
+        states = new String[tree.getNodeCount()];
+        setStates(tree, tree.getRoot(), null);
+
+        // the prior reads the sequence of each node from its "states" attribute
+        treeModel = new TreeModel("tree", tree) {
+            public Object getNodeAttribute(NodeRef node, String name) {
+                if (name.equals("states")) {
+                    return states[node.getNumber()];
+                }
+                return super.getNodeAttribute(node, name);
+            }
+        };
+
+        virusLocations = new MatrixParameter("virusLocations", createLocations(treeModel.getExternalNodeCount()));
+    }
+
+    public void testGenericPrior() {
+        checkMovesAgainstFreshPrior("generic");
+    }
+
+    public void testSaturatedPrior() {
+        checkMovesAgainstFreshPrior("saturated");
+    }
+
+    public void testShrinkagePrior() {
+        checkMovesAgainstFreshPrior("shrinkage");
+    }
+
+    public void testCorrelatedPrior() {
+        checkMovesAgainstFreshPrior("correlated");
+    }
+
+    public void testUpdateOnlyWritesChangedLocations() {
+        int nodeCount = treeModel.getNodeCount();
+        int virusCount = treeModel.getExternalNodeCount();
+
+        Parameter indicators = new Parameter.Default(nodeCount, 0.0);
+        indicators.setParameterValue(treeModel.getRoot().getNumber(), 1);
+        for (int i = 0; i < nodeCount; i++) {
+            if (MathUtils.nextBoolean()) {
+                indicators.setParameterValue(i, 1);
+            }
+        }
+        MatrixParameter mu = new MatrixParameter("mu", createLocations(nodeCount));
+        MatrixParameter virusLocationsTreeNode = new MatrixParameter("virusLocationsTreeNode", createLocations(nodeCount));
+
+        int[] correspondingTreeIndexForVirus = new int[virusCount];
+        for (int i = 0; i < virusCount; i++) {
+            correspondingTreeIndexForVirus[i] = treeModel.getExternalNode(i).getNumber();
+        }
+
+        final int[] changeCounts = new int[virusCount];
+        for (int i = 0; i < virusCount; i++) {
+            final int virus = i;
+            virusLocations.getParameter(i).addVariableListener(new VariableListener() {
+                public void variableChangedEvent(Variable variable, int index, Variable.ChangeType type) {
+                    changeCounts[virus]++;
+                }
+            });
+        }
+
+        Tree_Clustering_Shared_Routines.updateUndriftedVirusLocations(nodeCount, virusCount, treeModel,
+                virusLocationsTreeNode, indicators, mu, virusLocations, correspondingTreeIndexForVirus);
+        checkLocations(indicators, mu, virusLocationsTreeNode);
+
+        // nothing has changed so nothing is written
+        Arrays.fill(changeCounts, 0);
+        Tree_Clustering_Shared_Routines.updateUndriftedVirusLocations(nodeCount, virusCount, treeModel,
+                virusLocationsTreeNode, indicators, mu, virusLocations, correspondingTreeIndexForVirus);
+        for (int i = 0; i < virusCount; i++) {
+            assertEquals("events for virus " + i, 0, changeCounts[i]);
+        }
+
+        // moving an active node moves just the viruses below it
+        for (int k = 0; k < nodeCount; k++) {
+            NodeRef node = treeModel.getNode(k);
+            if (treeModel.isRoot(node) || indicators.getParameterValue(k) != 1) {
+                continue;
+            }
+            mu.getParameter(k).setParameterValue(0, mu.getParameter(k).getParameterValue(0) + 1.0);
+
+            Arrays.fill(changeCounts, 0);
+            Tree_Clustering_Shared_Routines.updateUndriftedVirusLocations(nodeCount, virusCount, treeModel,
+                    virusLocationsTreeNode, indicators, mu, virusLocations, correspondingTreeIndexForVirus);
+            checkLocations(indicators, mu, virusLocationsTreeNode);
+            for (int i = 0; i < virusCount; i++) {
+                boolean below = isAncestor(node, treeModel.getExternalNode(i));
+                assertEquals("events for virus " + i + " after moving node " + k, below ? 1 : 0, changeCounts[i]);
+            }
+        }
+    }
+
+    private void checkMovesAgainstFreshPrior(String gpPrior) {
+        Parameters parameters = new Parameters();
+        TreeClusteringVirusesPrior prior = parameters.createPrior(gpPrior);
+
+        // start from random site probabilities and some clusters
+        Parameter probSites = parameters.probSites;
+        for (int i = 0; i < probSites.getDimension(); i++) {
+            probSites.setParameterValue(i, MathUtils.uniform(0.01, 0.5));
+        }
+        for (int i = 0; i < treeModel.getNodeCount(); i++) {
+            if (MathUtils.nextInt(3) == 0) {
+                parameters.indicators.setParameterValue(i, 1);
+            }
+        }
+        assertEquals("initial state", referenceLogLikelihood(gpPrior, parameters), prior.getLogLikelihood(), 0.0);
+
+        int rejectCount = 0;
+        for (int step = 0; step < STEP_COUNT; step++) {
+            double logLikelihood = prior.getLogLikelihood();
+
+            prior.storeModelState();
+            String move = propose(parameters);
+            prior.getLogLikelihood();
+
+            if (MathUtils.nextBoolean()) {
+                prior.acceptModelState();
+            } else {
+                prior.restoreModelState();
+                assertEquals("restored " + move + " at step " + step, logLikelihood, prior.getLogLikelihood(), 0.0);
+                rejectCount++;
+            }
+
+            assertEquals(gpPrior + " prior after " + move + " at step " + step,
+                    referenceLogLikelihood(gpPrior, parameters), prior.getLogLikelihood(), 0.0);
+        }
+        assertTrue(rejectCount > 0 && rejectCount < STEP_COUNT);
+    }
+
+    /**
+     * changes one of the parameters the prior depends on, as one of the operators would (muMean is
+     * not one of the prior's variables so the prior does not store and restore it)
+     */
+    private String propose(Parameters parameters) {
+        int nodeCount = treeModel.getNodeCount();
+        switch (MathUtils.nextInt(5)) {
+            case 0: {
+                int node = MathUtils.nextInt(nodeCount);
+                if (node != treeModel.getRoot().getNumber()) {
+                    parameters.indicators.setParameterValue(node, 1 - parameters.indicators.getParameterValue(node));
+                }
+                return "indicator";
+            }
+            case 1: {
+                Parameter probSites = parameters.probSites;
+                probSites.setParameterValue(MathUtils.nextInt(probSites.getDimension()), MathUtils.uniform(0.01, 0.5));
+                return "probSites";
+            }
+            case 2: {
+                Parameter siteIndicators = parameters.siteIndicators;
+                int site = MathUtils.nextInt(siteIndicators.getDimension());
+                siteIndicators.setParameterValue(site, 1 - siteIndicators.getParameterValue(site));
+                return "siteIndicators";
+            }
+            case 3: {
+                Parameter mu = parameters.mu.getParameter(MathUtils.nextInt(nodeCount));
+                int dim = MathUtils.nextInt(2);
+                mu.setParameterValue(dim, mu.getParameterValue(dim) + MathUtils.nextGaussian());
+                return "mu";
+            }
+            default:
+                parameters.muPrecision.setParameterValue(0, parameters.muPrecision.getParameterValue(0) * MathUtils.uniform(0.5, 2.0));
+                return "muPrecision";
+        }
+    }
+
+    /**
+     * @return the log likelihood of a new prior given the current values of the parameters
+     */
+    private double referenceLogLikelihood(String gpPrior, Parameters parameters) {
+        Parameters copy = new Parameters();
+        TreeClusteringVirusesPrior reference = copy.createPrior(gpPrior);
+        copy.copyValues(parameters);
+        return reference.getLogLikelihood();
+    }
+
+    /**
+     * the parameters of a prior (which the prior's constructor sizes and initializes)
+     */
+    private class Parameters {
+
+        TreeClusteringVirusesPrior createPrior(String gpPrior) {
+            return new TreeClusteringVirusesPrior(treeModel, indicators, clusterLabels, clusterLabelsTreeNode, mu, false,
+                    virusLocations, virusLocationsTreeNode, muPrecision, pOn, 1, muMean, probSites, siteIndicators,
+                    0, CODON_COUNT * 3, gpPrior, 0.95, 0.5, 0.05);
+        }
+
+        void copyValues(Parameters source) {
+            copyValues(source.indicators, indicators);
+            copyValues(source.probSites, probSites);
+            copyValues(source.siteIndicators, siteIndicators);
+            copyValues(source.muPrecision, muPrecision);
+            copyValues(source.pOn, pOn);
+            copyValues(source.muMean, muMean);
+            for (int i = 0; i < mu.getParameterCount(); i++) {
+                copyValues(source.mu.getParameter(i), mu.getParameter(i));
+            }
+        }
+
+        private void copyValues(Parameter source, Parameter destination) {
+            assertEquals(source.getDimension(), destination.getDimension());
+            for (int i = 0; i < source.getDimension(); i++) {
+                destination.setParameterValue(i, source.getParameterValue(i));
+            }
+        }
+
+        final Parameter indicators = new Parameter.Default("indicators", 1);
+        final Parameter clusterLabels = new Parameter.Default("clusterLabels", 1);
+        final Parameter clusterLabelsTreeNode = new Parameter.Default("clusterLabelsTreeNode", 1);
+        final MatrixParameter mu = new MatrixParameter("mu");
+        final MatrixParameter virusLocationsTreeNode = new MatrixParameter("virusLocationsTreeNode");
+        final Parameter muPrecision = new Parameter.Default("muPrecision", 1, 1.5);
+        final Parameter pOn = new Parameter.Default("p_on", 1, 0.5);
+        final Parameter muMean = new Parameter.Default("muMean", 1, 0.0);
+        final Parameter probSites = new Parameter.Default("probSites", 1);
+        final Parameter siteIndicators = new Parameter.Default("siteIndicators", 1);
+    }
+
+    /**
+     * gives each node a sequence of CODON_COUNT codons (and a trailing base), each branch changing
+     * at least one amino acid
+     */
+    private void setStates(FlexibleTree tree, NodeRef node, String[] parentCodons) {
+        String[] codons = new String[CODON_COUNT];
+        for (int i = 0; i < CODON_COUNT; i++) {
+            codons[i] = parentCodons == null || MathUtils.nextInt(4) == 0 ?
+                    CODONS[MathUtils.nextInt(CODONS.length)] : parentCodons[i];
+        }
+        if (parentCodons != null) {
+            int site = MathUtils.nextInt(CODON_COUNT);
+            String codon = parentCodons[site];
+            while (codon.equals(parentCodons[site])) {
+                codon = CODONS[MathUtils.nextInt(CODONS.length)];
+            }
+            codons[site] = codon;
+        }
+
+        StringBuilder sequence = new StringBuilder();
+        for (String codon : codons) {
+            sequence.append(codon);
+        }
+        sequence.append('A');
+        states[node.getNumber()] = sequence.toString();
+
+        for (int i = 0; i < tree.getChildCount(node); i++) {
+            setStates(tree, tree.getChild(node, i), codons);
+        }
+    }
+
+    private static Parameter[] createLocations(int count) {
+        Parameter[] locations = new Parameter[count];
+        for (int i = 0; i < count; i++) {
+            locations[i] = new Parameter.Default(new double[]{MathUtils.nextGaussian(), MathUtils.nextGaussian()});
+        }
+        return locations;
+    }
+
+    /**
+     * checks each node's location is the sum of the mu of the active nodes from the root down to it
+     * and each virus is at its tip's location
+     */
+    private void checkLocations(Parameter indicators, MatrixParameter mu, MatrixParameter virusLocationsTreeNode) {
+        for (int k = 0; k < treeModel.getNodeCount(); k++) {
+            double[] expected = new double[2];
+            for (NodeRef node = treeModel.getNode(k); node != null; node = treeModel.getParent(node)) {
+                int number = node.getNumber();
+                if (treeModel.isRoot(node) || indicators.getParameterValue(number) == 1) {
+                    expected[0] += mu.getParameter(number).getParameterValue(0);
+                    expected[1] += mu.getParameter(number).getParameterValue(1);
+                }
+            }
+            for (int dim = 0; dim < 2; dim++) {
+                assertEquals("node " + k, expected[dim], virusLocationsTreeNode.getParameter(k).getParameterValue(dim), 1E-12);
+            }
+        }
+        for (int i = 0; i < treeModel.getExternalNodeCount(); i++) {
+            Parameter location = virusLocationsTreeNode.getParameter(treeModel.getExternalNode(i).getNumber());
+            for (int dim = 0; dim < 2; dim++) {
+                assertEquals("virus " + i, location.getParameterValue(dim), virusLocations.getParameter(i).getParameterValue(dim), 0.0);
+            }
+        }
+    }
+
+    private boolean isAncestor(NodeRef ancestor, NodeRef node) {
+        for (NodeRef n = node; n != null; n = treeModel.getParent(n)) {
+            if (n == ancestor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String[] states;
+    private TreeModel treeModel;
+    private MatrixParameter virusLocations;
+}
@@ -0,0 +1,153 @@
+/*
+ * ARGPartitionTreesTest.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evomodel.arg;
+
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evomodel.arg.ARGModel;
+import dr.evomodel.arg.ARGTree;
+import dr.evomodel.arg.UniformPartitionLikelihood;
+import dr.evomodel.arg.operators.ARGAddRemoveEventOperator;
+import dr.evomodel.arg.operators.ARGPartitioningOperator;
+import dr.inference.model.CompoundParameter;
+import dr.inference.operators.CoercionMode;
+import dr.inference.operators.OperatorFailedException;
+import dr.inference.operators.SimpleMCMCOperator;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Checks the cached partition trees of an ARGModel against trees built afresh from the graph as
+ * reassortment events are added and removed, partitionings changed and node heights moved, with
+ * the moves accepted or rejected at random.
+ */
+public class ARGPartitionTreesTest extends TestCase {
+
+    private static final int PARTITION_COUNT = 4;
+
+    public void testCachedTreesAgainstRebuild() throws Exception {
+        MathUtils.setSeed(666);
+
+        NewickImporter importer = new NewickImporter(
+                "((((A:1.0,B:1.0):1.0,C:2.0):1.0,(D:2.5,E:2.5):0.5):1.0,F:4.0);");
+        ARGModel arg = new ARGModel(importer.importTree(null));
+        arg.setPartitionType(ARGModel.REASSORTMENT_PARTITION);
+        arg.setupHeightBounds();
+        for (int i = 0; i < PARTITION_COUNT; i++) {
+            arg.addLikelihoodCalculator(null);
+        }
+
+        CompoundParameter internalHeights = (CompoundParameter) arg.createNodeHeightsParameter(false, true, false);
+        CompoundParameter allInternalHeights = (CompoundParameter) arg.createNodeHeightsParameter(true, true, false);
+        CompoundParameter rates = (CompoundParameter) arg.createNodeRatesParameter(false, true, true, PARTITION_COUNT);
+
+        ARGAddRemoveEventOperator addRemoveOperator = new ARGAddRemoveEventOperator(arg, 1, 0.0,
+                CoercionMode.COERCION_OFF, internalHeights, allInternalHeights, rates, 0.9,
+                new UniformPartitionLikelihood("partitionLikelihood", arg), null, 0);
+        ARGPartitioningOperator partitioningOperator = new ARGPartitioningOperator(arg, 1, 1, false);
+
+        checkPartitionTrees(arg);
+
+        int reassortmentCount = 0;
+        for (int step = 0; step < 2000; step++) {
+            arg.storeModelState();
+
+            SimpleMCMCOperator operator = null;
+            boolean moved = true;
+            double u = MathUtils.nextDouble();
+            try {
+                if (u < 0.5) {
+                    operator = addRemoveOperator;
+                    operator.operate();
+                } else if (u < 0.75) {
+                    operator = partitioningOperator;
+                    operator.operate();
+                } else {
+                    moveNodeHeight(arg);
+                }
+            } catch (OperatorFailedException ofe) {
+                moved = false;
+            }
+
+            if (moved) {
+                // the cached trees are looked at before the move is accepted or rejected (a failed
+                // move may leave the graph half changed, but it is always rejected)
+                checkPartitionTrees(arg);
+            }
+
+            if (moved && MathUtils.nextBoolean()) {
+                if (operator != null) {
+                    operator.accept(0.0);
+                }
+                arg.acceptModelState();
+            } else {
+                if (operator != null) {
+                    operator.reject();
+                }
+                arg.restoreModelState();
+            }
+
+            checkPartitionTrees(arg);
+            reassortmentCount = Math.max(reassortmentCount, arg.getReassortmentNodeCount());
+        }
+
+        // make sure the graphs were not all trees
+        assertTrue(reassortmentCount > 1);
+    }
+
+    /**
+     * Moves the height of a random internal node uniformly between its oldest child and youngest parent.
+     */
+    private static void moveNodeHeight(ARGModel arg) {
+        NodeRef node;
+        do {
+            node = arg.getNode(MathUtils.nextInt(arg.getNodeCount()));
+        } while (arg.isExternal(node) || arg.isRoot(node));
+
+        double lower = 0.0;
+        for (int i = 0; i < arg.getChildCount(node); i++) {
+            lower = Math.max(lower, arg.getNodeHeight(arg.getChild(node, i)));
+        }
+        double upper = Math.min(arg.getNodeHeight(arg.getParent(node, 0)), arg.getNodeHeight(arg.getParent(node, 1)));
+
+        arg.setNodeHeight(node, lower + MathUtils.nextDouble() * (upper - lower));
+    }
+
+    private static void checkPartitionTrees(ARGModel arg) {
+        Set<String> newicks = new HashSet<String>();
+        for (int i = 0; i < arg.getNumberOfPartitions(); i++) {
+            ARGTree tree = new ARGTree(arg, i);
+            assertEquals("partition " + i, Tree.Utils.newick(tree), Tree.Utils.newick(arg.getPartitionTree(i)));
+            assertEquals("partition " + i, tree.getUniqueNewick(), arg.getPartitionTreeUniqueNewick(i));
+            newicks.add(tree.getUniqueNewick());
+        }
+        assertEquals(newicks.size(), arg.getDistinctPartitionTreeCount());
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * DiscreteTraitBranchRateModelTest.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package test.dr.evomodel.branchratemodel;
+
+import dr.evolution.alignment.Patterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.SimpleNode;
+import dr.evolution.tree.SimpleTree;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evomodel.branchratemodel.DiscreteTraitBranchRateModel;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+import dr.inference.operators.OperatorFailedException;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks the branch rates of the parsimony form of DiscreteTraitBranchRateModel, which only
+ * reconstructs the nodes changed by topology moves, against a freshly constructed model after
+ * accepted and rejected moves.
+ */
+public class DiscreteTraitBranchRateModelTest extends TestCase {
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        Taxa taxa = new Taxa();
+        for (int i = 0; i < 12; ++i) {
+            taxa.addTaxon(new Taxon("taxon" + i));
+        }
+
+        patterns = new Patterns(Nucleotides.INSTANCE, taxa);
+        int[] pattern = new int[taxa.getTaxonCount()];
+        for (int j = 0; j < pattern.length; ++j) {
+            pattern[j] = MathUtils.nextInt(Nucleotides.INSTANCE.getStateCount());
+        }
+        patterns.addPattern(pattern);
+
+        tree = new TreeModel("tree", randomTree(taxa));
+        rates = new Parameter.Default("rates", new double[]{1.0, 2.0, 3.0, 4.0});
+        model = new DiscreteTraitBranchRateModel(tree, patterns, 0, rates);
+        exchange = new ExchangeOperator(ExchangeOperator.WIDE, tree, 1.0);
+    }
+
+    public void testRejectedTopologyThenRateMove() throws Exception {
+        assertRatesMatchFresh("initial");
+        model.acceptModelState();
+
+        // a single exchange may not alter the reconstruction so the sequence is repeated
+        for (int step = 0; step < 50; ++step) {
+            // a topology move that is rejected...
+            String before = tree.getNewick();
+            model.storeModelState();
+            doTopologyMove();
+            assertFalse("the move should change the tree", before.equals(tree.getNewick()));
+            assertRatesMatchFresh("after the topology move " + step);
+            model.restoreModelState();
+            assertEquals(before, tree.getNewick());
+            assertRatesMatchFresh("after the restore " + step);
+
+            // ...followed by a move that only changes the rates
+            model.storeModelState();
+            int index = MathUtils.nextInt(rates.getDimension());
+            rates.setParameterValue(index, rates.getParameterValue(index) * Math.exp(MathUtils.nextDouble() - 0.5));
+            assertRatesMatchFresh("after the rate move " + step);
+            model.acceptModelState();
+        }
+    }
+
+    public void testRandomMoves() throws Exception {
+        assertRatesMatchFresh("initial");
+        model.acceptModelState();
+
+        for (int step = 0; step < 300; ++step) {
+            model.storeModelState();
+            switch (MathUtils.nextInt(3)) {
+                case 0:
+                    doTopologyMove();
+                    break;
+                case 1:
+                    moveNodeHeight();
+                    break;
+                default:
+                    int index = MathUtils.nextInt(rates.getDimension());
+                    rates.setParameterValue(index, rates.getParameterValue(index) * Math.exp(MathUtils.nextDouble() - 0.5));
+                    break;
+            }
+
+            // the rates are not always asked for before the move is accepted or rejected
+            if (MathUtils.nextDouble() < 0.8) {
+                assertRatesMatchFresh("step " + step);
+            }
+
+            if (MathUtils.nextBoolean()) {
+                model.acceptModelState();
+            } else {
+                model.restoreModelState();
+            }
+            assertRatesMatchFresh("after step " + step);
+        }
+    }
+
+    private void doTopologyMove() {
+        while (true) {
+            try {
+                exchange.doOperation();
+                return;
+            } catch (OperatorFailedException e) {
+                // try again
+            }
+        }
+    }
+
+    private void moveNodeHeight() {
+        NodeRef node;
+        do {
+            node = tree.getInternalNode(MathUtils.nextInt(tree.getInternalNodeCount()));
+        } while (tree.isRoot(node));
+        double lower = Math.max(tree.getNodeHeight(tree.getChild(node, 0)), tree.getNodeHeight(tree.getChild(node, 1)));
+        double upper = tree.getNodeHeight(tree.getParent(node));
+        tree.setNodeHeight(node, lower + MathUtils.nextDouble() * (upper - lower));
+    }
+
+    private void assertRatesMatchFresh(String message) {
+        DiscreteTraitBranchRateModel fresh = new DiscreteTraitBranchRateModel(tree, patterns, 0, rates);
+        for (int i = 0; i < tree.getNodeCount(); ++i) {
+            NodeRef node = tree.getNode(i);
+            if (!tree.isRoot(node)) {
+                assertEquals(message + ", node " + i, fresh.getBranchRate(tree, node), model.getBranchRate(tree, node), 1E-12);
+            }
+        }
+    }
+
+    private static SimpleTree randomTree(Taxa taxa) {
+        List<SimpleNode> lineages = new ArrayList<SimpleNode>();
+        for (int i = 0; i < taxa.getTaxonCount(); ++i) {
+            SimpleNode tip = new SimpleNode();
+            tip.setTaxon(taxa.getTaxon(i));
+            lineages.add(tip);
+        }
+
+        double height = 0.0;
+        while (lineages.size() > 1) {
+            height += MathUtils.nextExponential(1.0);
+            SimpleNode node = new SimpleNode();
+            node.addChild(lineages.remove(MathUtils.nextInt(lineages.size())));
+            node.addChild(lineages.remove(MathUtils.nextInt(lineages.size())));
+            node.setHeight(height);
+            lineages.add(node);
+        }
+        return new SimpleTree(lineages.get(0));
+    }
+
+    private Patterns patterns;
+    private TreeModel tree;
+    private Parameter rates;
+    private DiscreteTraitBranchRateModel model;
+    private ExchangeOperator exchange;
+}
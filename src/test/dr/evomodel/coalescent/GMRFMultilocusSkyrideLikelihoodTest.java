@@ -0,0 +1,170 @@
+/*
+ * GMRFMultilocusSkyrideLikelihoodTest.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evomodel.coalescent;
+
+import dr.evolution.coalescent.CoalescentSimulator;
+import dr.evolution.coalescent.ConstantPopulation;
+import dr.evolution.tree.FlexibleTree;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Date;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.Units;
+import dr.evomodel.coalescent.GMRFMultilocusSkyrideLikelihood;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that the per-locus cached sufficient statistics of the skygrid agree with a full recalculation
+ * through tree changes, stores and restores, and when the loci are recomputed in parallel.
+ */
+public class GMRFMultilocusSkyrideLikelihoodTest extends TestCase {
+
+    private static final int LOCUS_COUNT = 12;
+    private static final int GRID_POINT_COUNT = 20;
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+        trees = new ArrayList<Tree>();
+        ploidy = new double[LOCUS_COUNT];
+        for (int l = 0; l < LOCUS_COUNT; l++) {
+            Taxa taxa = new Taxa();
+            for (int i = 0; i < 20; i++) {
+                Taxon taxon = new Taxon("l" + l + "t" + i);
+                taxon.setDate(new Date(i % 4 * 0.1, Units.Type.YEARS, true));
+                taxa.addTaxon(taxon);
+            }
+            ConstantPopulation constant = new ConstantPopulation(Units.Type.YEARS);
+            constant.setN0(1.0);
+            trees.add(new TreeModel("tree" + l, new CoalescentSimulator().simulateTree(taxa, constant)));
+            ploidy[l] = new double[]{0.5, 1.0, 2.0}[l % 3];
+        }
+        popSize = new Parameter.Default("popSize", GRID_POINT_COUNT + 1, 0.0);
+        for (int i = 0; i < popSize.getDimension(); i++) {
+            popSize.setParameterValue(i, MathUtils.nextGaussian() * 0.3);
+        }
+    }
+
+    private GMRFMultilocusSkyrideLikelihood createLikelihood() {
+        return createLikelihood(trees);
+    }
+
+    private GMRFMultilocusSkyrideLikelihood createLikelihood(List<Tree> trees) {
+        return new GMRFMultilocusSkyrideLikelihood(trees, popSize, null,
+                new Parameter.Default("precision", 1, 2.0), new Parameter.Default("lambda", 1, 1.0), null, null, false,
+                3.0, GRID_POINT_COUNT, null, new Parameter.Default("ploidy", ploidy));
+    }
+
+    public void testAgainstPreviousImplementation() {
+        GMRFMultilocusSkyrideLikelihood skygrid = createLikelihood();
+
+        // values from the single pass implementation
+        assertEquals(-385.0339778980494, skygrid.getLogLikelihood(), 1E-10);
+        TreeModel tree = (TreeModel) trees.get(5);
+        changeNodeHeight(tree, 3, 0.5);
+        assertEquals(-384.6402064776573, skygrid.getLogLikelihood(), 1E-10);
+    }
+
+    public void testStoreRestoreAgainstFullRecalculation() {
+        GMRFMultilocusSkyrideLikelihood skygrid = createLikelihood();
+        skygrid.getLogLikelihood();
+
+        for (int k = 0; k < 50; k++) {
+            skygrid.storeModelState();
+
+            TreeModel tree = (TreeModel) trees.get(MathUtils.nextInt(LOCUS_COUNT));
+            changeNodeHeight(tree, MathUtils.nextInt(tree.getInternalNodeCount()), MathUtils.nextDouble());
+            assertEquals(createLikelihood().getLogLikelihood(), skygrid.getLogLikelihood(), 1E-10);
+
+            if (MathUtils.nextBoolean()) {
+                skygrid.acceptModelState();
+            } else {
+                // also restores the tree
+                skygrid.restoreModelState();
+                assertEquals(createLikelihood().getLogLikelihood(), skygrid.getLogLikelihood(), 1E-10);
+            }
+        }
+    }
+
+    public void testParallelLoci() {
+        GMRFMultilocusSkyrideLikelihood serial = createLikelihood();
+        serial.setThreadCount(1);
+        GMRFMultilocusSkyrideLikelihood parallel = createLikelihood();
+        parallel.setThreadCount(4);
+
+        assertEquals(serial.getLogLikelihood(), parallel.getLogLikelihood(), 0.0);
+
+        // change every locus as a clock rate move would
+        for (Tree tree : trees) {
+            changeNodeHeight((TreeModel) tree, 0, 0.25);
+        }
+        assertEquals(serial.getLogLikelihood(), parallel.getLogLikelihood(), 0.0);
+        assertEquals(createLikelihood().getLogLikelihood(), parallel.getLogLikelihood(), 1E-10);
+    }
+
+    public void testMakeDirtyRecomputesEveryLocus() {
+        // these trees fire no change events, so only makeDirty can tell the likelihood that they have moved
+        List<Tree> silentTrees = new ArrayList<Tree>();
+        for (Tree tree : trees) {
+            silentTrees.add(new FlexibleTree(tree));
+        }
+        GMRFMultilocusSkyrideLikelihood skygrid = createLikelihood(silentTrees);
+        double logLikelihood = skygrid.getLogLikelihood();
+
+        FlexibleTree tree = (FlexibleTree) silentTrees.get(5);
+        NodeRef node = tree.getRoot();
+        tree.setNodeHeight(node, tree.getNodeHeight(node) * 1.5);
+
+        skygrid.makeDirty();
+        double expected = createLikelihood(silentTrees).getLogLikelihood();
+        assertTrue(expected != logLikelihood);
+        assertEquals(expected, skygrid.getLogLikelihood(), 1E-10);
+    }
+
+    /**
+     * Moves an internal node (not the root) to a fraction of the way between its oldest child and itself
+     */
+    private static void changeNodeHeight(TreeModel tree, int index, double fraction) {
+        NodeRef node = tree.getInternalNode(index);
+        if (node == tree.getRoot()) {
+            node = tree.getInternalNode((index + 1) % tree.getInternalNodeCount());
+        }
+        double lower = Math.max(tree.getNodeHeight(tree.getChild(node, 0)), tree.getNodeHeight(tree.getChild(node, 1)));
+        tree.setNodeHeight(node, lower + fraction * (tree.getNodeHeight(node) - lower));
+    }
+
+    private List<Tree> trees;
+    private double[] ploidy;
+    private Parameter popSize;
+}
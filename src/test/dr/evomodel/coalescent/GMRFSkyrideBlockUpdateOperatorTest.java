@@ -0,0 +1,215 @@
+/*
+ * GMRFSkyrideBlockUpdateOperatorTest.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evomodel.coalescent;
+
+import dr.evolution.coalescent.CoalescentSimulator;
+import dr.evolution.coalescent.ConstantPopulation;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.Units;
+import dr.evomodel.coalescent.GMRFSkyrideLikelihood;
+import dr.evomodel.coalescent.operators.GMRFSkyrideBlockUpdateOperator;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+import dr.inference.operators.CoercionMode;
+import dr.inference.operators.OperatorFailedException;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+import no.uib.cipr.matrix.*;
+
+/**
+ * Checks the tridiagonal block update and field likelihood against the original mtj banded matrix
+ * calculations.
+ */
+public class GMRFSkyrideBlockUpdateOperatorTest extends TestCase {
+
+    private static final double TOLERANCE = 1E-8;
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+        Taxa taxa = new Taxa();
+        for (int i = 0; i < 100; i++) {
+            taxa.addTaxon(new Taxon("taxon" + i));
+        }
+        ConstantPopulation constant = new ConstantPopulation(Units.Type.YEARS);
+        constant.setN0(1.0);
+        Tree tree = new CoalescentSimulator().simulateTree(taxa, constant);
+        TreeModel treeModel = new TreeModel("tree", tree);
+
+        int fieldLength = taxa.getTaxonCount() - 1;
+        popSize = new Parameter.Default("popSize", fieldLength, 0.0);
+        precision = new Parameter.Default("precision", 1, 2.0);
+        lambda = new Parameter.Default("lambda", 1, 1.0);
+        skyride = new GMRFSkyrideLikelihood(treeModel, popSize, new Parameter.Default("groupSize", fieldLength, 1.0),
+                precision, lambda, null, null, true, true);
+        for (int i = 0; i < fieldLength; i++) {
+            popSize.setParameterValue(i, MathUtils.nextGaussian() * 0.5);
+        }
+
+        operator = new GMRFSkyrideBlockUpdateOperator(skyride, 1.0, CoercionMode.COERCION_OFF, 2.0, 200, 0.01);
+    }
+
+    public void testFieldLikelihood() {
+        for (double lambdaValue : new double[]{1.0, 0.5}) {
+            lambda.setParameterValue(0, lambdaValue);
+
+            double[] gamma = popSize.getParameterValues();
+            double[] statistics = skyride.getSufficientStatistics();
+
+            double expected = 0.0;
+            for (int i = 0; i < gamma.length; i++) {
+                expected += -gamma[i] - statistics[i] * Math.exp(-gamma[i]);
+            }
+            DenseVector currentGamma = new DenseVector(gamma);
+            DenseVector product = new DenseVector(gamma.length);
+            skyride.getScaledWeightMatrix(precision.getParameterValue(0), lambdaValue).mult(currentGamma, product);
+            expected += 0.5 * (gamma.length - 1) * Math.log(precision.getParameterValue(0)) - 0.5 * currentGamma.dot(product);
+            expected -= (lambdaValue == 1 ? gamma.length - 1 : gamma.length) / 2.0 * GMRFSkyrideLikelihood.LOG_TWO_TIMES_PI;
+
+            assertEquals(expected, skyride.getLogLikelihood(), TOLERANCE);
+        }
+    }
+
+    public void testBlockUpdateAgainstBandedMatrices() throws Exception {
+        skyride.getLogLikelihood();
+
+        for (int k = 0; k < 20; k++) {
+            skyride.storeModelState();
+            double[] startGamma = popSize.getParameterValues();
+            double startPrecision = precision.getParameterValue(0);
+
+            MathUtils.setSeed(1000 + k);
+            double hastingsRatio = operator.doOperation();
+            double[] proposedGamma = popSize.getParameterValues();
+            double proposedPrecision = precision.getParameterValue(0);
+
+            precision.setParameterValue(0, startPrecision);
+            for (int i = 0; i < startGamma.length; i++) {
+                popSize.setParameterValue(i, startGamma[i]);
+            }
+
+            MathUtils.setSeed(1000 + k);
+            double expectedRatio = bandedDoOperation(operator.getScaleFactor());
+
+            assertEquals(precision.getParameterValue(0), proposedPrecision, 0.0);
+            for (int i = 0; i < startGamma.length; i++) {
+                assertEquals(popSize.getParameterValue(i), proposedGamma[i], TOLERANCE);
+            }
+            assertEquals(expectedRatio, hastingsRatio, TOLERANCE * startGamma.length);
+
+            skyride.getLogLikelihood();
+            skyride.acceptModelState();
+        }
+    }
+
+    /**
+     * The block update as previously implemented with mtj banded matrices
+     */
+    private double bandedDoOperation(double scaleFactor) throws OperatorFailedException {
+        int fieldLength = popSize.getDimension();
+
+        double currentPrecision = precision.getParameterValue(0);
+        double length = scaleFactor - 1 / scaleFactor;
+        double proposedPrecision;
+        if (MathUtils.nextDouble() < length / (length + 2 * Math.log(scaleFactor))) {
+            proposedPrecision = (1 / scaleFactor + length * MathUtils.nextDouble()) * currentPrecision;
+        } else {
+            proposedPrecision = Math.pow(scaleFactor, 2.0 * MathUtils.nextDouble() - 1) * currentPrecision;
+        }
+        double currentLambda = lambda.getParameterValue(0);
+        // lambda is not moved but a random number is still drawn
+        MathUtils.nextDouble();
+
+        precision.setParameterValue(0, proposedPrecision);
+
+        DenseVector currentGamma = new DenseVector(popSize.getParameterValues());
+        SymmTridiagMatrix currentQ = skyride.getStoredScaledWeightMatrix(currentPrecision, currentLambda);
+        SymmTridiagMatrix proposedQ = skyride.getScaledWeightMatrix(proposedPrecision, currentLambda);
+        double[] wNative = skyride.getSufficientStatistics();
+
+        UpperSPDBandMatrix forwardQW = new UpperSPDBandMatrix(proposedQ, 1);
+        UpperSPDBandMatrix backwardQW = new UpperSPDBandMatrix(currentQ, 1);
+        BandCholesky forwardCholesky = new BandCholesky(fieldLength, 1, true);
+        BandCholesky backwardCholesky = new BandCholesky(fieldLength, 1, true);
+        DenseVector diagonal1 = new DenseVector(fieldLength);
+        DenseVector diagonal3 = new DenseVector(fieldLength);
+
+        DenseVector modeForward = GMRFSkyrideBlockUpdateOperator.newNewtonRaphson(wNative, currentGamma, proposedQ.copy(), 200, 0.01);
+        for (int i = 0; i < fieldLength; i++) {
+            double weight = wNative[i] * Math.exp(-modeForward.get(i));
+            forwardQW.set(i, i, weight + forwardQW.get(i, i));
+            diagonal1.set(i, weight * (modeForward.get(i) + 1) - 1);
+        }
+        forwardCholesky.factor(forwardQW.copy());
+        DenseVector forwardMean = solve(diagonal1, forwardCholesky);
+
+        DenseVector standNorm = new DenseVector(fieldLength);
+        for (int i = 0; i < fieldLength; i++) {
+            standNorm.set(i, MathUtils.nextGaussian());
+        }
+        DenseVector proposedGamma = new DenseVector(fieldLength);
+        forwardCholesky.getU().solve(standNorm, proposedGamma);
+        proposedGamma.add(forwardMean);
+
+        for (int i = 0; i < fieldLength; i++) {
+            popSize.setParameterValue(i, proposedGamma.get(i));
+        }
+
+        DenseVector modeBackward = GMRFSkyrideBlockUpdateOperator.newNewtonRaphson(wNative, proposedGamma, currentQ.copy(), 200, 0.01);
+        for (int i = 0; i < fieldLength; i++) {
+            double weight = wNative[i] * Math.exp(-modeBackward.get(i));
+            backwardQW.set(i, i, weight + backwardQW.get(i, i));
+            diagonal1.set(i, weight * (modeBackward.get(i) + 1) - 1);
+        }
+        backwardCholesky.factor(backwardQW.copy());
+        DenseVector backwardMean = solve(diagonal1, backwardCholesky);
+        for (int i = 0; i < fieldLength; i++) {
+            diagonal1.set(i, currentGamma.get(i) - backwardMean.get(i));
+        }
+        backwardQW.mult(diagonal1, diagonal3);
+
+        double hRatio = GMRFSkyrideBlockUpdateOperator.logGeneralizedDeterminant(backwardCholesky.getU()) - 0.5 * diagonal1.dot(diagonal3);
+        hRatio -= GMRFSkyrideBlockUpdateOperator.logGeneralizedDeterminant(forwardCholesky.getU()) - 0.5 * standNorm.dot(standNorm);
+        return hRatio;
+    }
+
+    private static DenseVector solve(DenseVector canonical, BandCholesky cholesky) {
+        DenseVector temp = new DenseVector(canonical.size());
+        DenseVector mean = new DenseVector(canonical.size());
+        cholesky.getU().transSolve(canonical, temp);
+        cholesky.getU().solve(temp, mean);
+        return mean;
+    }
+
+    private Parameter popSize;
+    private Parameter precision;
+    private Parameter lambda;
+    private GMRFSkyrideLikelihood skyride;
+    private GMRFSkyrideBlockUpdateOperator operator;
+}
@@ -0,0 +1,234 @@
+/*
+ * WithinCaseCoalescentTest.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evomodel.epidemiology.casetocase;
+
+import dr.app.beast.BeastParser;
+import dr.evomodel.epidemiology.casetocase.AbstractCase;
+import dr.evomodel.epidemiology.casetocase.AbstractOutbreak;
+import dr.evomodel.epidemiology.casetocase.BranchMapModel;
+import dr.evomodel.epidemiology.casetocase.CaseToCaseTreeLikelihood;
+import dr.evomodel.epidemiology.casetocase.operators.InfectionBranchMovementOperator;
+import dr.inference.operators.OperatorFailedException;
+import dr.math.MathUtils;
+import dr.xml.XMLObject;
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+import java.util.Map;
+
+/**
+ * Checks that the journaled store and restore of the branch map and the per-case caches leaves the
+ * within-case coalescent in the same state as a full recalculation, whether partition moves are
+ * accepted or rejected.
+ */
+public class WithinCaseCoalescentTest extends TestCase {
+
+    private static final int CASE_COUNT = 6;
+    private static final int STEP_COUNT = 2000;
+
+    public WithinCaseCoalescentTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        BeastParser parser = new BeastParser(new String[]{"WithinCaseCoalescentTest"}, null, false, false, false);
+        Map<String, XMLObject> store = parser.parse(new StringReader(createXML()), false);
+
+        likelihood = (CaseToCaseTreeLikelihood) store.get("withinCase").getNativeObject();
+        reference = (CaseToCaseTreeLikelihood) store.get("reference").getNativeObject();
+    }
+
+    public void testRejectedMovesMatchFullRecalculation() throws Exception {
+        AbstractOutbreak outbreak = likelihood.getOutbreak();
+        BranchMapModel branchMap = likelihood.getBranchMap();
+        InfectionBranchMovementOperator operator = new InfectionBranchMovementOperator(likelihood, 1.0, true);
+
+        checkAgainstReference("initial state");
+
+        int partitionMoveCount = 0;
+        int rejectCount = 0;
+        for (int step = 0; step < STEP_COUNT; ++step) {
+            double logLikelihood = likelihood.getLogLikelihood();
+            AbstractCase[] map = branchMap.getArrayCopy();
+            double[] positions = new double[outbreak.size()];
+            for (int i = 0; i < outbreak.size(); ++i) {
+                if (outbreak.getCase(i).wasEverInfected()) {
+                    positions[i] = outbreak.getCase(i).getInfectionBranchPosition().getParameterValue(0);
+                }
+            }
+
+            likelihood.storeModelState();
+
+            boolean moved;
+            if (MathUtils.nextDouble() < 0.75) {
+                try {
+                    operator.operate();
+                    moved = true;
+                    ++partitionMoveCount;
+                } catch (OperatorFailedException ofe) {
+                    moved = false;
+                }
+            } else {
+                AbstractCase aCase = outbreak.getCase(MathUtils.nextInt(outbreak.size()));
+                aCase.setInfectionBranchPosition(MathUtils.nextDouble());
+                moved = false;
+                // not an operator move, so nothing to accept or reject
+                if (MathUtils.nextDouble() < 0.25) {
+                    checkAgainstReference("step " + step + " after a branch position move");
+                    likelihood.acceptModelState();
+                } else {
+                    likelihood.getLogLikelihood();
+                    likelihood.restoreModelState();
+                    ++rejectCount;
+                    checkRestored("step " + step, logLikelihood, map, positions);
+                }
+                checkAgainstReference("step " + step);
+                continue;
+            }
+
+            if (moved) {
+                checkAgainstReference("step " + step + " after a partition move");
+            }
+
+            if (moved && MathUtils.nextDouble() < 0.25) {
+                operator.accept(0.0);
+                likelihood.acceptModelState();
+            } else {
+                if (!moved) {
+                    likelihood.getLogLikelihood();
+                }
+                operator.reject();
+                likelihood.restoreModelState();
+                ++rejectCount;
+                checkRestored("step " + step, logLikelihood, map, positions);
+            }
+
+            checkAgainstReference("step " + step);
+        }
+
+        assertTrue(partitionMoveCount > STEP_COUNT / 4);
+        assertTrue(rejectCount > STEP_COUNT / 2);
+    }
+
+    private void checkRestored(String message, double logLikelihood, AbstractCase[] map, double[] positions) {
+        AbstractOutbreak outbreak = likelihood.getOutbreak();
+        BranchMapModel branchMap = likelihood.getBranchMap();
+
+        assertEquals(message, map.length, branchMap.size());
+        for (int i = 0; i < map.length; ++i) {
+            assertSame(message + ", node " + i, map[i], branchMap.get(i));
+        }
+        for (int i = 0; i < outbreak.size(); ++i) {
+            if (outbreak.getCase(i).wasEverInfected()) {
+                assertEquals(message + ", case " + i, positions[i],
+                        outbreak.getCase(i).getInfectionBranchPosition().getParameterValue(0), 0.0);
+            }
+        }
+        assertEquals(message, logLikelihood, likelihood.getLogLikelihood(), 0.0);
+    }
+
+    private void checkAgainstReference(String message) {
+        AbstractOutbreak outbreak = likelihood.getOutbreak();
+
+        reference.makeDirty();
+        double expected = reference.getLogLikelihood();
+        assertFalse(message, Double.isNaN(expected));
+        assertEquals(message, expected, likelihood.getLogLikelihood(), 0.0);
+
+        for (int i = 0; i < outbreak.size(); ++i) {
+            AbstractCase aCase = outbreak.getCase(i);
+            assertEquals(message + ", case " + i, reference.getInfectionTime(aCase),
+                    likelihood.getInfectionTime(aCase), 0.0);
+            assertEquals(message + ", case " + i, reference.getInfectiousPeriod(aCase),
+                    likelihood.getInfectiousPeriod(aCase), 0.0);
+        }
+    }
+
+    private static String createXML() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("<beast>\n");
+        builder.append("<taxa id=\"taxa\">\n");
+        for (int i = 0; i < CASE_COUNT * 2; ++i) {
+            builder.append("<taxon id=\"t").append(i).append("\">");
+            builder.append("<date value=\"10.0\" direction=\"forwards\" units=\"years\"/>");
+            builder.append("<attr name=\"hostID\">case").append(i / 2).append("</attr></taxon>\n");
+        }
+        builder.append("</taxa>\n");
+
+        builder.append("<newick id=\"startingTree\" usingDates=\"true\">\n");
+        builder.append(NEWICK).append("\n");
+        builder.append("</newick>\n");
+
+        builder.append("<categoryOutbreak id=\"outbreak\" hasLatentPeriods=\"false\">\n");
+        builder.append("<taxa idref=\"taxa\"/>\n");
+        builder.append("<infectiousPeriodPrior>");
+        builder.append("<normalPeriodPriorDistribution id=\"infectious\" mu=\"2.0\" lambda=\"1.0\" alpha=\"2.0\" beta=\"1.0\"/>");
+        builder.append("</infectiousPeriodPrior>\n");
+        for (int i = 0; i < CASE_COUNT; ++i) {
+            builder.append("<categoryCase hostID=\"case").append(i);
+            builder.append("\" wasEverInfected=\"true\" endTime=\"11.0\" infectiousCategory=\"infectious\">\n");
+            builder.append("<taxon idref=\"t").append(2 * i).append("\"/>");
+            builder.append("<taxon idref=\"t").append(2 * i + 1).append("\"/>\n");
+            builder.append("<infectionTimeBranchPosition><parameter id=\"position").append(i);
+            builder.append("\" value=\"0.5\"/></infectionTimeBranchPosition>\n");
+            builder.append("</categoryCase>\n");
+        }
+        builder.append("</categoryOutbreak>\n");
+
+        builder.append("<partitionedTreeModel id=\"treeModel\">\n");
+        builder.append("<newick idref=\"startingTree\"/>\n");
+        builder.append("<rootHeight><parameter id=\"treeModel.rootHeight\"/></rootHeight>\n");
+        builder.append("<nodeHeights internalNodes=\"true\"><parameter id=\"treeModel.internalNodeHeights\"/></nodeHeights>\n");
+        builder.append("<outbreak><categoryOutbreak idref=\"outbreak\"/></outbreak>\n");
+        builder.append("</partitionedTreeModel>\n");
+
+        builder.append("<constantSize id=\"demographic\" units=\"years\">");
+        builder.append("<populationSize><parameter id=\"popSize\" value=\"0.5\"/></populationSize>");
+        builder.append("</constantSize>\n");
+
+        for (String id : new String[]{"withinCase", "reference"}) {
+            builder.append("<withinCaseCoalescent id=\"").append(id).append("\" truncate=\"true\">\n");
+            builder.append("<partitionedTreeModel idref=\"treeModel\"/>\n");
+            builder.append("<categoryOutbreak idref=\"outbreak\"/>\n");
+            builder.append("<maxFirstInfToRoot><parameter value=\"1.0\"/></maxFirstInfToRoot>\n");
+            builder.append("<demographicModel><constantSize idref=\"demographic\"/></demographicModel>\n");
+            builder.append("</withinCaseCoalescent>\n");
+        }
+        builder.append("</beast>\n");
+        return builder.toString();
+    }
+
+    // each case is a cherry, so any partition of the internal nodes that respects the tips is possible
+    private static final String NEWICK = "(((((t0:0.5,t1:0.5):1.0,(t2:0.3,t3:0.3):1.2):0.5,(t4:0.8,t5:0.8):1.2):1.0," +
+            "(t6:0.4,t7:0.4):2.6):0.5,((t8:0.6,t9:0.6):0.9,(t10:1.1,t11:1.1):0.4):2.0);";
+
+    private CaseToCaseTreeLikelihood likelihood;
+    private CaseToCaseTreeLikelihood reference;
+}
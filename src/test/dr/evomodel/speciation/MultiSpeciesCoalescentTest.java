@@ -0,0 +1,237 @@
+/*
+ * MultiSpeciesCoalescentTest.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+
+package test.dr.evomodel.speciation;
+
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.SimpleNode;
+import dr.evolution.tree.SimpleTree;
+import dr.evolution.util.Taxon;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.operators.TreeNodeSlide;
+import dr.evomodel.speciation.MultiSpeciesCoalescent;
+import dr.evomodel.speciation.SpeciesBindings;
+import dr.evomodel.speciation.SpeciesTreeModel;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+import dr.inference.operators.OperatorFailedException;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks the incrementally updated multispecies coalescent, evaluated serially and in parallel, against a
+ * freshly constructed one after random gene tree, species tree and population changes and after every
+ * store and restore.
+ */
+public class MultiSpeciesCoalescentTest extends TestCase {
+
+    private static final int SPECIES_COUNT = 3;
+    private static final int TAXA_PER_SPECIES = 2;
+    private static final int GENE_TREE_COUNT = 5;
+
+    public void testLinearPopulations() throws Exception {
+        // the root population grows up to the oldest gene tree root
+        checkAgainstFresh(false, false, false);
+    }
+
+    public void testConstantRootPopulation() throws Exception {
+        checkAgainstFresh(false, true, false);
+    }
+
+    public void testConstantPopulations() throws Exception {
+        checkAgainstFresh(false, true, true);
+    }
+
+    public void testCoalescentPointPopulations() throws Exception {
+        checkAgainstFresh(true, true, false);
+    }
+
+    private void checkAgainstFresh(boolean coalPoints, boolean constRoot, boolean constantPopulation) throws Exception {
+        MathUtils.setSeed(666);
+
+        SpeciesBindings.SPinfo[] spInfo = new SpeciesBindings.SPinfo[SPECIES_COUNT];
+        List<Taxon> taxa = new ArrayList<Taxon>();
+        for (int s = 0; s < SPECIES_COUNT; ++s) {
+            Taxon[] members = new Taxon[TAXA_PER_SPECIES];
+            for (int t = 0; t < TAXA_PER_SPECIES; ++t) {
+                members[t] = new Taxon("sp" + s + "_" + t);
+                taxa.add(members[t]);
+            }
+            spInfo[s] = new SpeciesBindings.SPinfo("sp" + s, members);
+        }
+
+        TreeModel[] geneTrees = new TreeModel[GENE_TREE_COUNT];
+        double[] popFactors = new double[GENE_TREE_COUNT];
+        for (int i = 0; i < GENE_TREE_COUNT; ++i) {
+            geneTrees[i] = new TreeModel("gene" + i, randomTree(taxa));
+            popFactors[i] = i == 0 ? 0.5 : 2.0;
+        }
+        SpeciesBindings species = new SpeciesBindings(spInfo, geneTrees, popFactors);
+
+        Parameter coalPointsPops = null;
+        Parameter coalPointsIndicators = null;
+        if (coalPoints) {
+            coalPointsPops = SpeciesTreeModel.createCoalPointsPopParameter(species, 1.0, false);
+            coalPointsIndicators = new Parameter.Default(coalPointsPops.getDimension(), 0);
+            for (int k = 0; k < coalPointsIndicators.getDimension(); k += 2) {
+                coalPointsIndicators.setParameterValue(k, 1);
+            }
+        }
+        boolean nonConstRootPopulation = coalPointsPops == null && !constRoot;
+        Parameter splitPopulations = SpeciesTreeModel.createSplitPopulationsParameter(species, 1.0,
+                nonConstRootPopulation, constantPopulation);
+        SpeciesTreeModel speciesTree = new SpeciesTreeModel(species, splitPopulations, coalPointsPops,
+                coalPointsIndicators, null, false, nonConstRootPopulation, constantPopulation);
+
+        MultiSpeciesCoalescent serial = new MultiSpeciesCoalescent(species, speciesTree);
+        serial.setThreadCount(1);
+        MultiSpeciesCoalescent threaded = new MultiSpeciesCoalescent(species, speciesTree);
+        threaded.setThreadCount(4);
+
+        TreeNodeSlide speciesMove = new TreeNodeSlide(speciesTree, species, 1.0);
+        ExchangeOperator[] geneMoves = new ExchangeOperator[GENE_TREE_COUNT];
+        for (int i = 0; i < GENE_TREE_COUNT; ++i) {
+            geneMoves[i] = new ExchangeOperator(ExchangeOperator.NARROW, geneTrees[i], 1.0);
+        }
+
+        check("initial", serial, threaded, species, speciesTree);
+
+        int evaluated = 0;
+        for (int step = 0; step < 300; ++step) {
+            serial.storeModelState();
+            threaded.storeModelState();
+
+            switch (MathUtils.nextInt(6)) {
+                case 0:
+                    moveNodeHeight(geneTrees[MathUtils.nextInt(GENE_TREE_COUNT)]);
+                    break;
+                case 1:
+                    try {
+                        geneMoves[MathUtils.nextInt(GENE_TREE_COUNT)].doOperation();
+                    } catch (OperatorFailedException e) {
+                        // nothing changed
+                    }
+                    break;
+                case 2:
+                    // two gene trees in one proposal
+                    moveNodeHeight(geneTrees[0]);
+                    moveNodeHeight(geneTrees[1 + MathUtils.nextInt(GENE_TREE_COUNT - 1)]);
+                    break;
+                case 3:
+                    try {
+                        speciesMove.doOperation();
+                    } catch (OperatorFailedException e) {
+                        // nothing changed
+                    }
+                    break;
+                case 4:
+                    scaleRandomValue(splitPopulations);
+                    break;
+                default:
+                    scaleRandomValue(coalPoints ? coalPointsPops : splitPopulations);
+                    break;
+            }
+
+            boolean compatible = check("proposal " + step, serial, threaded, species, speciesTree);
+            if (compatible) {
+                evaluated++;
+            }
+
+            // as in the MCMC, a state with a gene tree that does not fit is never accepted
+            if (compatible && MathUtils.nextBoolean()) {
+                serial.acceptModelState();
+                threaded.acceptModelState();
+            } else {
+                serial.restoreModelState();
+                threaded.restoreModelState();
+            }
+
+            check("after proposal " + step, serial, threaded, species, speciesTree);
+        }
+        assertTrue("too few compatible proposals: " + evaluated, evaluated > 100);
+    }
+
+    /**
+     * @return false if a gene tree no longer fits in the species tree
+     */
+    private static boolean check(String message, MultiSpeciesCoalescent serial, MultiSpeciesCoalescent threaded,
+                                 SpeciesBindings species, SpeciesTreeModel speciesTree) {
+        double logL = serial.getLogLikelihood();
+        assertEquals(message + " (threaded)", logL, threaded.getLogLikelihood(), 0.0);
+
+        if (logL == Double.NEGATIVE_INFINITY) {
+            boolean compatible = true;
+            for (SpeciesBindings.GeneTreeInfo geneTree : species.getGeneTrees()) {
+                compatible &= speciesTree.isCompatible(geneTree);
+            }
+            assertFalse(message + " is -Inf but all gene trees are compatible", compatible);
+            return false;
+        }
+
+        MultiSpeciesCoalescent fresh = new MultiSpeciesCoalescent(species, speciesTree);
+        fresh.setThreadCount(1);
+        assertEquals(message, fresh.getLogLikelihood(), logL, TOLERANCE);
+        return true;
+    }
+
+    private static SimpleTree randomTree(List<Taxon> taxa) {
+        List<SimpleNode> lineages = new ArrayList<SimpleNode>();
+        for (Taxon taxon : taxa) {
+            SimpleNode tip = new SimpleNode();
+            tip.setTaxon(taxon);
+            tip.setHeight(0.0);
+            lineages.add(tip);
+        }
+
+        double height = 0.0;
+        while (lineages.size() > 1) {
+            height += MathUtils.nextExponential(lineages.size());
+            SimpleNode node = new SimpleNode();
+            node.addChild(lineages.remove(MathUtils.nextInt(lineages.size())));
+            node.addChild(lineages.remove(MathUtils.nextInt(lineages.size())));
+            node.setHeight(height);
+            lineages.add(node);
+        }
+        return new SimpleTree(lineages.get(0));
+    }
+
+    private static void moveNodeHeight(TreeModel tree) {
+        NodeRef node = tree.getInternalNode(MathUtils.nextInt(tree.getInternalNodeCount()));
+        double lower = Math.max(tree.getNodeHeight(tree.getChild(node, 0)), tree.getNodeHeight(tree.getChild(node, 1)));
+        double upper = tree.isRoot(node) ? 2.0 * tree.getNodeHeight(node) : tree.getNodeHeight(tree.getParent(node));
+        tree.setNodeHeight(node, lower + MathUtils.nextDouble() * (upper - lower));
+    }
+
+    private static void scaleRandomValue(Parameter parameter) {
+        int index = MathUtils.nextInt(parameter.getDimension());
+        parameter.setParameterValue(index, parameter.getParameterValue(index) * Math.exp(MathUtils.nextDouble() - 0.5));
+    }
+
+    private static final double TOLERANCE = 1E-10;
+}
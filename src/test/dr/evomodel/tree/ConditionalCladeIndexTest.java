@@ -0,0 +1,141 @@
+/*
+ * ConditionalCladeIndexTest.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evomodel.tree;
+
+import dr.evolution.coalescent.CoalescentSimulator;
+import dr.evolution.coalescent.ConstantPopulation;
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.Clade;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.Units;
+import dr.evomodel.tree.ConditionalCladeFrequency;
+import dr.evomodel.tree.ConditionalCladeIndex;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+public class ConditionalCladeIndexTest extends TestCase {
+
+    public ConditionalCladeIndexTest(String name) {
+        super(name);
+    }
+
+    public void testTreeProbability() throws Exception {
+        HashMap<String, Integer> taxonMap = new HashMap<String, Integer>();
+        String[] names = {"A", "B", "C", "D"};
+        for (int i = 0; i < names.length; i++) {
+            taxonMap.put(names[i], i);
+        }
+
+        Tree balanced = readTree("((A:1,B:1):1,(C:1,D:1):1);");
+        Tree ladder = readTree("(((A:1,B:1):1,C:2):1,D:3);");
+        Tree unobserved = readTree("((A:1,C:1):1,(B:1,D:1):1);");
+
+        final double epsilon = 0.1;
+        ConditionalCladeFrequency ccf = new ConditionalCladeFrequency(balanced, epsilon);
+        for (int i = 0; i < 3; i++) {
+            ccf.addTree(balanced, taxonMap);
+        }
+        ccf.addTree(ladder, taxonMap);
+
+        // four trees: the root splits into AB|CD three times and ABC|D once
+        assertEquals(Math.log((3 + epsilon) / (4 + 7 * epsilon)),
+                ccf.getTreeProbability(balanced, taxonMap), 1E-12);
+        assertEquals(Math.log((1 + epsilon) / (4 + 7 * epsilon)) + Math.log((1 + epsilon) / (1 + 3 * epsilon)),
+                ccf.getTreeProbability(ladder, taxonMap), 1E-12);
+        assertEquals(Math.log(epsilon / (4 + 7 * epsilon)),
+                ccf.getTreeProbability(unobserved, taxonMap), 1E-12);
+
+        ConditionalCladeIndex index = ccf.getCladeIndex();
+        assertEquals(4, index.getTreeCount());
+        // ABCD, AB, CD and ABC
+        assertEquals(4, index.getCladeCount());
+
+        BitSet all = new BitSet();
+        all.set(0, 4);
+        assertEquals(4, index.getCladeOccurrences(index.getCladeId(all)));
+
+        MathUtils.setSeed(42);
+        for (int i = 0; i < 100; i++) {
+            Clade[] children = new Clade[2];
+            ccf.splitClade(new Clade(all, 3.0), children);
+            BitSet union = (BitSet) children[0].getBits().clone();
+            union.or(children[1].getBits());
+            assertEquals(all, union);
+            assertFalse(children[0].getBits().intersects(children[1].getBits()));
+        }
+    }
+
+    public void testParallelBuild() throws Exception {
+        MathUtils.setSeed(666);
+
+        Taxa taxa = new Taxa();
+        HashMap<String, Integer> taxonMap = new HashMap<String, Integer>();
+        for (int i = 0; i < 40; i++) {
+            taxa.addTaxon(new Taxon("taxon" + i));
+            taxonMap.put("taxon" + i, i);
+        }
+
+        // a small population gives a posterior-like sample with repeated clades
+        CoalescentSimulator simulator = new CoalescentSimulator();
+        ConstantPopulation constant = new ConstantPopulation(Units.Type.YEARS);
+        constant.setN0(1.0);
+        List<Tree> trees = new ArrayList<Tree>();
+        for (int i = 0; i < 500; i++) {
+            Taxa shuffled = new Taxa();
+            for (int j : MathUtils.shuffled(taxa.getTaxonCount())) {
+                shuffled.addTaxon(taxa.getTaxon(j));
+            }
+            trees.add(simulator.simulateTree(shuffled, constant));
+        }
+
+        ConditionalCladeIndex serial = ConditionalCladeIndex.build(trees, 40, taxonMap, 1);
+        ConditionalCladeIndex parallel = ConditionalCladeIndex.build(trees, 40, taxonMap, 4);
+
+        assertEquals(serial.getTreeCount(), parallel.getTreeCount());
+        assertEquals(serial.getCladeCount(), parallel.getCladeCount());
+        assertEquals(serial.getSplitCount(), parallel.getSplitCount());
+        for (int i = 0; i < serial.getCladeCount(); i++) {
+            assertEquals(serial.getCladeBits(i), parallel.getCladeBits(i));
+            assertEquals(serial.getCladeOccurrences(i), parallel.getCladeOccurrences(i));
+        }
+        for (int i = 0; i < 50; i++) {
+            Tree tree = trees.get(i * 10);
+            assertEquals(serial.getTreeProbability(tree, taxonMap, 0.01),
+                    parallel.getTreeProbability(tree, taxonMap, 0.01), 1E-10);
+        }
+    }
+
+    private Tree readTree(String newick) throws Exception {
+        return new NewickImporter(newick).importTree(null);
+    }
+}
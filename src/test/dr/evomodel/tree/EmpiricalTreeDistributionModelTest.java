@@ -0,0 +1,164 @@
+/*
+ * EmpiricalTreeDistributionModelTest.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+package test.dr.evomodel.tree;
+
+import dr.evolution.coalescent.CoalescentSimulator;
+import dr.evolution.coalescent.ConstantPopulation;
+import dr.evolution.tree.CompactTreeSet;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.TaxonList;
+import dr.evolution.util.Units;
+import dr.evomodel.coalescent.CoalescentLikelihood;
+import dr.evomodel.coalescent.ConstantPopulationModel;
+import dr.evomodel.tree.CachedEmpiricalTreeLikelihood;
+import dr.evomodel.tree.EmpiricalTreeDistributionModel;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+public class EmpiricalTreeDistributionModelTest extends TestCase {
+
+    public EmpiricalTreeDistributionModelTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(1234);
+
+        taxa = new Taxa();
+        for (int i = 0; i < 12; i++) {
+            taxa.addTaxon(new Taxon("taxon" + i));
+        }
+
+        // simulated trees number their tips in a random order
+        CoalescentSimulator simulator = new CoalescentSimulator();
+        ConstantPopulation constant = new ConstantPopulation(Units.Type.YEARS);
+        constant.setN0(10.0);
+        trees = new Tree[20];
+        for (int i = 0; i < trees.length; i++) {
+            Taxa shuffled = new Taxa();
+            int[] order = MathUtils.shuffled(taxa.getTaxonCount());
+            for (int j : order) {
+                shuffled.addTaxon(taxa.getTaxon(j));
+            }
+            trees[i] = simulator.simulateTree(shuffled, constant);
+        }
+    }
+
+    public void testCompactTrees() {
+        CompactTreeSet compactTrees = new CompactTreeSet(taxa);
+        for (Tree tree : trees) {
+            compactTrees.addTree(tree);
+        }
+        assertEquals(trees.length, compactTrees.getTreeCount());
+
+        for (int i = 0; i < trees.length; i++) {
+            Tree tree = compactTrees.getTree(i);
+            assertEquals(trees[i].getNodeCount(), tree.getNodeCount());
+            for (int j = 0; j < taxa.getTaxonCount(); j++) {
+                assertSame(taxa.getTaxon(j), tree.getNodeTaxon(tree.getExternalNode(j)));
+            }
+            assertEquals(clades(trees[i]), clades(tree));
+            assertEquals(trees[i].getNodeHeight(trees[i].getRoot()), tree.getNodeHeight(tree.getRoot()));
+            assertEquals(Tree.Utils.getTreeLength(trees[i], trees[i].getRoot()),
+                    Tree.Utils.getTreeLength(tree, tree.getRoot()), 1E-12);
+        }
+    }
+
+    public void testCachedLikelihood() throws Exception {
+        CompactTreeSet compactTrees = new CompactTreeSet(taxa);
+        for (Tree tree : trees) {
+            compactTrees.addTree(tree);
+        }
+        EmpiricalTreeDistributionModel treeModel = new EmpiricalTreeDistributionModel(compactTrees, 0);
+
+        Parameter populationSize = new Parameter.Default("popSize", 1, 10.0);
+        CoalescentLikelihood coalescent = new CoalescentLikelihood(treeModel, null, new ArrayList<TaxonList>(),
+                new ConstantPopulationModel(populationSize, Units.Type.YEARS));
+        CachedEmpiricalTreeLikelihood cached = new CachedEmpiricalTreeLikelihood(coalescent, treeModel, 5);
+
+        double[] expected = new double[trees.length];
+        for (int i = 0; i < trees.length; i++) {
+            expected[i] = getLogLikelihood(treeModel, coalescent, i);
+        }
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals(expected[i], getLogLikelihood(treeModel, cached, i), 1E-10);
+        }
+        assertEquals(4, cached.getMissCount());
+
+        for (int i = 3; i >= 0; i--) {
+            assertEquals(expected[i], getLogLikelihood(treeModel, cached, i), 1E-10);
+        }
+        assertEquals(4, cached.getHitCount());
+
+        // a rejected change of population size keeps the cached values
+        cached.getModel().storeModelState();
+        populationSize.setParameterValue(0, 20.0);
+        double changed = cached.getLogLikelihood();
+        assertTrue(changed != expected[0]);
+        cached.getModel().restoreModelState();
+        assertEquals(expected[0], cached.getLogLikelihood(), 1E-10);
+        assertEquals(expected[1], getLogLikelihood(treeModel, cached, 1), 1E-10);
+        assertEquals(5, cached.getHitCount());
+
+        // an accepted one does not
+        populationSize.setParameterValue(0, 20.0);
+        cached.getModel().acceptModelState();
+        getLogLikelihood(treeModel, cached, 2);
+        getLogLikelihood(treeModel, cached, 3);
+        assertEquals(5, cached.getHitCount());
+        assertEquals(getLogLikelihood(treeModel, coalescent, 2), getLogLikelihood(treeModel, cached, 2), 1E-10);
+    }
+
+    private double getLogLikelihood(EmpiricalTreeDistributionModel treeModel, dr.inference.model.Likelihood likelihood,
+                                    int treeIndex) {
+        treeModel.storeModelState();
+        treeModel.setTreeIndex(treeIndex);
+        treeModel.acceptModelState();
+        return likelihood.getLogLikelihood();
+    }
+
+    private static Set<Set<String>> clades(Tree tree) {
+        Set<Set<String>> clades = new HashSet<Set<String>>();
+        for (int i = 0; i < tree.getInternalNodeCount(); i++) {
+            NodeRef node = tree.getInternalNode(i);
+            clades.add(Tree.Utils.getDescendantLeaves(tree, node));
+        }
+        return clades;
+    }
+
+    private Taxa taxa;
+    private Tree[] trees;
+}
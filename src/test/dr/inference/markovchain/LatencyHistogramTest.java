@@ -0,0 +1,41 @@
+package test.dr.inference.markovchain;
+
+import dr.inference.markovchain.LatencyHistogram;
+import junit.framework.TestCase;
+
+public class LatencyHistogramTest extends TestCase {
+
+    public void testQuantiles() {
+        LatencyHistogram histogram = new LatencyHistogram("operator", "test", "operate");
+
+        for (long i = 1; i <= 1000; ++i) {
+            histogram.record(i * 1000);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500.0, histogram.getMeanNanos(), 1E-6);
+        assertEquals(1000, histogram.getMinNanos());
+        assertEquals(1000000, histogram.getMaxNanos());
+
+        // quantiles are the upper bound of a bucket which is no more than 1/8 wider than its lower bound
+        assertEquals(500000, histogram.getMedianNanos(), 500000 / 8);
+        assertEquals(900000, histogram.get90thPercentileNanos(), 900000 / 8);
+        assertEquals(990000, histogram.get99thPercentileNanos(), 990000 / 8);
+        assertTrue(histogram.getMedianNanos() >= 500000);
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMedianNanos());
+    }
+
+    public void testSmallValues() {
+        LatencyHistogram histogram = new LatencyHistogram("likelihood", "test", "evaluate");
+        for (long i = 0; i < 16; ++i) {
+            histogram.record(i);
+        }
+        // values below 16ns are recorded exactly
+        assertEquals(7, histogram.getMedianNanos());
+        assertEquals(15, histogram.getMaxNanos());
+        assertEquals(0, histogram.getMinNanos());
+    }
+}
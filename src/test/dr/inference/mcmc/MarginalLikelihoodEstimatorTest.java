@@ -0,0 +1,205 @@
+package test.dr.inference.mcmc;
+
+import dr.app.beast.BeastParser;
+import dr.app.beast.ReparsingWorkerFactory;
+import dr.inference.markovchain.ChainMetrics;
+import dr.inference.mcmc.MarginalLikelihoodEstimator;
+import dr.math.MathUtils;
+import dr.xml.XMLObject;
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that running the power-posterior steps concurrently writes the same log layout as a sequential
+ * run, that a seeded concurrent run is reproducible and that the copies of the model do not touch the
+ * files the original writes to.
+ */
+public class MarginalLikelihoodEstimatorTest extends TestCase {
+
+    public MarginalLikelihoodEstimatorTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile("mle", "");
+        directory.delete();
+        directory.mkdir();
+    }
+
+    public void tearDown() throws Exception {
+        MarginalLikelihoodEstimator.setWorkerFactory(null);
+        ChainMetrics.setEnabled(false);
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+        super.tearDown();
+    }
+
+    public void testConcurrentLogMatchesSequential() throws Exception {
+        List<String[]> sequential = run("sequential", 1);
+        List<String[]> concurrent = run("concurrent", 2);
+
+        assertEquals(sequential.size(), concurrent.size());
+        int theta = Arrays.asList(sequential.get(0)).indexOf("pathLikelihood.theta");
+        assertTrue(theta > 0);
+        for (int i = 0; i < sequential.size(); ++i) {
+            String[] expected = sequential.get(i);
+            String[] actual = concurrent.get(i);
+            assertEquals("columns in line " + i, expected.length, actual.length);
+            if (i == 0 || !isNumber(expected[0])) {
+                // the header and column labels
+                for (int j = 0; j < expected.length; ++j) {
+                    assertEquals(expected[j], actual[j]);
+                }
+            } else {
+                // the state number and path parameter
+                assertEquals("state in line " + i, expected[0], actual[0]);
+                assertEquals("theta in line " + i, expected[theta], actual[theta]);
+            }
+        }
+    }
+
+    public void testSeededConcurrentRunIsReproducible() throws Exception {
+        List<String[]> first = run("first", 3);
+        List<String[]> second = run("second", 3);
+
+        assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); ++i) {
+            assertEquals("line " + i, Arrays.asList(first.get(i)), Arrays.asList(second.get(i)));
+        }
+    }
+
+    public void testCopiesLeaveOutputFilesAlone() throws Exception {
+        File xmlFile = writeXML("copy", 2);
+        BeastParser parser = new BeastParser(new String[]{xmlFile.getName()}, null, false, false, false);
+        Reader reader = new FileReader(xmlFile);
+        Map<String, XMLObject> store = parser.parse(reader, false);
+        reader.close();
+        MarginalLikelihoodEstimator estimator = (MarginalLikelihoodEstimator) store.get("mle").getNativeObject();
+
+        // stand in for output that the original has already written
+        String[] suffixes = {".log", ".second.log", ".mcmc.log", ".metrics"};
+        for (String suffix : suffixes) {
+            Writer writer = new FileWriter(new File(directory, "copy" + suffix));
+            writer.write("written by the original\n");
+            writer.close();
+        }
+
+        MarginalLikelihoodEstimator worker = new ReparsingWorkerFactory(xmlFile, null, false, false).createWorker(estimator);
+        assertNotNull(worker);
+        assertNotSame(estimator, worker);
+
+        for (String suffix : suffixes) {
+            BufferedReader fileReader = new BufferedReader(new FileReader(new File(directory, "copy" + suffix)));
+            assertEquals(suffix, "written by the original", fileReader.readLine());
+            assertNull(suffix, fileReader.readLine());
+            fileReader.close();
+        }
+    }
+
+    private File writeXML(String name, int threadCount) throws IOException {
+        File xmlFile = new File(directory, name + ".xml");
+        String path = new File(directory, name).getAbsolutePath();
+
+        Writer writer = new FileWriter(xmlFile);
+        writer.write(XML.replace("THREADS", Integer.toString(threadCount)).replace("OUTPUT", path));
+        writer.close();
+        return xmlFile;
+    }
+
+    private List<String[]> run(String name, int threadCount) throws Exception {
+        File xmlFile = writeXML(name, threadCount);
+        File logFile = new File(directory, name + ".log");
+
+        MathUtils.setSeed(666);
+        BeastParser parser = new BeastParser(new String[]{xmlFile.getName()}, null, false, false, false);
+        MarginalLikelihoodEstimator.setWorkerFactory(new ReparsingWorkerFactory(xmlFile, null, false, false));
+        Reader reader = new FileReader(xmlFile);
+        parser.parse(reader, true);
+        reader.close();
+
+        // the second file logger must have been written in full as well
+        assertEquals(countLines(logFile), countLines(new File(directory, name + ".second.log")));
+
+        List<String[]> lines = new ArrayList<String[]>();
+        BufferedReader logReader = new BufferedReader(new FileReader(logFile));
+        String line;
+        while ((line = logReader.readLine()) != null) {
+            if (!line.startsWith("#")) {
+                lines.add(line.split("\t"));
+            }
+        }
+        logReader.close();
+        return lines;
+    }
+
+    private static int countLines(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        int count = 0;
+        while (reader.readLine() != null) {
+            ++count;
+        }
+        reader.close();
+        return count;
+    }
+
+    private static boolean isNumber(String value) {
+        try {
+            Double.parseDouble(value);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private File directory;
+
+    private static final String XML =
+            "<beast>\n" +
+            "  <distributionLikelihood id=\"samplingDensity\">\n" +
+            "    <distribution><normalDistributionModel>\n" +
+            "      <mean><parameter id=\"mu\" value=\"0\"/></mean>\n" +
+            "      <precision><parameter id=\"tau\" value=\"1\"/></precision>\n" +
+            "    </normalDistributionModel></distribution>\n" +
+            "    <data><parameter id=\"x\" value=\"5\"/></data>\n" +
+            "  </distributionLikelihood>\n" +
+            "  <normalPrior id=\"meanPrior\" mean=\"0\" stdev=\"1\"><parameter idref=\"mu\"/></normalPrior>\n" +
+            "  <gammaPrior id=\"precisionPrior\" shape=\"1\" scale=\"1\" offset=\"0\"><parameter idref=\"tau\"/></gammaPrior>\n" +
+            "  <operators id=\"operators\">\n" +
+            "    <randomWalkOperator windowSize=\"0.75\" weight=\"1\"><parameter idref=\"mu\"/></randomWalkOperator>\n" +
+            "    <scaleOperator scaleFactor=\"0.75\" weight=\"1\"><parameter idref=\"tau\"/></scaleOperator>\n" +
+            "  </operators>\n" +
+            "  <mcmc id=\"mcmc\" chainLength=\"1000\" autoOptimize=\"true\">\n" +
+            "    <posterior id=\"posterior\">\n" +
+            "      <likelihood id=\"likelihood\"><distributionLikelihood idref=\"samplingDensity\"/></likelihood>\n" +
+            "      <prior id=\"prior\"><normalPrior idref=\"meanPrior\"/><gammaPrior idref=\"precisionPrior\"/></prior>\n" +
+            "    </posterior>\n" +
+            "    <operators idref=\"operators\"/>\n" +
+            "    <log logEvery=\"100000\"><parameter idref=\"mu\"/></log>\n" +
+            "    <log logEvery=\"100000\" fileName=\"OUTPUT.mcmc.log\" overwrite=\"true\"><parameter idref=\"mu\"/></log>\n" +
+            "    <metricsLog fileName=\"OUTPUT.metrics\" overwrite=\"true\"/>\n" +
+            "  </mcmc>\n" +
+            "  <marginalLikelihoodEstimator id=\"mle\" chainLength=\"200\" pathSteps=\"6\" pathScheme=\"betaQuantile\" alpha=\"0.3\" threads=\"THREADS\">\n" +
+            "    <samplers><mcmc idref=\"mcmc\"/></samplers>\n" +
+            "    <pathLikelihood id=\"pathLikelihood\">\n" +
+            "      <source><posterior idref=\"posterior\"/></source>\n" +
+            "      <destination><prior idref=\"prior\"/></destination>\n" +
+            "    </pathLikelihood>\n" +
+            "    <log logEvery=\"20\" fileName=\"OUTPUT.log\" overwrite=\"true\">\n" +
+            "      <pathLikelihood idref=\"pathLikelihood\"/>\n" +
+            "      <parameter idref=\"mu\"/>\n" +
+            "      <parameter idref=\"tau\"/>\n" +
+            "    </log>\n" +
+            "    <log logEvery=\"20\" fileName=\"OUTPUT.second.log\" overwrite=\"true\">\n" +
+            "      <parameter idref=\"tau\"/>\n" +
+            "    </log>\n" +
+            "  </marginalLikelihoodEstimator>\n" +
+            "</beast>\n";
+}
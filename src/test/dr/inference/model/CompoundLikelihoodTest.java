@@ -0,0 +1,91 @@
+/*
+ * CompoundLikelihoodTest.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.inference.model;
+
+import dr.inference.markovchain.ChainMetrics;
+import dr.inference.model.CompoundLikelihood;
+import dr.inference.model.DummyLikelihood;
+import dr.inference.model.Likelihood;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that each component's evaluation latencies are recorded in its own histogram, whether the
+ * components are evaluated serially or on the thread pool.
+ */
+public class CompoundLikelihoodTest extends TestCase {
+
+    private static final int EVALUATION_COUNT = 50;
+
+    public void tearDown() throws Exception {
+        ChainMetrics.setEnabled(false);
+        super.tearDown();
+    }
+
+    public void testSerialHistograms() {
+        List<Likelihood> likelihoods = createLikelihoods();
+        checkHistograms(new CompoundLikelihood(likelihoods), likelihoods);
+    }
+
+    public void testPooledHistograms() {
+        List<Likelihood> likelihoods = createLikelihoods();
+        checkHistograms(new CompoundLikelihood(2, likelihoods), likelihoods);
+    }
+
+    private void checkHistograms(CompoundLikelihood compoundLikelihood, List<Likelihood> likelihoods) {
+        // nothing is recorded until metrics are enabled
+        compoundLikelihood.getLogLikelihood();
+        ChainMetrics.setEnabled(true);
+
+        for (int i = 0; i < EVALUATION_COUNT; ++i) {
+            compoundLikelihood.getLogLikelihood();
+        }
+
+        for (Likelihood likelihood : likelihoods) {
+            assertEquals(likelihood.getId(), EVALUATION_COUNT, ChainMetrics.getLikelihoodHistogram(likelihood).getCount());
+        }
+    }
+
+    /**
+     * @return an early, a late and a second early likelihood, so the early and late lists are indexed differently
+     */
+    private static List<Likelihood> createLikelihoods() {
+        List<Likelihood> likelihoods = new ArrayList<Likelihood>();
+        for (int i = 0; i < 3; ++i) {
+            final boolean early = (i != 1);
+            Likelihood likelihood = new DummyLikelihood(null) {
+                public boolean evaluateEarly() {
+                    return early;
+                }
+            };
+            likelihood.setId((early ? "early" : "late") + i);
+            likelihoods.add(likelihood);
+        }
+        return likelihoods;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * DistributedLikelihoodTest.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.inference.parallel;
+
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.util.TaxonList;
+import dr.evolution.util.Units;
+import dr.evomodel.coalescent.CoalescentLikelihood;
+import dr.evomodel.coalescent.ConstantPopulationModel;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Likelihood;
+import dr.inference.model.Parameter;
+import dr.inference.operators.OperatorFailedException;
+import dr.inference.parallel.DistributedLikelihood;
+import dr.inference.parallel.DistributedLikelihoodWorker;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs a distributed likelihood against a worker in this process over a loopback socket and checks
+ * it against the likelihood calculated locally through proposals that are accepted and rejected.
+ */
+public class DistributedLikelihoodTest extends TestCase {
+
+    public void testLoopbackMatchesLocal() throws Exception {
+        // the worker's tree is written in a different order so that its nodes are numbered differently
+        Copy master = new Copy("((((A:1,B:1):1,C:2):1,D:3):1,(E:2,F:2):2);");
+        Copy worker = new Copy("((F:2,E:2):2,(D:3,(C:2,(B:1,A:1):1):1):1);");
+
+        int port = findFreePort();
+        startWorker(port, worker);
+        DistributedLikelihood distributed = new DistributedLikelihood(
+                Collections.singletonList("localhost:" + port),
+                Collections.singletonList(master.likelihoods), 10);
+
+        MathUtils.setSeed(666);
+        ExchangeOperator exchange = new ExchangeOperator(ExchangeOperator.NARROW, master.tree, 1.0);
+
+        assertEquals("initial", master.calculateLogLikelihood(), distributed.getLogLikelihood(), TOLERANCE);
+        distributed.acceptModelState();
+
+        for (int i = 0; i < 500; ++i) {
+            distributed.storeModelState();
+
+            switch (MathUtils.nextInt(4)) {
+                case 0:
+                    master.popSize.setParameterValue(0, master.popSize.getParameterValue(0) * Math.exp(MathUtils.nextDouble() - 0.5));
+                    break;
+                case 1:
+                    try {
+                        exchange.doOperation();
+                    } catch (OperatorFailedException e) {
+                        // nothing changed
+                    }
+                    break;
+                case 2:
+                    moveNodeHeight(master.tree);
+                    break;
+                default:
+                    // nothing changes so the worker is not contacted
+                    break;
+            }
+
+            assertEquals("proposal " + i, master.calculateLogLikelihood(), distributed.getLogLikelihood(), TOLERANCE);
+
+            if (MathUtils.nextBoolean()) {
+                distributed.acceptModelState();
+            } else {
+                distributed.restoreModelState();
+            }
+            assertEquals("after proposal " + i, master.calculateLogLikelihood(), distributed.getLogLikelihood(), TOLERANCE);
+
+            if (i % 100 == 99) {
+                distributed.makeDirty();
+                assertEquals("dirty after proposal " + i, master.calculateLogLikelihood(), distributed.getLogLikelihood(), TOLERANCE);
+            }
+        }
+    }
+
+    public void testMasterRejectsTreeWithNodeRates() throws Exception {
+        Copy master = new Copy("(((A:1,B:1):1,C:2):1,D:3);");
+        Copy worker = new Copy("(((A:1,B:1):1,C:2):1,D:3);");
+        master.tree.createNodeRatesParameter(new double[]{1.0}, false, true, true);
+
+        int port = findFreePort();
+        startWorker(port, worker);
+        try {
+            new DistributedLikelihood(Collections.singletonList("localhost:" + port),
+                    Collections.singletonList(master.likelihoods), 10);
+            fail("a tree with node rates should be rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("node rates or traits"));
+        }
+    }
+
+    public void testWorkerRejectsTreeWithNodeTraits() throws Exception {
+        Copy master = new Copy("(((A:1,B:1):1,C:2):1,D:3);");
+        Copy worker = new Copy("(((A:1,B:1):1,C:2):1,D:3);");
+        worker.tree.createNodeTraitsParameter("trait", new double[]{0.0});
+
+        int port = findFreePort();
+        startWorker(port, worker);
+        try {
+            new DistributedLikelihood(Collections.singletonList("localhost:" + port),
+                    Collections.singletonList(master.likelihoods), 10);
+            fail("a tree with node traits should be rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("node rates or traits"));
+        }
+    }
+
+    private static void moveNodeHeight(TreeModel tree) {
+        NodeRef node;
+        do {
+            node = tree.getInternalNode(MathUtils.nextInt(tree.getInternalNodeCount()));
+        } while (tree.isRoot(node));
+
+        double lower = Math.max(tree.getNodeHeight(tree.getChild(node, 0)), tree.getNodeHeight(tree.getChild(node, 1)));
+        double upper = tree.getNodeHeight(tree.getParent(node));
+        tree.setNodeHeight(node, lower + MathUtils.nextDouble() * (upper - lower));
+    }
+
+    private static int findFreePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        return port;
+    }
+
+    private static void startWorker(int port, Copy copy) {
+        final DistributedLikelihoodWorker worker = new DistributedLikelihoodWorker(port, copy.likelihoods);
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    worker.run();
+                } catch (RuntimeException e) {
+                    // the rejection tests expect the worker to fail
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * A coalescent likelihood on its own tree and population size, as parsed by one process.
+     */
+    private static class Copy {
+
+        Copy(String newick) throws Exception {
+            tree = new TreeModel("tree", new NewickImporter(newick).importTree(null));
+            popSize = new Parameter.Default("popSize", 1, 3.0);
+            ConstantPopulationModel demographic = new ConstantPopulationModel(popSize, Units.Type.YEARS);
+            coalescent = new CoalescentLikelihood(tree, null, new ArrayList<TaxonList>(), demographic);
+            coalescent.setId("coalescent");
+            likelihoods = new ArrayList<Likelihood>();
+            likelihoods.add(coalescent);
+        }
+
+        double calculateLogLikelihood() {
+            coalescent.makeDirty();
+            return coalescent.getLogLikelihood();
+        }
+
+        final TreeModel tree;
+        final Parameter popSize;
+        final CoalescentLikelihood coalescent;
+        final List<Likelihood> likelihoods;
+    }
+
+    private static final double TOLERANCE = 1E-10;
+}
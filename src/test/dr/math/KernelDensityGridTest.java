@@ -0,0 +1,318 @@
+/*
+ * KernelDensityGridTest.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.math;
+
+import dr.math.GammaFunction;
+import dr.math.MathUtils;
+import dr.math.distributions.BetaKDEDistribution;
+import dr.math.distributions.GammaKDEDistribution;
+import dr.math.distributions.KernelDensityGrid;
+import dr.stats.DiscreteStatistics;
+import junit.framework.TestCase;
+
+/**
+ * Checks the grid interpolation and linear binning, and the gamma and beta kernel density estimates
+ * tabulated from binned samples against the kernels summed over every value in the sample.
+ */
+public class KernelDensityGridTest extends TestCase {
+
+    // the relative errors of the tabulated estimates (measured against the peak of the density)
+    private static final double GAMMA_TOLERANCE = 2E-4;
+    private static final double BETA_TOLERANCE = 5E-4;
+
+    // more values than the 2048 point grids so that the samples are binned
+    private static final int SAMPLE_SIZE = 20000;
+
+    private static final int TEST_POINT_COUNT = 500;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        MathUtils.setSeed(5001);
+    }
+
+    public void testEvaluateInterpolates() {
+        KernelDensityGrid grid = new KernelDensityGrid(-1.0, 3.0, new double[]{1.0, 3.0, 2.0, 2.0, 0.0});
+
+        assertEquals(1.0, grid.evaluate(-1.0), 1E-15);
+        assertEquals(2.0, grid.evaluate(-0.5), 1E-15);
+        assertEquals(2.5, grid.evaluate(0.5), 1E-15);
+        assertEquals(2.0, grid.evaluate(1.7), 1E-15);
+        assertEquals(0.5, grid.evaluate(2.75), 1E-15);
+        assertEquals(0.0, grid.evaluate(3.0), 1E-15);
+
+        assertEquals(0.0, grid.evaluate(-1.0001));
+        assertEquals(0.0, grid.evaluate(3.0001));
+        assertTrue(grid.contains(3.0));
+        assertFalse(grid.contains(3.0001));
+        assertEquals(2.0, grid.getPoint(3), 1E-15);
+    }
+
+    public void testLinearBinningKeepsMassAndMean() {
+        double[] sample = new double[1000];
+        for (int i = 0; i < sample.length; i++) {
+            sample[i] = MathUtils.uniform(0.0, 10.0);
+        }
+        // values on the grid points and at the ends
+        sample[0] = 0.0;
+        sample[1] = 10.0;
+        sample[2] = 5.0;
+
+        int gridSize = 21;
+        double[] mass = KernelDensityGrid.linearBinning(sample, 0.0, 10.0, gridSize);
+
+        double total = 0.0;
+        double mean = 0.0;
+        for (int i = 0; i < gridSize; i++) {
+            assertTrue(mass[i] >= 0.0);
+            total += mass[i];
+            mean += mass[i] * (i * 0.5);
+        }
+        assertEquals(1.0, total, 1E-12);
+        assertEquals(DiscreteStatistics.mean(sample), mean, 1E-12);
+
+        // a single value between two grid points is split in proportion to its distance from each
+        double[] single = KernelDensityGrid.linearBinning(new double[]{1.2}, 0.0, 10.0, gridSize);
+        assertEquals(0.6, single[2], 1E-12);
+        assertEquals(0.4, single[3], 1E-12);
+    }
+
+    public void testReduceSmallSample() {
+        double[] sample = {0.5, Double.NEGATIVE_INFINITY, 2.0, 2.0};
+        double[][] reduced = KernelDensityGrid.reduceSample(sample, 8);
+
+        assertEquals(sample.length, reduced[0].length);
+        for (int i = 0; i < sample.length; i++) {
+            assertEquals(sample[i], reduced[0][i]);
+            assertEquals(0.25, reduced[1][i]);
+        }
+    }
+
+    public void testReduceLargeSample() {
+        int gridSize = 64;
+        double[] sample = new double[5000];
+        int negativeInfinityCount = 0;
+        int positiveInfinityCount = 0;
+        double finiteSum = 0.0;
+        for (int i = 0; i < sample.length; i++) {
+            double u = MathUtils.nextDouble();
+            if (u < 0.03) {
+                sample[i] = Double.NEGATIVE_INFINITY;
+                negativeInfinityCount++;
+            } else if (u < 0.05) {
+                sample[i] = Double.POSITIVE_INFINITY;
+                positiveInfinityCount++;
+            } else {
+                sample[i] = MathUtils.nextGaussian();
+                finiteSum += sample[i];
+            }
+        }
+
+        double[][] reduced = KernelDensityGrid.reduceSample(sample, gridSize);
+        double[] points = reduced[0];
+        double[] weights = reduced[1];
+        assertTrue(points.length <= gridSize + 2);
+
+        // the infinite values are kept at either end
+        assertEquals(Double.NEGATIVE_INFINITY, points[0]);
+        assertEquals((double) negativeInfinityCount / sample.length, weights[0], 1E-15);
+        assertEquals(Double.POSITIVE_INFINITY, points[points.length - 1]);
+        assertEquals((double) positiveInfinityCount / sample.length, weights[points.length - 1], 1E-15);
+
+        double total = 0.0;
+        double finiteMoment = 0.0;
+        for (int i = 0; i < points.length; i++) {
+            assertTrue(weights[i] > 0.0);
+            total += weights[i];
+            if (!Double.isInfinite(points[i])) {
+                finiteMoment += weights[i] * points[i];
+                if (i > 1) {
+                    assertTrue(points[i] > points[i - 1]);
+                }
+            }
+        }
+        assertEquals(1.0, total, 1E-12);
+        assertEquals(finiteSum / sample.length, finiteMoment, 1E-12);
+    }
+
+    public void testGammaKDE() {
+        Double[] sample = new Double[SAMPLE_SIZE];
+        for (int i = 0; i < sample.length; i++) {
+            sample[i] = MathUtils.nextGamma(4.0, 5.0);
+        }
+        checkGammaKDE(sample, null);
+        checkGammaKDE(sample, 2.0);
+    }
+
+    public void testGammaKDEWithZeros() {
+        Double[] sample = new Double[SAMPLE_SIZE];
+        for (int i = 0; i < sample.length; i++) {
+            // values on the lower bound have an infinite log
+            sample[i] = (i % 20 == 0 ? 0.0 : MathUtils.nextExponential(0.5));
+        }
+        checkGammaKDE(sample, null);
+    }
+
+    public void testGammaKDESmallSample() {
+        Double[] sample = new Double[500];
+        for (int i = 0; i < sample.length; i++) {
+            sample[i] = MathUtils.nextGamma(2.0, 1.0);
+        }
+        checkGammaKDE(sample, null);
+    }
+
+    public void testBetaKDE() {
+        Double[] sample = new Double[SAMPLE_SIZE];
+        for (int i = 0; i < sample.length; i++) {
+            sample[i] = MathUtils.nextBeta(2.0, 5.0);
+        }
+        checkBetaKDE(sample, 0.0, 1.0, null);
+        checkBetaKDE(sample, 0.0, 1.0, 0.05);
+    }
+
+    public void testBetaKDEWithBoundaryValues() {
+        Double[] sample = new Double[SAMPLE_SIZE];
+        for (int i = 0; i < sample.length; i++) {
+            // values on the bounds have an infinite logit
+            sample[i] = (i % 25 == 0 ? 0.0 : (i % 25 == 1 ? 1.0 : MathUtils.nextBeta(0.8, 1.5)));
+        }
+        checkBetaKDE(sample, 0.0, 1.0, null);
+    }
+
+    public void testBetaKDEOnInterval() {
+        Double[] sample = new Double[SAMPLE_SIZE];
+        for (int i = 0; i < sample.length; i++) {
+            sample[i] = -2.0 + 5.0 * (i % 50 == 0 ? 1.0 : MathUtils.nextBeta(3.0, 2.0));
+        }
+        checkBetaKDE(sample, -2.0, 3.0, null);
+    }
+
+    public void testBetaKDESmallSample() {
+        Double[] sample = new Double[500];
+        for (int i = 0; i < sample.length; i++) {
+            sample[i] = MathUtils.nextBeta(5.0, 2.0);
+        }
+        checkBetaKDE(sample, 0.0, 1.0, null);
+    }
+
+    private void checkGammaKDE(Double[] sample, Double bandWidth) {
+        GammaKDEDistribution kde = new GammaKDEDistribution(sample, bandWidth);
+        double h = kde.getBandWidth();
+
+        double max = DiscreteStatistics.max(toArray(sample));
+        double[] x = new double[TEST_POINT_COUNT];
+        double[] expected = new double[TEST_POINT_COUNT];
+        for (int i = 0; i < TEST_POINT_COUNT; i++) {
+            // from zero to beyond the tabulated range
+            x[i] = 1.5 * max * i / (TEST_POINT_COUNT - 1);
+            expected[i] = gammaKernelSum(x[i], sample, h);
+        }
+        checkDensity("gamma", kde, x, expected, GAMMA_TOLERANCE);
+    }
+
+    private void checkBetaKDE(Double[] sample, double lower, double upper, Double bandWidth) {
+        BetaKDEDistribution kde = new BetaKDEDistribution(sample, lower, upper, bandWidth);
+
+        double range = upper - lower;
+        double[] scaled = new double[sample.length];
+        for (int i = 0; i < sample.length; i++) {
+            scaled[i] = (sample[i] - lower) / range;
+        }
+        double h = kde.getBandWidth();
+
+        double[] x = new double[TEST_POINT_COUNT];
+        double[] expected = new double[TEST_POINT_COUNT];
+        for (int i = 0; i < TEST_POINT_COUNT; i++) {
+            // across the bounds, including both ends
+            x[i] = lower + range * i / (TEST_POINT_COUNT - 1);
+            expected[i] = betaKernelSum(x[i], scaled, lower, range, h);
+        }
+        checkDensity("beta", kde, x, expected, BETA_TOLERANCE);
+    }
+
+    private static void checkDensity(String name, dr.math.distributions.Distribution kde, double[] x, double[] expected,
+                                     double tolerance) {
+        double peak = 0.0;
+        for (double density : expected) {
+            assertFalse(Double.isNaN(density));
+            // rounding in the boundary kernels can put infinite densities on the bounds, which have to match exactly
+            if (!Double.isInfinite(density)) {
+                peak = Math.max(peak, density);
+            }
+        }
+        assertTrue(peak > 0.0);
+        for (int i = 0; i < x.length; i++) {
+            assertEquals(name + " density at " + x[i], expected[i], kde.pdf(x[i]), tolerance * peak);
+        }
+    }
+
+    /**
+     * the gamma kernels (Chen 2000) summed over every value of the sample
+     */
+    private static double gammaKernelSum(double x, Double[] sample, double bandWidth) {
+        double shape = (x >= 2 * bandWidth ? x / bandWidth : 0.25 * (x / bandWidth) * (x / bandWidth) + 1);
+        double logNormalization = shape * Math.log(bandWidth) + GammaFunction.lnGamma(shape);
+
+        double pdf = 0.0;
+        for (double value : sample) {
+            pdf += Math.pow(value, shape - 1) * Math.exp(-value / bandWidth - logNormalization);
+        }
+        return pdf / sample.length;
+    }
+
+    /**
+     * the beta kernels (Chen 1999) summed over every value of the sample (scaled to the unit interval)
+     */
+    private static double betaKernelSum(double x, double[] sample, double lower, double range, double bandWidth) {
+        double xPrime = (x - lower) / range;
+        double alphaMinus1 = xPrime / bandWidth - 1.0;
+        double betaMinus1 = (1.0 - xPrime) / bandWidth - 1.0;
+        if (xPrime < 2 * bandWidth) {
+            alphaMinus1 = rho(xPrime, bandWidth) - 1.0;
+        } else if (xPrime > 1 - 2 * bandWidth) {
+            betaMinus1 = rho(1.0 - xPrime, bandWidth) - 1.0;
+        }
+        double logK = GammaFunction.lnGamma(alphaMinus1 + betaMinus1 + 2.0) -
+                GammaFunction.lnGamma(alphaMinus1 + 1.0) - GammaFunction.lnGamma(betaMinus1 + 1.0);
+
+        double pdf = 0.0;
+        for (double value : sample) {
+            pdf += Math.pow(value, alphaMinus1) * Math.pow(1.0 - value, betaMinus1);
+        }
+        return pdf * Math.exp(logK) / sample.length / range;
+    }
+
+    private static double rho(double x, double b) {
+        return 2 * b * b + 2.5 - Math.sqrt(4 * b * b * b * b + 6 * b * b + 2.25 - x * x - x / b);
+    }
+
+    private static double[] toArray(Double[] values) {
+        double[] array = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            array[i] = values[i];
+        }
+        return array;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * QuantileTablesTest.java
+ *
+ * Copyright (c) 2002-2015 Alexei Drummond, Andrew Rambaut and Marc Suchard
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.math;
+
+import dr.math.GammaFunction;
+import dr.math.distributions.ExponentialDistribution;
+import dr.math.distributions.GammaDistribution;
+import dr.math.distributions.NormalDistribution;
+import dr.math.distributions.QuantileTables;
+import org.apache.commons.math.special.Gamma;
+
+public class QuantileTablesTest extends MathTestCase {
+
+    public void testLogNormal() {
+        final double m = -0.3;
+        final double s = 0.7;
+        double[] quantiles = new double[COUNT];
+        QuantileTables.logNormalQuantiles(m, s, 0.5, quantiles);
+
+        double[] probabilities = QuantileTables.getProbabilities(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            double expected = Math.exp(NormalDistribution.quantile(probabilities[i], m, s)) + 0.5;
+            assertEquals(expected, quantiles[i], 1E-12 * expected);
+        }
+    }
+
+    public void testExponential() {
+        final double mean = 2.5;
+        double[] quantiles = new double[COUNT];
+        QuantileTables.exponentialQuantiles(mean, 0.0, quantiles);
+
+        double[] probabilities = QuantileTables.getProbabilities(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            double expected = ExponentialDistribution.quantile(probabilities[i], 1.0 / mean);
+            assertEquals(expected, quantiles[i], 1E-12 * expected);
+        }
+    }
+
+    public void testGamma() throws Exception {
+        double[] probabilities = QuantileTables.getProbabilities(COUNT);
+        double[] quantiles = new double[COUNT];
+
+        // shapes on and between the table nodes
+        for (double shape : new double[]{0.05, 0.5, 1.0, 2.0, 3.7, 50.0}) {
+            QuantileTables.gammaQuantiles(shape, 1.0, 0.0, quantiles);
+
+            double logGammaShape = Gamma.logGamma(shape);
+            for (int i = 0; i < COUNT; i++) {
+                double x = quantiles[i];
+                if (i > 0) {
+                    assertTrue(x > quantiles[i - 1]);
+                }
+
+                // the error in the cdf relative to the density gives the relative error in the quantile
+                double error = (GammaFunction.incompleteGammaP(shape, x) - probabilities[i]) /
+                        Math.exp(shape * Math.log(x) - x - logGammaShape);
+                assertEquals(0.0, error, 1E-6);
+
+                double approximate = GammaDistribution.quantile(probabilities[i], shape, 1.0);
+                assertEquals(approximate, x, 1E-6 * x);
+            }
+
+            // the recent shapes are kept and scaling is applied after the lookup
+            double[] scaled = new double[COUNT];
+            QuantileTables.gammaQuantiles(shape, 2.0, 1.0, scaled);
+            for (int i = 0; i < COUNT; i++) {
+                assertEquals(2.0 * quantiles[i] + 1.0, scaled[i], 1E-15 * scaled[i]);
+            }
+        }
+    }
+
+    public void testSiteRateCategories() {
+        // the four category discretization of Yang (1994) with alpha = 0.5
+        double[] quantiles = new double[4];
+        QuantileTables.gammaQuantiles(0.5, 2.0, 0.0, quantiles);
+        double mean = 0.0;
+        for (double quantile : quantiles) {
+            mean += quantile / 4.0;
+        }
+        for (int i = 0; i < 4; i++) {
+            double expected = GammaDistribution.quantile((2.0 * i + 1.0) / 8.0, 0.5, 2.0) / mean;
+            assertEquals(expected, quantiles[i] / mean, 1E-7);
+        }
+    }
+
+    private static final int COUNT = 200;
+}
@@ -0,0 +1,106 @@
+package test.dr.math;
+
+import dr.math.MathUtils;
+import dr.math.matrixAlgebra.SymmetricTridiagonalCholesky;
+import no.uib.cipr.matrix.BandCholesky;
+import no.uib.cipr.matrix.DenseVector;
+import no.uib.cipr.matrix.SymmTridiagMatrix;
+import no.uib.cipr.matrix.UpperSPDBandMatrix;
+import no.uib.cipr.matrix.UpperTriangBandMatrix;
+
+/**
+ * Checks the tridiagonal Cholesky against the mtj banded Cholesky used previously by the GMRF block update.
+ */
+public class SymmetricTridiagonalCholeskyTest extends MathTestCase {
+
+    private static final double TOLERANCE = 1E-10;
+
+    public void setUp() {
+        MathUtils.setSeed(666);
+    }
+
+    public void testAgainstBandCholesky() {
+        for (int n : new int[]{1, 2, 3, 10, 100, 1000}) {
+            double[] diagonal = new double[n];
+            double[] offDiagonal = new double[Math.max(n - 1, 0)];
+            createGMRFPrecision(diagonal, offDiagonal);
+
+            SymmTridiagMatrix q = new SymmTridiagMatrix(diagonal.clone(), offDiagonal.clone());
+            BandCholesky bandCholesky = new BandCholesky(n, 1, true);
+            bandCholesky.factor(new UpperSPDBandMatrix(q, 1));
+            UpperTriangBandMatrix u = bandCholesky.getU();
+
+            SymmetricTridiagonalCholesky cholesky = new SymmetricTridiagonalCholesky(n);
+            assertTrue(cholesky.factor(diagonal, offDiagonal));
+
+            for (int i = 0; i < n; i++) {
+                assertEquals(u.get(i, i), cholesky.getUpperDiagonal()[i], TOLERANCE);
+                if (i < n - 1) {
+                    assertEquals(u.get(i, i + 1), cholesky.getUpperOffDiagonal()[i], TOLERANCE);
+                }
+            }
+
+            double logDeterminant = 0.0;
+            for (int i = 0; i < n; i++) {
+                logDeterminant += Math.log(u.get(i, i));
+            }
+            assertEquals(logDeterminant, cholesky.getLogDeterminantOfFactor(), TOLERANCE * n);
+
+            double[] b = new double[n];
+            for (int i = 0; i < n; i++) {
+                b[i] = MathUtils.nextGaussian();
+            }
+
+            // mean: U^T w = b, U mu = w
+            DenseVector w = new DenseVector(n);
+            DenseVector mu = new DenseVector(n);
+            u.transSolve(new DenseVector(b), w);
+            u.solve(w, mu);
+
+            double[] x = new double[n];
+            cholesky.solveTranspose(b, x);
+            assertEquals(w.getData(), x, TOLERANCE);
+            cholesky.solveSystem(b, x);
+            assertEquals(mu.getData(), x, TOLERANCE);
+
+            // sample: U v = z
+            DenseVector v = new DenseVector(n);
+            u.solve(new DenseVector(b), v);
+            cholesky.solve(b, x);
+            assertEquals(v.getData(), x, TOLERANCE);
+
+            DenseVector product = new DenseVector(n);
+            q.mult(new DenseVector(b), product);
+            SymmetricTridiagonalCholesky.multiply(diagonal, offDiagonal, b, x);
+            assertEquals(product.getData(), x, TOLERANCE);
+
+            assertEquals(new DenseVector(b).dot(product),
+                    SymmetricTridiagonalCholesky.quadraticForm(diagonal, offDiagonal, b), TOLERANCE * n);
+        }
+    }
+
+    public void testNotPositiveDefinite() {
+        // the intrinsic GMRF precision (no data added) is singular
+        double[] diagonal = {1.0, 2.0, 2.0, 1.0};
+        double[] offDiagonal = {-1.0, -1.0, -1.0};
+        assertFalse(new SymmetricTridiagonalCholesky(4).factor(diagonal, offDiagonal));
+
+        diagonal[0] = -1.0;
+        assertFalse(new SymmetricTridiagonalCholesky(4).factor(diagonal, offDiagonal));
+    }
+
+    /**
+     * A time-aware GMRF precision plus a positive diagonal, as in the block update proposal
+     */
+    private static void createGMRFPrecision(double[] diagonal, double[] offDiagonal) {
+        int n = diagonal.length;
+        double precision = 0.5 + MathUtils.nextDouble() * 10.0;
+        for (int i = 0; i < n - 1; i++) {
+            offDiagonal[i] = -precision * 2.0 / (0.1 + MathUtils.nextDouble() + 0.1 + MathUtils.nextDouble());
+        }
+        for (int i = 0; i < n; i++) {
+            diagonal[i] = (i > 0 ? -offDiagonal[i - 1] : 0.0) + (i < n - 1 ? -offDiagonal[i] : 0.0) +
+                    MathUtils.nextDouble() * 5.0 + 0.01;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package test.dr.multidimensionalscaling;
+
+import dr.inference.multidimensionalscaling.MultiDimensionalScalingCore;
+import dr.inference.multidimensionalscaling.MultiDimensionalScalingCoreImpl2;
+import dr.inference.multidimensionalscaling.MultiDimensionalScalingGradient;
+import dr.inference.multidimensionalscaling.MultiThreadedMDSImpl;
+import dr.math.MathUtils;
+import test.dr.math.MathTestCase;
+
+public class MultiThreadedMDSTest extends MathTestCase {
+
+    private static final int DIMENSION = 2;
+    private static final int LOCATION_COUNT = 100;
+
+    private double[] observations;
+    private double[] locations;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        MathUtils.setSeed(666);
+
+        observations = new double[LOCATION_COUNT * LOCATION_COUNT];
+        for (int i = 0; i < LOCATION_COUNT; ++i) {
+            for (int j = i + 1; j < LOCATION_COUNT; ++j) {
+                observations[i * LOCATION_COUNT + j] = observations[j * LOCATION_COUNT + i] = 5.0 * MathUtils.nextDouble();
+            }
+        }
+
+        locations = new double[LOCATION_COUNT * DIMENSION];
+        for (int i = 0; i < locations.length; ++i) {
+            locations[i] = MathUtils.nextGaussian();
+        }
+    }
+
+    private MultiDimensionalScalingCore createCore(MultiDimensionalScalingCore core, long flags) {
+        core.initialize(DIMENSION, LOCATION_COUNT, flags);
+        core.setParameters(new double[]{2.0});
+        core.setPairwiseData(observations);
+        core.updateLocation(-1, locations);
+        return core;
+    }
+
+    public void testLikelihood() {
+        for (long flags : new long[]{0, MultiDimensionalScalingCore.LEFT_TRUNCATION}) {
+            MultiDimensionalScalingCore reference = createCore(new MultiDimensionalScalingCoreImpl2(), flags);
+            MultiDimensionalScalingCore threaded = createCore(new MultiThreadedMDSImpl(4), flags);
+
+            assertEquals(reference.calculateLogLikelihood(), threaded.calculateLogLikelihood(), 1E-8);
+
+            // Single location update, rejected then accepted
+            double[] location = new double[]{0.5, -1.5};
+            for (boolean accept : new boolean[]{false, true}) {
+                reference.storeState();
+                threaded.storeState();
+                reference.updateLocation(7, location);
+                threaded.updateLocation(7, location);
+                assertEquals(reference.calculateLogLikelihood(), threaded.calculateLogLikelihood(), 1E-8);
+                if (accept) {
+                    reference.acceptState();
+                    threaded.acceptState();
+                } else {
+                    reference.restoreState();
+                    threaded.restoreState();
+                }
+                assertEquals(reference.calculateLogLikelihood(), threaded.calculateLogLikelihood(), 1E-8);
+            }
+
+            threaded.makeDirty();
+            assertEquals(reference.calculateLogLikelihood(), threaded.calculateLogLikelihood(), 1E-8);
+        }
+    }
+
+    public void testGradient() {
+        final double delta = 1E-6;
+
+        for (long flags : new long[]{0, MultiDimensionalScalingCore.LEFT_TRUNCATION}) {
+            MultiDimensionalScalingCore core = createCore(new MultiThreadedMDSImpl(4), flags);
+            double[] gradient = ((MultiDimensionalScalingGradient) core).getGradient();
+
+            MultiDimensionalScalingCore reference = createCore(new MultiDimensionalScalingCoreImpl2(), flags);
+            assertEquals(gradient, ((MultiDimensionalScalingGradient) reference).getGradient(), 1E-10);
+
+            double[] numeric = new double[locations.length];
+            for (int i = 0; i < locations.length; ++i) {
+                double[] x = locations.clone();
+                x[i] += delta;
+                core.updateLocation(-1, x);
+                double upper = core.calculateLogLikelihood();
+                x[i] -= 2 * delta;
+                core.updateLocation(-1, x);
+                double lower = core.calculateLogLikelihood();
+                numeric[i] = (upper - lower) / (2 * delta);
+            }
+
+            assertEquals(numeric, gradient, 1E-4);
+        }
+    }
+}